@@ -0,0 +1,1291 @@
+package com.museui.muse.artuedu.museui;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.content.ContextCompat;
+import android.util.Log;
+
+import com.choosemuse.libmuse.ConnectionState;
+import com.choosemuse.libmuse.LibmuseVersion;
+import com.choosemuse.libmuse.Muse;
+import com.choosemuse.libmuse.MuseDataPacketType;
+import com.choosemuse.libmuse.MuseListener;
+import com.choosemuse.libmuse.MuseManagerAndroid;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Servicio que mantiene la adquisicion: la conexion con LibMuse, el procesamiento (gestos,
+ * potencias de banda y sesiones de varias headbands) y la grabacion.
+ *
+ * Las actividades se enlazan con bindService y se suscriben con un {@link Client}, que recibe
+ * el ultimo UiState y un aviso cuando hay muestras nuevas en los buffers de la IU. Girar la
+ * pantalla, cambiar de app o recrear la actividad no toca la conexion: mientras hay una fuente
+ * o una sesion conectada el servicio esta iniciado y en primer plano con una notificacion, y
+ * al desconectarse todo se detiene cuando ya no hay actividades enlazadas.
+ *
+ * El procesamiento y la grabacion reciben las mismas muestras con o sin IU; los buffers de la
+ * IU solo se llenan mientras hay un Client suscrito.
+ */
+public class AcquisitionService extends Service {
+
+    private final String TAG = "TestLibMuseAndroid";
+
+    private static final int NOTIFICATION_ID = 1;
+    private static final String NOTIFICATION_CHANNEL = "adquisicion";
+
+    /**
+     * Suscriptor del estado de la adquisicion, normalmente la actividad visible.
+     */
+    public interface Client {
+        /**
+         * Nuevo estado de la IU. Se llama desde cualquier hilo.
+         */
+        void onStateChanged(UiState state);
+
+        /**
+         * Llegaron muestras a los buffers de la IU. Se llama desde el hilo de la fuente, una vez
+         * por muestra.
+         */
+        void onSamplesAvailable();
+
+        /**
+         * Cambio la lista de headbands encontradas. Se llama desde el hilo principal.
+         */
+        void onMuseListChanged(List<String> names);
+
+        /**
+         * La nueva fuente tiene otra frecuencia de EEG: {@link #bandPowers()} y
+         * {@link #spectrumSamples()} se reemplazaron. Se llama desde el hilo principal, antes
+         * de conectar la fuente.
+         */
+        void onEegRateChanged(int eegRate);
+    }
+
+    public class LocalBinder extends Binder {
+        public AcquisitionService service() {
+            return AcquisitionService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+
+    /**
+     * MuseManager sera la forma de comunicacion para tetectar nuevas headbands y recibir datos
+     * cuando la lista de headbands diponibles cambie.
+     */
+    private MuseManagerAndroid manager;
+
+    /**
+     * Fuente de las muestras que se procesan: la headband a traves de LibMuse
+     * (LibmuseHeadbandSource), la reproduccion de una grabacion o un generador sintetico. Solo
+     * la cambia el hilo principal; la leen tambien el hilo de la fuente y el del enlace.
+     */
+    private volatile HeadbandSource source;
+
+    private SourceListener sourceListener;
+
+    /**
+     * Si hay una fuente conectada o conectandose; se pone en false al pedir la desconexion.
+     */
+    private volatile boolean connectionStatus = false;
+
+    /**
+     * Buffers de la IU, un productor (hilo de la fuente o de BandPowerEngine) y un consumidor
+     * (el Client suscrito). Ver MuseActivity.
+     */
+    private final SampleRingBuffer eegSamples = new SampleRingBuffer(6, 512);
+    private final SampleRingBuffer alphaSamples = new SampleRingBuffer(6, 64);
+    private final SampleRingBuffer accelSamples = new SampleRingBuffer(3, 64);
+    private final SampleRingBuffer bandSamples = new SampleRingBuffer(BandPowerEngine.BANDS, 64);
+
+    /**
+     * Calculo de las potencias de banda a partir del EEG crudo, en su propio hilo. Se crea para
+     * la frecuencia de EEG de cada fuente (la headband Muse 2016 transmite a 256Hz) junto con el
+     * buffer del espectrograma, cuyo tamaño depende de ella; ver {@link #useEegRate(int)}.
+     */
+    private volatile BandPowerEngine bandPowers;
+    private volatile SampleRingBuffer spectrumSamples;
+
+    /**
+     * Reconocimiento de gestos. Recibe todas las muestras del acelerometro y las procesa en su
+     * propio hilo.
+     */
+    private final GestureEngine gestureEngine = new GestureEngine();
+
+    /**
+     * Sesiones de varias headbands conectadas a la vez. Cada una tiene sus buffers,
+     * procesamiento, grabacion y contadores; el procesamiento usa hilos compartidos.
+     */
+    private final SessionManager sessions = SessionManager.forAvailableProcessors();
+
+    /**
+     * Tipos de paquete que se registran y a donde va cada uno (procesamiento, grabacion, IU).
+     * Se elige en la IU y se aplica en la siguiente conexion.
+     */
+    private volatile SubscriptionProfile subscriptionProfile = SubscriptionProfile.FULL_RESEARCH;
+
+    /**
+     * Despacho de las muestras de la fuente conectada, construido al conectar a partir de
+     * subscriptionProfile. Solo lo usa el hilo de la fuente.
+     */
+    private volatile FrameDispatcher dispatcher;
+
+    /**
+     * Ultimo estado de la IU (conexion, movimiento, bloqueo, calibracion y status). Lo producen
+     * los hilos de la fuente y de GestureEngine con publishUiState.
+     */
+    private volatile UiState uiState = UiState.INITIAL;
+    private final Object uiStateLock = new Object();
+
+    private volatile Client client;
+
+    /**
+     * Handler del hilo principal.
+     */
+    private final Handler handler = new Handler();
+
+    /**
+     * La grabacion se divide en segmentos de a lo mas RECORDING_SEGMENT_MS o
+     * RECORDING_SEGMENT_BYTES con nombres unicos por sesion (muse_20181018_153000_0001.muse).
+     * Cada segmento guarda un .muse escrito con MuseRecordingWriter, un .mcol columnar y el indice
+     * .muse.idx (ver MuseSegmentWriter); se escribe como .part y se renombra al cerrarlo. Si la
+     * app muere, al iniciar se recuperan los .part que quedaron. Solo se usa desde el hilo de
+     * archivos.
+     */
+    private SegmentedRecording<SampleFrame> segments;
+    static final long RECORDING_SEGMENT_MS = SegmentedRecording.DEFAULT_MAX_SEGMENT_MILLIS;
+    static final long RECORDING_SEGMENT_BYTES = SegmentedRecording.DEFAULT_MAX_SEGMENT_BYTES;
+
+    /**
+     * Para que las opereaciones de archivo no disminuyan la velocidad de la adquisicion, seran
+     * ejecutadas por un handler en un hilo separado.
+     */
+    private final AtomicReference<Handler> fileHandler = new AtomicReference<>();
+
+    /**
+     * Los paquetes no se envian uno por uno al hilo de archivos; se agrupan en lotes que se
+     * escriben de una sola vez. La cola de lotes es acotada y, si la memoria es lenta, se
+     * descartan los lotes mas antiguos en lugar de detener el hilo de LibMuse.
+     */
+    private final AtomicReference<RecordingPipeline<SampleFrame>> recorder =
+            new AtomicReference<>();
+    // Tambien los usa MuseFileRecording para las grabaciones de varias headbands.
+    static final int RECORDING_BATCH_SIZE = 128;
+    static final long RECORDING_FLUSH_INTERVAL_MS = 250;
+    static final int RECORDING_QUEUE_CAPACITY = 32;
+    static final RecordingPipeline.OverflowPolicy RECORDING_OVERFLOW_POLICY =
+            RecordingPipeline.OverflowPolicy.DROP_OLDEST;
+
+    /**
+     * Registros en los que el callback de LibMuse copia cada paquete a grabar. Alcanzan para
+     * llenar la cola de grabacion, el lote abierto y el que se esta escribiendo, de modo que
+     * con DROP_OLDEST se descartan lotes antes de que se agote el pool.
+     */
+    static final int RECORD_POOL_CAPACITY =
+            (RECORDING_QUEUE_CAPACITY + 2) * RECORDING_BATCH_SIZE;
+    private final PacketRecordPool recordPool = new PacketRecordPool(RECORD_POOL_CAPACITY);
+
+    private boolean foreground;
+
+    /**
+     * Latencias por etapa, del paquete al cuadro, y costos de callbacks, colas y cuadros. Se
+     * activa desde la IU con {@link #setLatencyTracing(boolean)}; desactivado casi no cuesta.
+     */
+    private final LatencyMonitor latency = new LatencyMonitor();
+    static final long LATENCY_QUEUE_SAMPLE_MS = 100;
+
+    /**
+     * Frecuencia efectiva, perdida, orden y jitter de los paquetes de la fuente conectada. Si el
+     * acelerometro se degrada los gestos dejan de mover la imagen; los cambios y cada
+     * LINK_ANNOTATION_POLLS revisiones las estadisticas se anotan en la grabacion.
+     */
+    private final LinkQualityMonitor linkQuality = new LinkQualityMonitor();
+    static final long LINK_POLL_MS = 1000;
+    static final int LINK_ANNOTATION_POLLS = 10;
+    private int linkPolls;
+
+    /**
+     * Frecuencias de la headband Muse 2016.
+     */
+    static final int MUSE_EEG_RATE = 256;
+    static final int MUSE_MOTION_RATE = 52;
+
+    //--------------------------------------
+    // Ciclo de vida
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // Es necesario establecer un contexto en MuseManagerAndroid antes de cualquier cosa.
+        manager = MuseManagerAndroid.getInstance();
+        manager.setContext(this);
+        Log.i(TAG, "LibMuse version=" + LibmuseVersion.instance().getString());
+
+        final WeakReference<AcquisitionService> weakService =
+                new WeakReference<AcquisitionService>(this);
+        sourceListener = new SourceListener(weakService);
+        gestureEngine.setListener(new GestureListener(weakService));
+        gestureEngine.setLatencyMonitor(latency);
+        linkQuality.setListener(new LinkListener(weakService));
+        useEegRate(MUSE_EEG_RATE);
+        manager.setMuseListener(new MuseL(weakService));
+
+        fileThread.start();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // Si el sistema mata el proceso no hay conexion que restaurar; los segmentos abiertos
+        // se recuperan al volver a iniciar.
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacks(sampleQueues);
+        handler.removeCallbacks(pollLink);
+        handler.removeCallbacks(applyForeground);
+        // Los DISCONNECTED llegan cuando el servicio ya no existe, asi que los listeners del
+        // servicio se quitan antes de desconectar. Las grabaciones de las sesiones se cierran
+        // en su DISCONNECTED; si el hilo de archivos ya termino, su .part se recupera al
+        // volver a crear el servicio.
+        final HeadbandSource s = source;
+        if (s != null) {
+            s.setListener(null);
+            if (s instanceof LibmuseHeadbandSource) {
+                ((LibmuseHeadbandSource) s).setPacketTap(null, null);
+            }
+            s.disconnect();
+        }
+        for (HeadbandSession session : sessions.sessions()) {
+            session.setListener(null);
+            session.gestures().setListener(null);
+            session.source().disconnect();
+        }
+        manager.setMuseListener(null);
+        manager.stopListening();
+        // Sin esperar al DISCONNECTED: se confirma lo que ya llego al hilo de archivos y se
+        // termina el hilo.
+        final Handler h = fileHandler.get();
+        if (h != null) {
+            h.post(new Runnable() {
+                @Override
+                public void run() {
+                    commitSegment();
+                    Looper.myLooper().quitSafely();
+                }
+            });
+        }
+        gestureEngine.stop();
+        bandPowers.stop();
+        sessions.stop();
+    }
+
+    /**
+     * Suscribe al cliente, que reemplaza al anterior, y le entrega el estado actual. Desde que
+     * hay un cliente se llenan los buffers de la IU.
+     */
+    public void subscribe(Client c) {
+        client = c;
+        c.onStateChanged(uiState);
+        c.onMuseListChanged(museNames());
+    }
+
+    /**
+     * Quita al cliente si es el suscrito. Sin cliente la busqueda de headbands se detiene, ya
+     * que es una operacion de costo alto que solo se usa desde la IU.
+     */
+    public void unsubscribe(Client c) {
+        if (client == c) {
+            client = null;
+            manager.stopListening();
+        }
+    }
+
+    public UiState state() {
+        return uiState;
+    }
+
+    public boolean isConnected() {
+        return connectionStatus;
+    }
+
+    public SubscriptionProfile subscriptionProfile() {
+        return subscriptionProfile;
+    }
+
+    /**
+     * Cambia el perfil de suscripcion. Las conexiones actuales siguen con el suyo; el despacho
+     * y los tipos registrados en LibMuse se construyen con el nuevo en la siguiente conexion.
+     */
+    public void setSubscriptionProfile(SubscriptionProfile profile) {
+        subscriptionProfile = profile;
+        Log.i(TAG, "Perfil de suscripcion: " + profile
+                + (connectionStatus ? ", se aplica en la siguiente conexion" : ""));
+    }
+
+    public boolean hasSessions() {
+        return !sessions.sessions().isEmpty();
+    }
+
+    public SampleRingBuffer eegSamples() {
+        return eegSamples;
+    }
+
+    public SampleRingBuffer alphaSamples() {
+        return alphaSamples;
+    }
+
+    public SampleRingBuffer accelSamples() {
+        return accelSamples;
+    }
+
+    public SampleRingBuffer bandSamples() {
+        return bandSamples;
+    }
+
+    public SampleRingBuffer spectrumSamples() {
+        return spectrumSamples;
+    }
+
+    public BandPowerEngine bandPowers() {
+        return bandPowers;
+    }
+
+    public LatencyMonitor latency() {
+        return latency;
+    }
+
+    public LinkQualityMonitor linkQuality() {
+        return linkQuality;
+    }
+
+    /**
+     * Activa la medicion de latencias desde cero, o la desactiva y escribe el resultado en
+     * latency_<fecha>.txt en el hilo de archivos.
+     */
+    public void setLatencyTracing(boolean enabled) {
+        if (enabled == latency.enabled()) {
+            return;
+        }
+        if (enabled) {
+            latency.reset();
+            latency.setEnabled(true);
+            handler.post(sampleQueues);
+            return;
+        }
+        latency.setEnabled(false);
+        handler.removeCallbacks(sampleQueues);
+        final Handler h = fileHandler.get();
+        if (h == null) {
+            return;
+        }
+        final File file = new File(getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS),
+                SegmentedRecording.sessionName("latency", System.currentTimeMillis()) + ".txt");
+        h.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latency.dump(file);
+                    Log.i(TAG, "Latencias en " + file + ":\n" + latency.summary());
+                } catch (IOException e) {
+                    Log.w(TAG, "No se pudieron escribir las latencias", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Muestrea la cola de grabacion mientras se miden latencias; la cola de gestos la registra
+     * GestureEngine.
+     */
+    private final Runnable sampleQueues = new Runnable() {
+        @Override
+        public void run() {
+            final RecordingPipeline<SampleFrame> r = recorder.get();
+            if (r != null) {
+                latency.record(LatencyMonitor.Metric.RECORDING_QUEUE_DEPTH, r.queueDepth());
+            }
+            if (latency.enabled()) {
+                handler.postDelayed(this, LATENCY_QUEUE_SAMPLE_MS);
+            }
+        }
+    };
+
+    /**
+     * Mientras haya una fuente o sesion conectada el servicio sigue iniciado aunque ninguna
+     * actividad este enlazada, y se muestra en primer plano para que el sistema no lo detenga.
+     */
+    private void updateForeground() {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            applyForeground.run();
+        } else {
+            handler.post(applyForeground);
+        }
+    }
+
+    /**
+     * Desde Android 8 un servicio iniciado en segundo plano debe llamar a startForeground
+     * enseguida, por eso se inicia con startForegroundService y en el mismo paso se pasa a
+     * primer plano.
+     */
+    private final Runnable applyForeground = new Runnable() {
+        @Override
+        public void run() {
+            final boolean acquiring = source != null || hasSessions();
+            if (acquiring && !foreground) {
+                ContextCompat.startForegroundService(AcquisitionService.this,
+                        new Intent(AcquisitionService.this, AcquisitionService.class));
+                startForeground(NOTIFICATION_ID, buildNotification());
+                foreground = true;
+            } else if (!acquiring && foreground) {
+                stopForeground(true);
+                stopSelf();
+                foreground = false;
+            }
+        }
+    };
+
+    private Notification buildNotification() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            final NotificationChannel channel = new NotificationChannel(NOTIFICATION_CHANNEL,
+                    getString(R.string.notificacion_canal), NotificationManager.IMPORTANCE_LOW);
+            ((NotificationManager) getSystemService(NOTIFICATION_SERVICE))
+                    .createNotificationChannel(channel);
+        }
+        final PendingIntent open = PendingIntent.getActivity(this, 0,
+                new Intent(this, MuseActivity.class), 0);
+        return new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL)
+                .setContentTitle(getString(R.string.notificacion_titulo))
+                .setContentText(getString(R.string.notificacion_texto))
+                .setSmallIcon(R.mipmap.muse_ui_icon)
+                .setOngoing(true)
+                .setContentIntent(open)
+                .build();
+    }
+
+    //--------------------------------------
+    // Conexion
+
+    /**
+     * Comienza la busqueda de Muse headbands. Primero se llama stopListening para asegurarnos
+     * que startListening estara limpio y se actualizara con las headbands nuevas detectadas.
+     */
+    public void refresh() {
+        manager.stopListening();
+        manager.startListening();
+    }
+
+    /**
+     * Conecta la headband en la posicion index de la lista de headbands encontradas.
+     * @return false si no existe o si ya hay una fuente o sesiones conectadas.
+     */
+    public boolean connect(int index) {
+        if (!canConnectSource()) {
+            return false;
+        }
+        // Listening es una operacion de coso alto, por lo que una vez que se conoce la headband
+        // a la que se va a conectar se detiene de buscar otra headband.
+        manager.stopListening();
+
+        final List<Muse> availableMuses = manager.getMuses();
+        if (index < 0 || index >= availableMuses.size()) {
+            Log.w(TAG, "No existe dispositivo a que conectar");
+            return false;
+        }
+        // Se registra un data listener para recibir los datos del paquete MuseDataPacketTypes
+        // en el que se esta interesado, segun subscriptionProfile.
+        final SubscriptionProfile profile = subscriptionProfile;
+        final LibmuseHeadbandSource museSource = new LibmuseHeadbandSource(
+                availableMuses.get(index), profile);
+        // Los registros de los paquetes se graban en el hilo de archivos.
+        museSource.setPacketTap(new LibmuseHeadbandSource.PacketTap() {
+            @Override
+            public void onRecord(SampleFrame record) {
+                writeRecordToFile(record);
+            }
+        }, recordPool);
+        museSource.setLatencyMonitor(latency);
+        connectSource(museSource, MUSE_EEG_RATE, MUSE_MOTION_RATE, profile);
+        return true;
+    }
+
+    public void disconnect() {
+        connectionStatus = false;
+        if (source != null) {
+            source.disconnect();
+        }
+    }
+
+    /**
+     * Conecta una headband virtual con señales sinteticas, para probar el procesamiento sin
+     * Bluetooth.
+     * @param eegRate  Frecuencia de EEG: 220, 256 o 500 Hz.
+     */
+    public void connectSynthetic(int eegRate) {
+        if (!canConnectSource()) {
+            return;
+        }
+        connectSource(new SyntheticHeadbandSource("Synthetic", eegRate,
+                System.currentTimeMillis()), eegRate, SyntheticHeadbandSource.MOTION_RATE,
+                subscriptionProfile);
+    }
+
+    /**
+     * Reproduce un archivo .muse enviando sus paquetes al mismo procesamiento que los datos de la
+     * headband (FrameDispatcher, GestureEngine y movimiento).
+     * @param speed  1 para tiempo real, N para N veces mas rapido o
+     *               ReplayEngine.AS_FAST_AS_POSSIBLE para no esperar entre paquetes.
+     */
+    public void replay(File file, double speed) {
+        if (!canConnectSource()) {
+            return;
+        }
+        final ReplayHeadbandSource replay = new ReplayHeadbandSource(file);
+        replay.engine().setSpeed(speed);
+        // La grabacion puede ser de cualquier headband: la frecuencia de EEG se estima de sus
+        // primeros paquetes y los periodos del movimiento se estiman al reproducir.
+        int eegRate = 0;
+        try {
+            eegRate = ReplayHeadbandSource.estimateEegRate(file);
+        } catch (IOException e) {
+            // La reproduccion reporta el error y se desconecta.
+            Log.w(TAG, "No se pudo estimar la frecuencia de EEG de " + file, e);
+        }
+        Log.i(TAG, "Reproduciendo " + file.getName() + " con EEG a " + eegRate + " Hz");
+        connectSource(replay, eegRate, 0, subscriptionProfile);
+    }
+
+    /**
+     * Solo hay una fuente a la vez, y ninguna mientras hay sesiones de {@link #connectAll()}:
+     * una segunda LibmuseHeadbandSource de la Muse de una sesion le quitaria sus listeners, y la
+     * sesion ya no recibiria datos ni su DISCONNECTED.
+     */
+    private boolean canConnectSource() {
+        if (connectionStatus) {
+            Log.w(TAG, "Ya existe una fuente conectada");
+            return false;
+        }
+        if (hasSessions()) {
+            Log.w(TAG, "Desconecta las headbands de las sesiones antes de conectar una fuente");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Inicia la conexion con una fuente de muestras y reinicia la deteccion de gestos y la
+     * calidad del enlace.
+     * @param eegRate     Frecuencia de EEG de la fuente, o 0 si no se conoce.
+     * @param motionRate  Frecuencia del acelerometro y el giroscopio, o 0 si no se conoce.
+     * @param profile     Perfil de la conexion, del que se construye el despacho.
+     */
+    private void connectSource(HeadbandSource newSource, int eegRate, int motionRate,
+                               SubscriptionProfile profile) {
+        linkQuality.setExpectedRate(MuseDataPacketType.EEG, eegRate);
+        linkQuality.setExpectedRate(MuseDataPacketType.ACCELEROMETER, motionRate);
+        linkQuality.setExpectedRate(MuseDataPacketType.GYRO, motionRate);
+        linkQuality.reset();
+        gestureEngine.setLinkDegraded(false);
+        linkPolls = 0;
+        handler.removeCallbacks(pollLink);
+        handler.postDelayed(pollLink, LINK_POLL_MS);
+
+        source = newSource;
+        useEegRate(eegRate > 0 ? eegRate : MUSE_EEG_RATE);
+        dispatcher = newDispatcher(profile);
+        //Reinicializacion de la calibracion del status de usuario
+        gestureEngine.restart();
+        bandPowers.reset();
+        // Los hilos de gestos y de bandas solo existen mientras hay una fuente; se detienen con
+        // el DISCONNECTED.
+        gestureEngine.start();
+        bandPowers.start();
+        newSource.setListener(sourceListener);
+        newSource.connect();
+
+        connectionStatus = true;
+        updateForeground();
+    }
+
+    /**
+     * Usa un BandPowerEngine para eegRate, con su propio buffer del espectrograma, y le avisa al
+     * cliente para que redimensione las graficas. Se llama desde el hilo principal sin fuente
+     * conectada, con el hilo del motor anterior detenido, asi cada buffer de la IU sigue con un
+     * solo productor.
+     */
+    private void useEegRate(int eegRate) {
+        final BandPowerEngine current = bandPowers;
+        if (current != null && current.sampleRate() == eegRate) {
+            return;
+        }
+        final BandPowerEngine engine = BandPowerEngine.forSampleRate(eegRate, 6);
+        final SampleRingBuffer spectrum = new SampleRingBuffer(
+                engine.channels() * engine.spectrumBins(), 16);
+        engine.setListener(new BandPowerListener(bandSamples));
+        engine.setSpectrumListener(new SpectrogramListener(spectrum));
+        spectrumSamples = spectrum;
+        bandPowers = engine;
+        final Client c = client;
+        if (c != null) {
+            c.onEegRateChanged(eegRate);
+        }
+    }
+
+    private List<String> museNames() {
+        final List<String> names = new ArrayList<>();
+        for (Muse m : manager.getMuses()) {
+            names.add(m.getName() + " - " + m.getMacAddress());
+        }
+        return names;
+    }
+
+    /**
+     * Este metodo recibira una llamada cada vez que se encuentre una headband.
+     */
+    public void museListChanged() {
+        final Client c = client;
+        if (c != null) {
+            c.onMuseListChanged(museNames());
+        }
+    }
+
+    /**
+     * Este metodo recibira una llamada cada vez que cambie el estado de conexion de la fuente de
+     * muestras y cambia el status en la IU.
+     */
+    public void receiveConnectionChange(final HeadbandSource source,
+                                        final ConnectionState previous,
+                                        final ConnectionState current) {
+
+        Log.i(TAG, previous + " -> " + current);
+
+        publishConnection(previous, current);
+        if (previous == ConnectionState.CONNECTING && current == ConnectionState.DISCONNECTED) {
+            // Se muestra "Desconectando" un momento antes de "Desconectado".
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (uiStateLock) {
+                        publishUiState(uiState.withDisconnectSettled());
+                    }
+                }
+            }, 2000);
+        }
+
+        if (current == ConnectionState.DISCONNECTED) {
+            Log.i(TAG, "Muse desconectado:" + source.name());
+            // Se guarda el archivo de datos cuando la transmision de la headband se ha detenido.
+            if (this.source == source) {
+                handler.removeCallbacks(pollLink);
+                Log.i(TAG, "Calidad del enlace:\n" + linkQuality.summary());
+                annotateLinkQuality();
+            }
+            if (source instanceof ReplayHeadbandSource
+                    && ((ReplayHeadbandSource) source).error() != null) {
+                Log.w(TAG, "No se pudo reproducir " + source.name(),
+                        ((ReplayHeadbandSource) source).error());
+            }
+            if (source instanceof LibmuseHeadbandSource) {
+                saveFile();
+                Log.i(TAG, "Costo de callbacks (" + ((LibmuseHeadbandSource) source).profile()
+                        + "):\n"
+                        + ((LibmuseHeadbandSource) source).callbackCost().summary());
+                Log.i(TAG, "Pool de registros: " + recordPool.summary() + ", "
+                        + ((LibmuseHeadbandSource) source).recordsMissed() + " sin grabar");
+            }
+            // Detener los motores espera a sus hilos, lo que no se hace en el hilo de callbacks
+            // de LibMuse.
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    releaseSource(source);
+                }
+            });
+        }
+    }
+
+    /**
+     * Detiene los hilos de gestos y de bandas de la fuente desconectada y la suelta. Se llama
+     * desde el hilo principal; no hace nada si ya se conecto otra fuente.
+     */
+    private void releaseSource(HeadbandSource disconnected) {
+        if (source != disconnected) {
+            return;
+        }
+        handler.removeCallbacks(pollLink);
+        gestureEngine.stop();
+        bandPowers.stop();
+        gestureEngine.setLinkDegraded(false);
+        source = null;
+        connectionStatus = false;
+        updateForeground();
+    }
+
+    /**
+     * Este metodo recibira una llamada cada vez que la fuente entregue una muestra de un tipo de
+     * paquete que se tenga registrado.
+     */
+    public void receiveSampleFrame(final HeadbandSource source, final SampleFrame frame) {
+        final long arrival = frame.arrivalNanos();
+        linkQuality.onPacket(frame.type(), frame.timestampMicros(),
+                arrival != 0 ? arrival : System.nanoTime());
+        dispatcher.dispatch(frame);
+    }
+
+    /**
+     * Un tipo de paquete se degrado o se recupero. Si es el acelerometro los gestos dejan de
+     * mover la imagen mientras dure. Se llama desde el hilo de la fuente o el principal.
+     */
+    private void receiveLinkQualityChange(MuseDataPacketType type, boolean degraded,
+                                          String reason) {
+        final String text = "Enlace " + type + (degraded ? " degradado: " : " recuperado: ")
+                + reason;
+        Log.w(TAG, text);
+        if (type == MuseDataPacketType.ACCELEROMETER) {
+            gestureEngine.setLinkDegraded(degraded);
+        }
+        annotateRecording(text);
+    }
+
+    /**
+     * Revisa que sigan llegando los paquetes esperados y cada LINK_ANNOTATION_POLLS veces anota
+     * las estadisticas del enlace en la grabacion.
+     */
+    private final Runnable pollLink = new Runnable() {
+        @Override
+        public void run() {
+            if (source == null) {
+                return;
+            }
+            linkQuality.poll(System.nanoTime());
+            if (++linkPolls % LINK_ANNOTATION_POLLS == 0) {
+                annotateLinkQuality();
+            }
+            handler.postDelayed(this, LINK_POLL_MS);
+        }
+    };
+
+    /**
+     * Anota una linea por tipo de paquete con las estadisticas del enlace.
+     */
+    private void annotateLinkQuality() {
+        final String summary = linkQuality.summary();
+        if (summary.isEmpty()) {
+            return;
+        }
+        for (String line : summary.split("\n")) {
+            annotateRecording(line);
+        }
+    }
+
+    /**
+     * Tabla de despacho para un perfil: EEG a BandPowerEngine y a la grafica, ACCELEROMETER a
+     * GestureEngine y a la grafica y ALPHA_RELATIVE a la IU, cada uno solo si el perfil lo
+     * envia por esa ruta. Las muestras se copian al SampleRingBuffer de cada consumidor; como
+     * cada buffer admite un solo productor, solo debe haber una fuente conectada a la vez.
+     */
+    private FrameDispatcher newDispatcher(SubscriptionProfile profile) {
+        final FrameDispatcher d = new FrameDispatcher(profile);
+        final BandPowerEngine engine = bandPowers;
+        d.add(MuseDataPacketType.EEG, SubscriptionProfile.PROCESSING,
+                new FrameDispatcher.Consumer() {
+                    @Override
+                    public void accept(SampleFrame frame) {
+                        engine.offer(frame.timestampMicros(), frame.values());
+                    }
+                });
+        d.add(MuseDataPacketType.EEG, SubscriptionProfile.UI, uiConsumer(eegSamples));
+        d.add(MuseDataPacketType.ACCELEROMETER, SubscriptionProfile.PROCESSING,
+                new FrameDispatcher.Consumer() {
+                    @Override
+                    public void accept(SampleFrame frame) {
+                        gestureEngine.offerAccelerometer(frame.timestampMicros(), frame.values(),
+                                frame.arrivalNanos());
+                    }
+                });
+        d.add(MuseDataPacketType.ACCELEROMETER, SubscriptionProfile.UI,
+                uiConsumer(accelSamples));
+        d.add(MuseDataPacketType.ALPHA_RELATIVE, SubscriptionProfile.UI,
+                uiConsumer(alphaSamples));
+        return d;
+    }
+
+    /**
+     * Consumidor de la IU: sin cliente suscrito no hace nada; con cliente copia la muestra al
+     * buffer y le avisa.
+     */
+    private FrameDispatcher.Consumer uiConsumer(final SampleRingBuffer samples) {
+        return new FrameDispatcher.Consumer() {
+            @Override
+            public void accept(SampleFrame frame) {
+                final Client c = client;
+                if (c != null) {
+                    samples.offer(frame.timestampMicros(), frame.values());
+                    c.onSamplesAvailable();
+                }
+            }
+        };
+    }
+
+    //--------------------------------------
+    // Estado de la IU
+
+    /**
+     * Publica un nuevo estado de la IU al cliente. Se debe llamar con uiStateLock, porque cada
+     * estado se deriva del anterior desde varios hilos.
+     */
+    private void publishUiState(UiState next) {
+        uiState = next;
+        final Client c = client;
+        if (c != null) {
+            c.onStateChanged(next);
+        }
+    }
+
+    private void publishConnection(ConnectionState previous, ConnectionState current) {
+        synchronized (uiStateLock) {
+            publishUiState(uiState.withConnection(previous, current));
+        }
+    }
+
+    /**
+     * Cada vez que GestureEngine reconoce un gesto se actualizan el status y el movimiento de la
+     * imagen. Al bloquear se muestra despues como desbloquear.
+     */
+    private void publishGesture(Gesture gesture) {
+        synchronized (uiStateLock) {
+            publishUiState(uiState.withGesture(gesture));
+        }
+        if (gesture == Gesture.LOCK) {
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (uiStateLock) {
+                        publishUiState(uiState.withLockHint());
+                    }
+                }
+            }, 2000);
+        }
+    }
+
+    /**
+     * Inicio y fin de la calibracion de la posicion comun del usuario.
+     */
+    private void publishCalibration(boolean calibrated) {
+        synchronized (uiStateLock) {
+            publishUiState(uiState.withCalibration(calibrated));
+        }
+    }
+
+    //--------------------------------------
+    // Varias headbands
+
+    /**
+     * Conecta todas las headbands encontradas a la vez, cada una en su sesion y con su propia
+     * grabacion (muse_<MAC>_<fecha>). Las sesiones no mueven la imagen; sus gestos y contadores
+     * se registran en el log.
+     */
+    public void connectAll() {
+        if (connectionStatus) {
+            Log.w(TAG, "Desconecta la headband seleccionada antes de conectar varias");
+            return;
+        }
+        final Handler h = fileHandler.get();
+        if (h == null) {
+            Log.w(TAG, "El hilo de archivos aun no esta listo");
+            return;
+        }
+        manager.stopListening();
+        final Executor fileExecutor = handlerExecutor(h);
+        final File dir = getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS);
+        final SubscriptionProfile profile = subscriptionProfile;
+        final List<HeadbandSource> added = new ArrayList<>();
+        for (Muse m : manager.getMuses()) {
+            final LibmuseHeadbandSource source = new LibmuseHeadbandSource(m, profile);
+            final HeadbandSession session = sessions.add(source.name(), source, 256);
+            final MuseFileRecording recording = new MuseFileRecording(dir,
+                    SegmentedRecording.sessionName("muse_" + m.getMacAddress().replace(":", ""),
+                            System.currentTimeMillis()), fileExecutor);
+            source.setPacketTap(recording, recording.pool());
+            session.setRecording(recording);
+            session.setListener(new SessionListener(new WeakReference<AcquisitionService>(this)));
+            session.gestures().setListener(new SessionGestureListener(session.id()));
+            added.add(source);
+        }
+        // Los hilos compartidos solo existen mientras hay sesiones: se detienen solos al
+        // quitarse la ultima en el DISCONNECTED.
+        if (!added.isEmpty()) {
+            sessions.start();
+        }
+        for (HeadbandSource source : added) {
+            source.connect();
+        }
+        Log.i(TAG, sessions.sessions().size() + " headbands en " + sessions.workerCount()
+                + " hilos");
+        updateForeground();
+    }
+
+    public void disconnectAll() {
+        for (HeadbandSession session : sessions.sessions()) {
+            session.source().disconnect();
+        }
+    }
+
+    /**
+     * Al desconectarse una headband de las sesiones se registran sus contadores y se quita su
+     * sesion. Se llama desde el hilo de LibMuse.
+     */
+    private void receiveSessionConnectionChange(final HeadbandSession session,
+                                                final ConnectionState previous,
+                                                final ConnectionState current) {
+        Log.i(TAG, session.id() + ": " + previous + " -> " + current);
+        if (current == ConnectionState.DISCONNECTED) {
+            Log.i(TAG, session.summary(System.nanoTime()));
+            if (session.source() instanceof LibmuseHeadbandSource) {
+                Log.i(TAG, ((LibmuseHeadbandSource) session.source()).callbackCost().summary());
+            }
+            sessions.remove(session);
+            updateForeground();
+        }
+    }
+
+    //--------------------------------------
+    // Archivos de Entrada/Salida  ( Files I/O )
+
+    /**
+     * Para evitar el bloqueo del hilo de la fuente mientras se escribe un archivo, el archivo
+     * de escritura se moeve a un hilo separado.
+     */
+    private final Thread fileThread = new Thread() {
+        @Override
+        public void run() {
+            Looper.prepare();
+            final Handler h = new Handler();
+            fileHandler.set(h);
+            final File dir = getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS);
+            // Segmentos que quedaron abiertos si la app murio mientras grababa.
+            final List<IOException> errors = new ArrayList<>();
+            for (File f : SegmentedRecording.recover(dir, errors)) {
+                Log.i(TAG, "Segmento recuperado: " + f.getName() + " (" + f.length()
+                        + " bytes)");
+            }
+            for (IOException e : errors) {
+                Log.w(TAG, "Segmento sin recuperar", e);
+            }
+            segments = new SegmentedRecording<SampleFrame>(dir,
+                    SegmentedRecording.sessionName("muse", System.currentTimeMillis()),
+                    MuseSegmentWriter.EXTENSIONS, MuseSegmentWriter.FACTORY,
+                    RECORDING_SEGMENT_MS, RECORDING_SEGMENT_BYTES);
+            Log.i(TAG, "Writing data to: " + dir.getAbsolutePath() + "/" + segments.session()
+                    + "_*");
+            recorder.set(new RecordingPipeline<SampleFrame>(segments, handlerExecutor(h),
+                    RECORDING_BATCH_SIZE, RECORDING_FLUSH_INTERVAL_MS,
+                    RECORDING_QUEUE_CAPACITY, RECORDING_OVERFLOW_POLICY,
+                    new RecordingPipeline.Recycler<SampleFrame>() {
+                        @Override
+                        public void recycle(SampleFrame record) {
+                            recordPool.release(record);
+                        }
+                    }));
+            Looper.loop();
+        }
+    };
+
+    /**
+     * Executor de escritura sobre el Handler del hilo de archivos. Con postDelayed el lote
+     * abierto se escribe a lo mas RECORDING_FLUSH_INTERVAL_MS despues de su primer registro,
+     * aunque el perfil sea de baja frecuencia o un tipo de paquete deje de llegar.
+     */
+    private static RecordingPipeline.DelayedExecutor handlerExecutor(final Handler h) {
+        return new RecordingPipeline.DelayedExecutor() {
+            @Override
+            public void execute(Runnable r) {
+                h.post(r);
+            }
+
+            @Override
+            public void executeDelayed(Runnable r, long delayMillis) {
+                h.postDelayed(r, delayMillis);
+            }
+        };
+    }
+
+    /**
+     * Se agrega el registro al lote abierto de grabacion; vuelve a recordPool despues de
+     * escribirse. Si el hilo de archivos aun no esta listo se devuelve de inmediato.
+     * @param record  El registro del paquete a escribir.
+     */
+    private void writeRecordToFile(final SampleFrame record) {
+        RecordingPipeline<SampleFrame> r = recorder.get();
+        if (r != null) {
+            r.offer(record);
+        } else {
+            recordPool.release(record);
+        }
+    }
+
+    /**
+     * Agrega una anotacion a la grabacion en el hilo de archivos, con el timestamp del ultimo
+     * paquete escrito. Solo se graba la headband de LibMuse; con otras fuentes no hace nada.
+     */
+    private void annotateRecording(final String text) {
+        final Handler h = fileHandler.get();
+        if (h == null || !(source instanceof LibmuseHeadbandSource)) {
+            return;
+        }
+        h.post(new Runnable() {
+            @Override
+            public void run() {
+                segments.annotate(text);
+            }
+        });
+    }
+
+    /**
+     * Se hace un flush a todos los datos y se confirma el segmento abierto. Una nueva conexion
+     * empieza el siguiente segmento de la misma sesion.
+     */
+    private void saveFile() {
+        // Se entrega el ultimo lote abierto antes de cerrar el archivo. El Handler ejecuta las
+        // tareas en orden, asi que el lote se escribe antes del cierre.
+        final RecordingPipeline<SampleFrame> r = recorder.get();
+        if (r != null) {
+            r.flush();
+            Log.i(TAG, "Grabacion: " + r.writtenCount() + " paquetes en " + r.batchCount()
+                    + " lotes, " + r.droppedCount() + " descartados, cola maxima "
+                    + r.maxQueueDepth());
+        }
+        Handler h = fileHandler.get();
+        if (h != null) {
+            h.post(new Runnable() {
+                @Override public void run() {
+                    segments.annotate("Disconnected");
+                    commitSegment();
+                }
+            });
+        }
+    }
+
+    /**
+     * Confirma el segmento abierto y registra los archivos y errores de la grabacion. Se llama
+     * desde el hilo de archivos.
+     */
+    private void commitSegment() {
+        segments.commit();
+        Log.i(TAG, "Grabacion " + segments.session() + ": " + segments.segmentCount()
+                + " segmentos, " + segments.itemsWritten() + " paquetes, "
+                + segments.errorCount() + " errores");
+        if (segments.lastError() != null) {
+            Log.w(TAG, "Ultimo error de grabacion", segments.lastError());
+        }
+    }
+
+    //--------------------------------------
+    // Traductores para Listener
+    //
+    // Cada una de estas clase hereda de su apropiado listener y contiene una referencia debil al
+    // servicio. Cada clase simplemente pasa los mensajes recibidos al servicio, si todavia existe.
+    class MuseL extends MuseListener {
+        final WeakReference<AcquisitionService> serviceRef;
+
+        MuseL(final WeakReference<AcquisitionService> serviceRef) {
+            this.serviceRef = serviceRef;
+        }
+
+        @Override
+        public void museListChanged() {
+            final AcquisitionService service = serviceRef.get();
+            if (service != null) {
+                service.museListChanged();
+            }
+        }
+    }
+
+    class SourceListener implements HeadbandSource.Listener {
+        final WeakReference<AcquisitionService> serviceRef;
+
+        SourceListener(final WeakReference<AcquisitionService> serviceRef) {
+            this.serviceRef = serviceRef;
+        }
+
+        @Override
+        public void onSampleFrame(final HeadbandSource source, final SampleFrame frame) {
+            final AcquisitionService service = serviceRef.get();
+            if (service != null) {
+                service.receiveSampleFrame(source, frame);
+            }
+        }
+
+        @Override
+        public void onConnectionChanged(final HeadbandSource source,
+                                        final ConnectionState previous,
+                                        final ConnectionState current) {
+            final AcquisitionService service = serviceRef.get();
+            if (service != null) {
+                service.receiveConnectionChange(source, previous, current);
+            }
+        }
+    }
+
+    class SessionListener implements HeadbandSession.Listener {
+        final WeakReference<AcquisitionService> serviceRef;
+
+        SessionListener(final WeakReference<AcquisitionService> serviceRef) {
+            this.serviceRef = serviceRef;
+        }
+
+        @Override
+        public void onSessionConnectionChanged(final HeadbandSession session,
+                                               final ConnectionState previous,
+                                               final ConnectionState current) {
+            final AcquisitionService service = serviceRef.get();
+            if (service != null) {
+                service.receiveSessionConnectionChange(session, previous, current);
+            }
+        }
+    }
+
+    /**
+     * Gestos de una headband de las sesiones; solo se registran.
+     */
+    class SessionGestureListener implements GestureEngine.Listener {
+        final String id;
+
+        SessionGestureListener(final String id) {
+            this.id = id;
+        }
+
+        @Override
+        public void onGesture(final Gesture gesture, final long timestampMicros) {
+            Log.i(TAG, id + ": " + gesture);
+        }
+
+        @Override
+        public void onCalibrationChanged(final boolean calibrated, final long timestampMicros) {
+            Log.i(TAG, id + (calibrated ? ": calibrada" : ": calibrando"));
+        }
+    }
+
+    class LinkListener implements LinkQualityMonitor.Listener {
+        final WeakReference<AcquisitionService> serviceRef;
+
+        LinkListener(final WeakReference<AcquisitionService> serviceRef) {
+            this.serviceRef = serviceRef;
+        }
+
+        @Override
+        public void onLinkQualityChanged(final MuseDataPacketType type, final boolean degraded,
+                                         final String reason) {
+            final AcquisitionService service = serviceRef.get();
+            if (service != null) {
+                service.receiveLinkQualityChange(type, degraded, reason);
+            }
+        }
+    }
+
+    class GestureListener implements GestureEngine.Listener {
+        final WeakReference<AcquisitionService> serviceRef;
+
+        GestureListener(final WeakReference<AcquisitionService> serviceRef) {
+            this.serviceRef = serviceRef;
+        }
+
+        @Override
+        public void onGesture(final Gesture gesture, final long timestampMicros) {
+            final AcquisitionService service = serviceRef.get();
+            if (service != null) {
+                service.publishGesture(gesture);
+            }
+        }
+
+        @Override
+        public void onCalibrationChanged(final boolean calibrated, final long timestampMicros) {
+            final AcquisitionService service = serviceRef.get();
+            if (service != null) {
+                service.publishCalibration(calibrated);
+            }
+        }
+    }
+
+    /**
+     * Promedia la potencia relativa de cada banda entre los canales EEG1-EEG4 con datos y la
+     * entrega a la IU. Se llama desde el hilo de BandPowerEngine, el unico productor de
+     * bandSamples.
+     */
+    class BandPowerListener implements BandPowerEngine.Listener {
+        private static final int EEG_CHANNELS = 4;
+
+        final SampleRingBuffer samples;
+        final double[] average = new double[BandPowerEngine.BANDS];
+
+        BandPowerListener(final SampleRingBuffer samples) {
+            this.samples = samples;
+        }
+
+        @Override
+        public void onBandPowers(final long timestampMicros, final double[] absolute,
+                                 final double[] relative, final int channels) {
+            if (client == null) {
+                return;
+            }
+            for (int b = 0; b < BandPowerEngine.BANDS; b++) {
+                double sum = 0;
+                int n = 0;
+                for (int ch = 0; ch < Math.min(channels, EEG_CHANNELS); ch++) {
+                    final double v = relative[ch * BandPowerEngine.BANDS + b];
+                    if (!Double.isNaN(v)) {
+                        sum += v;
+                        n++;
+                    }
+                }
+                average[b] = n > 0 ? sum / n : Double.NaN;
+            }
+            samples.offer(timestampMicros, average);
+        }
+    }
+
+    /**
+     * Copia el espectro de cada ventana al buffer del espectrograma. Se llama desde el hilo de
+     * BandPowerEngine, el unico productor de spectrumSamples.
+     */
+    class SpectrogramListener implements BandPowerEngine.SpectrumListener {
+        final SampleRingBuffer samples;
+
+        SpectrogramListener(final SampleRingBuffer samples) {
+            this.samples = samples;
+        }
+
+        @Override
+        public void onSpectrum(final long timestampMicros, final double[] spectrum,
+                               final int bins, final int channels) {
+            if (client != null) {
+                samples.offer(timestampMicros, spectrum);
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.Accelerometer;
+import com.choosemuse.libmuse.Battery;
+import com.choosemuse.libmuse.ConnectionState;
+import com.choosemuse.libmuse.DrlRef;
+import com.choosemuse.libmuse.Eeg;
+import com.choosemuse.libmuse.Gyro;
+import com.choosemuse.libmuse.Muse;
+import com.choosemuse.libmuse.MuseArtifactPacket;
+import com.choosemuse.libmuse.MuseConnectionListener;
+import com.choosemuse.libmuse.MuseConnectionPacket;
+import com.choosemuse.libmuse.MuseDataListener;
+import com.choosemuse.libmuse.MuseDataPacket;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import java.util.ArrayList;
+
+/**
+ * HeadbandSource para una headband real conectada con LibMuse.
+ *
+ * Registra sus propios listeners en el Muse para los tipos de paquete pedidos y copia cada
+ * MuseDataPacket una sola vez a un SampleFrame; el MuseDataPacket no sale del callback. Con un
+ * {@link PacketTap} los SampleFrame se toman de un {@link PacketRecordPool} y el tap los recibe
+ * ademas del listener, por ejemplo para grabarlos en otro hilo.
+ *
+ * Con un {@link SubscriptionProfile} solo se registran los tipos del perfil, el PacketTap solo
+ * recibe los tipos con ruta RECORDING y el listener los tipos con ruta PROCESSING o UI. El tiempo
+ * de cada callback, de la llegada del paquete al retorno de los consumidores, se acumula por
+ * tipo en {@link #callbackCost()}. Con un {@link LatencyMonitor} activo ademas se registran la
+ * latencia del paquete al callback y el tiempo del callback, y cada SampleFrame lleva el tiempo
+ * de entrada al callback.
+ */
+public final class LibmuseHeadbandSource implements HeadbandSource {
+
+    /**
+     * Recibe cada muestra con ruta RECORDING, desde el hilo de LibMuse, despues del listener.
+     * El tap se queda con el registro y lo debe devolver al pool cuando termine de usarlo.
+     */
+    public interface PacketTap {
+        void onRecord(SampleFrame record);
+    }
+
+    private final Muse muse;
+    private final MuseDataPacketType[] types;
+    private final SubscriptionProfile profile;
+    // Rutas de cada tipo por ordinal; con el constructor sin perfil todos van a todas.
+    private final int[] routes = new int[MuseDataPacketType.values().length];
+    private final CallbackCost callbackCost = new CallbackCost();
+    private final SampleFrame frame = new SampleFrame();
+    private final DataListener dataListener = new DataListener();
+    private final ConnectionListener connectionListener = new ConnectionListener();
+    private volatile Listener listener;
+    private volatile PacketTap tap;
+    private volatile PacketRecordPool pool;
+    private volatile LatencyMonitor latency;
+    private long recordsMissed;
+
+    /**
+     * @param muse   La headband a la que se conectara.
+     * @param types  Tipos de paquete a registrar. Si no se registra un tipo, LibMuse no envia
+     *               ningun paquete de ese tipo.
+     */
+    public LibmuseHeadbandSource(Muse muse, MuseDataPacketType... types) {
+        this.muse = muse;
+        this.types = types.clone();
+        this.profile = null;
+        for (MuseDataPacketType type : types) {
+            routes[type.ordinal()] = SubscriptionProfile.PROCESSING
+                    | SubscriptionProfile.RECORDING | SubscriptionProfile.UI;
+        }
+    }
+
+    /**
+     * @param profile  Tipos a registrar y a donde se envia cada uno.
+     */
+    public LibmuseHeadbandSource(Muse muse, SubscriptionProfile profile) {
+        this.muse = muse;
+        this.types = profile.types();
+        this.profile = profile;
+        for (MuseDataPacketType type : types) {
+            routes[type.ordinal()] = profile.routes(type);
+        }
+    }
+
+    public Muse muse() {
+        return muse;
+    }
+
+    /**
+     * @param pool  Registros en los que se copian los paquetes que recibe el tap.
+     */
+    public void setPacketTap(PacketTap tap, PacketRecordPool pool) {
+        this.pool = pool;
+        this.tap = tap;
+    }
+
+    public void setLatencyMonitor(LatencyMonitor latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Muestras con ruta RECORDING que no llegaron al tap por no haber registros libres. Solo se
+     * debe leer despues de desconectar.
+     */
+    public long recordsMissed() {
+        return recordsMissed;
+    }
+
+    /**
+     * Costo de los callbacks de LibMuse por tipo de paquete.
+     */
+    public CallbackCost callbackCost() {
+        return callbackCost;
+    }
+
+    /**
+     * Perfil con el que se registraron los tipos, o null si se dieron los tipos.
+     */
+    public SubscriptionProfile profile() {
+        return profile;
+    }
+
+    @Override
+    public String name() {
+        return muse.getName() + " - " + muse.getMacAddress();
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void connect() {
+        // Se desregistran todos los listeners anteriores y se registra un data listener
+        // para recibir los datos del paquete MuseDataPacketTypes en el que se esta
+        // interesado.
+        muse.unregisterAllListeners();
+        muse.registerConnectionListener(connectionListener);
+        for (MuseDataPacketType type : types) {
+            muse.registerDataListener(dataListener, type);
+        }
+        // Se inicia la conexion con la headband y se recibe datos asincronicamente.
+        muse.runAsynchronously();
+    }
+
+    @Override
+    public void disconnect() {
+        muse.disconnect();
+    }
+
+    @Override
+    public ConnectionState connectionState() {
+        return muse.getConnectionState();
+    }
+
+    /**
+     * Copia los valores del paquete al frame. getEegChannelValue puede ser usado para cualquier
+     * EEG o EEG paquete de datos derivado como EEG, ALPHA_ABSOLUTE, ALPHA_RELATIVE o
+     * HSI_PRECISION. ACCELEROMETER, GYRO, BATTERY y DRL_REF tienen sus propios metodos getter.
+     */
+    private static void fillFrame(MuseDataPacket p, SampleFrame frame) {
+        final MuseDataPacketType type = p.packetType();
+        final long ts = p.timestamp();
+        switch (type) {
+            case ACCELEROMETER:
+                frame.set(type, ts, 3);
+                frame.setValue(0, p.getAccelerometerValue(Accelerometer.X));
+                frame.setValue(1, p.getAccelerometerValue(Accelerometer.Y));
+                frame.setValue(2, p.getAccelerometerValue(Accelerometer.Z));
+                break;
+            case GYRO:
+                frame.set(type, ts, 3);
+                frame.setValue(0, p.getGyroValue(Gyro.X));
+                frame.setValue(1, p.getGyroValue(Gyro.Y));
+                frame.setValue(2, p.getGyroValue(Gyro.Z));
+                break;
+            case BATTERY:
+                frame.set(type, ts, 3);
+                frame.setValue(0, p.getBatteryValue(Battery.CHARGE_PERCENTAGE_REMAINING));
+                frame.setValue(1, p.getBatteryValue(Battery.MILLIVOLTS));
+                frame.setValue(2, p.getBatteryValue(Battery.TEMPERATURE_CELSIUS));
+                break;
+            case DRL_REF:
+                frame.set(type, ts, 2);
+                frame.setValue(0, p.getDrlRefValue(DrlRef.DRL));
+                frame.setValue(1, p.getDrlRefValue(DrlRef.REF));
+                break;
+            case QUANTIZATION:
+            case ARTIFACTS:
+            case DROPPED_EEG:
+            case DROPPED_ACCELEROMETER:
+                // Tipos poco frecuentes: se usa la lista generica de valores.
+                final ArrayList<Double> values = p.values();
+                final int n = Math.min(values.size(), SampleFrame.MAX_VALUES);
+                frame.set(type, ts, n);
+                for (int i = 0; i < n; i++) {
+                    frame.setValue(i, values.get(i));
+                }
+                break;
+            default:
+                frame.set(type, ts, 6);
+                frame.setValue(0, p.getEegChannelValue(Eeg.EEG1));
+                frame.setValue(1, p.getEegChannelValue(Eeg.EEG2));
+                frame.setValue(2, p.getEegChannelValue(Eeg.EEG3));
+                frame.setValue(3, p.getEegChannelValue(Eeg.EEG4));
+                frame.setValue(4, p.getEegChannelValue(Eeg.AUX_LEFT));
+                frame.setValue(5, p.getEegChannelValue(Eeg.AUX_RIGHT));
+                break;
+        }
+    }
+
+    private final class DataListener extends MuseDataListener {
+        @Override
+        public void receiveMuseDataPacket(final MuseDataPacket p, final Muse muse) {
+            final long start = System.nanoTime();
+            final MuseDataPacketType type = p.packetType();
+            final int r = routes[type.ordinal()];
+            final PacketTap t = tap;
+            final Listener l = listener;
+            final boolean record = t != null && (r & SubscriptionProfile.RECORDING) != 0;
+            final boolean process = l != null
+                    && (r & (SubscriptionProfile.PROCESSING | SubscriptionProfile.UI)) != 0;
+            if (!record && !process) {
+                callbackCost.record(type, System.nanoTime() - start);
+                return;
+            }
+            // Si el pool se agota el procesamiento sigue con el frame propio y la muestra no
+            // se graba.
+            SampleFrame f = record ? pool.acquire() : null;
+            if (f == null) {
+                if (record) {
+                    recordsMissed++;
+                }
+                f = frame;
+            }
+            fillFrame(p, f);
+            final LatencyMonitor m = latency;
+            final boolean measure = m != null && m.enabled();
+            if (measure) {
+                f.setArrivalNanos(start);
+                m.record(LatencyMonitor.Metric.PACKET_TO_CALLBACK,
+                        (System.currentTimeMillis() * 1000 - p.timestamp()) * 1000);
+            }
+            if (process) {
+                l.onSampleFrame(LibmuseHeadbandSource.this, f);
+            }
+            if (f != frame) {
+                t.onRecord(f);
+            }
+            final long elapsed = System.nanoTime() - start;
+            callbackCost.record(type, elapsed);
+            if (measure) {
+                m.record(LatencyMonitor.Metric.CALLBACK_EXECUTION, elapsed);
+            }
+        }
+
+        @Override
+        public void receiveMuseArtifactPacket(final MuseArtifactPacket p, final Muse muse) {
+        }
+    }
+
+    private final class ConnectionListener extends MuseConnectionListener {
+        @Override
+        public void receiveMuseConnectionPacket(final MuseConnectionPacket p, final Muse muse) {
+            final Listener l = listener;
+            if (l != null) {
+                l.onConnectionChanged(LibmuseHeadbandSource.this,
+                        p.getPreviousConnectionState(), p.getCurrentConnectionState());
+            }
+        }
+    }
+}
@@ -3,12 +3,14 @@ package com.museui.muse.artuedu.museui;
 import android.Manifest;
 import android.app.AlertDialog;
 import android.bluetooth.BluetoothAdapter;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.os.Environment;
-import android.os.Handler;
-import android.os.Looper;
+import android.os.IBinder;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
@@ -16,163 +18,122 @@ import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
 import android.widget.ArrayAdapter;
-import android.widget.Button;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.TextView;
-import android.widget.Toast;
 
-import com.choosemuse.libmuse.Accelerometer;
-import com.choosemuse.libmuse.AnnotationData;
-import com.choosemuse.libmuse.ConnectionState;
-import com.choosemuse.libmuse.Eeg;
-import com.choosemuse.libmuse.LibmuseVersion;
 import com.choosemuse.libmuse.MessageType;
-import com.choosemuse.libmuse.Muse;
-import com.choosemuse.libmuse.MuseArtifactPacket;
-import com.choosemuse.libmuse.MuseConfiguration;
-import com.choosemuse.libmuse.MuseConnectionListener;
-import com.choosemuse.libmuse.MuseConnectionPacket;
-import com.choosemuse.libmuse.MuseDataListener;
-import com.choosemuse.libmuse.MuseDataPacket;
-import com.choosemuse.libmuse.MuseDataPacketType;
-import com.choosemuse.libmuse.MuseFileFactory;
-import com.choosemuse.libmuse.MuseFileReader;
-import com.choosemuse.libmuse.MuseFileWriter;
-import com.choosemuse.libmuse.MuseListener;
-import com.choosemuse.libmuse.MuseManagerAndroid;
-import com.choosemuse.libmuse.MuseVersion;
-import com.choosemuse.libmuse.Result;
-import com.choosemuse.libmuse.ResultLevel;
 
 import java.io.File;
-import java.lang.ref.WeakReference;
-import java.text.DecimalFormat;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicReference;
-
+import java.util.Locale;
+
+/**
+ * IU de la adquisicion. La conexion, el procesamiento y la grabacion viven en
+ * AcquisitionService; la actividad se enlaza con el servicio mientras esta visible, se suscribe
+ * como su Client y dibuja los estados y muestras que recibe. Recrear la actividad (girar la
+ * pantalla, cambiar de app) no interrumpe la adquisicion.
+ */
 public class MuseActivity extends AppCompatActivity implements View.OnClickListener{
 
     private final String TAG = "TestLibMuseAndroid";
 
     /**
-     * MuseManager sera la forma de comunicacion para tetectar nuevas headbands y recibir datos
-     * cuando la lista de headbands diponibles cambie.
-     */
-    private MuseManagerAndroid manager;
-
-    /**
-     * Muse se refiere a Muse headband.  Es necesario para conectar y desconectar de la headband,
-     * registrar listeners para recibir datos EEG  y obtener informacion de configuracion y version
-     * de la headband.
-     */
-    private Muse muse;
-
-    /**
-     * ConnectionListener sera notificado cuando exista un cambio en el estado de conexion de la
-     * headband, por ejemplo cuando la headband se conecta o desconecta.
-     * ConnectionListener es una clase interna dentro de este mismo archivo que hereda de
-     * MuseConnectionListener.
-     */
-    private ConnectionListener connectionListener;
-
-    /**
-     * DataListener sera la forma de recibir EEG datos (y otros) de la headband.
-     * DataListener es una clase definida en este mismo archivo que hereda de MuseDataListener.
+     * Servicio de adquisicion mientras la actividad esta enlazada; null antes de
+     * onServiceConnected y despues de onStop.
      */
-    private DataListener dataListener;
+    private AcquisitionService service;
 
     /**
      * Los datos son recibidos en una alta velocidad; 220Hz, 256Hz o 500Hz, dependiendo del tipo
-     * de headband y la configuracion de la misma.  Los datos recibidos son almacenados en el
-     * buffer hasta que se actualiza la IU.
+     * de headband y la configuracion de la misma.  El servicio almacena los datos recibidos en un
+     * buffer circular por tipo de paquete hasta que se actualiza la IU.
      *
-     * Las banderas indican si algun dato nuevo ha sido recibido y los buffers gurdan los valores
-     * del ultimo paquete recivido.
+     * La IU lee todas las muestras en orden desde los SampleRingBuffer del servicio y conserva la
+     * ultima en eegFrame, alphaFrame y accelFrame.
      * Para este ejemplo, los valores de EEG, ALPHA_RELATIVE y ACCELEROMETER son mostrados.
      *
      * Nota: el tamaño de los arreglos del buffer son tomados dependiendo de los paquetes.
      * MuseDataPacketType, consta de 3 valores para accelerometer y 6 para EEG y EEG-derived packets.
      */
-    private final double[] eegBuffer = new double[6];
-    private boolean eegStale;
-    private final double[] alphaBuffer = new double[6];
-    private boolean alphaStale;
-    private final double[] accelBuffer = new double[3];
-    private boolean accelStale;
+    private SampleRingBuffer eegSamples;
+    private SampleRingBuffer alphaSamples;
+    private SampleRingBuffer accelSamples;
+    private final double[] eegFrame = new double[6];
+    private final double[] alphaFrame = new double[6];
+    private final double[] accelFrame = new double[3];
 
     /**
-     * Los valores presentados en la IU seran actualizados cada 60fps por medio de un Handler.
-     * ya que los paquetes transmiten en una frecuancia alta y no es necesario una actualizacion
-     * tan constante. Los metodos de actualizacion realizan una asignacion de cadena por lo que
-     * gastan cierta memoria y hace mas conveniente el no actualizarlos tan en periodos cortos.
+     * Historia de las senales para las graficas: EEG1-EEG4 y AUX_LEFT, y los tres ejes del
+     * acelerometro. Se llenan al sacar las muestras de los buffers en el hilo de la IU. La de
+     * EEG se dimensiona con la frecuencia de EEG de la fuente.
      */
-    private final Handler handler = new Handler();
+    private static final int PLOT_SECONDS = 5;
+    private WaveformBuffer eegHistory = new WaveformBuffer(5, PLOT_SECONDS * 256);
+    private final WaveformBuffer accelHistory = new WaveformBuffer(3, PLOT_SECONDS * 52);
+    private WaveformView eegPlot;
+    private WaveformView accelPlot;
 
     /**
-     * La lista de dispositivos disponibles para establecer conexion sera mostrada en la IU
-     * mediante un spinner el cual contendra las direcciones MAC de todas las headbands encontradas.
+     * Potencia relativa de cada banda (delta, theta, alpha, beta y gamma) calculada por el
+     * servicio a partir del EEG crudo y promediada entre EEG1-EEG4. La IU conserva la ultima en
+     * bandFrame y la muestra en bandsText debajo del espectrograma.
      */
-    private ArrayAdapter<String> spinnerAdapter;
+    private SampleRingBuffer bandSamples;
+    private final double[] bandFrame = new double[BandPowerEngine.BANDS];
+    private TextView bandsText;
 
     /**
-     * Es posible detener la transmision de datos de la headband. Este boolean controlara si la
-     * transmision de datos esta activa o no, lo que permitira al usuario controlar la transmision
-     * de datos.
+     * Espectros de cada ventana de BandPowerEngine para el espectrograma, un frame con todos los
+     * canales por ventana.
      */
-    private boolean dataTransmission = true;
+    private SampleRingBuffer spectrumSamples;
+    private double[] spectrumFrame;
+    private int spectrumBins;
+    // 30 s de espectros, uno cada hop de BandPowerEngine.
+    private static final int SPECTROGRAM_SECONDS = 30;
+    private SpectrogramView spectrogram;
 
     /**
-     * Para guardar los datos en un archivo, es necesario usar un MuseFileWriter. El MuseFileWriter
-     * convierte los datos recibidos en un formato binario compacto.
-     * Para leer los datos guardados, es necesario utilizar un MuseFileReader.
+     * Los valores presentados en la IU se actualizan una vez por vsync con Choreographer, y
+     * solo cuando llegaron muestras nuevas o la imagen se esta moviendo, ya que los paquetes
+     * transmiten en una frecuencia alta y no es necesario dibujar cada uno.
      */
-    private final AtomicReference<MuseFileWriter> fileWriter = new AtomicReference<>();
+    private RenderLoop renderLoop;
 
     /**
-     * Para que las opereaciones de archivo no disminuyan la velocidad de la IU, seran ejecutadas
-     * por un handler en un hilo separado.
-     */
-    private final AtomicReference<Handler> fileHandler = new AtomicReference<>();
-
-    /**
-     * Con el objetivo de un mejor diseño de la interfaz para el usuario, la siguiente badera controlara si el dispositivo esta
-     * conectado, se usara el mismo boton para conectar que para desconectar.
+     * La lista de dispositivos disponibles para establecer conexion sera mostrada en la IU
+     * mediante un spinner el cual contendra las direcciones MAC de todas las headbands encontradas.
      */
-
-    private boolean connectionStatus = false;
+    private ArrayAdapter<String> spinnerAdapter;
 
     /**
-     * Contador para almacenamiento del status del usuario
+     * Ultimo estado recibido del servicio; se dibuja en el siguiente cuadro con uiRenderer.
      */
-
-    private int no_actualizaciones = 0;
+    private volatile UiState uiState = UiState.INITIAL;
+    private UiRenderer uiRenderer;
 
     /**
-     * Variables para almacenamiento de estatus comun de usuario
+     * Overlay de depuracion con las latencias del servicio; mantener presionado el status lo
+     * muestra y empieza a medir, y al ocultarlo el servicio escribe las latencias en un archivo.
      */
-
-    private double common_x = 0;
-    private double common_y = 0;
-    private double common_z = 0;
+    private TextView latencyOverlay;
+    private long latencyOverlayUpdatedAt;
+    private static final long LATENCY_OVERLAY_INTERVAL_NANOS = 500000000L;
 
     /**
-     * Variables para toma de decicion de movimiento
+    * Image view de imagen a mover
      */
-
-    private int moving_on = 0;
-    private int moving_status = 0;
-    private int user_move = 0;
-    // 0 = stop, 1 = adelante, 2 = atras, 3 = derecha, 4 = izquierda, 5 = detener/reanudar
-    private int bandera_det_rea = 0;
-    private int det_rea_status = 0;
-    // 0 = reanudar, 1 = detener
+    ImageView tv;
 
     /**
-    * Image view de imagen a mover
+     * Pose y velocidad de la imagen; solo se usa en el hilo de la IU.
      */
-    ImageView tv;
+    private final MotionModel motionModel = new MotionModel();
 
 
     //--------------------------------------
@@ -181,24 +142,6 @@ public class MuseActivity extends AppCompatActivity implements View.OnClickListe
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_muse);
-
-        // Es necesario establecer un contexto en MuseManagerAndroid antes de cualquier cosa.
-        // Proveniente de otra LibMuse API invocada tambien en la libreria.
-        manager = MuseManagerAndroid.getInstance();
-        manager.setContext(this);
-        //manager.setMuseListener(this);
-
-        Log.i(TAG, "LibMuse version=" + LibmuseVersion.instance().getString());
-
-        WeakReference<MuseActivity> weakActivity =
-                new WeakReference<MuseActivity>(this);
-        // Registro de un nuevo listener para recibir cambios en el estado de conexion.
-        connectionListener = new ConnectionListener(weakActivity);
-        // Registro de un listener para recivir datos de un dispositivo(Muse).
-        dataListener = new DataListener(weakActivity);
-        // Registro de un listener para recibir notificaciones de las headbands disponibles para conectar.
-        manager.setMuseListener(new MuseL(weakActivity));
 
         // Muse 2016 (MU-02) headbands usan  tecnologia Bluetooth Low Energy para simplificar el
         // proceso de conexion. Esta tecnologia requiere acceso a COARSE_LOCATION o FINE_LOCATION
@@ -211,102 +154,140 @@ public class MuseActivity extends AppCompatActivity implements View.OnClickListe
         //Asignacion de imagen
         tv = (ImageView)findViewById(R.id.silla);
 
-        // Inicio de un hilo para las operaciones de archivo asincronas.
-        // En caso que se quiera guardar o leer información(I/O).
-        fileThread.start();
+        // Ciclo de dibujo de la IU; empieza a pedir cuadros en onResume.
+        renderLoop = new RenderLoop(frameRenderer,
+                getWindowManager().getDefaultDisplay().getRefreshRate());
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, AcquisitionService.class), connection,
+                Context.BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Sin cliente el servicio deja de llenar los buffers de la IU, pero la adquisicion
+        // sigue si hay una headband conectada.
+        if (service != null) {
+            service.unsubscribe(client);
+            service = null;
+        }
+        unbindService(connection);
+    }
 
-        // Inicio de las actualizaciones asincronas de la IU.
-        handler.post(tickUi);
+    @Override
+    protected void onResume() {
+        super.onResume();
+        renderLoop.resume();
     }
 
     protected void onPause() {
         super.onPause();
-        // Para evitar la fuga de informacion de la libreria LibMuse es importante llamar
-        // stopListening cuando la actividad es pausada.
-        manager.stopListening();
+        renderLoop.pause();
+        Log.i(TAG, "Cuadros: " + renderLoop.stats().summary());
     }
 
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = ((AcquisitionService.LocalBinder) binder).service();
+            eegSamples = service.eegSamples();
+            alphaSamples = service.alphaSamples();
+            accelSamples = service.accelSamples();
+            bandSamples = service.bandSamples();
+            useBandPowers(service);
+            renderLoop.setLatencyMonitor(service.latency());
+            latencyOverlay.setVisibility(service.latency().enabled() ? View.VISIBLE : View.GONE);
+            service.subscribe(client);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            service = null;
+        }
+    };
+
+    /**
+     * Recibe del servicio los estados y avisos de muestras nuevas y pide un cuadro.
+     */
+    private final AcquisitionService.Client client = new AcquisitionService.Client() {
+        @Override
+        public void onStateChanged(UiState state) {
+            uiState = state;
+            final AcquisitionService s = service;
+            renderLoop.setActive(s != null && s.isConnected());
+        }
+
+        @Override
+        public void onSamplesAvailable() {
+            renderLoop.invalidate();
+        }
+
+        @Override
+        public void onMuseListChanged(List<String> names) {
+            spinnerAdapter.clear();
+            for (String name : names) {
+                spinnerAdapter.add(name);
+            }
+        }
+
+        @Override
+        public void onEegRateChanged(int eegRate) {
+            final AcquisitionService s = service;
+            if (s != null) {
+                useBandPowers(s);
+            }
+        }
+    };
+
     public boolean isBluetoothEnabled() {
         return BluetoothAdapter.getDefaultAdapter().isEnabled();
     }
 
     public void onClick(View v) {
+        if (service == null) {
+            Log.w(TAG, "El servicio de adquisicion aun no esta listo");
+            return;
+        }
         if (v.getId() == R.id.btn_actualizar) {
             // El usuario ha presionado el boton Actualizar
-            // Comienza la busqueda de Muse headbands. Primero se llama stopListening para
-            // asegurarnos que startListening estara limpio y se actualizara con las headbands
-            // nuevas detectadas.
-            manager.stopListening();
-            manager.startListening();
+            // Comienza la busqueda de Muse headbands.
+            service.refresh();
 
         } else if (v.getId() == R.id.btn_conectar_desconectar) {
 
-            if(connectionStatus == false){
+            if (service.hasSessions()) {
+                // Las headbands de las sesiones se desconectan con una pulsacion larga.
+                Log.w(TAG, "Hay sesiones conectadas");
+            } else if(!service.isConnected()){
 
                 // El usuario ha presionado el boton Conectar para conectar a la headband seleccionada
                 // en el Spinner.
-
-                // Listening es una operacion de coso alto, por lo que una vez que se conoce la headband
-                // a la que se va a conectar se detiene de buscar otra headband.
-                manager.stopListening();
-
-                List<Muse> availableMuses = manager.getMuses();
                 Spinner musesSpinner = (Spinner) findViewById(R.id.spinner);
 
                 // Se busca si realmente existe algo a que conectarse.
-                if (availableMuses.size() < 1 || musesSpinner.getAdapter().getCount() < 1) {
+                if (musesSpinner.getAdapter().getCount() < 1
+                        || !service.connect(musesSpinner.getSelectedItemPosition())) {
+                    // Sin headbands se ofrece una fuente de prueba.
                     Log.w(TAG, "No existe dispositivo a que conectar");
+                    chooseTestSource();
                 } else {
-
-                    // Se almacena la headband(Muse) que el usuario selecciono.
-                    muse = availableMuses.get(musesSpinner.getSelectedItemPosition());
-                    // Se desregistran todos los listeners anteriores y se registra un data listener
-                    // para recibir los datos del paquete MuseDataPacketTypes en el que se esta
-                    // interesado. Si no se registra un listener para cada tipo de datos particular,
-                    // no se recibira ningun pauqete de datos de ese tipo.
-                    muse.unregisterAllListeners();
-                    muse.registerConnectionListener(connectionListener);
-                    muse.registerDataListener(dataListener, MuseDataPacketType.EEG);
-                    muse.registerDataListener(dataListener, MuseDataPacketType.ALPHA_RELATIVE);
-                    muse.registerDataListener(dataListener, MuseDataPacketType.ACCELEROMETER);
-                    muse.registerDataListener(dataListener, MuseDataPacketType.BATTERY);
-                    muse.registerDataListener(dataListener, MuseDataPacketType.DRL_REF);
-                    muse.registerDataListener(dataListener, MuseDataPacketType.QUANTIZATION);
-
-                    // Se inicia la conexion con la headband y se recibe datos asincronicamente.
-                    muse.runAsynchronously();
-
-                    //Reinicializacion de numeo de actualizaciones para status de usuario
-                    no_actualizaciones = -60;
-
-                    //Cambio en el estado de la conexión
-                    connectionStatus = true;
+                    renderLoop.setActive(true);
                 }
             }else{
                 // El ususario ha presionado el boton Desconectar.
                 // Descnexion de la headband(Muse) seleccionada.
-
-                //Cambio en el estado de la conexión
-                connectionStatus = false;
-
-                if (muse != null) {
-                    muse.disconnect();
-                }
+                service.disconnect();
+                renderLoop.setActive(false);
             }
 
         }
-        /*else if (v.getId() == R.id.btn_detener_reanudar) {
-
-            // El usuario ha presionado el oton Detener/Reanudar para detener o reanudar la
-            // transmision de datos. Se intercala el estado y se pausa o reanuda la transmision de
-            // datos de la headband.
-            if (muse != null) {
-                dataTransmission = !dataTransmission;
-                muse.enableDataTransmission(dataTransmission);
-            }
-        }*/
     }
 
+
     //--------------------------------------
     // Permisos
 
@@ -351,164 +332,6 @@ public class MuseActivity extends AppCompatActivity implements View.OnClickListe
         }
     }
 
-    //--------------------------------------
-    // Listeners
-
-    /**
-     * Este metodo recibira una llamada cada vez que se encuentre una headband.
-     * Se actualiza el spinner con la direccion MAC de la nueva headband encontrada.
-     */
-    public void museListChanged() {
-        final List<Muse> list = manager.getMuses();
-        spinnerAdapter.clear();
-        for (Muse m : list) {
-            spinnerAdapter.add(m.getName() + " - " + m.getMacAddress());
-        }
-    }
-
-    /**
-     * Este metodo recibira una llamada cada vez que cambie el estado de conexion de una de las
-     * headbands y cambia el status en la IU.
-     * @param p     Paquete que contiene el estado de conexion anterior y actual.
-     * @param muse  La headband que cambio su estado.
-     */
-    public void receiveMuseConnectionPacket(final MuseConnectionPacket p, final Muse muse) {
-
-        final ConnectionState current = p.getCurrentConnectionState();
-
-        // Formato de mensaje para mostrar el cambio en el estado de conexion en la IU.
-        final String status = p.getPreviousConnectionState() + " -> " + current;
-        Log.i(TAG, status);
-
-        // Actualizacion de la IU con el cambio en el estado de conexion.
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-
-                final TextView statusText = (TextView) findViewById(R.id.status);
-                if(status.equals("CONNECTING -> DISCONNECTED")){
-                    final String status = "Desconectando";
-                    statusText.setText(status);
-                    new Handler().postDelayed(new Runnable() {
-                        @Override
-                        public void run() {
-                            final String status = "Desconectado";
-                            statusText.setText(status);
-                        }
-                    }, 2000);
-                }else {
-                    if(status.equals("DISCONNECTED -> CONNECTING")){
-                        final String status = "Conectando";
-                        statusText.setText(status);
-                    }else{
-                        if(status.equals("CONNECTING -> CONNECTED")){
-                            final String status = "Conectado";
-                            statusText.setText(status);
-                        }else{
-                            statusText.setText(status);
-                        }
-                    }
-                }
-
-                //En caso dde mostrar la version al usuario
-                //final MuseVersion museVersion = muse.getMuseVersion();
-                //final TextView museVersionText = (TextView) findViewById(R.id.textv_version);
-
-
-                // Si aun no se ha conectado a una headband, la informacion de version sera nula.
-                // Se debe establecer conexion antes de que la informacion de version y
-                // configuracion sea conocida.
-                /*if (museVersion != null) {
-                    final String version = museVersion.getFirmwareType() + " - "
-                            + museVersion.getFirmwareVersion() + " - "
-                            + museVersion.getProtocolVersion();
-                    museVersionText.setText(version);
-                } else {
-                    museVersionText.setText(R.string.desconocido);
-                }*/
-            }
-        });
-
-        if (current == ConnectionState.DISCONNECTED) {
-            Log.i(TAG, "Muse desconectado:" + muse.getName());
-            // Se guarda el archivo de datos cuando la transmision se ha detenido.
-            saveFile();
-            // Se ha desconectado de la headband, asi que inicializa la copia en cache en null.
-            this.muse = null;
-        }
-    }
-
-    /**
-     * Este metodo recibira una llamada cada vez que la headband mande un MuseDataPacket
-     * que se tenga registrado. Se pueden utilizar diferentes listener para cada tipo de paquete o
-     * uno solo para todos como se ha hecho.
-     * @param p     El paquete de datos con datos provenientes de la headband (eg. EEG data)
-     * @param muse  La headband que envia la informacion.
-     */
-    public void receiveMuseDataPacket(final MuseDataPacket p, final Muse muse) {
-        writeDataPacketToFile(p);
-
-        // valuesSize recupera el numero de datos contenidos en el paquete.
-        final long n = p.valuesSize();
-        switch (p.packetType()) {
-            case EEG:
-                assert(eegBuffer.length >= n);
-                getEegChannelValues(eegBuffer,p);
-                eegStale = true;
-                break;
-            case ACCELEROMETER:
-                assert(accelBuffer.length >= n);
-                getAccelValues(p);
-                accelStale = true;
-                break;
-            case ALPHA_RELATIVE:
-                assert(alphaBuffer.length >= n);
-                getEegChannelValues(alphaBuffer,p);
-                alphaStale = true;
-                break;
-            case BATTERY:
-            case DRL_REF:
-            case QUANTIZATION:
-            default:
-                break;
-        }
-    }
-
-    /**
-     * Este metodo recibira una llamada cada vez que un artifact packet es generado en caso de tener
-     * registrado para el tipo de datos ARTIFACTS.  MuseArtifactPackets son generados cuando un
-     * parpadeo es detectado, la mandibula esta apretada y cuando la headband se pone o quita.
-     * @param p     El paquete artifact con datos de la headband.
-     * @param muse  La headband que envia la informacion.
-     */
-    public void receiveMuseArtifactPacket(final MuseArtifactPacket p, final Muse muse) {
-    }
-
-    /**
-     * Metodos para obtener diferentes tipos de paquetes de datos. Estos metodos solo almacenan los
-     * datos en los buffers para mostralos en la IU posteriormente.
-     *
-     * getEegChannelValue puede ser usado para cualquier EEG o EEG paquete de datos derivado como
-     * EEG, ALPHA_ABSOLUTE, ALPHA_RELATIVE o HSI_PRECISION. Para mas informacion revisar la
-     * documentacion de MuseDataPacketType para todos los valores disponibles.
-     * Paquetes de datos especificos como ACCELEROMETER, GYRO, BATTERY y DRL_REF tienen sus propios
-     * metodos getter (getValue methods).
-     */
-    private void getEegChannelValues(double[] buffer, MuseDataPacket p) {
-        buffer[0] = p.getEegChannelValue(Eeg.EEG1);
-        buffer[1] = p.getEegChannelValue(Eeg.EEG2);
-        buffer[2] = p.getEegChannelValue(Eeg.EEG3);
-        buffer[3] = p.getEegChannelValue(Eeg.EEG4);
-        buffer[4] = p.getEegChannelValue(Eeg.AUX_LEFT);
-        buffer[5] = p.getEegChannelValue(Eeg.AUX_RIGHT);
-    }
-
-    private void getAccelValues(MuseDataPacket p) {
-        accelBuffer[0] = p.getAccelerometerValue(Accelerometer.X);
-        accelBuffer[1] = p.getAccelerometerValue(Accelerometer.Y);
-        accelBuffer[2] = p.getAccelerometerValue(Accelerometer.Z);
-    }
-
     //--------------------------------------
     // Metodos especificos de IU
 
@@ -519,12 +342,32 @@ public class MuseActivity extends AppCompatActivity implements View.OnClickListe
         setContentView(R.layout.activity_muse);
         ImageButton refreshButton = (ImageButton) findViewById(R.id.btn_actualizar);
         refreshButton.setOnClickListener(this);
+        refreshButton.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                if (service == null) {
+                    return false;
+                }
+                chooseSubscriptionProfile();
+                return true;
+            }
+        });
         ImageButton connectButton = (ImageButton) findViewById(R.id.btn_conectar_desconectar);
         connectButton.setOnClickListener(this);
-        //Button disconnectButton = (Button) findViewById(R.id.btn_desconectar);
-        //disconnectButton.setOnClickListener(this);
-        //Button pauseButton = (Button) findViewById(R.id.btn_detener_reanudar);
-        //pauseButton.setOnClickListener(this);
+        connectButton.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                if (service == null) {
+                    return false;
+                }
+                if (service.hasSessions()) {
+                    service.disconnectAll();
+                } else {
+                    service.connectAll();
+                }
+                return true;
+            }
+        });
 
         //Elemento en spinner
         spinnerAdapter = new ArrayAdapter<String>(this, android.R.layout.simple_spinner_item);
@@ -533,429 +376,265 @@ public class MuseActivity extends AppCompatActivity implements View.OnClickListe
         musesSpinner.setAdapter(spinnerAdapter);
         spinnerAdapter.add("Headband");
 
-        //Mensaje de desconectado
-        TextView txt_gesture = (TextView)findViewById(R.id.status);
-        txt_gesture.setText("Desconectado");
+        // El primer cuadro muestra el estado inicial (Desconectado).
+        final TextView status = (TextView) findViewById(R.id.status);
+        uiRenderer = new UiRenderer(status);
+
+        latencyOverlay = (TextView) findViewById(R.id.latency_overlay);
+        status.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                if (service == null) {
+                    return false;
+                }
+                final boolean tracing = !service.latency().enabled();
+                service.setLatencyTracing(tracing);
+                latencyOverlay.setText("");
+                latencyOverlay.setVisibility(tracing ? View.VISIBLE : View.GONE);
+                return true;
+            }
+        });
+
+        // Graficas de EEG y acelerometro.
+        eegPlot = (WaveformView) findViewById(R.id.plot_eeg);
+        eegPlot.setBuffer(eegHistory, eegHistory.capacity());
+        accelPlot = (WaveformView) findViewById(R.id.plot_acc);
+        accelPlot.setBuffer(accelHistory, accelHistory.capacity());
+
+        // El espectrograma se dimensiona al enlazarse con el servicio.
+        spectrogram = (SpectrogramView) findViewById(R.id.spectrogram);
+        spectrogram.setRange(-1, 3);
+        bandsText = (TextView) findViewById(R.id.bands);
 
     }
 
     /**
-     * Ejecutable usado para actualizar la IU en 60Hz.
-     *
-     * Se actualiza la IU desde este ejecutable ya que se quiere actualizar en 60fps. Las funciones
-     * de actualizacion realizan asignacion de strings lo que reduce la memoria de impresion.
+     * Dibujo de un cuadro de la IU, llamado por RenderLoop una vez por vsync mientras haya algo
+     * que actualizar. Las funciones de actualizacion realizan asignacion de strings lo que
+     * reduce la memoria de impresion. En cada cuadro se leen todas las muestras acumuladas desde
+     * el cuadro anterior.
      */
-    private final Runnable tickUi = new Runnable() {
+    private final RenderLoop.Renderer frameRenderer = new RenderLoop.Renderer() {
         @Override
-        public void run() {
-            if (eegStale) {
-                updateEeg();
+        public boolean render(long frameTimeNanos) {
+            final AcquisitionService s = service;
+            if (s == null) {
+                return false;
             }
-            if (accelStale) {
-                updateAccel();
+            if (drainSamples(eegSamples, eegFrame, eegHistory, "EEG")) {
+                eegPlot.invalidate();
             }
-            if (alphaStale) {
+            if (drainSamples(accelSamples, accelFrame, accelHistory, "ACCELEROMETER")) {
+                accelPlot.invalidate();
+            }
+            if (drainSamples(alphaSamples, alphaFrame, null, "ALPHA_RELATIVE")) {
                 updateAlpha();
             }
-            handler.postDelayed(tickUi, 1000 / 60);
+            if (drainSamples(bandSamples, bandFrame, null, "BANDS")) {
+                updateBands();
+            }
+            if (drainSpectrum()) {
+                spectrogram.invalidate();
+            }
+            final UiState state = uiState;
+            uiRenderer.render(state);
+            // Mientras la imagen se mueve, o frena, se sigue dibujando aunque no lleguen
+            // muestras.
+            final boolean moving = movimiento(s.isConnected() ? state.motion() : Gesture.STOP,
+                    frameTimeNanos);
+            updateLatencyOverlay(s.latency());
+            return moving;
         }
     };
 
     /**
-     * Los siguientes metodos actualizan los TextViews en la IU con los datos provenientes de
-     * los buffers.
+     * Registra el fin del cuadro, que dibujo el ultimo gesto emitido, y actualiza el overlay
+     * cada LATENCY_OVERLAY_INTERVAL_NANOS.
      */
-    private void updateAccel() {
-        if(moving_status == 0){
-            userGesture(accelBuffer[0], accelBuffer[1], accelBuffer[2]);
-        }else if(moving_status == 15){
-            moving_status = 0;
-        }else{
-            moving_status++;
+    private void updateLatencyOverlay(LatencyMonitor latency) {
+        if (!latency.enabled()) {
+            return;
+        }
+        final long now = System.nanoTime();
+        latency.frameRendered(now);
+        if (now - latencyOverlayUpdatedAt >= LATENCY_OVERLAY_INTERVAL_NANOS) {
+            latencyOverlayUpdatedAt = now;
+            latencyOverlay.setText(latency.summary());
         }
-        /*
-        TextView acc_x = (TextView)findViewById(R.id.acc_x);
-        TextView acc_y = (TextView)findViewById(R.id.acc_y);
-        TextView acc_z = (TextView)findViewById(R.id.acc_z);
-        acc_x.setText(String.format("%6.2f", accelBuffer[0]));
-        acc_y.setText(String.format("%6.2f", accelBuffer[1]));
-        acc_z.setText(String.format("%6.2f", accelBuffer[2]));
-        */
     }
 
-    private void updateEeg() {
-        /*
-        TextView tp9 = (TextView)findViewById(R.id.eeg_tp9);
-        TextView fp1 = (TextView)findViewById(R.id.eeg_af7);
-        TextView fp2 = (TextView)findViewById(R.id.eeg_af8);
-        TextView tp10 = (TextView)findViewById(R.id.eeg_tp10);
-        tp9.setText(String.format("%6.2f", eegBuffer[0]));
-        fp1.setText(String.format("%6.2f", eegBuffer[1]));
-        fp2.setText(String.format("%6.2f", eegBuffer[2]));
-        tp10.setText(String.format("%6.2f", eegBuffer[3]));
-        */
+    /**
+     * Lee en orden todas las muestras pendientes de un buffer y deja la ultima en frame.
+     * @param history  Si no es null, recibe cada muestra leida para las graficas.
+     * @return true si se leyo al menos una muestra.
+     */
+    private boolean drainSamples(SampleRingBuffer samples, double[] frame,
+                                 WaveformBuffer history, String name) {
+        boolean stale = false;
+        while (samples.poll(frame)) {
+            if (history != null) {
+                history.add(frame);
+            }
+            stale = true;
+        }
+        final long lost = samples.takeOverflow();
+        if (lost > 0) {
+            Log.w(TAG, name + ": " + lost + " muestras descartadas por buffer lleno");
+        }
+        return stale;
+    }
+
+    /**
+     * Escribe en el espectrograma todos los espectros pendientes, una columna por ventana.
+     * @return true si se escribio al menos una columna.
+     */
+    private boolean drainSpectrum() {
+        boolean stale = false;
+        while (spectrumSamples.poll(spectrumFrame)) {
+            spectrogram.addColumn(spectrumFrame, spectrumBins);
+            stale = true;
+        }
+        final long lost = spectrumSamples.takeOverflow();
+        if (lost > 0) {
+            Log.w(TAG, "SPECTRUM: " + lost + " columnas descartadas por buffer lleno");
+        }
+        return stale;
     }
 
+    /**
+     * Actualiza los TextViews de ALPHA_RELATIVE; EEG y acelerometro se muestran en las graficas.
+     */
     private void updateAlpha() {
         /*
         TextView elem1 = (TextView)findViewById(R.id.elem1);
-        elem1.setText(String.format("%6.2f", alphaBuffer[0]));
+        elem1.setText(String.format("%6.2f", alphaFrame[0]));
         TextView elem2 = (TextView)findViewById(R.id.elem2);
-        elem2.setText(String.format("%6.2f", alphaBuffer[1]));
+        elem2.setText(String.format("%6.2f", alphaFrame[1]));
         TextView elem3 = (TextView)findViewById(R.id.elem3);
-        elem3.setText(String.format("%6.2f", alphaBuffer[2]));
+        elem3.setText(String.format("%6.2f", alphaFrame[2]));
         TextView elem4 = (TextView)findViewById(R.id.elem4);
-        elem4.setText(String.format("%6.2f", alphaBuffer[3]));
+        elem4.setText(String.format("%6.2f", alphaFrame[3]));
         */
     }
 
-    //--------------------------------------
-    // Gestos de movimiento y manipulacion de UI
     /**
-     * Cada vez que los datos del acelerometro son actulizados se aplica el siguiente procesamiento
-     * para determinar si el usuario ha realizado un gesto o continua igual.
+     * Dimensiona la grafica de EEG y el espectrograma de EEG1-EEG4, en log10(uV^2/Hz), para el
+     * BandPowerEngine actual del servicio, que depende de la frecuencia de EEG de la fuente.
      */
-
-    private void userGesture(double x, double y, double z){
-
-        Context context = getApplicationContext();
-        /*
-        Toast accToast = Toast.makeText(context, "x: " + String.format("%6.2f", x) +
-                                                 " y: " + String.format("%6.2f", y) +
-                                                 " z: " + String.format("%6.2f", z) , Toast.LENGTH_SHORT);
-        accToast.show();
-        */
-
-        TextView txt_gesture = (TextView)findViewById(R.id.status);
-
-        //Verificacion de dispositivo conectado
-        if(connectionStatus == true) {
-            //Comprobacion de numero de actualizaciones para determinacion de posicion inicial de usuario
-            if (no_actualizaciones < 120) {
-                //Comprobacion de primera actualizacion
-                if (no_actualizaciones == 0) {
-                    //Notificacion a usuario
-                    txt_gesture.setText("No realices ningun movimiento");
-                    //Asignacion de valores iniciales a los tres ejes
-                    common_x = x;
-                    common_y = y;
-                    common_z = z;
-                }
-                //Promedio de nuevo valor de eje con el promedio acumulado
-                common_x = (common_x + x) / 2;
-                common_y = (common_y + y) / 2;
-                common_z = (common_z + z) / 2;
-                no_actualizaciones++;
-                if (no_actualizaciones == 120) {
-                    /*TextView acc_x = (TextView)findViewById(R.id.acc_x);
-                    TextView acc_y = (TextView)findViewById(R.id.acc_y);
-                    TextView acc_z = (TextView)findViewById(R.id.acc_z);
-                    acc_x.setText(String.format("%6.2f", common_x));
-                    acc_y.setText(String.format("%6.2f", common_y));
-                    acc_z.setText(String.format("%6.2f", common_z));*/
-                    txt_gesture.setText("Listo");
-                }
-            } else if (no_actualizaciones < 150) {
-                //Tiempo de espera
-                no_actualizaciones++;
-            } else {
-                //Gesticulacion
-                if ((x - .20) > common_x) {
-                    if (moving_on == 0) {
-                        //Adelante
-                        user_move = 1;
-                        moving_status = 1;
-                        moving_on = 1;
-                    } else {
-                        //Stop
-                        user_move = 0;
-                        moving_status = 1;
-                        moving_on = 0;
-                    }
-                    if ((y - .10) > common_y) {
-                        //Detener/Reanudar
-                        moving_status = 1;
-                        if (moving_on == 0) {
-                            user_move = 5;
-                            movimiento();
-                        }
-                    }
-                    /*else if((y + .10) < common_y){
-                        if(user_move == 5){
-                            user_move = 6;
-                            movimiento();
-                        }else{
-                            movimiento();
-                        }
-                    }else{
-                        txt_gesture.setText("Adelante");
-                    }*/
-                } else if ((x + .20) < common_x) {
-                    if (moving_on == 0) {
-                        //Atras
-                        user_move = 2;
-                        moving_status = 1;
-                        moving_on = 1;
-                    } else {
-                        //Stop
-                        user_move = 0;
-                        moving_status = 1;
-                        moving_on = 0;
-                    }
-                } else {
-                    if ((y - .10) > common_y) {
-                        if (user_move == 0) {
-                            //Derecha
-                            user_move = 3;
-                            movimiento();
-                        } else {
-                            movimiento();
-                        }
-                    } else if ((y + .10) < common_y) {
-                        if (user_move == 0) {
-                            //Izquierda
-                            user_move = 4;
-                            movimiento();
-                        } else {
-                            movimiento();
-                        }
-                    } else {
-                        //Nada
-                        if (user_move == 3 || user_move == 4) {
-                            user_move = 0;
-                        }
-                        movimiento();
-                    }
-                }
-            }
-        }
-
-    }
-
-    //Metodos de movimiento de la imagen
-    public void Derecha()
-    {
-        float r = tv.getRotation();
-        tv.setRotation(r+1);
-
-        if((r+1) == 360)
-        {
-            r = 0;
-            tv.setRotation(r);
-        }
-    }
-
-    public void Izquierda()
-    {
-        float r = tv.getRotation();
-        tv.setRotation(r-1);
-
-        if((r-1) == -360)
-        {
-            r = 0;
-            tv.setRotation(r);
+    private void useBandPowers(AcquisitionService s) {
+        final BandPowerEngine bandPowers = s.bandPowers();
+        spectrumSamples = s.spectrumSamples();
+        spectrumBins = bandPowers.spectrumBins();
+        spectrumFrame = new double[bandPowers.channels() * spectrumBins];
+        spectrogram.setLayout(4, spectrumBins, (int) (SPECTROGRAM_SECONDS
+                * bandPowers.sampleRate() / bandPowers.hopSize()));
+        final int plotSamples = (int) (PLOT_SECONDS * bandPowers.sampleRate());
+        if (eegHistory.capacity() != plotSamples) {
+            eegHistory = new WaveformBuffer(eegHistory.channels(), plotSamples);
+            eegPlot.setBuffer(eegHistory, eegHistory.capacity());
         }
     }
 
-    public void Adelante()
-    {
-        float r = tv.getRotation();
-        float x = tv.getX();
-        float y = tv.getY();
-
-        if(r < 0)
-        {
-            r = 360 + r;
-        }
-
-        if(r == 0)
-        {
-            tv.setX(x+1);
-        }
-        else if(r == 90)
-        {
-            tv.setY(y+1);
-        }
-        else if(r == 180)
-        {
-            tv.setX(x-1);
-        }
-        else if(r == 270)
-        {
-            tv.setY(y-1);
-        }
-        else
-        {
-            double angr = Math.toRadians(r);
-
-            double co = (Math.sin(angr)) * 1;
-            double ca = (Math.cos(angr)) * 1;
-
-            tv.setX(x + (float)ca);
-            tv.setY(y + (float)co);
-        }
-    }
-
-    public void Atras()
-    {
-        float r = tv.getRotation();
-        float x = tv.getX();
-        float y = tv.getY();
-
-        if(r < 0)
-        {
-            r = 360 + r;
-        }
-
-        if(r == 0)
-        {
-            tv.setX(x-1);
-        }
-        else if(r == 90)
-        {
-            tv.setY(y-1);
-        }
-        else if(r == 180)
-        {
-            tv.setX(x+1);
-        }
-        else if(r == 270)
-        {
-            tv.setY(y+1);
-        }
-        else
-        {
-            double angr = Math.toRadians(r);
-
-            double co = (Math.sin(angr)) * 1;
-            double ca = (Math.cos(angr)) * 1;
-
-            tv.setX(x - (float)ca);
-            tv.setY(y - (float)co);
-        }
-    }
-
-    private void movimiento(){
-
-        TextView txt_gesture = (TextView)findViewById(R.id.status);
-
-        /*TextView acc_x = (TextView)findViewById(R.id.acc_x);
-        acc_x.setText(String.format("%d", user_move));*/
-
-        switch (user_move) {
-            case 0:
-                txt_gesture.setText("Stop");
-                bandera_det_rea = 0;
-                if(det_rea_status == 1){
-                    txt_gesture.setText("Inclinate para desbloquear");
-                }
-                break;
-            case 1:
-                if(det_rea_status == 0){
-                    txt_gesture.setText("Adelante");
-                    Adelante();
-                }
-                break;
-            case 2:
-                if(det_rea_status == 0){
-                    txt_gesture.setText("Atras");
-                    Atras();
-                }
-                break;
-            case 3:
-                if(det_rea_status == 0){
-                    txt_gesture.setText("Derecha");
-                    Derecha();
-                }
-                break;
-            case 4:
-                if(det_rea_status == 0){
-                    txt_gesture.setText("Izquierda");
-                    Izquierda();
-                }
-                break;
-            case 5:
-                if (bandera_det_rea == 0) {
-                    if(det_rea_status == 1){
-                        txt_gesture.setText("Reanudar       ↓");
-                        det_rea_status = 0;
-                        //Reinicializacion de numero de actualizaciones
-                        no_actualizaciones = -60;
-                    }else{
-                        txt_gesture.setText("Detener        ↓");
-                        det_rea_status = 1;
-                    }
-                    bandera_det_rea = 1;
-                }
-                break;
-        }
+    /**
+     * Dialogo para elegir el perfil de suscripcion, que se aplica en la siguiente conexion.
+     */
+    private void chooseSubscriptionProfile() {
+        final SubscriptionProfile[] profiles = SubscriptionProfile.values();
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.titulo_perfil)
+                .setSingleChoiceItems(R.array.perfiles, service.subscriptionProfile().ordinal(),
+                        new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                if (service != null) {
+                                    service.setSubscriptionProfile(profiles[which]);
+                                }
+                                dialog.dismiss();
+                            }
+                        })
+                .show();
     }
 
-    //--------------------------------------
-    // Archivos de Entrada/Salida  ( Files I/O )
-
     /**
-     * Para evitar el bloqueo del hilo da la IU mientras se escribe un archivo, el archivo de
-     * escritura se moeve a un hilo separado.
+     * Dialogo para conectar una fuente de prueba sin Bluetooth: la headband sintetica o una de
+     * las grabaciones .muse de Environment.DIRECTORY_DOWNLOADS, reproducida en tiempo real.
      */
-    private final Thread fileThread = new Thread() {
-        @Override
-        public void run() {
-            Looper.prepare();
-            fileHandler.set(new Handler());
-            final File dir = getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS);
-            final File file = new File(dir, "new_muse_file.muse" );
-            // MuseFileWriter se adjunta a un archivo existente.
-            // Para este caso, se quiere empezar desde el inicio asi que si ya existe un archi...
-            if (file.exists()) {
-                file.delete();
+    private void chooseTestSource() {
+        final File dir = getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS);
+        final String[] files = dir == null ? null : dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.endsWith(".muse");
             }
-            Log.i(TAG, "Writing data to: " + file.getAbsolutePath());
-            fileWriter.set(MuseFileFactory.getMuseFileWriter(file));
-            Looper.loop();
-        }
-    };
+        });
+        final String[] items = new String[1 + (files == null ? 0 : files.length)];
+        items[0] = getString(R.string.fuente_sintetica);
+        if (files != null) {
+            Arrays.sort(files);
+            System.arraycopy(files, 0, items, 1, files.length);
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.titulo_fuente_prueba)
+                .setItems(items, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (service == null) {
+                            return;
+                        }
+                        if (which == 0) {
+                            service.connectSynthetic(AcquisitionService.MUSE_EEG_RATE);
+                            renderLoop.setActive(true);
+                        } else {
+                            replayMuseFile(items[which], 1);
+                        }
+                    }
+                })
+                .show();
+    }
 
     /**
-     * Se escribe el MuseDataPacket para el archivo.  MuseFileWriter sabe como escribir todos los
-     * tipos de datos generados por LibMuse.
-     * @param p     El paquete de datos a escribir.
+     * Muestra la ultima potencia relativa de cada banda, por ejemplo
+     * "delta 0.42  theta 0.21  alpha 0.18  beta 0.12  gamma 0.07". Se llama solo cuando llega
+     * una ventana nueva, unas pocas veces por segundo.
      */
-    private void writeDataPacketToFile(final MuseDataPacket p) {
-        Handler h = fileHandler.get();
-        if (h != null) {
-            h.post(new Runnable() {
-                @Override
-                public void run() {
-                    fileWriter.get().addDataPacket(0, p);
-                }
-            });
+    private void updateBands() {
+        final EegBand[] bands = EegBand.values();
+        final StringBuilder sb = new StringBuilder();
+        for (int b = 0; b < bands.length; b++) {
+            if (b > 0) {
+                sb.append("  ");
+            }
+            sb.append(bands[b].name().toLowerCase(Locale.US)).append(' ')
+                    .append(String.format(Locale.US, "%.2f", bandFrame[b]));
         }
+        bandsText.setText(sb.toString());
     }
 
+    //--------------------------------------
+    // Gestos de movimiento y manipulacion de UI
+
+    //Movimiento de la imagen
     /**
-     * Se hace un flush a todos los datos y se cierra el file writer.
+     * Aplica el movimiento actual al modelo, lo avanza hasta el tiempo del cuadro y copia la pose
+     * a la imagen una sola vez.
+     * @return true si la imagen se sigue moviendo.
      */
-    private void saveFile() {
-        Handler h = fileHandler.get();
-        if (h != null) {
-            h.post(new Runnable() {
-                @Override public void run() {
-                    MuseFileWriter w = fileWriter.get();
-                    // Se pueden agregar string annotations al archivo para
-                    // dar un contexto de lo que esta sucediendo en ese punto
-                    // de tiempo. Una annotation puede ser una cadena arbitriaria o
-                    // puede incluir una annotationdata adicional.
-                    w.addAnnotationString(0, "Disconnected");
-                    w.flush();
-                    w.close();
-                }
-            });
-        }
+    private boolean movimiento(Gesture motion, long frameTimeNanos) {
+        motionModel.setCommand(motion);
+        final boolean moving = motionModel.advance(frameTimeNanos);
+        tv.setTranslationX(motionModel.x());
+        tv.setTranslationY(motionModel.y());
+        tv.setRotation(motionModel.heading());
+        return moving;
     }
 
+    //--------------------------------------
+    // Archivos de Entrada/Salida  ( Files I/O )
+
     /**
      * Lee el archivo .muse proporcionado e imprime los datos en el logcat.
+     * La lectura se hace con MuseRecordingReader, que decodifica el archivo en Java sobre un mapa
+     * en memoria en lugar de pasar por LibMuse una vez por mensaje.
      * @param name  El nombre del achivo a leer.  Se asume que el archivo esta en
      *               el directorio Environment.DIRECTORY_DOWNLOADS.
      */
@@ -971,102 +650,77 @@ public class MuseActivity extends AppCompatActivity implements View.OnClickListe
             return;
         }
 
-        MuseFileReader fileReader = MuseFileFactory.getMuseFileReader(file);
-
-        // Ciclo a traves de cada mensaje en el archivo.  gotoNextMessage leera el siguiente mensaje
-        // y retornara el resultado de la operacion de lectura.
-        Result res = fileReader.gotoNextMessage();
-        while (res.getLevel() == ResultLevel.R_INFO && !res.getInfo().contains("EOF")) {
-
-            MessageType type = fileReader.getMessageType();
-            int id = fileReader.getMessageId();
-            long timestamp = fileReader.getMessageTimestamp();
-
-            Log.i(tag, "type: " + type.toString() +
-                    " id: " + Integer.toString(id) +
-                    " timestamp: " + String.valueOf(timestamp));
-
-            switch(type) {
-                // Los mensajes EEG contienen datos EEG sin procesar o datos DRL/REF.
-                // Los paquetes derivados EEG como ALPHA_RELATIVE y artifact packets
-                // son almacenados como mensajes MUSE_ELEMENTS.
-                case EEG:
-                case BATTERY:
-                case ACCELEROMETER:
-                case QUANTIZATION:
-                case GYRO:
-                case MUSE_ELEMENTS:
-                    MuseDataPacket packet = fileReader.getDataPacket();
-                    Log.i(tag, "data packet: " + packet.packetType().toString());
-                    break;
-                case VERSION:
-                    MuseVersion version = fileReader.getVersion();
-                    Log.i(tag, "version" + version.getFirmwareType());
-                    break;
-                case CONFIGURATION:
-                    MuseConfiguration config = fileReader.getConfiguration();
-                    Log.i(tag, "config" + config.getBluetoothMac());
-                    break;
-                case ANNOTATION:
-                    AnnotationData annotation = fileReader.getAnnotation();
-                    Log.i(tag, "annotation" + annotation.getData());
-                    break;
-                default:
-                    break;
-            }
-
-            // Lectura del siguiente mensaje.
-            res = fileReader.gotoNextMessage();
-        }
-    }
-
-    //--------------------------------------
-    // Traductores para Listener
-    //
-    // Cada una de estas clase hereda de su apropiado listener y contiene una referencia debil a la
-    // actividad . Cada clase  simplemente pasa los mensajes recibidos a la Actividad.
-    class MuseL extends MuseListener {
-        final WeakReference<MuseActivity> activityRef;
-
-        MuseL(final WeakReference<MuseActivity> activityRef) {
-            this.activityRef = activityRef;
-        }
-
-        @Override
-        public void museListChanged() {
-            activityRef.get().museListChanged();
-        }
-    }
-
-    class ConnectionListener extends MuseConnectionListener {
-        final WeakReference<MuseActivity> activityRef;
-
-        ConnectionListener(final WeakReference<MuseActivity> activityRef) {
-            this.activityRef = activityRef;
-        }
+        MuseRecordingReader fileReader = null;
+        try {
+            fileReader = new MuseRecordingReader(file);
+            // Ciclo a traves de cada mensaje en el archivo. next avanza al siguiente mensaje y
+            // retorna false al llegar al final del archivo.
+            while (fileReader.next()) {
+                MuseMessage message = fileReader.message();
+                MessageType type = message.type();
+                if (type == null) {
+                    continue;
+                }
 
-        @Override
-        public void receiveMuseConnectionPacket(final MuseConnectionPacket p, final Muse muse) {
-            activityRef.get().receiveMuseConnectionPacket(p, muse);
+                Log.i(tag, "type: " + type.toString() +
+                        " id: " + Integer.toString(message.id()) +
+                        " timestamp: " + String.valueOf(message.timestampMicros()));
+
+                switch(type) {
+                    // Los mensajes EEG contienen datos EEG sin procesar o datos DRL/REF.
+                    // Los paquetes derivados EEG como ALPHA_RELATIVE y artifact packets
+                    // son almacenados como mensajes MUSE_ELEMENTS.
+                    case EEG:
+                    case BATTERY:
+                    case ACCELEROMETER:
+                    case QUANTIZATION:
+                    case GYRO:
+                    case MUSE_ELEMENTS:
+                        Log.i(tag, "data packet: " + message.valueCount() + " valores");
+                        break;
+                    case VERSION:
+                    case CONFIGURATION:
+                        Log.i(tag, type + ": " + message.stringField(1));
+                        break;
+                    case ANNOTATION:
+                        Log.i(tag, "annotation" + message.annotation());
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (fileReader.truncated()) {
+                Log.w(tag, "el archivo termina con un registro incompleto");
+            }
+        } catch (IOException e) {
+            Log.e(tag, "error leyendo " + file, e);
+        } finally {
+            if (fileReader != null) {
+                try {
+                    fileReader.close();
+                } catch (IOException e) {
+                    Log.w(tag, "error cerrando " + file, e);
+                }
+            }
         }
     }
 
-    class DataListener extends MuseDataListener {
-        final WeakReference<MuseActivity> activityRef;
-
-        DataListener(final WeakReference<MuseActivity> activityRef) {
-            this.activityRef = activityRef;
-        }
-
-        @Override
-        public void receiveMuseDataPacket(final MuseDataPacket p, final Muse muse) {
-            activityRef.get().receiveMuseDataPacket(p, muse);
+    /**
+     * Reproduce un archivo .muse en el servicio, con el mismo procesamiento que los datos de la
+     * headband (FrameDispatcher, GestureEngine y movimiento).
+     * @param name   El nombre del archivo a reproducir en Environment.DIRECTORY_DOWNLOADS.
+     * @param speed  1 para tiempo real, N para N veces mas rapido o
+     *               ReplayEngine.AS_FAST_AS_POSSIBLE para no esperar entre paquetes.
+     */
+    private void replayMuseFile(String name, double speed) {
+        final File file = new File(getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS), name);
+        if (!file.exists()) {
+            Log.w(TAG, "No existe el archivo a reproducir: " + file);
+            return;
         }
-
-        @Override
-        public void receiveMuseArtifactPacket(final MuseArtifactPacket p, final Muse muse) {
-            activityRef.get().receiveMuseArtifactPacket(p, muse);
+        if (service != null) {
+            service.replay(file, speed);
+            renderLoop.setActive(true);
         }
     }
-
 }
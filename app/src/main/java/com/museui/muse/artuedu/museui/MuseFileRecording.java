@@ -0,0 +1,83 @@
+package com.museui.muse.artuedu.museui;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+/**
+ * Grabacion de una headband dentro de un {@link SessionManager}: recibe los registros de
+ * paquete como PacketTap de LibmuseHeadbandSource y los escribe por lotes en su propia
+ * {@link SegmentedRecording}, con los mismos segmentos .muse/.mcol que la grabacion principal.
+ * Los registros vuelven a su {@link #pool()} despues de escribirse o descartarse.
+ *
+ * La escritura usa el Executor que se le pase, por ejemplo el Handler del hilo de archivos, que
+ * pueden compartir todas las headbands; cada una tiene su sesion y su RecordingPipeline.
+ */
+final class MuseFileRecording implements HeadbandSession.Recording,
+        LibmuseHeadbandSource.PacketTap {
+
+    private final SegmentedRecording<SampleFrame> segments;
+    private final Executor executor;
+    private final PacketRecordPool pool =
+            new PacketRecordPool(AcquisitionService.RECORD_POOL_CAPACITY);
+    private final RecordingPipeline<SampleFrame> pipeline;
+
+    /**
+     * @param session  Nombre unico de la sesion, por ejemplo con la direccion de la headband.
+     */
+    MuseFileRecording(File dir, String session, Executor executor) {
+        this.segments = new SegmentedRecording<SampleFrame>(dir, session,
+                MuseSegmentWriter.EXTENSIONS, MuseSegmentWriter.FACTORY,
+                AcquisitionService.RECORDING_SEGMENT_MS,
+                AcquisitionService.RECORDING_SEGMENT_BYTES);
+        this.executor = executor;
+        this.pipeline = new RecordingPipeline<SampleFrame>(segments,
+                executor, AcquisitionService.RECORDING_BATCH_SIZE,
+                AcquisitionService.RECORDING_FLUSH_INTERVAL_MS,
+                AcquisitionService.RECORDING_QUEUE_CAPACITY,
+                AcquisitionService.RECORDING_OVERFLOW_POLICY,
+                new RecordingPipeline.Recycler<SampleFrame>() {
+                    @Override
+                    public void recycle(SampleFrame record) {
+                        pool.release(record);
+                    }
+                });
+    }
+
+    /**
+     * Registros que se le deben pasar a LibmuseHeadbandSource junto con esta grabacion.
+     */
+    PacketRecordPool pool() {
+        return pool;
+    }
+
+    @Override
+    public void onRecord(SampleFrame record) {
+        pipeline.offer(record);
+    }
+
+    /**
+     * Entrega el ultimo lote y confirma el segmento despues de escribirlo; el Executor ejecuta
+     * las tareas en orden.
+     */
+    @Override
+    public void close() {
+        pipeline.flush();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                segments.annotate("Disconnected");
+                segments.commit();
+            }
+        });
+    }
+
+    @Override
+    public long writtenCount() {
+        return pipeline.writtenCount();
+    }
+
+    @Override
+    public long droppedCount() {
+        return pipeline.droppedCount();
+    }
+}
@@ -0,0 +1,101 @@
+package com.museui.muse.artuedu.museui;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Segmento de una {@link SegmentedRecording}: los registros de paquete se escriben en un .muse
+ * con MuseRecordingWriter y en un .mcol con ColumnarRecordingWriter, y al cerrar se guarda el
+ * indice .muse.idx. Los tres son .part de la SegmentedRecording, asi que el indice se confirma
+ * junto con los datos y nunca queda un indice sin su grabacion. Los registros son SampleFrame de un
+ * PacketRecordPool, asi que ningun MuseDataPacket de LibMuse llega al hilo de archivos.
+ *
+ * El .muse se vacia en cada lote. El .mcol escribe sus bloques abiertos cada
+ * {@link #COLUMNAR_SYNC_INTERVAL_MS}, asi que si la app muere se pierden a lo mas esos
+ * segundos de la grabacion columnar.
+ */
+final class MuseSegmentWriter implements SegmentedRecording.SegmentWriter<SampleFrame> {
+
+    /**
+     * Extensiones de cada segmento, en el orden en que las recibe {@link #FACTORY}.
+     */
+    static final String[] EXTENSIONS = {".muse", ".mcol",
+            ".muse" + MuseRecordingIndex.SIDECAR_SUFFIX};
+
+    static final long COLUMNAR_SYNC_INTERVAL_MS = 5000;
+
+    static final SegmentedRecording.WriterFactory<SampleFrame> FACTORY =
+            new SegmentedRecording.WriterFactory<SampleFrame>() {
+                @Override
+                public SegmentedRecording.SegmentWriter<SampleFrame> open(File[] files)
+                        throws IOException {
+                    return new MuseSegmentWriter(files[0], files[1], files[2]);
+                }
+            };
+
+    private final File indexFile;
+    private final MuseRecordingWriter writer;
+    private final ColumnarRecordingWriter columnar;
+    private final MuseRecordingIndex index = new MuseRecordingIndex();
+    private long lastTimestamp;
+    private long lastColumnarSync = System.nanoTime();
+
+    MuseSegmentWriter(File museFile, File columnarFile, File indexFile) throws IOException {
+        this.indexFile = indexFile;
+        this.columnar = new ColumnarRecordingWriter(columnarFile);
+        this.writer = new MuseRecordingWriter(museFile);
+    }
+
+    @Override
+    public void write(List<SampleFrame> batch) throws IOException {
+        // Despues de cada flush la posicion es el inicio del siguiente registro.
+        final long offset = writer.position();
+        int types = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            final SampleFrame record = batch.get(i);
+            writer.add(record);
+            columnar.add(record);
+            lastTimestamp = record.timestampMicros();
+            types |= MuseRecordingIndex.typeBit(MuseRecordingWriter.messageType(record.type()));
+        }
+        writer.flush();
+        final int n = index.size();
+        if (n == 0 || offset > index.offsetAt(n - 1)) {
+            index.add(batch.get(0).timestampMicros(), offset, types);
+        }
+        final long now = System.nanoTime();
+        if (now - lastColumnarSync >= TimeUnit.MILLISECONDS.toNanos(COLUMNAR_SYNC_INTERVAL_MS)) {
+            lastColumnarSync = now;
+            columnar.writeOpenBlocks();
+            columnar.flush();
+        }
+    }
+
+    /**
+     * Se pueden agregar string annotations al archivo para dar un contexto de lo que esta
+     * sucediendo en ese punto de tiempo.
+     */
+    @Override
+    public void annotate(String text) throws IOException {
+        writer.annotate(lastTimestamp, text);
+        writer.flush();
+        columnar.annotate(lastTimestamp, text);
+    }
+
+    @Override
+    public long length() {
+        return writer.position() + columnar.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+        try {
+            columnar.close();
+        } finally {
+            index.write(indexFile);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.museui.muse.artuedu.museui;
+
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Ciclo de dibujo alineado al vsync con Choreographer.
+ *
+ * Solo pide un cuadro cuando hay estado nuevo ({@link #invalidate()}) o cuando el
+ * {@link Renderer} indica que sigue animando, y dibuja una vez por vsync lo ultimo que se haya
+ * procesado. Sin cambios, en pausa ({@link #pause()}) o inactivo
+ * ({@link #setActive(boolean)}, por ejemplo sin headband conectada) no pide cuadros.
+ *
+ * Se debe crear en el hilo de la IU; {@link #invalidate()} se puede llamar desde cualquier hilo.
+ * Con un {@link LatencyMonitor} activo el tiempo de dibujo y el intervalo de cada cuadro se
+ * registran tambien ahi.
+ */
+public final class RenderLoop implements Choreographer.FrameCallback {
+
+    public interface Renderer {
+        /**
+         * Dibuja el cuadro en el hilo de la IU.
+         * @return true si se necesita otro cuadro aunque no llegue estado nuevo (animacion).
+         */
+        boolean render(long frameTimeNanos);
+    }
+
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private final Renderer renderer;
+    private final FrameStats stats;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean paused = true;
+    private volatile boolean active;
+    private volatile LatencyMonitor latency;
+    private long lastFrameNanos = -1;
+
+    /**
+     * @param refreshRate  Frecuencia de la pantalla en Hz, para detectar los cuadros con jank.
+     */
+    public RenderLoop(Renderer renderer, float refreshRate) {
+        this.renderer = renderer;
+        this.stats = new FrameStats((long) (1e9 / refreshRate));
+    }
+
+    /**
+     * Estadisticas de los cuadros. Solo se deben leer en el hilo de la IU.
+     */
+    public FrameStats stats() {
+        return stats;
+    }
+
+    public void setLatencyMonitor(LatencyMonitor latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Hay estado nuevo que dibujar.
+     */
+    public void invalidate() {
+        dirty.set(true);
+        schedule();
+    }
+
+    /**
+     * Con active en false el ciclo solo dibuja un ultimo cuadro pendiente y se detiene.
+     */
+    public void setActive(boolean active) {
+        this.active = active;
+        invalidate();
+    }
+
+    public void resume() {
+        paused = false;
+        invalidate();
+    }
+
+    public void pause() {
+        paused = true;
+        choreographer.removeFrameCallback(this);
+        scheduled.set(false);
+        stats.pause();
+        lastFrameNanos = -1;
+    }
+
+    private void schedule() {
+        if (!paused && scheduled.compareAndSet(false, true)) {
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (paused) {
+            scheduled.set(false);
+            return;
+        }
+        dirty.set(false);
+        final long start = System.nanoTime();
+        final boolean animating = renderer.render(frameTimeNanos);
+        final long renderNanos = System.nanoTime() - start;
+        stats.record(frameTimeNanos, renderNanos);
+        final LatencyMonitor m = latency;
+        if (m != null && m.enabled()) {
+            m.record(LatencyMonitor.Metric.FRAME_RENDER, renderNanos);
+            if (lastFrameNanos >= 0) {
+                m.record(LatencyMonitor.Metric.FRAME_INTERVAL, frameTimeNanos - lastFrameNanos);
+            }
+        }
+        lastFrameNanos = frameTimeNanos;
+
+        if (animating && active) {
+            choreographer.postFrameCallback(this);
+            return;
+        }
+        scheduled.set(false);
+        if (dirty.get()) {
+            // Estado que llego mientras se dibujaba.
+            schedule();
+        } else {
+            stats.pause();
+            lastFrameNanos = -1;
+        }
+    }
+}
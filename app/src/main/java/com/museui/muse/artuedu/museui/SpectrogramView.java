@@ -0,0 +1,127 @@
+package com.museui.muse.artuedu.museui;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Espectrograma desplazable de varios canales, uno por franja horizontal, con la frecuencia
+ * mas baja abajo.
+ *
+ * Las columnas se guardan en un Bitmap de tamano fijo usado como buffer circular: cada espectro
+ * nuevo se escribe en una sola columna con setPixels y avanza la columna de escritura, sin mover
+ * las demas. Al dibujar, el bitmap se copia en dos tramos (de la columna de escritura al final y
+ * del inicio a la columna de escritura) para que la columna mas reciente quede a la derecha.
+ * Los colores salen de un {@link ColorLut} precalculado.
+ *
+ * Se usa solo desde el hilo de la IU. Despues de {@link #setLayout(int, int, int)} no reserva
+ * memoria.
+ */
+public class SpectrogramView extends View {
+
+    private final Paint paint = new Paint();
+    private final Rect src = new Rect();
+    private final Rect dst = new Rect();
+    private final ColorLut lut = ColorLut.spectrogram();
+    private Bitmap bitmap;
+    private int[] column;
+    private int lanes;
+    private int bins;
+    private int columns;
+    private int writeColumn;
+    private boolean wrapped;
+
+    public SpectrogramView(Context context) {
+        super(context);
+        init();
+    }
+
+    public SpectrogramView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        // Cada bin ocupa varios pixeles: se escala sin suavizar.
+        paint.setFilterBitmap(false);
+    }
+
+    /**
+     * Reserva el bitmap, de columns x (lanes * bins) pixeles.
+     * @param lanes    Canales a mostrar.
+     * @param bins     Bins por canal.
+     * @param columns  Espectros visibles a lo ancho.
+     */
+    public void setLayout(int lanes, int bins, int columns) {
+        if (bitmap != null) {
+            bitmap.recycle();
+        }
+        this.lanes = lanes;
+        this.bins = bins;
+        this.columns = columns;
+        bitmap = Bitmap.createBitmap(columns, lanes * bins, Bitmap.Config.ARGB_8888);
+        column = new int[lanes * bins];
+        writeColumn = 0;
+        wrapped = false;
+        invalidate();
+    }
+
+    /**
+     * Rango de log10 de la densidad espectral para la escala de colores.
+     */
+    public void setRange(double min, double max) {
+        lut.setRange(min, max);
+    }
+
+    /**
+     * Escribe un espectro como la columna mas reciente.
+     * @param spectrum  Valor del canal c y el bin k en [c * stride + k]; se usan los primeros
+     *                  lanes canales y bins bins.
+     */
+    public void addColumn(double[] spectrum, int stride) {
+        final int height = lanes * bins;
+        for (int c = 0; c < lanes; c++) {
+            for (int k = 0; k < bins; k++) {
+                // Fila 0 arriba: la franja 0 arriba y el bin 0 en la base de su franja.
+                column[c * bins + (bins - 1 - k)] = lut.color(spectrum[c * stride + k]);
+            }
+        }
+        bitmap.setPixels(column, 0, 1, writeColumn, 0, 1, height);
+        if (++writeColumn == columns) {
+            writeColumn = 0;
+            wrapped = true;
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (bitmap == null) {
+            return;
+        }
+        final int left = getPaddingLeft();
+        final int top = getPaddingTop();
+        final int width = getWidth() - left - getPaddingRight();
+        final int bottom = getHeight() - getPaddingBottom();
+        final int height = lanes * bins;
+        // La columna mas reciente queda en el borde derecho. A su izquierda van las columnas
+        // del inicio del bitmap a writeColumn y, despues de la primera vuelta, antes de ellas
+        // las mas antiguas, de writeColumn al final.
+        final int right = left + width;
+        final int split = right - (int) ((long) width * writeColumn / columns);
+        if (writeColumn > 0) {
+            src.set(0, 0, writeColumn, height);
+            dst.set(split, top, right, bottom);
+            canvas.drawBitmap(bitmap, src, dst, paint);
+        }
+        if (wrapped && writeColumn < columns) {
+            src.set(writeColumn, 0, columns, height);
+            dst.set(left, top, split, bottom);
+            canvas.drawBitmap(bitmap, src, dst, paint);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.museui.muse.artuedu.museui;
+
+import android.widget.TextView;
+
+/**
+ * Aplica un {@link UiState} a las vistas. Guarda las referencias a las vistas y el ultimo
+ * estado dibujado, y solo modifica las vistas cuyos campos cambiaron, para no provocar
+ * layouts ni crear cadenas en cada cuadro.
+ */
+final class UiRenderer {
+
+    private final TextView status;
+    private UiState rendered;
+
+    UiRenderer(TextView status) {
+        this.status = status;
+    }
+
+    /**
+     * Se llama desde el hilo de la IU.
+     */
+    void render(UiState state) {
+        final UiState last = rendered;
+        if (state == last) {
+            return;
+        }
+        if (last == null || state.status() != last.status()
+                || state.connection() != last.connection()) {
+            status.setText(statusText(state));
+        }
+        rendered = state;
+    }
+
+    private static String statusText(UiState state) {
+        switch (state.status()) {
+            case DISCONNECTED:
+                return "Desconectado";
+            case DISCONNECTING:
+                return "Desconectando";
+            case CONNECTING:
+                return "Conectando";
+            case CONNECTED:
+                return "Conectado";
+            case CALIBRATING:
+                return "No realices ningun movimiento";
+            case READY:
+                return "Listo";
+            case STOP:
+                return "Stop";
+            case FORWARD:
+                return "Adelante";
+            case BACK:
+                return "Atras";
+            case RIGHT:
+                return "Derecha";
+            case LEFT:
+                return "Izquierda";
+            case LOCKED:
+                return "Detener        ↓";
+            case LOCK_HINT:
+                return "Inclinate para desbloquear";
+            case UNLOCKED:
+                return "Reanudar       ↓";
+            default:
+                return state.connection().toString();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.museui.muse.artuedu.museui;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Grafica desplazable de los canales de un {@link WaveformBuffer}, uno por franja horizontal.
+ *
+ * Cada pixel de ancho es una columna con el minimo y el maximo de las muestras que le tocan, por
+ * lo que no se pierden picos. Cada franja se escala al rango de su ventana. Los arreglos de las
+ * columnas se reservan al cambiar el tamano de la vista y los Path y el Paint se reutilizan, asi
+ * que dibujar un cuadro no reserva memoria.
+ *
+ * Despues de agregar muestras al buffer se llama a invalidate(); todo ocurre en el hilo de la IU.
+ */
+public class WaveformView extends View {
+
+    private static final int[] DEFAULT_COLORS = {
+            Color.rgb(0x1f, 0x77, 0xb4), Color.rgb(0xff, 0x7f, 0x0e),
+            Color.rgb(0x2c, 0xa0, 0x2c), Color.rgb(0xd6, 0x27, 0x28),
+            Color.rgb(0x94, 0x67, 0xbd), Color.rgb(0x8c, 0x56, 0x4b)
+    };
+
+    /**
+     * Rango minimo de una franja, para no amplificar el ruido de una senal plana.
+     */
+    private static final float MIN_SPAN = 1e-3f;
+
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private Path[] paths = new Path[0];
+    private WaveformBuffer buffer;
+    private int windowSamples;
+    private int[] colors = DEFAULT_COLORS;
+    private float[] columnMin = new float[0];
+    private float[] columnMax = new float[0];
+
+    public WaveformView(Context context) {
+        super(context);
+        init();
+    }
+
+    public WaveformView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(getResources().getDisplayMetrics().density);
+    }
+
+    /**
+     * @param buffer         Muestras a graficar; un canal por franja.
+     * @param windowSamples  Muestras visibles a lo ancho de la vista.
+     */
+    public void setBuffer(WaveformBuffer buffer, int windowSamples) {
+        if (windowSamples > buffer.capacity()) {
+            throw new IllegalArgumentException("ventana mayor que el buffer: " + windowSamples);
+        }
+        this.buffer = buffer;
+        this.windowSamples = windowSamples;
+        paths = new Path[buffer.channels()];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = new Path();
+        }
+        invalidate();
+    }
+
+    public void setColors(int... colors) {
+        this.colors = colors.clone();
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        final int columns = Math.max(w - getPaddingLeft() - getPaddingRight(), 0);
+        if (columns != columnMin.length) {
+            columnMin = new float[columns];
+            columnMax = new float[columns];
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        final WaveformBuffer b = buffer;
+        final int columns = columnMin.length;
+        if (b == null || columns == 0 || b.sampleCount() == 0) {
+            return;
+        }
+        final int lanes = b.channels();
+        final float left = getPaddingLeft();
+        final float top = getPaddingTop();
+        final float laneHeight = (getHeight() - top - getPaddingBottom()) / lanes;
+        for (int lane = 0; lane < lanes; lane++) {
+            if (b.decimate(lane, windowSamples, columns, columnMin, columnMax) == 0) {
+                continue;
+            }
+            final float lo = b.rangeMin();
+            final float span = Math.max(b.rangeMax() - lo, MIN_SPAN);
+            // y crece hacia abajo: el maximo queda arriba de la franja.
+            final float bottom = top + (lane + 1) * laneHeight;
+            final float scale = laneHeight / span;
+            final Path path = paths[lane];
+            path.rewind();
+            boolean penDown = false;
+            for (int col = 0; col < columns; col++) {
+                final float min = columnMin[col];
+                if (min != min) {
+                    // NaN: hueco en la senal.
+                    penDown = false;
+                    continue;
+                }
+                final float x = left + col;
+                final float yMax = bottom - (columnMax[col] - lo) * scale;
+                final float yMin = bottom - (min - lo) * scale;
+                if (penDown) {
+                    path.lineTo(x, yMax);
+                } else {
+                    path.moveTo(x, yMax);
+                    penDown = true;
+                }
+                path.lineTo(x, yMin);
+            }
+            paint.setColor(colors[lane % colors.length]);
+            canvas.drawPath(path, paint);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.museui.muse.artuedu.museui;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costo por muestra de BandPowerEngine con 6 canales. A 500 Hz llegan 500 muestras por
+ * segundo: el tiempo medio por operacion multiplicado por 500 es la fraccion de un nucleo.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BandPowerBenchmark {
+
+    private static final int TRACE = 4096;
+
+    @Param({"256", "500"})
+    public int sampleRate;
+
+    /**
+     * Muestras entre FFTs.
+     */
+    @Param({"10", "50"})
+    public int hop;
+
+    /**
+     * Entrega tambien el espectro para el espectrograma.
+     */
+    @Param({"false", "true"})
+    public boolean spectrum;
+
+    private BandPowerEngine engine;
+    private final double[][] samples = new double[TRACE][6];
+    private int i;
+    private long timestamp;
+
+    @Setup
+    public void setup() {
+        engine = new BandPowerEngine(sampleRate, 6, Integer.highestOneBit(sampleRate), hop);
+        if (spectrum) {
+            final SampleRingBuffer columns =
+                    new SampleRingBuffer(6 * engine.spectrumBins(), 16);
+            final double[] column = new double[6 * engine.spectrumBins()];
+            engine.setSpectrumListener(new BandPowerEngine.SpectrumListener() {
+                @Override
+                public void onSpectrum(long timestampMicros, double[] values, int bins,
+                                       int channels) {
+                    // Como la IU: se entrega al buffer y se saca de inmediato.
+                    columns.offer(timestampMicros, values);
+                    columns.poll(column);
+                }
+            });
+        }
+        final Random random = new Random(11);
+        for (int n = 0; n < TRACE; n++) {
+            for (int c = 0; c < 6; c++) {
+                samples[n][c] = 800 + 20 * Math.sin(2 * Math.PI * 10 * n / sampleRate + c)
+                        + 5 * random.nextGaussian();
+            }
+        }
+    }
+
+    @Benchmark
+    public long process() {
+        final int n = i;
+        i = (n + 1) & (TRACE - 1);
+        timestamp += 1000000 / sampleRate;
+        engine.process(timestamp, samples[n]);
+        return engine.windowCount();
+    }
+}
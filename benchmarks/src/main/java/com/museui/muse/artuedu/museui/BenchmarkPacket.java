@@ -0,0 +1,80 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.Accelerometer;
+import com.choosemuse.libmuse.Battery;
+import com.choosemuse.libmuse.DrlRef;
+import com.choosemuse.libmuse.Eeg;
+import com.choosemuse.libmuse.Gyro;
+import com.choosemuse.libmuse.MuseDataPacket;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import java.util.ArrayList;
+
+/**
+ * MuseDataPacket en Java para los benchmarks. En Android cada getter de LibMuse cruza JNI, por
+ * lo que aqui solo se mide el costo del lado Java (llamadas virtuales, boxing de values()).
+ */
+final class BenchmarkPacket extends MuseDataPacket {
+
+    private final MuseDataPacketType type;
+    private final long timestamp;
+    private final double[] values;
+
+    BenchmarkPacket(MuseDataPacketType type, long timestamp, double... values) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.values = values.clone();
+    }
+
+    @Override
+    public MuseDataPacketType packetType() {
+        return type;
+    }
+
+    @Override
+    public long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Igual que LibMuse, crea una lista nueva con los valores en cada llamada.
+     */
+    @Override
+    public ArrayList<Double> values() {
+        final ArrayList<Double> list = new ArrayList<>(values.length);
+        for (double v : values) {
+            list.add(v);
+        }
+        return list;
+    }
+
+    @Override
+    public long valuesSize() {
+        return values.length;
+    }
+
+    @Override
+    public double getEegChannelValue(Eeg eeg) {
+        return values[eeg.ordinal()];
+    }
+
+    @Override
+    public double getBatteryValue(Battery battery) {
+        return values[battery.ordinal()];
+    }
+
+    @Override
+    public double getAccelerometerValue(Accelerometer accelerometer) {
+        return values[accelerometer.ordinal()];
+    }
+
+    @Override
+    public double getGyroValue(Gyro gyro) {
+        return values[gyro.ordinal()];
+    }
+
+    @Override
+    public double getDrlRefValue(DrlRef drlRef) {
+        return values[drlRef.ordinal()];
+    }
+}
@@ -0,0 +1,133 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MessageType;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lectura completa de un canal de EEG de una sesion grabada en .muse (MuseRecordingReader)
+ * y en formato columnar (ColumnarRecordingReader). Los tamaños de los archivos se imprimen al
+ * preparar el benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnarRecordingBenchmark {
+
+    /**
+     * Minutos de EEG a 256 Hz con el acelerometro a 52 Hz.
+     */
+    @Param({"5"})
+    public int minutes;
+
+    /**
+     * Paso de cuantizacion del EEG en la grabacion columnar; 0 sin perdida. 0.48828125 uV es
+     * la resolucion de los valores generados, asi que tampoco pierde nada.
+     */
+    @Param({"0", "0.48828125"})
+    public double step;
+
+    private File muse;
+    private File columnar;
+    private long[] timestamps;
+    private double[] values;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        muse = File.createTempFile("bench", ".muse");
+        columnar = File.createTempFile("bench", ".mcol");
+        final MuseRecordingWriter m = new MuseRecordingWriter(muse);
+        final ColumnarRecordingWriter c = new ColumnarRecordingWriter(columnar);
+        c.setQuantization(MuseDataPacketType.EEG, step);
+        final Random random = new Random(1);
+        final int rows = minutes * 60 * 256;
+        final double[] eeg = new double[6];
+        final double[] acc = new double[3];
+        for (int n = 0; n < rows; n++) {
+            final long t = 1500000000000000L + n * 3906L;
+            for (int ch = 0; ch < 6; ch++) {
+                // Valores en uV con la resolucion del ADC, como los que entrega LibMuse.
+                final double v = 800 + 30 * Math.sin(2 * Math.PI * 10 * n / 256.0 + ch)
+                        + random.nextGaussian() * 5;
+                eeg[ch] = Math.round(v / 0.48828125) * 0.48828125;
+            }
+            m.add(MuseDataPacketType.EEG, t, eeg, 6);
+            c.add(MuseDataPacketType.EEG, t, eeg, 6);
+            if (n % 5 == 0) {
+                acc[0] = random.nextGaussian() * 0.01;
+                acc[1] = random.nextGaussian() * 0.01;
+                acc[2] = 1 + random.nextGaussian() * 0.01;
+                m.add(MuseDataPacketType.ACCELEROMETER, t, acc, 3);
+                c.add(MuseDataPacketType.ACCELEROMETER, t, acc, 3);
+            }
+        }
+        m.close();
+        c.close();
+        timestamps = new long[4096];
+        values = new double[4096 * 6];
+        System.out.println("\n.muse " + muse.length() + " bytes, columnar " + columnar.length()
+                + " bytes (" + String.format("%.1f", (double) muse.length() / columnar.length())
+                + "x)");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        muse.delete();
+        columnar.delete();
+    }
+
+    @Benchmark
+    public double readMuse() throws IOException {
+        final MuseRecordingReader reader = new MuseRecordingReader(muse);
+        double sum = 0;
+        try {
+            int n;
+            while ((n = reader.readSamples(MessageType.EEG, timestamps, values, 6, 4096)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    sum += values[i * 6];
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double readColumnar() throws IOException {
+        final ColumnarRecordingReader reader = new ColumnarRecordingReader(columnar);
+        double sum = 0;
+        try {
+            final long[] t = reader.timestamps(MuseDataPacketType.EEG);
+            final double[] c = reader.channel(MuseDataPacketType.EEG, 0);
+            for (int i = 0; i < c.length; i++) {
+                sum += c[i];
+            }
+            sum += t[t.length - 1];
+        } finally {
+            reader.close();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,78 @@
+package com.museui.muse.artuedu.museui;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decision de gestos por muestra del acelerometro, sola (GestureClassifier) y con la emision de
+ * eventos de GestureEngine. La traza simula 52 Hz con ruido e
+ * inclinaciones periodicas hacia adelante y a los lados, para recorrer todas las ramas.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GestureBenchmark {
+
+    private static final int TRACE = 52 * 60;
+    private static final long SAMPLE_PERIOD_MICROS = 1000000 / 52;
+
+    private final double[] x = new double[TRACE];
+    private final double[] y = new double[TRACE];
+    private final double[] z = new double[TRACE];
+    private GestureClassifier classifier;
+    private GestureEngine engine;
+    private long timestamp;
+    private int i;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(7);
+        for (int n = 0; n < TRACE; n++) {
+            final int second = n / 52;
+            x[n] = 0.02 * random.nextGaussian() + (second % 10 == 5 ? 0.4 : 0);
+            y[n] = 0.02 * random.nextGaussian() + (second % 7 == 3 ? -0.3 : 0);
+            z[n] = 1 + 0.02 * random.nextGaussian();
+        }
+        classifier = new GestureClassifier();
+        engine = new GestureEngine();
+        // Espera, calibracion y tiempo de espera antes de medir.
+        for (int n = 0; n < 52 * 5; n++) {
+            classifier.update(nextTimestamp(), 0, 0, 1);
+            engine.process(timestamp, 0, 0, 1);
+        }
+    }
+
+    @Benchmark
+    public int update() {
+        final int n = i;
+        i = n + 1 == TRACE ? 0 : n + 1;
+        return classifier.update(nextTimestamp(), x[n], y[n], z[n]);
+    }
+
+    @Benchmark
+    public Gesture engineProcess() {
+        final int n = i;
+        i = n + 1 == TRACE ? 0 : n + 1;
+        engine.process(nextTimestamp(), x[n], y[n], z[n]);
+        return engine.motion();
+    }
+
+    private long nextTimestamp() {
+        timestamp += SAMPLE_PERIOD_MICROS;
+        return timestamp;
+    }
+}
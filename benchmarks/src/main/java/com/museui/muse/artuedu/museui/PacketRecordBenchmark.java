@@ -0,0 +1,106 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.Eeg;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entrega de un paquete a la grabacion: un registro nuevo por paquete contra un registro de
+ * PacketRecordPool que vuelve al pool despues de escribirse. Con -prof gc, gc.alloc.rate.norm
+ * muestra los bytes reservados por paquete.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketRecordBenchmark {
+
+    private ExecutorService executor;
+    private RecordingPipeline<SampleFrame> allocating;
+    private RecordingPipeline<SampleFrame> pooled;
+    private PacketRecordPool pool;
+    private final BenchmarkPacket packet = new BenchmarkPacket(
+            MuseDataPacketType.EEG, 1000, 1, 2, 3, 4, 5, 6);
+    private static final Eeg[] CHANNELS = {Eeg.EEG1, Eeg.EEG2, Eeg.EEG3, Eeg.EEG4,
+            Eeg.AUX_LEFT, Eeg.AUX_RIGHT};
+    private final double[] values = new double[6];
+    private long missed;
+
+    @Setup(Level.Trial)
+    public void setup(final Blackhole blackhole) {
+        executor = Executors.newSingleThreadExecutor();
+        final RecordingPipeline.Sink<SampleFrame> sink = new RecordingPipeline.Sink<SampleFrame>() {
+            @Override
+            public void write(List<SampleFrame> batch) {
+                for (int i = 0; i < batch.size(); i++) {
+                    blackhole.consume(batch.get(i).values()[0]);
+                }
+            }
+        };
+        pool = new PacketRecordPool((32 + 2) * 128);
+        allocating = new RecordingPipeline<>(sink, executor, 128, 250, 32,
+                RecordingPipeline.OverflowPolicy.DROP_OLDEST);
+        pooled = new RecordingPipeline<>(sink, executor, 128, 250, 32,
+                RecordingPipeline.OverflowPolicy.DROP_OLDEST,
+                new RecordingPipeline.Recycler<SampleFrame>() {
+                    @Override
+                    public void recycle(SampleFrame record) {
+                        pool.release(record);
+                    }
+                });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        allocating.flush();
+        pooled.flush();
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        System.out.println("\npool: " + pool.summary() + ", " + missed + " sin registro");
+    }
+
+    private void fill(SampleFrame record) {
+        for (int i = 0; i < 6; i++) {
+            values[i] = packet.getEegChannelValue(CHANNELS[i]);
+        }
+        record.set(packet.packetType(), packet.timestamp(), values, 6);
+    }
+
+    @Benchmark
+    public void newRecord() {
+        final SampleFrame record = new SampleFrame();
+        fill(record);
+        allocating.offer(record);
+    }
+
+    @Benchmark
+    public void pooledRecord() {
+        final SampleFrame record = pool.acquire();
+        if (record == null) {
+            missed++;
+            return;
+        }
+        fill(record);
+        pooled.offer(record);
+    }
+}
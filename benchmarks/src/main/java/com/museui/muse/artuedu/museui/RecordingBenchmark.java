@@ -0,0 +1,72 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costo de RecordingPipeline.offer en el hilo productor, segun el tamaño del lote. El sink
+ * solo consume los paquetes en un hilo aparte, asi se mide la entrega y no la escritura.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordingBenchmark {
+
+    @Param({"1", "32", "128"})
+    public int batchSize;
+
+    @Param({"DROP_OLDEST", "BLOCK"})
+    public RecordingPipeline.OverflowPolicy policy;
+
+    private ExecutorService executor;
+    private RecordingPipeline<BenchmarkPacket> pipeline;
+    private final BenchmarkPacket packet = new BenchmarkPacket(
+            MuseDataPacketType.EEG, 1000, 1, 2, 3, 4, 5, 6);
+
+    @Setup(Level.Trial)
+    public void setup(final Blackhole blackhole) {
+        executor = Executors.newSingleThreadExecutor();
+        pipeline = new RecordingPipeline<>(new RecordingPipeline.Sink<BenchmarkPacket>() {
+            @Override
+            public void write(List<BenchmarkPacket> batch) {
+                for (int i = 0; i < batch.size(); i++) {
+                    blackhole.consume(batch.get(i));
+                }
+            }
+        }, executor, batchSize, 250, 32, policy);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        pipeline.flush();
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public void offer() {
+        pipeline.offer(packet);
+    }
+}
@@ -0,0 +1,71 @@
+package com.museui.muse.artuedu.museui;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entrega de muestras por SampleRingBuffer entre el hilo de la fuente y el consumidor.
+ * "handoff" corre un productor y un consumidor en hilos distintos; "roundTrip" mide offer y
+ * poll en el mismo hilo, sin contencion.
+ */
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBufferBenchmark {
+
+    @Param({"6"})
+    public int channels;
+
+    @Param({"512"})
+    public int capacity;
+
+    private SampleRingBuffer buffer;
+
+    @Setup
+    public void setup() {
+        buffer = new SampleRingBuffer(channels, capacity);
+    }
+
+    @State(Scope.Thread)
+    public static class Frame {
+        final double[] values = new double[16];
+        long timestamp;
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public boolean offer(Frame frame) {
+        return buffer.offer(frame.timestamp++, frame.values);
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public boolean poll(Frame frame) {
+        return buffer.poll(frame.values);
+    }
+
+    @Benchmark
+    @Group("roundTrip")
+    public boolean offerPoll(Frame frame) {
+        buffer.offer(frame.timestamp++, frame.values);
+        return buffer.poll(frame.values);
+    }
+}
@@ -0,0 +1,80 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.Accelerometer;
+import com.choosemuse.libmuse.Eeg;
+import com.choosemuse.libmuse.MuseDataPacket;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraccion de los valores de un paquete: un getter por canal (como fillFrame de
+ * LibmuseHeadbandSource) contra la lista completa de values(), y la copia al SampleFrame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SampleExtractionBenchmark {
+
+    private final MuseDataPacket eeg = new BenchmarkPacket(MuseDataPacketType.EEG, 1000,
+            820.1, 815.3, 830.7, 811.9, 0, 0);
+    private final MuseDataPacket accel = new BenchmarkPacket(MuseDataPacketType.ACCELEROMETER,
+            1000, 0.01, -0.02, 0.98);
+    private final double[] buffer = new double[6];
+    private final SampleFrame frame = new SampleFrame();
+
+    @Benchmark
+    public double[] eegPerChannel() {
+        buffer[0] = eeg.getEegChannelValue(Eeg.EEG1);
+        buffer[1] = eeg.getEegChannelValue(Eeg.EEG2);
+        buffer[2] = eeg.getEegChannelValue(Eeg.EEG3);
+        buffer[3] = eeg.getEegChannelValue(Eeg.EEG4);
+        buffer[4] = eeg.getEegChannelValue(Eeg.AUX_LEFT);
+        buffer[5] = eeg.getEegChannelValue(Eeg.AUX_RIGHT);
+        return buffer;
+    }
+
+    @Benchmark
+    public double[] eegBulkValues() {
+        final ArrayList<Double> values = eeg.values();
+        final int n = Math.min(values.size(), buffer.length);
+        for (int i = 0; i < n; i++) {
+            buffer[i] = values.get(i);
+        }
+        return buffer;
+    }
+
+    @Benchmark
+    public double[] accelPerChannel() {
+        buffer[0] = accel.getAccelerometerValue(Accelerometer.X);
+        buffer[1] = accel.getAccelerometerValue(Accelerometer.Y);
+        buffer[2] = accel.getAccelerometerValue(Accelerometer.Z);
+        return buffer;
+    }
+
+    @Benchmark
+    public SampleFrame eegToSampleFrame() {
+        frame.set(eeg.packetType(), eeg.timestamp(), 6);
+        frame.setValue(0, eeg.getEegChannelValue(Eeg.EEG1));
+        frame.setValue(1, eeg.getEegChannelValue(Eeg.EEG2));
+        frame.setValue(2, eeg.getEegChannelValue(Eeg.EEG3));
+        frame.setValue(3, eeg.getEegChannelValue(Eeg.EEG4));
+        frame.setValue(4, eeg.getEegChannelValue(Eeg.AUX_LEFT));
+        frame.setValue(5, eeg.getEegChannelValue(Eeg.AUX_RIGHT));
+        return frame;
+    }
+}
@@ -0,0 +1,85 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costo de procesar un periodo de EEG (una muestra de EEG por headband, y una de acelerometro
+ * cada 5) para N headbands en un solo hilo compartido de SessionManager.
+ *
+ * Un hilo tiene 1e6 / eegRate us por periodo (3906 us a 256 Hz, 2000 us a 500 Hz); ese tiempo
+ * dividido entre el costo por headband (us/op / sessions) es cuantas headbands puede procesar un
+ * nucleo. Si el costo por headband crece con N, el limite lo pone la memoria y no el calculo.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionScalingBenchmark {
+
+    private static final int TRACE = 1024;
+
+    @Param({"1", "4", "8", "16"})
+    public int sessions;
+
+    @Param({"256", "500"})
+    public int eegRate;
+
+    private SessionManager manager;
+    private FeedHeadbandSource[] sources;
+    private final double[][] eeg = new double[TRACE][6];
+    private final double[][] accel = new double[TRACE][3];
+    private int i;
+    private long timestamp;
+
+    @Setup
+    public void setup() {
+        manager = new SessionManager(1);
+        sources = new FeedHeadbandSource[sessions];
+        for (int s = 0; s < sessions; s++) {
+            sources[s] = new FeedHeadbandSource("feed-" + s);
+            manager.add("feed-" + s, sources[s], eegRate);
+            sources[s].connect();
+        }
+        final Random random = new Random(17);
+        for (int n = 0; n < TRACE; n++) {
+            for (int c = 0; c < 6; c++) {
+                eeg[n][c] = 800 + 20 * Math.sin(2 * Math.PI * 10 * n / eegRate + c)
+                        + 5 * random.nextGaussian();
+            }
+            accel[n][0] = 0.01 * random.nextGaussian();
+            accel[n][1] = 0.01 * random.nextGaussian();
+            accel[n][2] = 1;
+        }
+    }
+
+    @Benchmark
+    public int period() {
+        final int n = i;
+        i = (n + 1) & (TRACE - 1);
+        timestamp += 1000000 / eegRate;
+        for (FeedHeadbandSource source : sources) {
+            source.feed(MuseDataPacketType.EEG, timestamp, eeg[n], 6);
+            if (n % 5 == 0) {
+                source.feed(MuseDataPacketType.ACCELEROMETER, timestamp, accel[n], 3);
+            }
+        }
+        return manager.pumpAll();
+    }
+}
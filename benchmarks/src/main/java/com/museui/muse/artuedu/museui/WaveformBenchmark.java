@@ -0,0 +1,74 @@
+package com.museui.muse.artuedu.museui;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trabajo de un cuadro de la grafica de EEG sin el dibujo: agregar las muestras de un cuadro a
+ * 256 Hz y decimar 5 s de los 5 canales al ancho de la vista. Con -prof gc debe dar 0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WaveformBenchmark {
+
+    private static final int CHANNELS = 5;
+    private static final int WINDOW = 5 * 256;
+    private static final int SAMPLES_PER_FRAME = 5;
+
+    /**
+     * Ancho de la grafica en pixeles.
+     */
+    @Param({"800", "1920"})
+    public int columns;
+
+    private WaveformBuffer buffer;
+    private float[] min;
+    private float[] max;
+    private final double[][] samples = new double[1024][CHANNELS];
+    private int i;
+
+    @Setup
+    public void setup() {
+        buffer = new WaveformBuffer(CHANNELS, WINDOW);
+        min = new float[columns];
+        max = new float[columns];
+        final Random random = new Random(5);
+        for (double[] s : samples) {
+            for (int c = 0; c < CHANNELS; c++) {
+                s[c] = 800 + 50 * random.nextGaussian();
+            }
+        }
+        for (int n = 0; n < WINDOW; n++) {
+            buffer.add(samples[n & 1023]);
+        }
+    }
+
+    @Benchmark
+    public int frame() {
+        for (int n = 0; n < SAMPLES_PER_FRAME; n++) {
+            buffer.add(samples[i]);
+            i = (i + 1) & 1023;
+        }
+        int filled = 0;
+        for (int c = 0; c < CHANNELS; c++) {
+            filled += buffer.decimate(c, WINDOW, columns, min, max);
+        }
+        return filled;
+    }
+}
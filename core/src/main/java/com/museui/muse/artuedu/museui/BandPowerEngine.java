@@ -0,0 +1,359 @@
+package com.museui.muse.artuedu.museui;
+
+import java.util.Arrays;
+
+/**
+ * Calcula la potencia de las bandas delta, theta, alpha, beta y gamma a partir del EEG crudo
+ * (EEG1-EEG4 y AUX), sin depender de los paquetes derivados de LibMuse.
+ *
+ * Cada canal guarda las ultimas windowSize muestras en un buffer circular. Cada hopSize
+ * muestras se le quita la media a la ventana, se multiplica por una ventana de Hann
+ * precalculada y se transforma con {@link Fft}. La densidad espectral de un lado (uV^2/Hz) se
+ * integra en los bins de cada {@link EegBand}:
+ * <ul>
+ *   <li>absolute: log10 de la potencia de la banda, como los paquetes *_ABSOLUTE de LibMuse.</li>
+ *   <li>relative: potencia de la banda entre la suma de las cinco bandas.</li>
+ * </ul>
+ * Si la ventana de un canal contiene NaN (canal sin datos o paquete perdido) sus valores son NaN.
+ *
+ * Con un {@link SpectrumListener} tambien se entrega el espectro de cada ventana hasta
+ * {@link #SPECTRUM_MAX_HZ}, para el espectrograma, sin calcular otra FFT.
+ *
+ * Igual que {@link GestureEngine}, la fuente entrega las muestras con
+ * {@link #offer(long, double[])} y el hilo de {@link #start()} las procesa, bloqueado sin
+ * muestras hasta que llega la siguiente; o se puede llamar a {@link #process(long, double[])}
+ * directamente. Todos los arreglos se reservan en el
+ * constructor.
+ */
+public final class BandPowerEngine implements Runnable {
+
+    public static final int BANDS = EegBand.values().length;
+
+    /**
+     * Frecuencia maxima del espectro entregado a {@link SpectrumListener}.
+     */
+    public static final double SPECTRUM_MAX_HZ = 50;
+
+    private static final int DRAIN_BATCH = 64;
+
+    public interface Listener {
+        /**
+         * Se llama desde el hilo de procesamiento cada hopSize muestras. Los arreglos se
+         * reutilizan; el valor del canal c y la banda b esta en [c * BANDS + b].
+         * @param timestampMicros  Marca de tiempo de la ultima muestra de la ventana.
+         */
+        void onBandPowers(long timestampMicros, double[] absolute, double[] relative,
+                          int channels);
+    }
+
+    public interface SpectrumListener {
+        /**
+         * Se llama desde el hilo de procesamiento despues de {@link Listener#onBandPowers}. El
+         * arreglo se reutiliza; el log10 de la densidad espectral (uV^2/Hz) del canal c en el
+         * bin k, de ancho sampleRate / windowSize Hz, esta en [c * bins + k].
+         */
+        void onSpectrum(long timestampMicros, double[] spectrum, int bins, int channels);
+    }
+
+    private final double sampleRate;
+    private final int channels;
+    private final int windowSize;
+    private final int hopSize;
+
+    private final Fft fft;
+    private final double[] window;
+    private final double psdScale;
+    private final int[] bandStart = new int[BANDS];
+    private final int[] bandEnd = new int[BANDS];
+
+    private final double[] history;
+    private int position;
+    private int filled;
+    private int sinceHop;
+
+    private final double[] re;
+    private final double[] im;
+    private final double[] bandPower = new double[BANDS];
+    private final double[] absolute;
+    private final double[] relative;
+    private final int spectrumBins;
+    private final double[] spectrum;
+
+    private final SampleRingBuffer input;
+    private final double[] frames;
+    private final long[] timestamps = new long[DRAIN_BATCH];
+    private final IdleSignal idle = new IdleSignal();
+    private volatile Listener listener;
+    private volatile SpectrumListener spectrumListener;
+    private volatile boolean resetRequested;
+    private volatile long windows;
+    private volatile Thread thread;
+
+    /**
+     * @param sampleRate  Frecuencia de muestreo del EEG en Hz.
+     * @param channels    Canales por muestra (6 para EEG1-EEG4, AUX_LEFT y AUX_RIGHT).
+     * @param windowSize  Muestras por FFT, potencia de 2.
+     * @param hopSize     Muestras entre FFTs consecutivas, entre 1 y windowSize.
+     */
+    public BandPowerEngine(double sampleRate, int channels, int windowSize, int hopSize) {
+        if (hopSize < 1 || hopSize > windowSize) {
+            throw new IllegalArgumentException("hop invalido: " + hopSize);
+        }
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.windowSize = windowSize;
+        this.hopSize = hopSize;
+        this.fft = new Fft(windowSize);
+
+        window = new double[windowSize];
+        double energy = 0;
+        for (int i = 0; i < windowSize; i++) {
+            window[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / windowSize);
+            energy += window[i] * window[i];
+        }
+        // Densidad espectral de un lado: 2 |X|^2 / (fs * sum(w^2)).
+        psdScale = 2 / (sampleRate * energy);
+
+        final double binHz = sampleRate / windowSize;
+        final EegBand[] bands = EegBand.values();
+        for (int b = 0; b < BANDS; b++) {
+            bandStart[b] = (int) Math.ceil(bands[b].lowHz() / binHz);
+            // Theta y alpha se solapan (4-8 y 7.5-13 Hz); un bin en el solapamiento se cuenta
+            // solo en la banda anterior.
+            if (b > 0) {
+                bandStart[b] = Math.max(bandStart[b], bandEnd[b - 1]);
+            }
+            bandEnd[b] = Math.max(bandStart[b],
+                    Math.min((int) Math.ceil(bands[b].highHz() / binHz), windowSize / 2));
+        }
+
+        history = new double[channels * windowSize];
+        re = new double[windowSize];
+        im = new double[windowSize];
+        absolute = new double[channels * BANDS];
+        relative = new double[channels * BANDS];
+        spectrumBins = Math.min(windowSize / 2, (int) Math.ceil(SPECTRUM_MAX_HZ / binHz) + 1);
+        spectrum = new double[channels * spectrumBins];
+        input = new SampleRingBuffer(channels, Integer.highestOneBit(windowSize) * 2);
+        frames = new double[DRAIN_BATCH * channels];
+    }
+
+    /**
+     * Ventana de la potencia de 2 mas cercana a un segundo (256 muestras a 220 y 256 Hz, 512 a
+     * 500 Hz) y una FFT cada 100 ms.
+     */
+    public static BandPowerEngine forSampleRate(int sampleRate, int channels) {
+        return new BandPowerEngine(sampleRate, channels, windowSizeFor(sampleRate),
+                Math.max(1, sampleRate / 10));
+    }
+
+    /**
+     * Potencia de 2 mas cercana a sampleRate.
+     */
+    static int windowSizeFor(int sampleRate) {
+        final int below = Integer.highestOneBit(Math.max(1, sampleRate));
+        return sampleRate - below <= 2 * below - sampleRate ? below : 2 * below;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setSpectrumListener(SpectrumListener listener) {
+        this.spectrumListener = listener;
+    }
+
+    /**
+     * Bins por canal del espectro, desde 0 Hz.
+     */
+    public int spectrumBins() {
+        return spectrumBins;
+    }
+
+    public int channels() {
+        return channels;
+    }
+
+    public int windowSize() {
+        return windowSize;
+    }
+
+    public int hopSize() {
+        return hopSize;
+    }
+
+    public double sampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Ventanas calculadas desde la creacion.
+     */
+    public long windowCount() {
+        return windows;
+    }
+
+    public long overflowCount() {
+        return input.overflowCount();
+    }
+
+    /**
+     * Entrega una muestra de EEG. Solo lo debe llamar el hilo de la fuente.
+     * @return false si la muestra se descarto porque el buffer esta lleno.
+     */
+    public boolean offer(long timestampMicros, double[] values) {
+        final boolean accepted = input.offer(timestampMicros, values);
+        idle.signal();
+        return accepted;
+    }
+
+    public synchronized void start() {
+        if (thread != null && thread.isAlive()) {
+            return;
+        }
+        thread = new Thread(this, "BandPowerEngine");
+        thread.start();
+    }
+
+    /**
+     * Detiene el hilo de procesamiento y espera a que termine, igual que
+     * {@link GestureEngine#stop()}.
+     */
+    public synchronized void stop() {
+        final Thread t = thread;
+        thread = null;
+        if (t == null) {
+            return;
+        }
+        idle.wake();
+        if (t != Thread.currentThread()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        final Thread self = Thread.currentThread();
+        while (thread == self) {
+            final int n = input.drain(frames, timestamps, DRAIN_BATCH);
+            if (n == 0) {
+                idle.prepare();
+                if (input.size() == 0 && thread == self) {
+                    idle.await();
+                } else {
+                    idle.cancel();
+                }
+                continue;
+            }
+            for (int i = 0; i < n; i++) {
+                processFrame(timestamps[i], frames, i * channels);
+            }
+        }
+    }
+
+    /**
+     * Procesa una muestra en el hilo actual. No se debe mezclar con el hilo de procesamiento.
+     */
+    public void process(long timestampMicros, double[] values) {
+        processFrame(timestampMicros, values, 0);
+    }
+
+    /**
+     * Igual que {@link #process(long, double[])} con la muestra en values[offset], por ejemplo
+     * dentro de los frames que entrega SampleRingBuffer.drain.
+     */
+    public void process(long timestampMicros, double[] values, int offset) {
+        processFrame(timestampMicros, values, offset);
+    }
+
+    /**
+     * Olvida las muestras anteriores, por ejemplo al cambiar de headband. Se aplica en el hilo
+     * de procesamiento antes de la siguiente muestra.
+     */
+    public void reset() {
+        resetRequested = true;
+    }
+
+    private void processFrame(long timestampMicros, double[] values, int offset) {
+        if (resetRequested) {
+            resetRequested = false;
+            position = 0;
+            filled = 0;
+            sinceHop = 0;
+        }
+        for (int c = 0; c < channels; c++) {
+            history[c * windowSize + position] = values[offset + c];
+        }
+        position = (position + 1) & (windowSize - 1);
+        if (filled < windowSize) {
+            filled++;
+        }
+        if (++sinceHop >= hopSize && filled == windowSize) {
+            sinceHop = 0;
+            final SpectrumListener sl = spectrumListener;
+            for (int c = 0; c < channels; c++) {
+                computeChannel(c, sl != null);
+            }
+            windows++;
+            final Listener l = listener;
+            if (l != null) {
+                l.onBandPowers(timestampMicros, absolute, relative, channels);
+            }
+            if (sl != null) {
+                sl.onSpectrum(timestampMicros, spectrum, spectrumBins, channels);
+            }
+        }
+    }
+
+    private void computeChannel(int c, boolean withSpectrum) {
+        final int base = c * windowSize;
+        final int mask = windowSize - 1;
+        // position apunta a la muestra mas antigua.
+        double mean = 0;
+        for (int i = 0; i < windowSize; i++) {
+            mean += history[base + ((position + i) & mask)];
+        }
+        final int out = c * BANDS;
+        if (Double.isNaN(mean)) {
+            for (int b = 0; b < BANDS; b++) {
+                absolute[out + b] = Double.NaN;
+                relative[out + b] = Double.NaN;
+            }
+            if (withSpectrum) {
+                Arrays.fill(spectrum, c * spectrumBins, (c + 1) * spectrumBins, Double.NaN);
+            }
+            return;
+        }
+        mean /= windowSize;
+        for (int i = 0; i < windowSize; i++) {
+            re[i] = (history[base + ((position + i) & mask)] - mean) * window[i];
+            im[i] = 0;
+        }
+        fft.transform(re, im);
+
+        final double binHz = sampleRate / windowSize;
+        double total = 0;
+        for (int b = 0; b < BANDS; b++) {
+            double sum = 0;
+            for (int k = bandStart[b]; k < bandEnd[b]; k++) {
+                sum += re[k] * re[k] + im[k] * im[k];
+            }
+            bandPower[b] = sum * psdScale * binHz;
+            total += bandPower[b];
+        }
+        for (int b = 0; b < BANDS; b++) {
+            absolute[out + b] = Math.log10(bandPower[b]);
+            relative[out + b] = total > 0 ? bandPower[b] / total : 0;
+        }
+        if (withSpectrum) {
+            final int so = c * spectrumBins;
+            for (int k = 0; k < spectrumBins; k++) {
+                spectrum[so + k] = Math.log10((re[k] * re[k] + im[k] * im[k]) * psdScale);
+            }
+        }
+    }
+}
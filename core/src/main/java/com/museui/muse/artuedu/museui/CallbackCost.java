@@ -0,0 +1,74 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Costo de los callbacks de paquetes por tipo: numero de llamadas, tiempo total y maximo.
+ *
+ * Lo escribe solo el hilo de la fuente, con lazySet, y se puede leer desde cualquier hilo, por
+ * ejemplo para registrarlo al desconectar.
+ */
+public final class CallbackCost {
+
+    private static final MuseDataPacketType[] TYPES = MuseDataPacketType.values();
+
+    private final AtomicLongArray calls = new AtomicLongArray(TYPES.length);
+    private final AtomicLongArray totalNanos = new AtomicLongArray(TYPES.length);
+    private final AtomicLongArray maxNanos = new AtomicLongArray(TYPES.length);
+
+    /**
+     * Registra una llamada. Solo lo debe llamar el hilo de la fuente.
+     */
+    public void record(MuseDataPacketType type, long nanos) {
+        final int i = type.ordinal();
+        calls.lazySet(i, calls.get(i) + 1);
+        totalNanos.lazySet(i, totalNanos.get(i) + nanos);
+        if (nanos > maxNanos.get(i)) {
+            maxNanos.lazySet(i, nanos);
+        }
+    }
+
+    public long calls(MuseDataPacketType type) {
+        return calls.get(type.ordinal());
+    }
+
+    public long totalNanos(MuseDataPacketType type) {
+        return totalNanos.get(type.ordinal());
+    }
+
+    public long maxNanos(MuseDataPacketType type) {
+        return maxNanos.get(type.ordinal());
+    }
+
+    /**
+     * Tiempo medio por llamada en nanosegundos, 0 si no hubo llamadas.
+     */
+    public long meanNanos(MuseDataPacketType type) {
+        final long n = calls(type);
+        return n == 0 ? 0 : totalNanos(type) / n;
+    }
+
+    /**
+     * Una linea por tipo con llamadas: "EEG: 15360 llamadas, media 4 us, max 120 us, total
+     * 61 ms".
+     */
+    public String summary() {
+        final StringBuilder sb = new StringBuilder();
+        for (MuseDataPacketType type : TYPES) {
+            final long n = calls(type);
+            if (n == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(type).append(": ").append(n).append(" llamadas, media ")
+                    .append(meanNanos(type) / 1000).append(" us, max ")
+                    .append(maxNanos(type) / 1000).append(" us, total ")
+                    .append(totalNanos(type) / 1000000).append(" ms");
+        }
+        return sb.toString();
+    }
+}
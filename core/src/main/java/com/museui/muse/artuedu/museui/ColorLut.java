@@ -0,0 +1,81 @@
+package com.museui.muse.artuedu.museui;
+
+/**
+ * Tabla de colores precalculada para convertir un valor en un color ARGB (el formato de
+ * android.graphics.Color) sin interpolar en cada pixel.
+ *
+ * Los colores se interpolan una sola vez entre varios colores de paso. {@link #color(double)}
+ * escala el valor al rango configurado y lee la tabla; los valores fuera del rango se recortan y
+ * NaN usa un color aparte.
+ */
+public final class ColorLut {
+
+    public static final int SIZE = 256;
+
+    private final int[] colors = new int[SIZE];
+    private final int nanColor;
+    private double min;
+    private double scale;
+
+    /**
+     * @param stops     Colores ARGB de paso, del valor minimo al maximo; al menos dos.
+     * @param nanColor  Color para NaN.
+     */
+    public ColorLut(int[] stops, int nanColor) {
+        if (stops.length < 2) {
+            throw new IllegalArgumentException("se necesitan al menos dos colores");
+        }
+        this.nanColor = nanColor;
+        final int segments = stops.length - 1;
+        for (int i = 0; i < SIZE; i++) {
+            final double t = (double) i * segments / (SIZE - 1);
+            final int s = Math.min((int) t, segments - 1);
+            colors[i] = mix(stops[s], stops[s + 1], t - s);
+        }
+        setRange(0, 1);
+    }
+
+    /**
+     * Negro, azul, magenta, naranja y amarillo, similar a "inferno"; NaN en gris oscuro.
+     */
+    public static ColorLut spectrogram() {
+        return new ColorLut(new int[]{
+                0xff000004, 0xff3b0f70, 0xff8c2981, 0xffde4968, 0xfffe9f6d, 0xfffcfdbf
+        }, 0xff202020);
+    }
+
+    /**
+     * Valores que corresponden al primer y al ultimo color.
+     */
+    public void setRange(double min, double max) {
+        if (!(max > min)) {
+            throw new IllegalArgumentException("rango invalido: " + min + " - " + max);
+        }
+        this.min = min;
+        this.scale = (SIZE - 1) / (max - min);
+    }
+
+    public int color(double value) {
+        if (value != value) {
+            return nanColor;
+        }
+        final double i = (value - min) * scale;
+        if (i <= 0) {
+            return colors[0];
+        }
+        if (i >= SIZE - 1) {
+            return colors[SIZE - 1];
+        }
+        return colors[(int) (i + 0.5)];
+    }
+
+    private static int mix(int a, int b, double t) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            final int ca = (a >>> shift) & 0xff;
+            final int cb = (b >>> shift) & 0xff;
+            result |= ((int) Math.round(ca + (cb - ca) * t) & 0xff) << shift;
+        }
+        return result;
+    }
+}
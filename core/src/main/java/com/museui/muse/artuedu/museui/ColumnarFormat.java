@@ -0,0 +1,96 @@
+package com.museui.muse.artuedu.museui;
+
+/**
+ * Constantes y codificacion del formato columnar de grabacion (.mcol).
+ *
+ * El archivo empieza con un encabezado de 8 bytes (MAGIC, VERSION) seguido de bloques. Cada
+ * bloque guarda hasta {@link ColumnarRecordingWriter#DEFAULT_BLOCK_ROWS} filas de un solo tipo
+ * de paquete como columnas independientes, cada una comprimida con Deflater:
+ *
+ * <pre>
+ * bloque {
+ *   int   BLOCK_MAGIC
+ *   byte  tipo                  // MuseDataPacketType.ordinal() o KIND_ANNOTATION
+ *   byte  canales
+ *   int   filas
+ *   long  primera marca de tiempo, long ultima marca de tiempo   // microsegundos
+ *   int   bytes sin comprimir, int bytes comprimidos            // columna de tiempos
+ *   por canal: byte codificacion, double paso, int sin comprimir, int comprimidos
+ *   int   CRC32 de las columnas comprimidas
+ *   columnas comprimidas
+ * }
+ * </pre>
+ *
+ * Las marcas de tiempo se guardan como diferencias con la anterior y los valores como
+ * diferencias de los bits float32 ({@link #ENCODING_FLOAT_DELTA}, sin perdida respecto a .muse)
+ * o cuantizados a un paso fijo ({@link #ENCODING_QUANTIZED}); las diferencias se escriben como
+ * varints zigzag. Las anotaciones son un bloque con una columna de texto UTF-8.
+ *
+ * Al cerrar el archivo se agrega un indice al final con la posicion, el tipo, las filas y el
+ * rango de tiempo de cada bloque, y los ultimos 12 bytes apuntan a el (long posicion,
+ * int END_MAGIC). Si el indice falta, por ejemplo porque la app se cerro mientras grababa, el
+ * lector recorre los bloques desde el inicio y se detiene en el primero incompleto.
+ *
+ * Los enteros de los encabezados estan en big endian (DataOutputStream).
+ */
+public final class ColumnarFormat {
+
+    private ColumnarFormat() {
+    }
+
+    public static final int MAGIC = 0x4D434F4C; // "MCOL"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+
+    public static final int BLOCK_MAGIC = 0x424C4B31; // "BLK1"
+    public static final int FOOTER_MAGIC = 0x4D434958; // "MCIX"
+    public static final int END_MAGIC = 0x4D43454E; // "MCEN"
+    public static final int END_SIZE = 12;
+
+    /**
+     * Entrada del indice: long posicion, byte tipo, byte canales, int filas, long primera y
+     * long ultima marca de tiempo.
+     */
+    public static final int INDEX_ENTRY_SIZE = 8 + 1 + 1 + 4 + 8 + 8;
+
+    /**
+     * Tipo de bloque de las anotaciones; los demas usan el ordinal del MuseDataPacketType.
+     */
+    public static final int KIND_ANNOTATION = 0x7F;
+
+    public static final int ENCODING_FLOAT_DELTA = 0;
+    public static final int ENCODING_QUANTIZED = 1;
+
+    /**
+     * Tamaño del encabezado de un bloque con el numero de canales dado.
+     */
+    public static int blockHeaderSize(int channels) {
+        return 4 + 1 + 1 + 4 + 8 + 8 + 4 + 4 + channels * (1 + 8 + 4 + 4) + 4;
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Escribe un varint en dst a partir de pos.
+     * @return la posicion siguiente.
+     */
+    static int putVarint(byte[] dst, int pos, long v) {
+        while ((v & ~0x7FL) != 0) {
+            dst[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        dst[pos++] = (byte) v;
+        return pos;
+    }
+
+    /**
+     * Maximo de bytes de un varint de 64 bits.
+     */
+    static final int MAX_VARINT_SIZE = 10;
+}
@@ -0,0 +1,512 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Lector de grabaciones en el formato columnar descrito en {@link ColumnarFormat}.
+ *
+ * Al abrir el archivo se lee el indice de bloques del final; si falta, se recorren los bloques
+ * desde el inicio verificando su CRC y la lectura termina en el ultimo bloque completo
+ * ({@link #recovered()} devuelve true). El CRC de un bloque se verifica la primera vez que se
+ * lee, tambien cuando los bloques vienen del indice. Cada columna se descomprime por separado,
+ * asi que leer un canal no descomprime los demas:
+ *
+ * <pre>
+ * ColumnarRecordingReader reader = new ColumnarRecordingReader(file);
+ * long[] t = reader.timestamps(MuseDataPacketType.EEG);
+ * double[] tp9 = reader.channel(MuseDataPacketType.EEG, 0);
+ * reader.close();
+ * </pre>
+ *
+ * No es seguro para varios hilos.
+ */
+public final class ColumnarRecordingReader implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final MuseDataPacketType[] TYPES = MuseDataPacketType.values();
+
+    /**
+     * Encabezado de un bloque, leido la primera vez que se lee una de sus columnas.
+     */
+    private static final class BlockHeader {
+        long dataStart;
+        // Columna 0: marcas de tiempo; columna c + 1: canal c.
+        int[] rawLengths;
+        long[] columnOffsets;
+        int[] compressedLengths;
+        int[] encodings;
+        double[] steps;
+        int crc;
+    }
+
+    private final RandomAccessFile file;
+    private final long size;
+
+    private long[] offsets = new long[64];
+    private int[] kinds = new int[64];
+    private int[] channels = new int[64];
+    private int[] rows = new int[64];
+    private long[] first = new long[64];
+    private long[] last = new long[64];
+    private BlockHeader[] headers = new BlockHeader[64];
+    private int count;
+    private boolean recovered;
+    private long dataEnd = ColumnarFormat.HEADER_SIZE;
+
+    private final Inflater inflater = new Inflater();
+    private final CRC32 crc = new CRC32();
+    private byte[] compressed = new byte[4096];
+    private byte[] raw = new byte[4096];
+
+    public ColumnarRecordingReader(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.size = this.file.length();
+        try {
+            if (size < ColumnarFormat.HEADER_SIZE || this.file.readInt() != ColumnarFormat.MAGIC
+                    || this.file.readShort() != ColumnarFormat.VERSION) {
+                throw new IOException("no es una grabacion columnar: " + file);
+            }
+            if (!readFooter()) {
+                recovered = true;
+                scan();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public int blockCount() {
+        return count;
+    }
+
+    /**
+     * Ordinal del MuseDataPacketType del bloque o ColumnarFormat.KIND_ANNOTATION.
+     */
+    public int blockKind(int block) {
+        return kinds[check(block)];
+    }
+
+    /**
+     * Tipo de paquete del bloque, o null si es un bloque de anotaciones.
+     */
+    public MuseDataPacketType blockType(int block) {
+        final int kind = kinds[check(block)];
+        return kind < TYPES.length ? TYPES[kind] : null;
+    }
+
+    public int blockChannels(int block) {
+        return channels[check(block)];
+    }
+
+    public int blockRows(int block) {
+        return rows[check(block)];
+    }
+
+    public long blockFirstTimestamp(int block) {
+        return first[check(block)];
+    }
+
+    public long blockLastTimestamp(int block) {
+        return last[check(block)];
+    }
+
+    /**
+     * true si el archivo no tenia indice y los bloques se encontraron recorriendolo.
+     */
+    public boolean recovered() {
+        return recovered;
+    }
+
+    /**
+     * Filas de un tipo de paquete en todo el archivo.
+     */
+    public int rows(MuseDataPacketType type) {
+        int n = 0;
+        for (int b = 0; b < count; b++) {
+            if (kinds[b] == type.ordinal()) {
+                n += rows[b];
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Maximo de valores por fila de un tipo de paquete, 0 si no hay filas.
+     */
+    public int channels(MuseDataPacketType type) {
+        int n = 0;
+        for (int b = 0; b < count; b++) {
+            if (kinds[b] == type.ordinal()) {
+                n = Math.max(n, channels[b]);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Decodifica las marcas de tiempo de un bloque en dst a partir de offset.
+     * @return el numero de filas del bloque.
+     */
+    public int readTimestamps(int block, long[] dst, int offset) throws IOException {
+        final int len = inflate(block, 0);
+        final int n = rows[block];
+        int pos = 0;
+        long t = first[block];
+        for (int i = 0; i < n; i++) {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (pos == len || shift > 63) {
+                    throw new IOException("marcas de tiempo del bloque " + block + " truncadas");
+                }
+                b = raw[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            t += ColumnarFormat.unzigzag(v);
+            dst[offset + i] = t;
+        }
+        checkConsumed(block, pos, len);
+        return n;
+    }
+
+    /**
+     * Decodifica un canal de un bloque en dst a partir de offset.
+     * @return el numero de filas del bloque.
+     */
+    public int readChannel(int block, int channel, double[] dst, int offset) throws IOException {
+        if (channel < 0 || channel >= channels[check(block)]) {
+            throw new IndexOutOfBoundsException("canal " + channel + " de " + channels[block]);
+        }
+        final int len = inflate(block, channel + 1);
+        final BlockHeader h = headers[block];
+        final int n = rows[block];
+        final boolean quantized = h.encodings[channel] == ColumnarFormat.ENCODING_QUANTIZED;
+        final double step = h.steps[channel];
+        int pos = 0;
+        long acc = 0;
+        for (int i = 0; i < n; i++) {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (pos == len || shift > 63) {
+                    throw new IOException("canal " + channel + " del bloque " + block
+                            + " truncado");
+                }
+                b = raw[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (quantized) {
+                acc += ColumnarFormat.unzigzag(v);
+                dst[offset + i] = acc * step;
+            } else {
+                acc = (int) acc + (int) ColumnarFormat.unzigzag(v);
+                dst[offset + i] = Float.intBitsToFloat((int) acc);
+            }
+        }
+        checkConsumed(block, pos, len);
+        return n;
+    }
+
+    /**
+     * Lee los textos de un bloque de anotaciones.
+     */
+    public int readAnnotations(int block, String[] dst, int offset) throws IOException {
+        if (kinds[check(block)] != ColumnarFormat.KIND_ANNOTATION) {
+            throw new IllegalArgumentException("el bloque " + block + " no es de anotaciones");
+        }
+        final int len = inflate(block, 1);
+        final int n = rows[block];
+        final ProtoCursor cursor = new ProtoCursor();
+        cursor.reset(ByteBuffer.wrap(raw), 0, len);
+        try {
+            for (int i = 0; i < n; i++) {
+                final int textLength = cursor.readLength();
+                dst[offset + i] = new String(raw, cursor.pos, textLength, UTF_8);
+                cursor.pos += textLength;
+            }
+        } catch (IllegalStateException e) {
+            throw new IOException("anotaciones del bloque " + block + " truncadas", e);
+        }
+        return n;
+    }
+
+    /**
+     * Todas las marcas de tiempo de un tipo de paquete, en el orden del archivo.
+     */
+    public long[] timestamps(MuseDataPacketType type) throws IOException {
+        final long[] dst = new long[rows(type)];
+        int n = 0;
+        for (int b = 0; b < count; b++) {
+            if (kinds[b] == type.ordinal()) {
+                n += readTimestamps(b, dst, n);
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * Todos los valores de un canal de un tipo de paquete. Las filas de bloques con menos
+     * canales quedan en NaN.
+     */
+    public double[] channel(MuseDataPacketType type, int channel) throws IOException {
+        final double[] dst = new double[rows(type)];
+        int n = 0;
+        for (int b = 0; b < count; b++) {
+            if (kinds[b] != type.ordinal()) {
+                continue;
+            }
+            if (channel < channels[b]) {
+                readChannel(b, channel, dst, n);
+            } else {
+                Arrays.fill(dst, n, n + rows[b], Double.NaN);
+            }
+            n += rows[b];
+        }
+        return dst;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Posicion del final del ultimo bloque completo; despues solo puede estar el indice.
+     */
+    public long dataEnd() {
+        return dataEnd;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        file.close();
+    }
+
+    private int check(int block) {
+        if (block < 0 || block >= count) {
+            throw new IndexOutOfBoundsException("bloque " + block + " de " + count);
+        }
+        return block;
+    }
+
+    private boolean readFooter() throws IOException {
+        if (size < ColumnarFormat.HEADER_SIZE + 8 + ColumnarFormat.END_SIZE) {
+            return false;
+        }
+        file.seek(size - ColumnarFormat.END_SIZE);
+        final long footer = file.readLong();
+        if (file.readInt() != ColumnarFormat.END_MAGIC || footer < ColumnarFormat.HEADER_SIZE
+                || footer > size - ColumnarFormat.END_SIZE - 8) {
+            return false;
+        }
+        file.seek(footer);
+        dataEnd = footer;
+        if (file.readInt() != ColumnarFormat.FOOTER_MAGIC) {
+            return false;
+        }
+        final int n = file.readInt();
+        if (n < 0 || footer + 8 + (long) n * ColumnarFormat.INDEX_ENTRY_SIZE
+                != size - ColumnarFormat.END_SIZE) {
+            return false;
+        }
+        final byte[] entries = new byte[n * ColumnarFormat.INDEX_ENTRY_SIZE];
+        file.readFully(entries);
+        final ByteBuffer buf = ByteBuffer.wrap(entries);
+        for (int i = 0; i < n; i++) {
+            addBlock(buf.getLong(), buf.get() & 0xFF, buf.get() & 0xFF, buf.getInt(),
+                    buf.getLong(), buf.getLong());
+        }
+        return true;
+    }
+
+    /**
+     * Recorre los bloques desde el inicio hasta el final del archivo o el primer bloque
+     * incompleto o danado.
+     */
+    private void scan() throws IOException {
+        long pos = ColumnarFormat.HEADER_SIZE;
+        while (true) {
+            final BlockHeader h;
+            try {
+                h = readHeader(pos);
+            } catch (IOException e) {
+                return;
+            }
+            if (h == null || !verify(h)) {
+                return;
+            }
+            final long end = end(h);
+            file.seek(pos + 4);
+            final int kind = file.readUnsignedByte();
+            final int ch = file.readUnsignedByte();
+            final int n = file.readInt();
+            addBlock(pos, kind, ch, n, file.readLong(), file.readLong());
+            headers[count - 1] = h;
+            pos = end;
+            dataEnd = end;
+        }
+    }
+
+    private void addBlock(long offset, int kind, int ch, int n, long firstTs, long lastTs) {
+        if (count == offsets.length) {
+            final int grown = count * 2;
+            offsets = Arrays.copyOf(offsets, grown);
+            kinds = Arrays.copyOf(kinds, grown);
+            channels = Arrays.copyOf(channels, grown);
+            rows = Arrays.copyOf(rows, grown);
+            first = Arrays.copyOf(first, grown);
+            last = Arrays.copyOf(last, grown);
+            headers = Arrays.copyOf(headers, grown);
+        }
+        offsets[count] = offset;
+        kinds[count] = kind;
+        channels[count] = ch;
+        rows[count] = n;
+        first[count] = firstTs;
+        last[count] = lastTs;
+        count++;
+    }
+
+    /**
+     * Lee el encabezado del bloque que empieza en pos.
+     * @return null si en pos no hay un bloque completo.
+     */
+    private BlockHeader readHeader(long pos) throws IOException {
+        if (pos + 6 > size) {
+            return null;
+        }
+        file.seek(pos);
+        if (file.readInt() != ColumnarFormat.BLOCK_MAGIC) {
+            return null;
+        }
+        file.readUnsignedByte();
+        final int ch = file.readUnsignedByte();
+        final int headerSize = ColumnarFormat.blockHeaderSize(ch);
+        if (pos + headerSize > size) {
+            return null;
+        }
+        file.seek(pos);
+        final byte[] bytes = new byte[headerSize];
+        file.readFully(bytes);
+        final ByteBuffer buf = ByteBuffer.wrap(bytes);
+        buf.position(4 + 1 + 1 + 4 + 8 + 8);
+        final BlockHeader h = new BlockHeader();
+        h.rawLengths = new int[ch + 1];
+        h.compressedLengths = new int[ch + 1];
+        h.columnOffsets = new long[ch + 1];
+        h.encodings = new int[ch];
+        h.steps = new double[ch];
+        h.rawLengths[0] = buf.getInt();
+        h.compressedLengths[0] = buf.getInt();
+        for (int c = 0; c < ch; c++) {
+            h.encodings[c] = buf.get();
+            h.steps[c] = buf.getDouble();
+            h.rawLengths[c + 1] = buf.getInt();
+            h.compressedLengths[c + 1] = buf.getInt();
+        }
+        h.crc = buf.getInt();
+        h.dataStart = pos + headerSize;
+        long offset = h.dataStart;
+        for (int c = 0; c <= ch; c++) {
+            if (h.rawLengths[c] < 0 || h.compressedLengths[c] < 0) {
+                return null;
+            }
+            h.columnOffsets[c] = offset;
+            offset += h.compressedLengths[c];
+        }
+        return h;
+    }
+
+    private static long end(BlockHeader h) {
+        final int columns = h.compressedLengths.length;
+        return h.columnOffsets[columns - 1] + h.compressedLengths[columns - 1];
+    }
+
+    /**
+     * true si el bloque esta completo en el archivo y su CRC coincide con el de sus columnas
+     * comprimidas.
+     */
+    private boolean verify(BlockHeader h) throws IOException {
+        if (end(h) > size) {
+            return false;
+        }
+        crc.reset();
+        for (int c = 0; c < h.compressedLengths.length; c++) {
+            readCompressed(h, c);
+            crc.update(compressed, 0, h.compressedLengths[c]);
+        }
+        return (int) crc.getValue() == h.crc;
+    }
+
+    private void readCompressed(BlockHeader h, int column) throws IOException {
+        final int n = h.compressedLengths[column];
+        if (n > compressed.length) {
+            compressed = new byte[Math.max(n, compressed.length * 2)];
+        }
+        file.seek(h.columnOffsets[column]);
+        file.readFully(compressed, 0, n);
+    }
+
+    /**
+     * Descomprime una columna de un bloque en raw.
+     * @return los bytes descomprimidos.
+     */
+    private int inflate(int block, int column) throws IOException {
+        BlockHeader h = headers[check(block)];
+        if (h == null) {
+            // Bloque del indice: se verifica una vez y se guarda su encabezado.
+            h = readHeader(offsets[block]);
+            if (h == null || h.encodings.length != channels[block] || !verify(h)) {
+                throw new IOException("bloque " + block + " danado en " + offsets[block]);
+            }
+            headers[block] = h;
+        }
+        readCompressed(h, column);
+        final int len = h.rawLengths[column];
+        if (len > raw.length) {
+            raw = new byte[Math.max(len, raw.length * 2)];
+        }
+        inflater.reset();
+        inflater.setInput(compressed, 0, h.compressedLengths[column]);
+        try {
+            int n = 0;
+            while (n < len && !inflater.finished()) {
+                final int k = inflater.inflate(raw, n, len - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += k;
+            }
+            if (n != len) {
+                throw new IOException("columna " + column + " del bloque " + block
+                        + " incompleta");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("columna " + column + " del bloque " + block + " danada", e);
+        }
+        return len;
+    }
+
+    private void checkConsumed(int block, int pos, int len) throws IOException {
+        if (pos != len) {
+            throw new IOException("columna del bloque " + block + " con " + (len - pos)
+                    + " bytes de mas");
+        }
+    }
+}
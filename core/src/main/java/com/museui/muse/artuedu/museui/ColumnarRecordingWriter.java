@@ -0,0 +1,395 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Escritor de grabaciones en el formato columnar descrito en {@link ColumnarFormat}.
+ *
+ * Las filas de cada tipo de paquete se acumulan en columnas en memoria y se escriben como un
+ * bloque comprimido al llegar a blockRows filas. Cada tipo tiene un bloque abierto por numero de
+ * valores por fila, asi que filas de distinto numero de valores (por ejemplo EEG de 4 y de 6
+ * canales) no cierran el bloque de las otras; los bloques de un mismo tipo con distinto numero
+ * de canales pueden quedar intercalados en el tiempo. Al cerrar se escriben los bloques
+ * abiertos y el indice del final.
+ *
+ * No es seguro para varios hilos; en la app se usa solo desde el hilo de archivos.
+ */
+public final class ColumnarRecordingWriter implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Filas por bloque: unos 4 segundos de EEG a 256 Hz.
+     */
+    public static final int DEFAULT_BLOCK_ROWS = 1024;
+
+    private static final MuseDataPacketType[] TYPES = MuseDataPacketType.values();
+
+    /**
+     * Columnas abiertas de un tipo de paquete con un numero de valores por fila.
+     */
+    private static final class Stream {
+        final int kind;
+        final long[] timestamps;
+        final double[][] columns;
+        String[] texts;
+        int rows;
+
+        Stream(int kind, int channels, int capacity) {
+            this.kind = kind;
+            this.timestamps = new long[capacity];
+            this.columns = new double[channels][capacity];
+        }
+    }
+
+    private final DataOutputStream out;
+    private final int blockRows;
+    // Por tipo y numero de valores por fila.
+    private final Stream[][] streams = new Stream[TYPES.length][];
+    private final Stream annotations;
+    private final double[] steps = new double[TYPES.length];
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final CRC32 crc = new CRC32();
+    private byte[] raw = new byte[4096];
+    private byte[] compressed = new byte[4096];
+    private final ByteArrayOutputStream columnBytes = new ByteArrayOutputStream(4096);
+    private final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream header = new DataOutputStream(headerBytes);
+
+    // Indice de bloques que se escribe al final.
+    private long[] blockOffsets = new long[64];
+    private int[] blockKinds = new int[64];
+    private int[] blockChannels = new int[64];
+    private int[] blockRowCounts = new int[64];
+    private long[] blockFirst = new long[64];
+    private long[] blockLast = new long[64];
+    private int blockCount;
+
+    private long position;
+    private long rowsWritten;
+    private boolean closed;
+
+    public ColumnarRecordingWriter(File file) throws IOException {
+        this(file, DEFAULT_BLOCK_ROWS);
+    }
+
+    public ColumnarRecordingWriter(File file, int blockRows) throws IOException {
+        if (blockRows <= 0) {
+            throw new IllegalArgumentException("blockRows debe ser positivo: " + blockRows);
+        }
+        this.blockRows = blockRows;
+        this.annotations = new Stream(ColumnarFormat.KIND_ANNOTATION, 0, blockRows);
+        this.annotations.texts = new String[blockRows];
+        this.out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 64 << 10));
+        out.writeInt(ColumnarFormat.MAGIC);
+        out.writeShort(ColumnarFormat.VERSION);
+        out.writeShort(0);
+        position = ColumnarFormat.HEADER_SIZE;
+    }
+
+    /**
+     * Guarda los valores de un tipo cuantizados a un paso fijo en lugar de como float32. Los
+     * valores se recuperan con un error de a lo mas step / 2; un bloque con valores NaN o
+     * infinitos se guarda sin cuantizar.
+     * @param step  Paso de cuantizacion, o 0 para guardar sin perdida.
+     */
+    public void setQuantization(MuseDataPacketType type, double step) {
+        if (step < 0 || Double.isNaN(step) || Double.isInfinite(step)) {
+            throw new IllegalArgumentException("paso invalido: " + step);
+        }
+        steps[type.ordinal()] = step;
+    }
+
+    /**
+     * Agrega una fila de un tipo de paquete.
+     * @param count  Valores de la fila, a lo mas SampleFrame.MAX_VALUES.
+     */
+    public void add(MuseDataPacketType type, long timestampMicros, double[] values, int count)
+            throws IOException {
+        if (count < 0 || count > SampleFrame.MAX_VALUES) {
+            throw new IllegalArgumentException("numero de valores invalido: " + count);
+        }
+        Stream[] byChannels = streams[type.ordinal()];
+        if (byChannels == null) {
+            byChannels = new Stream[SampleFrame.MAX_VALUES + 1];
+            streams[type.ordinal()] = byChannels;
+        }
+        Stream s = byChannels[count];
+        if (s == null) {
+            s = new Stream(type.ordinal(), count, blockRows);
+            byChannels[count] = s;
+        }
+        final int row = s.rows;
+        s.timestamps[row] = timestampMicros;
+        for (int c = 0; c < count; c++) {
+            s.columns[c][row] = values[c];
+        }
+        s.rows = row + 1;
+        if (s.rows == blockRows) {
+            writeBlock(s);
+        }
+    }
+
+    public void add(SampleFrame frame) throws IOException {
+        add(frame.type(), frame.timestampMicros(), frame.values(), frame.count());
+    }
+
+    public void annotate(long timestampMicros, String text) throws IOException {
+        final Stream s = annotations;
+        s.timestamps[s.rows] = timestampMicros;
+        s.texts[s.rows] = text;
+        if (++s.rows == blockRows) {
+            writeBlock(s);
+        }
+    }
+
+    /**
+     * Escribe los bloques abiertos aunque no esten llenos, para que sus filas queden en el
+     * archivo si la app se cierra sin llamar a close. Cada llamada agrega un bloque por tipo,
+     * asi que conviene llamarla cada pocos segundos y no en cada lote.
+     */
+    public void writeOpenBlocks() throws IOException {
+        for (Stream[] byChannels : streams) {
+            if (byChannels == null) {
+                continue;
+            }
+            for (Stream s : byChannels) {
+                if (s != null && s.rows > 0) {
+                    writeBlock(s);
+                }
+            }
+        }
+        if (annotations.rows > 0) {
+            writeBlock(annotations);
+        }
+    }
+
+    /**
+     * Vacia el buffer del archivo. Las filas de los bloques abiertos se escriben al completar
+     * el bloque, con {@link #writeOpenBlocks()} o al cerrar.
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Bytes escritos al archivo, sin contar las filas de los bloques abiertos.
+     */
+    public long position() {
+        return position;
+    }
+
+    public int blockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Filas escritas en bloques completos, incluidas las anotaciones.
+     */
+    public long rowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * Escribe los bloques abiertos y el indice de bloques, y cierra el archivo.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writeOpenBlocks();
+            writeFooter();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private void writeBlock(Stream s) throws IOException {
+        final int rows = s.rows;
+        final boolean text = s.kind == ColumnarFormat.KIND_ANNOTATION;
+        final int channels = text ? 1 : s.columns.length;
+        headerBytes.reset();
+        columnBytes.reset();
+        crc.reset();
+        header.writeInt(ColumnarFormat.BLOCK_MAGIC);
+        header.writeByte(s.kind);
+        header.writeByte(channels);
+        header.writeInt(rows);
+        header.writeLong(s.timestamps[0]);
+        header.writeLong(s.timestamps[rows - 1]);
+
+        int len = encodeTimestamps(s.timestamps, rows);
+        writeColumn(len);
+        if (text) {
+            header.writeByte(ColumnarFormat.ENCODING_FLOAT_DELTA);
+            header.writeDouble(0);
+            writeColumn(encodeTexts(s.texts, rows));
+            Arrays.fill(s.texts, 0, rows, null);
+        } else {
+            final double step = steps[s.kind];
+            for (int c = 0; c < channels; c++) {
+                final double[] column = s.columns[c];
+                if (step > 0 && quantizable(column, rows, step)) {
+                    header.writeByte(ColumnarFormat.ENCODING_QUANTIZED);
+                    header.writeDouble(step);
+                    len = encodeQuantized(column, rows, step);
+                } else {
+                    header.writeByte(ColumnarFormat.ENCODING_FLOAT_DELTA);
+                    header.writeDouble(0);
+                    len = encodeFloats(column, rows);
+                }
+                writeColumn(len);
+            }
+        }
+        header.writeInt((int) crc.getValue());
+
+        addIndexEntry(s.kind, channels, rows, s.timestamps[0], s.timestamps[rows - 1]);
+        headerBytes.writeTo(out);
+        columnBytes.writeTo(out);
+        position += headerBytes.size() + columnBytes.size();
+        rowsWritten += rows;
+        s.rows = 0;
+    }
+
+    /**
+     * Comprime los primeros len bytes de raw, los agrega a las columnas del bloque y escribe
+     * sus tamaños en el encabezado.
+     */
+    private void writeColumn(int len) throws IOException {
+        deflater.reset();
+        deflater.setInput(raw, 0, len);
+        deflater.finish();
+        int n = 0;
+        while (!deflater.finished()) {
+            if (n == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            n += deflater.deflate(compressed, n, compressed.length - n);
+        }
+        header.writeInt(len);
+        header.writeInt(n);
+        crc.update(compressed, 0, n);
+        columnBytes.write(compressed, 0, n);
+    }
+
+    private int encodeTimestamps(long[] timestamps, int rows) {
+        ensureRaw(rows * ColumnarFormat.MAX_VARINT_SIZE);
+        int pos = 0;
+        long prev = timestamps[0];
+        for (int i = 0; i < rows; i++) {
+            pos = ColumnarFormat.putVarint(raw, pos, ColumnarFormat.zigzag(timestamps[i] - prev));
+            prev = timestamps[i];
+        }
+        return pos;
+    }
+
+    /**
+     * Diferencias de los bits float32, sin perdida respecto a lo que guarda .muse.
+     */
+    private int encodeFloats(double[] column, int rows) {
+        ensureRaw(rows * 5);
+        int pos = 0;
+        int prev = 0;
+        for (int i = 0; i < rows; i++) {
+            final int bits = Float.floatToIntBits((float) column[i]);
+            pos = ColumnarFormat.putVarint(raw, pos, ColumnarFormat.zigzag(bits - prev));
+            prev = bits;
+        }
+        return pos;
+    }
+
+    private int encodeQuantized(double[] column, int rows, double step) {
+        ensureRaw(rows * ColumnarFormat.MAX_VARINT_SIZE);
+        int pos = 0;
+        long prev = 0;
+        for (int i = 0; i < rows; i++) {
+            final long q = Math.round(column[i] / step);
+            pos = ColumnarFormat.putVarint(raw, pos, ColumnarFormat.zigzag(q - prev));
+            prev = q;
+        }
+        return pos;
+    }
+
+    private int encodeTexts(String[] texts, int rows) {
+        int pos = 0;
+        for (int i = 0; i < rows; i++) {
+            final byte[] b = texts[i].getBytes(UTF_8);
+            ensureRaw(pos + ColumnarFormat.MAX_VARINT_SIZE + b.length);
+            pos = ColumnarFormat.putVarint(raw, pos, b.length);
+            System.arraycopy(b, 0, raw, pos, b.length);
+            pos += b.length;
+        }
+        return pos;
+    }
+
+    private static boolean quantizable(double[] column, int rows, double step) {
+        for (int i = 0; i < rows; i++) {
+            final double q = column[i] / step;
+            // Fuera de este rango Math.round pierde precision o se satura.
+            if (!(Math.abs(q) < 1e15)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void ensureRaw(int n) {
+        if (n > raw.length) {
+            raw = new byte[Math.max(n, raw.length * 2)];
+        }
+    }
+
+    private void addIndexEntry(int kind, int channels, int rows, long first, long last) {
+        if (blockCount == blockOffsets.length) {
+            final int n = blockCount * 2;
+            blockOffsets = Arrays.copyOf(blockOffsets, n);
+            blockKinds = Arrays.copyOf(blockKinds, n);
+            blockChannels = Arrays.copyOf(blockChannels, n);
+            blockRowCounts = Arrays.copyOf(blockRowCounts, n);
+            blockFirst = Arrays.copyOf(blockFirst, n);
+            blockLast = Arrays.copyOf(blockLast, n);
+        }
+        blockOffsets[blockCount] = position;
+        blockKinds[blockCount] = kind;
+        blockChannels[blockCount] = channels;
+        blockRowCounts[blockCount] = rows;
+        blockFirst[blockCount] = first;
+        blockLast[blockCount] = last;
+        blockCount++;
+    }
+
+    private void writeFooter() throws IOException {
+        final long footer = position;
+        out.writeInt(ColumnarFormat.FOOTER_MAGIC);
+        out.writeInt(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            out.writeLong(blockOffsets[i]);
+            out.writeByte(blockKinds[i]);
+            out.writeByte(blockChannels[i]);
+            out.writeInt(blockRowCounts[i]);
+            out.writeLong(blockFirst[i]);
+            out.writeLong(blockLast[i]);
+        }
+        out.writeLong(footer);
+        out.writeInt(ColumnarFormat.END_MAGIC);
+        position += 8 + blockCount * ColumnarFormat.INDEX_ENTRY_SIZE + ColumnarFormat.END_SIZE;
+    }
+}
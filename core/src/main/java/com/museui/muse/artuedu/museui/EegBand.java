@@ -0,0 +1,29 @@
+package com.museui.muse.artuedu.museui;
+
+/**
+ * Bandas de frecuencia del EEG, con los mismos limites que usa LibMuse para sus paquetes
+ * derivados (ALPHA_ABSOLUTE, BETA_ABSOLUTE, ...).
+ */
+public enum EegBand {
+    DELTA(1, 4),
+    THETA(4, 8),
+    ALPHA(7.5, 13),
+    BETA(13, 30),
+    GAMMA(30, 44);
+
+    private final double lowHz;
+    private final double highHz;
+
+    EegBand(double lowHz, double highHz) {
+        this.lowHz = lowHz;
+        this.highHz = highHz;
+    }
+
+    public double lowHz() {
+        return lowHz;
+    }
+
+    public double highHz() {
+        return highHz;
+    }
+}
@@ -0,0 +1,93 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.ConnectionState;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+/**
+ * HeadbandSource sin hilo propio: las muestras y los cambios de conexion los entrega quien la
+ * usa, en su propio hilo, que pasa a ser el hilo de la fuente. La usan las pruebas y los
+ * benchmarks para alimentar un {@link SessionManager} o el procesamiento con muestras exactas.
+ */
+public final class FeedHeadbandSource implements HeadbandSource {
+
+    private final String name;
+    private final SampleFrame frame = new SampleFrame();
+    private volatile Listener listener;
+    private volatile ConnectionState state = ConnectionState.DISCONNECTED;
+
+    public FeedHeadbandSource(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Entrega CONNECTING y CONNECTED en el hilo actual.
+     */
+    @Override
+    public void connect() {
+        if (state != ConnectionState.DISCONNECTED) {
+            return;
+        }
+        changeState(ConnectionState.CONNECTING);
+        changeState(ConnectionState.CONNECTED);
+    }
+
+    /**
+     * Entrega DISCONNECTED en el hilo actual.
+     */
+    @Override
+    public void disconnect() {
+        if (state != ConnectionState.DISCONNECTED) {
+            changeState(ConnectionState.DISCONNECTED);
+        }
+    }
+
+    @Override
+    public ConnectionState connectionState() {
+        return state;
+    }
+
+    /**
+     * Entrega una muestra con count valores de values.
+     */
+    public void feed(MuseDataPacketType type, long timestampMicros, double[] values, int count) {
+        frame.set(type, timestampMicros, values, count);
+        deliver();
+    }
+
+    /**
+     * Entrega una muestra de EEG con el mismo valor en los channels canales.
+     */
+    public void eeg(long timestampMicros, double value, int channels) {
+        frame.set(MuseDataPacketType.EEG, timestampMicros, channels);
+        for (int c = 0; c < channels; c++) {
+            frame.setValue(c, value);
+        }
+        deliver();
+    }
+
+    private void deliver() {
+        final Listener l = listener;
+        if (l != null) {
+            l.onSampleFrame(this, frame);
+        }
+    }
+
+    private void changeState(ConnectionState next) {
+        final ConnectionState previous = state;
+        state = next;
+        final Listener l = listener;
+        if (l != null) {
+            l.onConnectionChanged(this, previous, next);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.museui.muse.artuedu.museui;
+
+/**
+ * FFT compleja radix-2 en sitio para un tamaño fijo. Las tablas de senos, cosenos e indices
+ * invertidos se calculan una vez en el constructor, por lo que {@link #transform} no reserva
+ * memoria.
+ */
+public final class Fft {
+
+    private final int size;
+    private final int[] reversed;
+    private final double[] cos;
+    private final double[] sin;
+
+    public Fft(int size) {
+        if (size < 2 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("el tamaño debe ser potencia de 2: " + size);
+        }
+        this.size = size;
+        final int bits = Integer.numberOfTrailingZeros(size);
+        reversed = new int[size];
+        for (int i = 0; i < size; i++) {
+            reversed[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+        cos = new double[size / 2];
+        sin = new double[size / 2];
+        for (int i = 0; i < size / 2; i++) {
+            cos[i] = Math.cos(2 * Math.PI * i / size);
+            sin[i] = -Math.sin(2 * Math.PI * i / size);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Transforma re/im en sitio. Ambos arreglos deben tener al menos {@link #size()} elementos.
+     */
+    public void transform(double[] re, double[] im) {
+        for (int i = 0; i < size; i++) {
+            final int j = reversed[i];
+            if (j > i) {
+                double t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+        for (int len = 2; len <= size; len <<= 1) {
+            final int half = len >> 1;
+            final int step = size / len;
+            for (int start = 0; start < size; start += len) {
+                for (int k = 0; k < half; k++) {
+                    final double wr = cos[k * step];
+                    final double wi = sin[k * step];
+                    final int a = start + k;
+                    final int b = a + half;
+                    final double xr = re[b] * wr - im[b] * wi;
+                    final double xi = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - xr;
+                    im[b] = im[a] - xi;
+                    re[a] += xr;
+                    im[a] += xi;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import java.util.Arrays;
+
+/**
+ * Tabla de despacho de los SampleFrame de una fuente a sus consumidores, calculada una vez a
+ * partir de un {@link SubscriptionProfile}.
+ *
+ * Cada consumidor se agrega con el tipo de paquete y la ruta a la que pertenece
+ * (PROCESSING o UI); solo se conserva si el perfil envia ese tipo por esa ruta. Despachar un
+ * frame es leer el arreglo de consumidores de su tipo por ordinal y llamarlos en orden, sin
+ * switch ni reservas de memoria.
+ *
+ * Se configura antes de conectar la fuente y despues se usa solo desde su hilo.
+ */
+public final class FrameDispatcher {
+
+    public interface Consumer {
+        /**
+         * El frame se reutiliza y solo es valido durante la llamada.
+         */
+        void accept(SampleFrame frame);
+    }
+
+    private static final Consumer[] NONE = new Consumer[0];
+
+    private final SubscriptionProfile profile;
+    private final Consumer[][] table = new Consumer[MuseDataPacketType.values().length][];
+    private volatile long dispatched;
+    private volatile long ignored;
+
+    public FrameDispatcher(SubscriptionProfile profile) {
+        this.profile = profile;
+        Arrays.fill(table, NONE);
+    }
+
+    public SubscriptionProfile profile() {
+        return profile;
+    }
+
+    /**
+     * @param route  SubscriptionProfile.PROCESSING o SubscriptionProfile.UI.
+     * @return true si el perfil envia el tipo por esa ruta y el consumidor se agrego.
+     */
+    public boolean add(MuseDataPacketType type, int route, Consumer consumer) {
+        if (!profile.routes(type, route)) {
+            return false;
+        }
+        final Consumer[] current = table[type.ordinal()];
+        final Consumer[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = consumer;
+        table[type.ordinal()] = next;
+        return true;
+    }
+
+    /**
+     * Consumidores de un tipo, en el orden en que se agregaron.
+     */
+    public int consumerCount(MuseDataPacketType type) {
+        return table[type.ordinal()].length;
+    }
+
+    public void dispatch(SampleFrame frame) {
+        final Consumer[] consumers = table[frame.type().ordinal()];
+        if (consumers.length == 0) {
+            ignored++;
+            return;
+        }
+        for (Consumer c : consumers) {
+            c.accept(frame);
+        }
+        dispatched++;
+    }
+
+    public long dispatchedCount() {
+        return dispatched;
+    }
+
+    /**
+     * Frames sin consumidor, por ejemplo de una fuente que no respeta el perfil.
+     */
+    public long ignoredCount() {
+        return ignored;
+    }
+}
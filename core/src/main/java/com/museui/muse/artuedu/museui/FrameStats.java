@@ -0,0 +1,131 @@
+package com.museui.muse.artuedu.museui;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Estadisticas de los cuadros dibujados: intervalo entre vsyncs consecutivos, cuadros con jank
+ * (intervalo mayor a 1.5 periodos de refresco) y percentiles del tiempo de dibujo.
+ *
+ * Los tiempos se acumulan en un histograma de cubetas fijas de {@link #BUCKET_NANOS}, por lo que
+ * registrar un cuadro no reserva memoria. Solo lo debe usar un hilo (el de la IU); los cuadros
+ * despues de una pausa del ciclo no cuentan como intervalo.
+ */
+public final class FrameStats {
+
+    public static final long BUCKET_NANOS = 250000;
+    private static final int BUCKETS = 256;
+
+    private final long refreshPeriodNanos;
+    private final int[] renderHistogram = new int[BUCKETS];
+    private final int[] intervalHistogram = new int[BUCKETS];
+    private long frames;
+    private long intervals;
+    private long jankyFrames;
+    private long maxIntervalNanos;
+    private long maxRenderNanos;
+    private long lastFrameNanos = -1;
+
+    /**
+     * @param refreshPeriodNanos  Periodo de refresco de la pantalla, por ejemplo 16666667.
+     */
+    public FrameStats(long refreshPeriodNanos) {
+        this.refreshPeriodNanos = refreshPeriodNanos;
+    }
+
+    /**
+     * @param frameTimeNanos  Tiempo del vsync del cuadro.
+     * @param renderNanos     Lo que tardo el dibujo del cuadro.
+     */
+    public void record(long frameTimeNanos, long renderNanos) {
+        frames++;
+        renderHistogram[bucket(renderNanos)]++;
+        maxRenderNanos = Math.max(maxRenderNanos, renderNanos);
+        if (lastFrameNanos >= 0) {
+            final long interval = frameTimeNanos - lastFrameNanos;
+            intervals++;
+            intervalHistogram[bucket(interval)]++;
+            maxIntervalNanos = Math.max(maxIntervalNanos, interval);
+            if (interval * 2 > refreshPeriodNanos * 3) {
+                jankyFrames++;
+            }
+        }
+        lastFrameNanos = frameTimeNanos;
+    }
+
+    /**
+     * El ciclo se detuvo: el siguiente cuadro no forma un intervalo con el anterior.
+     */
+    public void pause() {
+        lastFrameNanos = -1;
+    }
+
+    public void reset() {
+        Arrays.fill(renderHistogram, 0);
+        Arrays.fill(intervalHistogram, 0);
+        frames = 0;
+        intervals = 0;
+        jankyFrames = 0;
+        maxIntervalNanos = 0;
+        maxRenderNanos = 0;
+        lastFrameNanos = -1;
+    }
+
+    public long frames() {
+        return frames;
+    }
+
+    public long jankyFrames() {
+        return jankyFrames;
+    }
+
+    public long maxIntervalNanos() {
+        return maxIntervalNanos;
+    }
+
+    public long maxRenderNanos() {
+        return maxRenderNanos;
+    }
+
+    /**
+     * Percentil del tiempo de dibujo, con la resolucion de una cubeta (limite superior).
+     * @param p  Entre 0 y 1.
+     */
+    public long renderPercentileNanos(double p) {
+        return percentile(renderHistogram, frames, p);
+    }
+
+    public long intervalPercentileNanos(double p) {
+        return percentile(intervalHistogram, intervals, p);
+    }
+
+    public String summary() {
+        return String.format(Locale.US,
+                "frames=%d jank=%d render p50=%.2fms p99=%.2fms max=%.2fms "
+                        + "interval p50=%.2fms p99=%.2fms max=%.2fms",
+                frames, jankyFrames,
+                renderPercentileNanos(.5) / 1e6, renderPercentileNanos(.99) / 1e6,
+                maxRenderNanos / 1e6,
+                intervalPercentileNanos(.5) / 1e6, intervalPercentileNanos(.99) / 1e6,
+                maxIntervalNanos / 1e6);
+    }
+
+    private static int bucket(long nanos) {
+        return (int) Math.min(Math.max(nanos, 0) / BUCKET_NANOS, BUCKETS - 1);
+    }
+
+    private static long percentile(int[] histogram, long total, double p) {
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return (i + 1) * BUCKET_NANOS;
+            }
+        }
+        return BUCKETS * BUCKET_NANOS;
+    }
+}
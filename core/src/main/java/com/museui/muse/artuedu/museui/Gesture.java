@@ -0,0 +1,21 @@
+package com.museui.muse.artuedu.museui;
+
+/**
+ * Gestos discretos que emite {@link GestureEngine}.
+ */
+public enum Gesture {
+    /** Inclinacion hacia adelante: empieza a avanzar. */
+    FORWARD,
+    /** Inclinacion hacia atras: empieza a retroceder. */
+    BACK,
+    /** Inclinacion a la izquierda: gira mientras se mantenga. */
+    LEFT,
+    /** Inclinacion a la derecha: gira mientras se mantenga. */
+    RIGHT,
+    /** Se detiene el movimiento o el giro. */
+    STOP,
+    /** Se bloquea el movimiento (detener); implica STOP. */
+    LOCK,
+    /** Se desbloquea el movimiento (reanudar); la posicion comun se vuelve a calibrar. */
+    UNLOCK
+}
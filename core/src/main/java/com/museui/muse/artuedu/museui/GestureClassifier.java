@@ -0,0 +1,326 @@
+package com.museui.muse.artuedu.museui;
+
+/**
+ * Logica de decision de gestos que antes estaba en MuseActivity.userGesture, sin dependencias
+ * de la IU para poder probarla y medirla en la JVM.
+ *
+ * Cada llamada a {@link #update(long, double, double, double)} recibe una muestra del
+ * acelerometro con la marca de tiempo del paquete. Las ventanas se miden con esas marcas de
+ * tiempo y no contando muestras, por lo que duran lo mismo a cualquier frecuencia de muestreo,
+ * de cuadros de la IU o con carga:
+ * <ol>
+ *   <li>Despues de {@link #restart()} se espera la ventana de reinicio.</li>
+ *   <li>Durante la ventana de calibracion se calculan la media y la desviacion estandar de cada
+ *   eje con {@link RunningStats}, sobre todas las muestras. La media es la posicion comun del
+ *   usuario y los umbrales de inclinacion se derivan del ruido medido.</li>
+ *   <li>Durante la ventana de espera (settle) se ignoran las muestras.</li>
+ *   <li>Despues cada muestra se compara contra la posicion comun: inclinar hacia adelante o
+ *   atras en X activa o detiene el movimiento, y en Y gira a la derecha o izquierda.</li>
+ * </ol>
+ * Despues de un cambio de movimiento se ignoran las muestras de la ventana refractaria.
+ *
+ * Mientras el usuario esta detenido y quieto se sigue calibrando en segundo plano: si pasa una
+ * ventana de calibracion completa sin gestos, la posicion comun y los umbrales se reemplazan por
+ * los de esa ventana. Asi se corrige la deriva de la postura sin detener el reconocimiento.
+ *
+ * No reserva memoria por muestra.
+ */
+public final class GestureClassifier {
+
+    // Movimientos, con los mismos codigos que usaba la actividad.
+    public static final int MOVE_STOP = 0;
+    public static final int MOVE_FORWARD = 1;
+    public static final int MOVE_BACK = 2;
+    public static final int MOVE_RIGHT = 3;
+    public static final int MOVE_LEFT = 4;
+    public static final int MOVE_LOCK_TOGGLE = 5;
+
+    // Resultados de update.
+    /** La muestra no produjo nada que mostrar. */
+    public static final int RESULT_NONE = 0;
+    /** Empieza la calibracion: el usuario no debe moverse. */
+    public static final int RESULT_CALIBRATING = 1;
+    /** Termino la calibracion. */
+    public static final int RESULT_CALIBRATED = 2;
+    /** Se debe aplicar el movimiento actual, {@link #move()}. */
+    public static final int RESULT_APPLY = 3;
+
+    // Ventanas por defecto, equivalentes a los ciclos de la IU a 60 Hz que se contaban antes
+    // (120, 30, 15 y 60 ciclos).
+    public static final long DEFAULT_CALIBRATION_MILLIS = 2000;
+    public static final long DEFAULT_SETTLE_MILLIS = 500;
+    public static final long DEFAULT_REFRACTORY_MILLIS = 250;
+    /**
+     * Espera antes de volver a calibrar, al conectar o al reanudar.
+     */
+    public static final long DEFAULT_RESTART_DELAY_MILLIS = 1000;
+
+    private static final int PHASE_DELAY = 0;
+    private static final int PHASE_CALIBRATION = 1;
+    private static final int PHASE_SETTLE = 2;
+    private static final int PHASE_ACTIVE = 3;
+
+    /**
+     * Marca de tiempo sin asignar: fin de una espera que aun no empieza.
+     */
+    private static final long UNSET = Long.MIN_VALUE;
+
+    /**
+     * Umbrales de inclinacion en desviaciones estandar del ruido de calibracion. Con el ruido
+     * tipico en reposo (~0.02 g) dan los .20 y .10 g que se usaban fijos.
+     */
+    public static final double DEFAULT_PITCH_SIGMAS = 10;
+    public static final double DEFAULT_ROLL_SIGMAS = 5;
+
+    // Limites de los umbrales en g: con muy poco ruido se sigue pidiendo una inclinacion
+    // deliberada, y una calibracion ruidosa no debe impedir los gestos.
+    public static final double MIN_PITCH_THRESHOLD = .08;
+    public static final double MAX_PITCH_THRESHOLD = .40;
+    public static final double MIN_ROLL_THRESHOLD = .04;
+    public static final double MAX_ROLL_THRESHOLD = .20;
+
+    private final long calibrationMicros;
+    private final long settleMicros;
+    private final long refractoryMicros;
+    private final long restartDelayMicros;
+
+    private int phase;
+    private long phaseEnd;
+    private long refractoryEnd = UNSET;
+    private double commonX;
+    private double commonY;
+    private double commonZ;
+    private double pitchThreshold = .20;
+    private double rollThreshold = .10;
+    private double pitchSigmas = DEFAULT_PITCH_SIGMAS;
+    private double rollSigmas = DEFAULT_ROLL_SIGMAS;
+
+    private final RunningStats statsX = new RunningStats();
+    private final RunningStats statsY = new RunningStats();
+    private final RunningStats statsZ = new RunningStats();
+
+    // Calibracion en segundo plano mientras el usuario esta quieto.
+    private final RunningStats idleX = new RunningStats();
+    private final RunningStats idleY = new RunningStats();
+    private final RunningStats idleZ = new RunningStats();
+    private long idleStart = UNSET;
+    private long recalibrations;
+
+    private boolean moving;
+    private int move = MOVE_STOP;
+
+    public GestureClassifier() {
+        this(DEFAULT_CALIBRATION_MILLIS, DEFAULT_SETTLE_MILLIS, DEFAULT_REFRACTORY_MILLIS,
+                DEFAULT_RESTART_DELAY_MILLIS);
+    }
+
+    /**
+     * @param calibrationMillis   Duracion de la calibracion de la posicion comun.
+     * @param settleMillis        Espera despues de calibrar.
+     * @param refractoryMillis    Tiempo sin cambios de movimiento despues de un cambio.
+     * @param restartDelayMillis  Espera antes de calibrar despues de {@link #restart()}.
+     */
+    public GestureClassifier(long calibrationMillis, long settleMillis, long refractoryMillis,
+                             long restartDelayMillis) {
+        if (calibrationMillis <= 0 || settleMillis < 0 || refractoryMillis < 0
+                || restartDelayMillis < 0) {
+            throw new IllegalArgumentException("ventana invalida");
+        }
+        this.calibrationMicros = calibrationMillis * 1000;
+        this.settleMicros = settleMillis * 1000;
+        this.refractoryMicros = refractoryMillis * 1000;
+        this.restartDelayMicros = restartDelayMillis * 1000;
+        restart();
+    }
+
+    /**
+     * Vuelve a calibrar, despues de la ventana de reinicio contada desde la siguiente muestra.
+     */
+    public void restart() {
+        phase = PHASE_DELAY;
+        phaseEnd = UNSET;
+    }
+
+    /**
+     * Umbrales en desviaciones estandar del ruido, para las siguientes calibraciones.
+     */
+    public void setNoiseSigmas(double pitchSigmas, double rollSigmas) {
+        this.pitchSigmas = pitchSigmas;
+        this.rollSigmas = rollSigmas;
+    }
+
+    public int move() {
+        return move;
+    }
+
+    public boolean calibrated() {
+        return phase >= PHASE_SETTLE;
+    }
+
+    public double commonX() {
+        return commonX;
+    }
+
+    public double commonY() {
+        return commonY;
+    }
+
+    public double commonZ() {
+        return commonZ;
+    }
+
+    public double pitchThreshold() {
+        return pitchThreshold;
+    }
+
+    public double rollThreshold() {
+        return rollThreshold;
+    }
+
+    /**
+     * Veces que la calibracion en segundo plano reemplazo a la anterior.
+     */
+    public long recalibrationCount() {
+        return recalibrations;
+    }
+
+    /**
+     * @param timestampMicros  Marca de tiempo del paquete; no debe decrecer.
+     * @return uno de los RESULT_*.
+     */
+    public int update(long timestampMicros, double x, double y, double z) {
+        // Ventana refractaria despues de un cambio de movimiento.
+        if (refractoryEnd != UNSET) {
+            if (timestampMicros < refractoryEnd) {
+                return RESULT_NONE;
+            }
+            refractoryEnd = UNSET;
+        }
+
+        switch (phase) {
+            case PHASE_DELAY:
+                if (phaseEnd == UNSET) {
+                    phaseEnd = timestampMicros + restartDelayMicros;
+                }
+                if (timestampMicros < phaseEnd) {
+                    return RESULT_NONE;
+                }
+                statsX.reset();
+                statsY.reset();
+                statsZ.reset();
+                addSample(statsX, statsY, statsZ, x, y, z);
+                phase = PHASE_CALIBRATION;
+                phaseEnd = timestampMicros + calibrationMicros;
+                return RESULT_CALIBRATING;
+            case PHASE_CALIBRATION:
+                addSample(statsX, statsY, statsZ, x, y, z);
+                if (timestampMicros < phaseEnd) {
+                    return RESULT_NONE;
+                }
+                applyCalibration(statsX, statsY, statsZ);
+                phase = PHASE_SETTLE;
+                phaseEnd = timestampMicros + settleMicros;
+                return RESULT_CALIBRATED;
+            case PHASE_SETTLE:
+                //Tiempo de espera
+                if (timestampMicros < phaseEnd) {
+                    return RESULT_NONE;
+                }
+                phase = PHASE_ACTIVE;
+                idleStart = UNSET;
+                break;
+            default:
+                break;
+        }
+
+        //Gesticulacion
+        if ((x - pitchThreshold) > commonX) {
+            //Adelante o Stop
+            toggleMoving(MOVE_FORWARD, timestampMicros);
+            if ((y - rollThreshold) > commonY && !moving) {
+                //Detener/Reanudar
+                move = MOVE_LOCK_TOGGLE;
+                return RESULT_APPLY;
+            }
+            return RESULT_NONE;
+        }
+        if ((x + pitchThreshold) < commonX) {
+            //Atras o Stop
+            toggleMoving(MOVE_BACK, timestampMicros);
+            return RESULT_NONE;
+        }
+        if ((y - rollThreshold) > commonY) {
+            if (move == MOVE_STOP) {
+                //Derecha
+                move = MOVE_RIGHT;
+            }
+        } else if ((y + rollThreshold) < commonY) {
+            if (move == MOVE_STOP) {
+                //Izquierda
+                move = MOVE_LEFT;
+            }
+        } else {
+            //Nada
+            if (move == MOVE_RIGHT || move == MOVE_LEFT) {
+                move = MOVE_STOP;
+            }
+            if (!moving && move == MOVE_STOP) {
+                trackIdle(timestampMicros, x, y, z);
+                return RESULT_APPLY;
+            }
+        }
+        idleStart = UNSET;
+        return RESULT_APPLY;
+    }
+
+    private void toggleMoving(int direction, long timestampMicros) {
+        move = moving ? MOVE_STOP : direction;
+        moving = !moving;
+        refractoryEnd = timestampMicros + refractoryMicros;
+        idleStart = UNSET;
+    }
+
+    /**
+     * Calibracion en segundo plano: acumula las muestras mientras el usuario sigue quieto y,
+     * al completar una ventana de calibracion, la aplica.
+     */
+    private void trackIdle(long timestampMicros, double x, double y, double z) {
+        if (idleStart == UNSET) {
+            idleStart = timestampMicros;
+            idleX.reset();
+            idleY.reset();
+            idleZ.reset();
+        }
+        addSample(idleX, idleY, idleZ, x, y, z);
+        if (timestampMicros - idleStart >= calibrationMicros) {
+            applyCalibration(idleX, idleY, idleZ);
+            recalibrations++;
+            idleStart = UNSET;
+        }
+    }
+
+    private static void addSample(RunningStats sx, RunningStats sy, RunningStats sz,
+                                  double x, double y, double z) {
+        sx.add(x);
+        sy.add(y);
+        sz.add(z);
+    }
+
+    /**
+     * La media de cada eje es la posicion comun; los umbrales son pitchSigmas y rollSigmas
+     * desviaciones estandar del ruido en X y en Y, dentro de sus limites.
+     */
+    private void applyCalibration(RunningStats sx, RunningStats sy, RunningStats sz) {
+        commonX = sx.mean();
+        commonY = sy.mean();
+        commonZ = sz.mean();
+        pitchThreshold = clamp(pitchSigmas * sx.standardDeviation(),
+                MIN_PITCH_THRESHOLD, MAX_PITCH_THRESHOLD);
+        rollThreshold = clamp(rollSigmas * sy.standardDeviation(),
+                MIN_ROLL_THRESHOLD, MAX_ROLL_THRESHOLD);
+    }
+
+    private static double clamp(double v, double min, double max) {
+        return Math.max(min, Math.min(max, v));
+    }
+}
@@ -0,0 +1,315 @@
+package com.museui.muse.artuedu.museui;
+
+/**
+ * Reconocimiento de gestos independiente de la IU. Procesa todas las muestras del acelerometro
+ * con {@link GestureClassifier} y emite un {@link Gesture} cada vez que cambia el movimiento o
+ * el bloqueo.
+ *
+ * La fuente entrega las muestras con {@link #offerAccelerometer(long, double[])}, que solo las
+ * copia a un SampleRingBuffer. El hilo de procesamiento ({@link #start()}) las lee todas en
+ * orden y llama al listener desde ese hilo. Sin muestras el hilo queda bloqueado hasta que la
+ * fuente entrega la siguiente ({@link IdleSignal}), sin despertar periodicamente.
+ * {@link #process(long, double, double, double)} procesa una muestra directamente en el hilo
+ * actual, sin iniciar el hilo.
+ *
+ * Procesar una muestra no reserva memoria. Con un {@link LatencyMonitor} activo se registran
+ * las etapas CALLBACK_TO_PROCESSED y PROCESSED_TO_GESTURE de las muestras que traen su tiempo
+ * de llegada, y las muestras pendientes en cada vaciado del buffer.
+ *
+ * Mientras el enlace con la headband esta degradado ({@link #setLinkDegraded(boolean)}) no
+ * hay movimiento: los gestos de muestras incompletas o atrasadas moverian la imagen sin que el
+ * usuario lo pida.
+ */
+public final class GestureEngine implements Runnable {
+
+    private static final int INPUT_CAPACITY = 256;
+    // x, y, z y el tiempo de llegada relativo a arrivalBase (NaN si no se midio).
+    private static final int INPUT_CHANNELS = 4;
+    private static final int DRAIN_BATCH = 32;
+
+    public interface Listener {
+        /**
+         * Se llama desde el hilo de procesamiento.
+         */
+        void onGesture(Gesture gesture, long timestampMicros);
+
+        /**
+         * Empieza (calibrated = false) o termina (calibrated = true) la calibracion de la
+         * posicion comun del usuario.
+         */
+        void onCalibrationChanged(boolean calibrated, long timestampMicros);
+    }
+
+    private final GestureClassifier classifier;
+    private final SampleRingBuffer input = new SampleRingBuffer(INPUT_CHANNELS, INPUT_CAPACITY);
+    private final double[] frames = new double[DRAIN_BATCH * INPUT_CHANNELS];
+    private final long[] timestamps = new long[DRAIN_BATCH];
+    private final double[] offered = new double[INPUT_CHANNELS];
+    private final long arrivalBase = System.nanoTime();
+    private final IdleSignal idle = new IdleSignal();
+    private volatile Listener listener;
+    private volatile LatencyMonitor latency;
+
+    // Llegada y fin del procesamiento de la muestra actual; solo el hilo de procesamiento.
+    private long sampleArrival;
+    private long sampleProcessed;
+
+    private volatile Gesture motion = Gesture.STOP;
+    private volatile boolean locked;
+    private boolean lockArmed = true;
+    private volatile boolean linkDegraded;
+    private boolean linkHold;
+    // Timestamp de la ultima muestra procesada; solo el hilo de procesamiento.
+    private long lastTimestampMicros;
+
+    private volatile boolean restartRequested;
+    private volatile long processed;
+    private volatile Thread thread;
+
+    public GestureEngine() {
+        this(new GestureClassifier());
+    }
+
+    /**
+     * @param classifier  Clasificador con las ventanas de calibracion y antirrebote a usar.
+     */
+    public GestureEngine(GestureClassifier classifier) {
+        this.classifier = classifier;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setLatencyMonitor(LatencyMonitor latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Movimiento actual: FORWARD, BACK, LEFT, RIGHT o STOP.
+     */
+    public Gesture motion() {
+        return motion;
+    }
+
+    public boolean locked() {
+        return locked;
+    }
+
+    /**
+     * Detiene el movimiento mientras el enlace esta degradado, por ejemplo por
+     * {@link LinkQualityMonitor}. El hilo de procesamiento emite STOP aunque no lleguen
+     * muestras; con {@link #process} el STOP se emite en la siguiente muestra. Al recuperarse
+     * el movimiento sigue detenido hasta que el clasificador vuelve a STOP, para no aplicar un
+     * gesto de cuando el enlace estaba degradado.
+     */
+    public void setLinkDegraded(boolean degraded) {
+        linkDegraded = degraded;
+        idle.wake();
+    }
+
+    public boolean linkDegraded() {
+        return linkDegraded;
+    }
+
+    public long processedCount() {
+        return processed;
+    }
+
+    /**
+     * Muestras descartadas porque el hilo de procesamiento no alcanzo a la fuente.
+     */
+    public long overflowCount() {
+        return input.overflowCount();
+    }
+
+    /**
+     * Vuelve a calibrar la posicion comun, por ejemplo al conectar una headband. Se aplica en
+     * el hilo de procesamiento antes de la siguiente muestra.
+     */
+    public void restart() {
+        restartRequested = true;
+    }
+
+    /**
+     * Entrega una muestra del acelerometro (x, y, z en g). Solo lo debe llamar el hilo de la
+     * fuente.
+     * @return false si la muestra se descarto porque el buffer esta lleno.
+     */
+    public boolean offerAccelerometer(long timestampMicros, double[] xyz) {
+        return offerAccelerometer(timestampMicros, xyz, 0);
+    }
+
+    /**
+     * @param arrivalNanos  System.nanoTime() de la entrada al callback, o 0 si no se midio.
+     */
+    public boolean offerAccelerometer(long timestampMicros, double[] xyz, long arrivalNanos) {
+        offered[0] = xyz[0];
+        offered[1] = xyz[1];
+        offered[2] = xyz[2];
+        offered[3] = arrivalNanos == 0 ? Double.NaN : arrivalNanos - arrivalBase;
+        final boolean accepted = input.offer(timestampMicros, offered);
+        idle.signal();
+        return accepted;
+    }
+
+    public synchronized void start() {
+        if (thread != null && thread.isAlive()) {
+            return;
+        }
+        thread = new Thread(this, "GestureEngine");
+        thread.start();
+    }
+
+    /**
+     * Detiene el hilo de procesamiento y espera a que termine, para que un {@link #start()}
+     * posterior no tenga dos hilos leyendo el buffer. Las muestras pendientes se conservan.
+     * Desde un listener no se espera: el hilo termina al volver del listener, porque cada hilo
+     * solo sigue mientras es el hilo actual del motor.
+     */
+    public synchronized void stop() {
+        final Thread t = thread;
+        thread = null;
+        if (t == null) {
+            return;
+        }
+        idle.wake();
+        if (t != Thread.currentThread()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        final Thread self = Thread.currentThread();
+        while (thread == self) {
+            if (linkDegraded && motion != Gesture.STOP) {
+                motion = Gesture.STOP;
+                sampleProcessed = 0;
+                emit(Gesture.STOP, lastTimestampMicros);
+            }
+            final int n = input.drain(frames, timestamps, DRAIN_BATCH);
+            if (n == 0) {
+                idle.prepare();
+                if (input.size() == 0 && thread == self
+                        && !(linkDegraded && motion != Gesture.STOP)) {
+                    idle.await();
+                } else {
+                    idle.cancel();
+                }
+                continue;
+            }
+            final LatencyMonitor m = latency;
+            final boolean measure = m != null && m.enabled();
+            if (measure) {
+                m.record(LatencyMonitor.Metric.GESTURE_QUEUE_DEPTH, n + input.size());
+            }
+            for (int i = 0; i < n; i++) {
+                final int f = i * INPUT_CHANNELS;
+                final double arrival = frames[f + 3];
+                sampleArrival = measure && !Double.isNaN(arrival)
+                        ? arrivalBase + (long) arrival : 0;
+                process(timestamps[i], frames[f], frames[f + 1], frames[f + 2]);
+            }
+            sampleArrival = 0;
+        }
+    }
+
+    /**
+     * Procesa una muestra en el hilo actual. No se debe mezclar con el hilo de procesamiento.
+     */
+    public void process(long timestampMicros, double x, double y, double z) {
+        if (restartRequested) {
+            restartRequested = false;
+            classifier.restart();
+        }
+        processed++;
+        lastTimestampMicros = timestampMicros;
+        final int result = classifier.update(timestampMicros, x, y, z);
+        sampleProcessed = 0;
+        if (sampleArrival != 0) {
+            final LatencyMonitor m = latency;
+            if (m != null) {
+                sampleProcessed = System.nanoTime();
+                m.record(LatencyMonitor.Metric.CALLBACK_TO_PROCESSED,
+                        sampleProcessed - sampleArrival);
+            }
+        }
+        switch (result) {
+            case GestureClassifier.RESULT_CALIBRATING:
+                calibrationChanged(false, timestampMicros);
+                break;
+            case GestureClassifier.RESULT_CALIBRATED:
+                calibrationChanged(true, timestampMicros);
+                break;
+            default:
+                break;
+        }
+
+        final int move = classifier.move();
+        if (move == GestureClassifier.MOVE_LOCK_TOGGLE) {
+            // Un solo cambio de bloqueo por gesto: se vuelve a armar al detenerse.
+            if (result == GestureClassifier.RESULT_APPLY && lockArmed) {
+                lockArmed = false;
+                locked = !locked;
+                if (!locked) {
+                    classifier.restart();
+                }
+                motion = Gesture.STOP;
+                emit(locked ? Gesture.LOCK : Gesture.UNLOCK, timestampMicros);
+            }
+            return;
+        }
+        if (move == GestureClassifier.MOVE_STOP && result == GestureClassifier.RESULT_APPLY) {
+            lockArmed = true;
+        }
+        if (linkDegraded) {
+            linkHold = true;
+        } else if (move == GestureClassifier.MOVE_STOP) {
+            linkHold = false;
+        }
+        // Mientras esta bloqueado o el enlace esta degradado no hay movimiento.
+        final Gesture next = locked || linkHold ? Gesture.STOP : gesture(move);
+        if (next != motion) {
+            motion = next;
+            emit(next, timestampMicros);
+        }
+    }
+
+    private static Gesture gesture(int move) {
+        switch (move) {
+            case GestureClassifier.MOVE_FORWARD:
+                return Gesture.FORWARD;
+            case GestureClassifier.MOVE_BACK:
+                return Gesture.BACK;
+            case GestureClassifier.MOVE_RIGHT:
+                return Gesture.RIGHT;
+            case GestureClassifier.MOVE_LEFT:
+                return Gesture.LEFT;
+            default:
+                return Gesture.STOP;
+        }
+    }
+
+    private void emit(Gesture gesture, long timestampMicros) {
+        final Listener l = listener;
+        if (l != null) {
+            l.onGesture(gesture, timestampMicros);
+            final LatencyMonitor m = latency;
+            if (sampleProcessed != 0 && m != null) {
+                m.gestureEmitted(sampleArrival, sampleProcessed, System.nanoTime());
+            }
+        }
+    }
+
+    private void calibrationChanged(boolean calibrated, long timestampMicros) {
+        final Listener l = listener;
+        if (l != null) {
+            l.onCalibrationChanged(calibrated, timestampMicros);
+        }
+    }
+}
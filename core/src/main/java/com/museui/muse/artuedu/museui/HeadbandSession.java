@@ -0,0 +1,247 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.ConnectionState;
+
+/**
+ * Todo lo que corresponde a una headband dentro de un {@link SessionManager}: la fuente, sus
+ * listeners, los SampleRingBuffer de entrada, el procesamiento (GestureEngine y
+ * BandPowerEngine), la grabacion y los contadores.
+ *
+ * El hilo de la fuente solo copia las muestras a los buffers de la sesion. Uno de los hilos del
+ * SessionManager, siempre el mismo para cada sesion, las saca con {@link #pump(int)} y llama a
+ * los motores con process, sin iniciar sus hilos propios. Asi cada buffer sigue teniendo un solo
+ * productor y un solo consumidor y los motores se usan desde un solo hilo. Cada muestra nueva
+ * despierta a ese hilo si estaba esperando.
+ */
+public final class HeadbandSession {
+
+    /**
+     * Canales de EEG de cada muestra: EEG1-EEG4, AUX_LEFT y AUX_RIGHT.
+     */
+    public static final int EEG_CHANNELS = 6;
+
+    /**
+     * Frecuencia del acelerometro de la headband, en Hz.
+     */
+    public static final int MOTION_RATE = 52;
+
+    private static final int ACCEL_CHANNELS = 3;
+    private static final int DRAIN_BATCH = 32;
+
+    /**
+     * Cambios de conexion de la sesion, desde el hilo de la fuente.
+     */
+    public interface Listener {
+        void onSessionConnectionChanged(HeadbandSession session, ConnectionState previous,
+                                        ConnectionState current);
+    }
+
+    /**
+     * Grabacion de la sesion. La sesion solo la cierra y lee sus contadores; los paquetes los
+     * entrega la fuente, por ejemplo con un PacketTap de LibmuseHeadbandSource.
+     */
+    public interface Recording {
+        /**
+         * Se llama desde el hilo de la fuente al desconectarse.
+         */
+        void close();
+
+        long writtenCount();
+
+        long droppedCount();
+    }
+
+    private final String id;
+    private final HeadbandSource source;
+    private final GestureEngine gestures;
+    private final BandPowerEngine bandPowers;
+
+    private final SampleRingBuffer eegInput;
+    private final SampleRingBuffer accelInput;
+    private final double[] frames = new double[DRAIN_BATCH * EEG_CHANNELS];
+    private final long[] timestamps = new long[DRAIN_BATCH];
+
+    private volatile Listener listener;
+    private volatile Recording recording;
+    // El del hilo asignado por el SessionManager, o null fuera de el.
+    private volatile IdleSignal idle;
+
+    // Escritos solo por el hilo de la fuente.
+    private volatile long received;
+    private volatile long connectedAtNanos;
+    // Escrito solo por el hilo de la sesion.
+    private volatile long processed;
+
+    /**
+     * @param id       Identificador de la sesion, por ejemplo el nombre de la headband.
+     * @param eegRate  Frecuencia de EEG de la headband en Hz.
+     */
+    public HeadbandSession(String id, HeadbandSource source, int eegRate) {
+        this.id = id;
+        this.source = source;
+        this.gestures = new GestureEngine();
+        this.bandPowers = BandPowerEngine.forSampleRate(eegRate, EEG_CHANNELS);
+        // Unos dos segundos de muestras, por si un hilo compartido se atrasa.
+        this.eegInput = new SampleRingBuffer(EEG_CHANNELS, 2 * eegRate);
+        this.accelInput = new SampleRingBuffer(ACCEL_CHANNELS, 2 * MOTION_RATE);
+        source.setListener(new SourceListener());
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public HeadbandSource source() {
+        return source;
+    }
+
+    /**
+     * Reconocimiento de gestos de esta headband, para registrar su listener.
+     */
+    public GestureEngine gestures() {
+        return gestures;
+    }
+
+    /**
+     * Potencia de bandas de esta headband, para registrar sus listeners.
+     */
+    public BandPowerEngine bandPowers() {
+        return bandPowers;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setRecording(Recording recording) {
+        this.recording = recording;
+    }
+
+    //--------------------------------------
+    // Contadores
+
+    /**
+     * Muestras de EEG y acelerometro recibidas de la fuente.
+     */
+    public long receivedCount() {
+        return received;
+    }
+
+    /**
+     * Muestras procesadas por los motores.
+     */
+    public long processedCount() {
+        return processed;
+    }
+
+    /**
+     * Muestras descartadas porque el hilo compartido no alcanzo a la fuente.
+     */
+    public long droppedCount() {
+        return eegInput.overflowCount() + accelInput.overflowCount();
+    }
+
+    /**
+     * Muestras procesadas por segundo desde que la headband se conecto.
+     */
+    public double throughput(long nowNanos) {
+        final long start = connectedAtNanos;
+        if (start == 0 || nowNanos <= start) {
+            return 0;
+        }
+        return processed * 1e9 / (nowNanos - start);
+    }
+
+    public String summary(long nowNanos) {
+        final Recording r = recording;
+        return id + ": " + received + " recibidas, " + processed + " procesadas ("
+                + Math.round(throughput(nowNanos)) + "/s), " + droppedCount() + " descartadas"
+                + (r == null ? "" : ", grabacion " + r.writtenCount() + " escritas, "
+                + r.droppedCount() + " descartadas");
+    }
+
+    //--------------------------------------
+    // Procesamiento
+
+    void setIdleSignal(IdleSignal idle) {
+        this.idle = idle;
+    }
+
+    /**
+     * Muestras en los buffers de entrada que aun no se procesan.
+     */
+    int pending() {
+        return eegInput.size() + accelInput.size();
+    }
+
+    /**
+     * Procesa hasta maxFrames muestras pendientes de cada buffer. Solo lo debe llamar el hilo
+     * asignado a la sesion.
+     * @return el numero de muestras procesadas.
+     */
+    public int pump(int maxFrames) {
+        int done = 0;
+        int n;
+        while (done < maxFrames && (n = accelInput.drain(frames, timestamps,
+                Math.min(DRAIN_BATCH, maxFrames - done))) > 0) {
+            for (int i = 0; i < n; i++) {
+                final int o = i * ACCEL_CHANNELS;
+                gestures.process(timestamps[i], frames[o], frames[o + 1], frames[o + 2]);
+            }
+            done += n;
+        }
+        int eeg = 0;
+        while (eeg < maxFrames && (n = eegInput.drain(frames, timestamps,
+                Math.min(DRAIN_BATCH, maxFrames - eeg))) > 0) {
+            for (int i = 0; i < n; i++) {
+                bandPowers.process(timestamps[i], frames, i * EEG_CHANNELS);
+            }
+            eeg += n;
+        }
+        done += eeg;
+        if (done > 0) {
+            processed += done;
+        }
+        return done;
+    }
+
+    private final class SourceListener implements HeadbandSource.Listener {
+        @Override
+        public void onSampleFrame(HeadbandSource source, SampleFrame frame) {
+            switch (frame.type()) {
+                case EEG:
+                    eegInput.offer(frame.timestampMicros(), frame.values());
+                    break;
+                case ACCELEROMETER:
+                    accelInput.offer(frame.timestampMicros(), frame.values());
+                    break;
+                default:
+                    return;
+            }
+            received++;
+            final IdleSignal s = idle;
+            if (s != null) {
+                s.signal();
+            }
+        }
+
+        @Override
+        public void onConnectionChanged(HeadbandSource source, ConnectionState previous,
+                                        ConnectionState current) {
+            if (current == ConnectionState.CONNECTED) {
+                connectedAtNanos = System.nanoTime();
+                gestures.restart();
+                bandPowers.reset();
+            } else if (current == ConnectionState.DISCONNECTED) {
+                final Recording r = recording;
+                if (r != null) {
+                    r.close();
+                }
+            }
+            final Listener l = listener;
+            if (l != null) {
+                l.onSessionConnectionChanged(HeadbandSession.this, previous, current);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.ConnectionState;
+
+/**
+ * Origen de muestras de una headband: la headband real a traves de LibMuse, la reproduccion de
+ * una grabacion o un generador sintetico.
+ *
+ * Las muestras y los cambios de conexion se entregan al {@link Listener} desde el hilo propio de
+ * la fuente. Cada fuente tiene un solo hilo productor, por lo que su listener puede escribir
+ * directamente en un SampleRingBuffer.
+ */
+public interface HeadbandSource {
+
+    interface Listener {
+        /**
+         * Nueva muestra. El frame se reutiliza y solo es valido durante la llamada.
+         */
+        void onSampleFrame(HeadbandSource source, SampleFrame frame);
+
+        void onConnectionChanged(HeadbandSource source, ConnectionState previous,
+                                 ConnectionState current);
+    }
+
+    /**
+     * Nombre para mostrar, por ejemplo "Muse-1234 - 00:55:DA:B0:12:34".
+     */
+    String name();
+
+    void setListener(Listener listener);
+
+    /**
+     * Inicia la conexion. Las muestras empiezan a llegar despues de CONNECTED.
+     */
+    void connect();
+
+    void disconnect();
+
+    ConnectionState connectionState();
+}
@@ -0,0 +1,73 @@
+package com.museui.muse.artuedu.museui;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Espera sin sondeo de un hilo consumidor cuyas colas (por ejemplo {@link SampleRingBuffer})
+ * estan vacias.
+ *
+ * El consumidor sin trabajo llama a {@link #prepare()}, vuelve a revisar sus colas y, si siguen
+ * vacias, se bloquea con {@link #await()}; si encontro trabajo llama a {@link #cancel()}. El
+ * productor llama a {@link #signal()} despues de publicar cada muestra. Como prepare marca la
+ * espera antes de la segunda revision y signal la consume con un intercambio atomico, una
+ * muestra publicada entre la revision y el bloqueo siempre despierta al consumidor.
+ *
+ * Mientras el consumidor tiene trabajo signal no despierta a nadie, asi que solo hay un unpark
+ * cuando una cola pasa de vacia a no vacia.
+ */
+final class IdleSignal {
+
+    private final AtomicBoolean waiting = new AtomicBoolean();
+    private volatile Thread consumer;
+
+    /**
+     * El hilo actual va a esperar. Se llama antes de volver a revisar las colas.
+     */
+    void prepare() {
+        consumer = Thread.currentThread();
+        waiting.set(true);
+    }
+
+    /**
+     * Bloquea el hilo actual hasta un {@link #signal()} o {@link #wake()}. Puede volver antes,
+     * por lo que el consumidor vuelve a revisar sus colas y su estado.
+     */
+    void await() {
+        if (waiting.get()) {
+            LockSupport.park(this);
+        }
+        waiting.set(false);
+    }
+
+    /**
+     * El consumidor encontro trabajo despues de {@link #prepare()}.
+     */
+    void cancel() {
+        waiting.set(false);
+    }
+
+    /**
+     * Despierta al consumidor si esta esperando. Lo llama el productor despues de publicar.
+     */
+    void signal() {
+        if (waiting.getAndSet(false)) {
+            final Thread t = consumer;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    /**
+     * Despierta al consumidor aunque no este esperando, por ejemplo para que revise un cambio
+     * de estado o termine.
+     */
+    void wake() {
+        waiting.set(false);
+        final Thread t = consumer;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.museui.muse.artuedu.museui;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencias por etapa de un paquete del acelerometro, desde que LibMuse lo recibe hasta que el
+ * cuadro mueve la imagen, mas el costo de los callbacks, las colas y los cuadros, cada uno en un
+ * {@link LogHistogram}.
+ *
+ * Las etapas de un paquete son: timestamp de LibMuse, entrada al callback, fin del
+ * procesamiento en GestureEngine, gesto emitido y cuadro dibujado. Cada {@link Metric} de etapa
+ * es la diferencia entre dos de ellas; {@link Metric#END_TO_END} va de la entrada al callback
+ * al cuadro. El tiempo de la entrada al callback viaja en
+ * {@link SampleFrame#arrivalNanos()} y el del gesto emitido se guarda aqui hasta el siguiente
+ * cuadro que lo dibuja.
+ *
+ * Desactivado (por defecto) cada llamada solo lee un volatile; quien mide debe consultar
+ * {@link #enabled()} antes de tomar System.nanoTime(). Se puede usar desde cualquier hilo.
+ */
+public final class LatencyMonitor {
+
+    public enum Metric {
+        /**
+         * Del timestamp de LibMuse a la entrada al callback, con el reloj de pared del telefono
+         * (microsegundos convertidos a nanosegundos); incluye la diferencia entre relojes.
+         */
+        PACKET_TO_CALLBACK("paquete -> callback", true),
+        /**
+         * De la entrada al callback a que GestureEngine termino de procesar la muestra.
+         */
+        CALLBACK_TO_PROCESSED("callback -> procesado", true),
+        /**
+         * Del fin del procesamiento a que el listener recibio el gesto.
+         */
+        PROCESSED_TO_GESTURE("procesado -> gesto", true),
+        /**
+         * Del gesto emitido al fin del cuadro que lo dibuja.
+         */
+        GESTURE_TO_FRAME("gesto -> cuadro", true),
+        /**
+         * De la entrada al callback al fin del cuadro que dibuja el gesto.
+         */
+        END_TO_END("callback -> cuadro", true),
+        /**
+         * Tiempo de ejecucion de cada callback de paquete.
+         */
+        CALLBACK_EXECUTION("callback", true),
+        /**
+         * Muestras pendientes cada vez que GestureEngine vacia su buffer.
+         */
+        GESTURE_QUEUE_DEPTH("cola gestos", false),
+        /**
+         * Lotes esperando a ser escritos, muestreados periodicamente.
+         */
+        RECORDING_QUEUE_DEPTH("cola grabacion", false),
+        /**
+         * Tiempo de dibujo de cada cuadro.
+         */
+        FRAME_RENDER("dibujo cuadro", true),
+        /**
+         * Intervalo entre cuadros consecutivos.
+         */
+        FRAME_INTERVAL("intervalo cuadros", true);
+
+        final String label;
+        final boolean nanos;
+
+        Metric(String label, boolean nanos) {
+            this.label = label;
+            this.nanos = nanos;
+        }
+    }
+
+    private static final Metric[] METRICS = Metric.values();
+
+    private final LogHistogram[] histograms = new LogHistogram[METRICS.length];
+    private volatile boolean enabled;
+
+    // Ultimo gesto emitido y aun no dibujado: entrada al callback y momento de emision.
+    private final AtomicLong pendingArrival = new AtomicLong();
+    private final AtomicLong pendingEmit = new AtomicLong();
+
+    public LatencyMonitor() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LogHistogram();
+        }
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public LogHistogram histogram(Metric metric) {
+        return histograms[metric.ordinal()];
+    }
+
+    /**
+     * Registra un valor si el monitor esta activo.
+     */
+    public void record(Metric metric, long value) {
+        if (enabled) {
+            histograms[metric.ordinal()].record(value);
+        }
+    }
+
+    /**
+     * Un gesto se emitio a partir de la muestra que entro al callback en arrivalNanos. Si la
+     * muestra no se midio (arrivalNanos en 0) no se registra nada.
+     */
+    public void gestureEmitted(long arrivalNanos, long processedNanos, long emitNanos) {
+        if (!enabled || arrivalNanos == 0) {
+            return;
+        }
+        histograms[Metric.PROCESSED_TO_GESTURE.ordinal()].record(emitNanos - processedNanos);
+        pendingArrival.set(arrivalNanos);
+        pendingEmit.set(emitNanos);
+    }
+
+    /**
+     * Termino un cuadro que dibujo el estado actual; si hay un gesto pendiente se registran
+     * GESTURE_TO_FRAME y END_TO_END.
+     */
+    public void frameRendered(long nowNanos) {
+        if (!enabled) {
+            return;
+        }
+        final long emit = pendingEmit.getAndSet(0);
+        if (emit == 0) {
+            return;
+        }
+        histograms[Metric.GESTURE_TO_FRAME.ordinal()].record(nowNanos - emit);
+        histograms[Metric.END_TO_END.ordinal()].record(nowNanos - pendingArrival.get());
+    }
+
+    public void reset() {
+        for (LogHistogram h : histograms) {
+            h.reset();
+        }
+        pendingEmit.set(0);
+    }
+
+    /**
+     * Una linea por metrica con valores, para el overlay: "gesto -> cuadro  n=12 p50=8.1 ms
+     * p99=16.3 ms max=17.0 ms".
+     */
+    public String summary() {
+        final StringBuilder sb = new StringBuilder();
+        for (Metric m : METRICS) {
+            final LogHistogram h = histograms[m.ordinal()];
+            if (h.count() == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(String.format(Locale.US, "%-20s n=%d p50=%s p99=%s max=%s", m.label,
+                    h.count(), format(m, h.percentile(50)), format(m, h.percentile(99)),
+                    format(m, h.max())));
+        }
+        return sb.toString();
+    }
+
+    private static String format(Metric m, long value) {
+        if (!m.nanos) {
+            return Long.toString(value);
+        }
+        if (value < 1000000) {
+            return String.format(Locale.US, "%.0f us", value / 1e3);
+        }
+        return String.format(Locale.US, "%.1f ms", value / 1e6);
+    }
+
+    /**
+     * Escribe todas las metricas en texto: una linea por metrica con n, media, p50, p90, p99 y
+     * maximo (en nanosegundos o en elementos), seguida de sus cubetas.
+     */
+    public void dump(File file) throws IOException {
+        final Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write("# metrica\tunidad\tn\tmedia\tp50\tp90\tp99\tmax\n");
+            for (Metric m : METRICS) {
+                final LogHistogram h = histograms[m.ordinal()];
+                out.write(String.format(Locale.US, "%s\t%s\t%d\t%d\t%d\t%d\t%d\t%d\n", m.name(),
+                        m.nanos ? "ns" : "n", h.count(), h.mean(), h.percentile(50),
+                        h.percentile(90), h.percentile(99), h.max()));
+                if (h.count() > 0) {
+                    out.write("#   " + h.buckets() + "\n");
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
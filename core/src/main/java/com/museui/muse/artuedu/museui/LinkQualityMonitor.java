@@ -0,0 +1,318 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Calidad del enlace por tipo de paquete a partir de los timestamps: frecuencia efectiva,
+ * huecos y paquetes perdidos, paquetes fuera de orden y jitter de llegada.
+ *
+ * El periodo de cada tipo es el de la frecuencia esperada ({@link #setExpectedRate}, por
+ * ejemplo 220, 256 o 500 Hz para el EEG) o, si no se conoce, un promedio movil de los
+ * intervalos. Un intervalo mayor a {@link #GAP_PERIODS} periodos es un hueco y cuenta los
+ * paquetes que faltan. El jitter es el estimador de RFC 3550: el promedio movil (1/16) de la
+ * diferencia entre el intervalo de llegada y el de los timestamps.
+ *
+ * Cada ventana de {@link #DEFAULT_WINDOW_MICROS} de timestamps se evalua: si perdio mas de
+ * maxLoss de los paquetes o la frecuencia queda por debajo de {@link #MIN_RATE_RATIO} de la
+ * esperada el tipo pasa a degradado, y vuelve a estar bien despues de
+ * {@link #RECOVERY_WINDOWS} ventanas buenas seguidas. Como sin paquetes no se cierran
+ * ventanas, {@link #poll(long)} marca como degradado un tipo esperado que lleva una ventana sin
+ * llegar.
+ *
+ * Usa memoria constante y registrar un paquete no reserva memoria. {@link #onPacket} solo lo
+ * debe llamar el hilo de la fuente; poll y las lecturas se pueden hacer desde cualquier hilo,
+ * aunque los contadores pueden ir algunos paquetes atras.
+ */
+public final class LinkQualityMonitor {
+
+    public interface Listener {
+        /**
+         * Un tipo de paquete paso a degradado o se recupero. Se llama desde el hilo de la
+         * fuente, o desde el que llama a {@link #poll(long)}.
+         * @param reason  Lo que se midio en la ventana, por ejemplo "perdida 12.5%".
+         */
+        void onLinkQualityChanged(MuseDataPacketType type, boolean degraded, String reason);
+    }
+
+    public static final long DEFAULT_WINDOW_MICROS = 1000000;
+    public static final double DEFAULT_MAX_LOSS = 0.05;
+    public static final double MIN_RATE_RATIO = 0.9;
+    public static final int RECOVERY_WINDOWS = 3;
+    public static final double GAP_PERIODS = 2;
+
+    // Ganancia de los promedios moviles del jitter y del periodo estimado.
+    private static final int GAIN = 16;
+
+    private static final MuseDataPacketType[] TYPES = MuseDataPacketType.values();
+
+    private static final class Stream {
+        volatile double expectedPeriod;
+        double estimatedPeriod;
+
+        long packets;
+        long gaps;
+        long lost;
+        long outOfOrder;
+        long maxGapMicros;
+        double jitterMicros;
+        double rate;
+
+        long lastTimestamp;
+        volatile long lastArrival;
+
+        long windowStart;
+        long windowPackets;
+        long windowLost;
+        int goodWindows;
+        final AtomicBoolean degraded = new AtomicBoolean();
+
+        double period() {
+            return expectedPeriod > 0 ? expectedPeriod : estimatedPeriod;
+        }
+
+        void reset() {
+            estimatedPeriod = 0;
+            packets = 0;
+            gaps = 0;
+            lost = 0;
+            outOfOrder = 0;
+            maxGapMicros = 0;
+            jitterMicros = 0;
+            rate = 0;
+            lastTimestamp = 0;
+            lastArrival = 0;
+            windowStart = 0;
+            windowPackets = 0;
+            windowLost = 0;
+            goodWindows = 0;
+            degraded.set(false);
+        }
+    }
+
+    private final Stream[] streams = new Stream[TYPES.length];
+    private final long windowMicros;
+    private final double maxLoss;
+    private volatile Listener listener;
+
+    public LinkQualityMonitor() {
+        this(DEFAULT_WINDOW_MICROS, DEFAULT_MAX_LOSS);
+    }
+
+    /**
+     * @param windowMicros  Duracion de cada ventana evaluada, en microsegundos de timestamp.
+     * @param maxLoss       Fraccion de paquetes perdidos en una ventana, de 0 a 1, a partir de
+     *                      la cual el enlace esta degradado.
+     */
+    public LinkQualityMonitor(long windowMicros, double maxLoss) {
+        if (windowMicros <= 0) {
+            throw new IllegalArgumentException("windowMicros debe ser positivo");
+        }
+        this.windowMicros = windowMicros;
+        this.maxLoss = maxLoss;
+        for (int i = 0; i < streams.length; i++) {
+            streams[i] = new Stream();
+        }
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Frecuencia a la que la headband envia un tipo de paquete. Con 0 el periodo se estima de
+     * los intervalos y solo se evalua la perdida. Se debe llamar antes de conectar la fuente.
+     */
+    public void setExpectedRate(MuseDataPacketType type, double hz) {
+        streams[type.ordinal()].expectedPeriod = hz > 0 ? 1e6 / hz : 0;
+    }
+
+    /**
+     * Registra un paquete. Solo lo debe llamar el hilo de la fuente.
+     * @param arrivalNanos  System.nanoTime() de la llegada, o 0 para no medir el jitter.
+     */
+    public void onPacket(MuseDataPacketType type, long timestampMicros, long arrivalNanos) {
+        final Stream s = streams[type.ordinal()];
+        s.packets++;
+        if (s.packets == 1) {
+            s.lastTimestamp = timestampMicros;
+            s.lastArrival = arrivalNanos;
+            s.windowStart = timestampMicros;
+            s.windowPackets = 1;
+            return;
+        }
+        final long delta = timestampMicros - s.lastTimestamp;
+        if (delta < 0) {
+            // Se cuenta en la ventana pero no mueve el ultimo timestamp hacia atras.
+            s.outOfOrder++;
+            s.windowPackets++;
+            return;
+        }
+        if (delta > 0) {
+            final double period = s.period();
+            if (period > 0 && delta > GAP_PERIODS * period) {
+                final long missing = Math.round(delta / period) - 1;
+                s.gaps++;
+                s.lost += missing;
+                s.windowLost += missing;
+                s.maxGapMicros = Math.max(s.maxGapMicros, delta);
+            } else if (s.expectedPeriod <= 0) {
+                s.estimatedPeriod = s.estimatedPeriod == 0 ? delta
+                        : s.estimatedPeriod + (delta - s.estimatedPeriod) / GAIN;
+            }
+            if (arrivalNanos != 0 && s.lastArrival != 0) {
+                final double d = (arrivalNanos - s.lastArrival) / 1e3 - delta;
+                s.jitterMicros += (Math.abs(d) - s.jitterMicros) / GAIN;
+            }
+        }
+        s.lastTimestamp = timestampMicros;
+        s.lastArrival = arrivalNanos;
+        s.windowPackets++;
+        if (timestampMicros - s.windowStart >= windowMicros) {
+            closeWindow(type, s, timestampMicros);
+        }
+    }
+
+    /**
+     * Evalua la ventana que termina en el paquete actual, que tambien empieza la siguiente.
+     */
+    private void closeWindow(MuseDataPacketType type, Stream s, long timestampMicros) {
+        final long intervals = s.windowPackets - 1;
+        s.rate = intervals * 1e6 / (timestampMicros - s.windowStart);
+        final double loss = s.windowLost / (double) (s.windowLost + intervals);
+        final double expectedPeriod = s.expectedPeriod;
+        String reason = null;
+        if (loss > maxLoss) {
+            reason = String.format(Locale.US, "perdida %.1f%%", 100 * loss);
+        } else if (expectedPeriod > 0 && s.rate < MIN_RATE_RATIO * 1e6 / expectedPeriod) {
+            reason = String.format(Locale.US, "frecuencia %.1f Hz", s.rate);
+        }
+        if (reason != null) {
+            s.goodWindows = 0;
+            changed(type, s, true, reason);
+        } else if (s.degraded.get() && ++s.goodWindows >= RECOVERY_WINDOWS) {
+            changed(type, s, false, String.format(Locale.US, "frecuencia %.1f Hz", s.rate));
+        }
+        s.windowStart = timestampMicros;
+        s.windowPackets = 1;
+        s.windowLost = 0;
+    }
+
+    /**
+     * Marca como degradados los tipos con frecuencia esperada que no han llegado en una
+     * ventana. Se llama periodicamente desde cualquier hilo.
+     * @param nowNanos  System.nanoTime(), en la misma base que los arrivalNanos de onPacket.
+     */
+    public void poll(long nowNanos) {
+        for (int i = 0; i < streams.length; i++) {
+            final Stream s = streams[i];
+            final long last = s.lastArrival;
+            if (s.expectedPeriod > 0 && last != 0 && (nowNanos - last) / 1000 >= windowMicros) {
+                changed(TYPES[i], s, true, String.format(Locale.US, "sin paquetes en %d ms",
+                        (nowNanos - last) / 1000000));
+            }
+        }
+    }
+
+    private void changed(MuseDataPacketType type, Stream s, boolean degraded, String reason) {
+        if (!s.degraded.compareAndSet(!degraded, degraded)) {
+            return;
+        }
+        final Listener l = listener;
+        if (l != null) {
+            l.onLinkQualityChanged(type, degraded, reason);
+        }
+    }
+
+    /**
+     * Vacia los contadores de todos los tipos; las frecuencias esperadas se conservan. No se
+     * debe llamar mientras la fuente entrega paquetes.
+     */
+    public void reset() {
+        for (Stream s : streams) {
+            s.reset();
+        }
+    }
+
+    public long packets(MuseDataPacketType type) {
+        return streams[type.ordinal()].packets;
+    }
+
+    /**
+     * Intervalos mayores a GAP_PERIODS periodos.
+     */
+    public long gaps(MuseDataPacketType type) {
+        return streams[type.ordinal()].gaps;
+    }
+
+    /**
+     * Paquetes que faltan en los huecos.
+     */
+    public long lostPackets(MuseDataPacketType type) {
+        return streams[type.ordinal()].lost;
+    }
+
+    public long outOfOrder(MuseDataPacketType type) {
+        return streams[type.ordinal()].outOfOrder;
+    }
+
+    public long maxGapMicros(MuseDataPacketType type) {
+        return streams[type.ordinal()].maxGapMicros;
+    }
+
+    public double jitterMicros(MuseDataPacketType type) {
+        return streams[type.ordinal()].jitterMicros;
+    }
+
+    /**
+     * Frecuencia efectiva en la ultima ventana cerrada, en Hz; 0 antes de la primera.
+     */
+    public double rate(MuseDataPacketType type) {
+        return streams[type.ordinal()].rate;
+    }
+
+    /**
+     * Frecuencia esperada, o 0 si se estima.
+     */
+    public double expectedRate(MuseDataPacketType type) {
+        final double period = streams[type.ordinal()].expectedPeriod;
+        return period > 0 ? 1e6 / period : 0;
+    }
+
+    public boolean degraded(MuseDataPacketType type) {
+        return streams[type.ordinal()].degraded.get();
+    }
+
+    /**
+     * Una linea para un tipo: "EEG: 255.8 Hz (esperado 256.0), 15360 paquetes, 12 perdidos en
+     * 3 huecos (max 47 ms), 0 fuera de orden, jitter 1.2 ms".
+     */
+    public String summary(MuseDataPacketType type) {
+        final double expected = expectedRate(type);
+        return String.format(Locale.US, "%s: %.1f Hz%s, %d paquetes, %d perdidos en %d huecos"
+                        + " (max %d ms), %d fuera de orden, jitter %.1f ms%s", type,
+                rate(type), expected > 0
+                        ? String.format(Locale.US, " (esperado %.1f)", expected) : "",
+                packets(type), lostPackets(type), gaps(type), maxGapMicros(type) / 1000,
+                outOfOrder(type), jitterMicros(type) / 1e3, degraded(type) ? ", degradado" : "");
+    }
+
+    /**
+     * Una linea por tipo con paquetes.
+     */
+    public String summary() {
+        final StringBuilder sb = new StringBuilder();
+        for (MuseDataPacketType type : TYPES) {
+            if (packets(type) == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(summary(type));
+        }
+        return sb.toString();
+    }
+}
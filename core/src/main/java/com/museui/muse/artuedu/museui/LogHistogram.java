@@ -0,0 +1,138 @@
+package com.museui.muse.artuedu.museui;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de valores no negativos (latencias en nanosegundos, profundidades de cola) con
+ * cubetas logaritmicas: los valores menores a {@link #LINEAR_LIMIT} tienen su propia cubeta y
+ * cada potencia de 2 mayor se divide en {@link #SUB_BUCKETS} cubetas, asi que el error relativo
+ * de los percentiles es menor a 1/SUB_BUCKETS.
+ *
+ * Registrar un valor es un incremento atomico sin bloqueos y no reserva memoria, por lo que
+ * varios hilos pueden registrar a la vez mientras otro lee.
+ */
+public final class LogHistogram {
+
+    public static final int SUB_BUCKETS = 8;
+    public static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+    private static final int SUB_BITS = 3;
+    private static final int FIRST_EXPONENT = 4;
+    private static final int BUCKETS = LINEAR_LIMIT + (64 - FIRST_EXPONENT) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Registra un valor; los negativos cuentan como 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+            // Otro hilo actualizo el maximo; se vuelve a comparar.
+        }
+    }
+
+    static int bucket(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Mayor valor que cae en la cubeta.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        final int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + FIRST_EXPONENT;
+        final int sub = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        final long base = 1L << exponent;
+        final long width = 1L << (exponent - SUB_BITS);
+        return base + (sub + 1) * width - 1;
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Media de los valores, 0 si no hay valores.
+     */
+    public long mean() {
+        final long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    /**
+     * Percentil aproximado por la cubeta que lo contiene, acotado por el maximo.
+     * @param p  De 0 a 100.
+     * @return 0 si no hay valores.
+     */
+    public long percentile(double p) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(total * p / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Cubetas con valores como pares "limite superior:cuenta" separados por espacios.
+     */
+    public String buckets() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < BUCKETS; i++) {
+            final long c = counts.get(i);
+            if (c == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(upperBound(i)).append(':').append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Vacia el histograma. Los valores que se registren durante el reset pueden quedar a
+     * medias.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+}
@@ -0,0 +1,233 @@
+package com.museui.muse.artuedu.museui;
+
+/**
+ * Modelo de movimiento de la imagen de la silla, integrado con el tiempo real entre cuadros.
+ *
+ * Antes cada ciclo de la IU movia la imagen 1 px o la giraba 1 grado, por lo que la velocidad
+ * dependia de la frecuencia de cuadros. Aqui el gesto actual solo fija una velocidad objetivo
+ * (avance en px/s y giro en grados/s); la velocidad se acerca al objetivo con una aceleracion
+ * constante y la pose se integra con el tiempo transcurrido desde el cuadro anterior. Los tramos
+ * de aceleracion se integran de forma exacta, asi que el recorrido es el mismo a 30 o a 60
+ * cuadros por segundo y aunque se pierdan cuadros.
+ *
+ * La pose (desplazamiento en x e y desde la posicion del layout y rumbo en grados, en sentido
+ * horario como View.setRotation) se guarda en campos primitivos. El seno y coseno del rumbo solo
+ * se recalculan cuando el rumbo cambia.
+ *
+ * No es seguro para varios hilos; se usa desde el hilo de la IU.
+ */
+public final class MotionModel {
+
+    /**
+     * Equivalentes a 1 px y 1 grado por ciclo a 60 Hz.
+     */
+    public static final double DEFAULT_MAX_SPEED = 60;
+    public static final double DEFAULT_MAX_TURN_RATE = 60;
+    /**
+     * Se llega a la velocidad maxima, o se detiene, en un cuarto de segundo.
+     */
+    public static final double DEFAULT_ACCELERATION = 240;
+    public static final double DEFAULT_TURN_ACCELERATION = 240;
+
+    /**
+     * Un intervalo mayor (la app estuvo en pausa o el hilo de la IU bloqueado) se recorta, para
+     * que la imagen no salte.
+     */
+    public static final long MAX_STEP_NANOS = 100000000L;
+
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private final double maxSpeed;
+    private final double maxTurnRate;
+    private final double acceleration;
+    private final double turnAcceleration;
+
+    private double x;
+    private double y;
+    private double heading;
+    private double speed;
+    private double turnRate;
+    private double targetSpeed;
+    private double targetTurnRate;
+    // Velocidad al final del ultimo ramp; evita devolver dos valores.
+    private double rampEnd;
+
+    private double cosHeading = 1;
+    private double sinHeading;
+    private double trigHeading;
+
+    private long lastFrameNanos = UNSET;
+
+    public MotionModel() {
+        this(DEFAULT_MAX_SPEED, DEFAULT_MAX_TURN_RATE, DEFAULT_ACCELERATION,
+                DEFAULT_TURN_ACCELERATION);
+    }
+
+    /**
+     * @param maxSpeed          Velocidad de avance en px/s.
+     * @param maxTurnRate       Velocidad de giro en grados/s.
+     * @param acceleration      Aceleracion de avance en px/s^2.
+     * @param turnAcceleration  Aceleracion de giro en grados/s^2.
+     */
+    public MotionModel(double maxSpeed, double maxTurnRate, double acceleration,
+                       double turnAcceleration) {
+        if (maxSpeed < 0 || maxTurnRate < 0 || acceleration <= 0 || turnAcceleration <= 0) {
+            throw new IllegalArgumentException("parametro de movimiento invalido");
+        }
+        this.maxSpeed = maxSpeed;
+        this.maxTurnRate = maxTurnRate;
+        this.acceleration = acceleration;
+        this.turnAcceleration = turnAcceleration;
+    }
+
+    /**
+     * Fija la velocidad objetivo segun el movimiento actual. STOP, LOCK y UNLOCK detienen la
+     * imagen.
+     */
+    public void setCommand(Gesture motion) {
+        switch (motion) {
+            case FORWARD:
+                setTarget(maxSpeed, 0);
+                break;
+            case BACK:
+                setTarget(-maxSpeed, 0);
+                break;
+            case RIGHT:
+                setTarget(0, maxTurnRate);
+                break;
+            case LEFT:
+                setTarget(0, -maxTurnRate);
+                break;
+            default:
+                setTarget(0, 0);
+                break;
+        }
+    }
+
+    /**
+     * @param speed     px/s; positivo hacia adelante.
+     * @param turnRate  grados/s; positivo en sentido horario.
+     */
+    public void setTarget(double speed, double turnRate) {
+        this.targetSpeed = speed;
+        this.targetTurnRate = turnRate;
+    }
+
+    /**
+     * Avanza el modelo hasta el tiempo del cuadro.
+     * @param frameTimeNanos  Tiempo del cuadro, por ejemplo el de Choreographer. El primer
+     *                        cuadro despues de estar en reposo no avanza.
+     * @return true mientras la imagen se siga moviendo y haya que dibujar el siguiente cuadro.
+     */
+    public boolean advance(long frameTimeNanos) {
+        if (lastFrameNanos != UNSET) {
+            final long dtNanos = Math.max(0, Math.min(frameTimeNanos - lastFrameNanos,
+                    MAX_STEP_NANOS));
+            step(dtNanos / 1e9);
+        }
+        if (moving()) {
+            lastFrameNanos = frameTimeNanos;
+            return true;
+        }
+        // En reposo: el siguiente cuadro empieza desde cero aunque llegue mucho despues.
+        lastFrameNanos = UNSET;
+        return false;
+    }
+
+    /**
+     * Integra dt segundos.
+     */
+    public void step(double dt) {
+        if (dt <= 0) {
+            return;
+        }
+        final double turned = ramp(turnRate, targetTurnRate, turnAcceleration, dt);
+        turnRate = rampEnd;
+        if (turned != 0) {
+            heading = normalize(heading + turned);
+        }
+        final double distance = ramp(speed, targetSpeed, acceleration, dt);
+        speed = rampEnd;
+        if (distance != 0) {
+            updateTrig();
+            x += distance * cosHeading;
+            y += distance * sinHeading;
+        }
+    }
+
+    /**
+     * Lleva v hacia target con aceleracion constante durante dt y deja la velocidad final en
+     * rampEnd.
+     * @return la distancia recorrida, integrada de forma exacta.
+     */
+    private double ramp(double v, double target, double accel, double dt) {
+        final double dv = target - v;
+        final double reach = Math.abs(dv) / accel;
+        if (reach >= dt) {
+            final double a = dv > 0 ? accel : -accel;
+            rampEnd = v + a * dt;
+            return v * dt + 0.5 * a * dt * dt;
+        }
+        rampEnd = target;
+        // Tramo de aceleracion a velocidad media y el resto a velocidad objetivo.
+        return (v + target) * 0.5 * reach + target * (dt - reach);
+    }
+
+    private void updateTrig() {
+        if (heading != trigHeading) {
+            final double rad = Math.toRadians(heading);
+            cosHeading = Math.cos(rad);
+            sinHeading = Math.sin(rad);
+            trigHeading = heading;
+        }
+    }
+
+    private static double normalize(double degrees) {
+        final double d = degrees % 360;
+        return d < 0 ? d + 360 : d;
+    }
+
+    public boolean moving() {
+        return speed != 0 || turnRate != 0 || targetSpeed != 0 || targetTurnRate != 0;
+    }
+
+    /**
+     * Desplazamiento desde la posicion del layout, para View.setTranslationX.
+     */
+    public float x() {
+        return (float) x;
+    }
+
+    public float y() {
+        return (float) y;
+    }
+
+    /**
+     * Rumbo en [0, 360), para View.setRotation.
+     */
+    public float heading() {
+        return (float) heading;
+    }
+
+    public double speed() {
+        return speed;
+    }
+
+    public double turnRate() {
+        return turnRate;
+    }
+
+    /**
+     * Vuelve a la posicion del layout, detenida.
+     */
+    public void reset() {
+        x = 0;
+        y = 0;
+        heading = 0;
+        speed = 0;
+        turnRate = 0;
+        targetSpeed = 0;
+        targetTurnRate = 0;
+        lastFrameNanos = UNSET;
+    }
+}
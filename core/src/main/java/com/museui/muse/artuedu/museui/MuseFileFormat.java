@@ -0,0 +1,113 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MessageType;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+/**
+ * Constantes del formato .muse (version 2) que escribe MuseFileWriter.
+ *
+ * Un archivo .muse es una secuencia de registros. Cada registro tiene un encabezado de 6 bytes
+ * en little endian: la longitud del contenido (int32) y el tipo de registro (int16, siempre 2).
+ * El contenido es un mensaje protobuf MuseDataCollection con uno o mas MuseData:
+ *
+ * <pre>
+ * MuseData {
+ *   required DataType datatype = 1;   // mismo orden que MessageType
+ *   optional int32 id = 2;
+ *   optional double timestamp = 3;    // segundos
+ *   optional int32 config_id = 4;
+ *   extensions 100 to max;            // campo 100 + datatype con el mensaje especifico
+ * }
+ * </pre>
+ */
+public final class MuseFileFormat {
+
+    private MuseFileFormat() {
+    }
+
+    public static final int HEADER_SIZE = 6;
+    public static final int RECORD_TYPE_COLLECTION = 2;
+
+    /**
+     * Campo de MuseDataCollection que contiene cada MuseData.
+     */
+    public static final int FIELD_COLLECTION = 1;
+
+    public static final int FIELD_DATATYPE = 1;
+    public static final int FIELD_ID = 2;
+    public static final int FIELD_TIMESTAMP = 3;
+    public static final int FIELD_CONFIG_ID = 4;
+
+    /**
+     * Las extensiones de MuseData usan el numero de campo 100 + datatype.
+     */
+    public static final int EXTENSION_BASE = 100;
+
+    /**
+     * Campos dentro de los mensajes especificos. EEG y MUSE_ELEMENTS guardan sus valores como
+     * floats empaquetados; ACCELEROMETER y GYRO como tres floats (campos 1, 2 y 3).
+     */
+    public static final int FIELD_EEG_VALUES = 1;
+    public static final int FIELD_QUANTIZATION_VALUES = 1;
+    public static final int FIELD_ELEMENT_TYPE = 1;
+    public static final int FIELD_ELEMENT_VALUES = 2;
+    public static final int FIELD_ANNOTATION_DATA = 1;
+
+    /**
+     * Valores de un mensaje EEG que en realidad es un paquete DRL_REF (DRL y REF). Los de EEG
+     * tienen 4 a 6 canales.
+     */
+    public static final int DRL_REF_VALUES = 2;
+
+    public static final int WIRE_VARINT = 0;
+    public static final int WIRE_FIXED64 = 1;
+    public static final int WIRE_LENGTH_DELIMITED = 2;
+    public static final int WIRE_FIXED32 = 5;
+
+    private static final MessageType[] TYPES = MessageType.values();
+
+    /**
+     * Convierte el datatype del archivo al MessageType de LibMuse.
+     * @return null si el codigo no corresponde a ningun tipo conocido.
+     */
+    public static MessageType messageType(int datatype) {
+        return datatype >= 0 && datatype < TYPES.length ? TYPES[datatype] : null;
+    }
+
+    /**
+     * Tipo de mensaje con el que MuseFileWriter guarda cada tipo de paquete. DRL_REF se guarda
+     * dentro de mensajes EEG con {@link #DRL_REF_VALUES} valores y los paquetes derivados (ALPHA_RELATIVE, HSI, ...) como
+     * MUSE_ELEMENTS.
+     */
+    public static MessageType messageType(MuseDataPacketType type) {
+        switch (type) {
+            case EEG:
+            case DRL_REF:
+                return MessageType.EEG;
+            case ACCELEROMETER:
+                return MessageType.ACCELEROMETER;
+            case GYRO:
+                return MessageType.GYRO;
+            case BATTERY:
+                return MessageType.BATTERY;
+            case QUANTIZATION:
+                return MessageType.QUANTIZATION;
+            case DROPPED_EEG:
+                return MessageType.EEG_DROPPED;
+            case DROPPED_ACCELEROMETER:
+                return MessageType.ACC_DROPPED;
+            case ARTIFACTS:
+                return MessageType.ARTIFACT;
+            default:
+                return MessageType.MUSE_ELEMENTS;
+        }
+    }
+
+    public static int datatype(MessageType type) {
+        return type.ordinal();
+    }
+
+    public static int extensionField(MessageType type) {
+        return EXTENSION_BASE + type.ordinal();
+    }
+}
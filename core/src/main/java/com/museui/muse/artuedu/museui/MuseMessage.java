@@ -0,0 +1,177 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MessageType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Vista del mensaje actual de un {@link MuseRecordingReader}.
+ *
+ * El lector reutiliza la misma instancia para todos los mensajes, por lo que los valores solo son
+ * validos hasta la siguiente llamada a next. Los valores numericos se decodifican al avanzar; los
+ * campos de texto (VERSION, CONFIGURATION, ANNOTATION) se leen del archivo solo cuando se piden.
+ */
+public final class MuseMessage {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    MessageType type;
+    int datatype;
+    int id;
+    long timestampMicros;
+    int configId;
+    long recordOffset;
+    int elementType;
+
+    double[] values = new double[16];
+    int valueCount;
+
+    /**
+     * Ubicacion del mensaje especifico (la extension) dentro de la ventana mapeada.
+     */
+    ByteBuffer payload;
+    int payloadStart;
+    int payloadEnd;
+
+    private final ProtoCursor cursor = new ProtoCursor();
+
+    void clear() {
+        type = null;
+        datatype = -1;
+        id = 0;
+        timestampMicros = 0;
+        configId = 0;
+        elementType = -1;
+        valueCount = 0;
+        payload = null;
+    }
+
+    void addValue(double v) {
+        if (valueCount == values.length) {
+            double[] grown = new double[values.length * 2];
+            System.arraycopy(values, 0, grown, 0, valueCount);
+            values = grown;
+        }
+        values[valueCount++] = v;
+    }
+
+    /**
+     * Tipo del mensaje, o null si el archivo contiene un tipo desconocido.
+     */
+    public MessageType type() {
+        return type;
+    }
+
+    /**
+     * Codigo numerico del tipo tal como aparece en el archivo.
+     */
+    public int datatype() {
+        return datatype;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    /**
+     * Marca de tiempo en microsegundos, la misma unidad que MuseDataPacket.timestamp().
+     */
+    public long timestampMicros() {
+        return timestampMicros;
+    }
+
+    public int configId() {
+        return configId;
+    }
+
+    /**
+     * Posicion en el archivo del registro que contiene este mensaje.
+     */
+    public long recordOffset() {
+        return recordOffset;
+    }
+
+    /**
+     * Tipo de elemento de un mensaje MUSE_ELEMENTS, o -1 para los demas.
+     */
+    public int elementType() {
+        return elementType;
+    }
+
+    public int valueCount() {
+        return valueCount;
+    }
+
+    public double value(int i) {
+        if (i >= valueCount) {
+            throw new IndexOutOfBoundsException(i + " >= " + valueCount);
+        }
+        return values[i];
+    }
+
+    /**
+     * Copia los valores numericos del mensaje.
+     * @return el numero de valores copiados.
+     */
+    public int copyValues(double[] dst, int offset, int max) {
+        final int n = Math.min(valueCount, max);
+        System.arraycopy(values, 0, dst, offset, n);
+        return n;
+    }
+
+    /**
+     * Lee un campo de texto del mensaje especifico.
+     * @return null si el campo no esta presente.
+     */
+    public String stringField(int field) {
+        if (!seekField(field, MuseFileFormat.WIRE_LENGTH_DELIMITED)) {
+            return null;
+        }
+        final int len = cursor.readLength();
+        final byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) {
+            bytes[i] = payload.get(cursor.pos + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Lee un campo entero (varint) del mensaje especifico.
+     */
+    public long longField(int field, long defaultValue) {
+        if (!seekField(field, MuseFileFormat.WIRE_VARINT)) {
+            return defaultValue;
+        }
+        return cursor.readVarint();
+    }
+
+    /**
+     * Texto de un mensaje ANNOTATION, o null para los demas tipos.
+     */
+    public String annotation() {
+        return type == MessageType.ANNOTATION
+                ? stringField(MuseFileFormat.FIELD_ANNOTATION_DATA) : null;
+    }
+
+    private boolean seekField(int field, int wireType) {
+        if (payload == null) {
+            return false;
+        }
+        cursor.reset(payload, payloadStart, payloadEnd);
+        while (cursor.hasRemaining()) {
+            final int tag = (int) cursor.readVarint();
+            if ((tag >>> 3) == field && (tag & 7) == wireType) {
+                return true;
+            }
+            cursor.skip(tag & 7);
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "MuseMessage{type=" + type + ", id=" + id + ", timestamp=" + timestampMicros
+                + ", values=" + valueCount + "}";
+    }
+}
@@ -0,0 +1,252 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MessageType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Indice de una grabacion .muse que relaciona marcas de tiempo con posiciones en el archivo.
+ *
+ * Cada entrada apunta al inicio de un registro e indica la primera marca de tiempo de los
+ * mensajes que siguen y una mascara con los tipos de mensaje (bit = MessageType.ordinal()) que
+ * aparecen hasta la siguiente entrada. Las marcas de tiempo de las entradas nunca decrecen, por
+ * lo que se puede buscar con busqueda binaria en O(log n) y despues decodificar solo el rango que
+ * interesa con {@link MuseRecordingReader#seek(long)}.
+ *
+ * El indice se guarda junto a la grabacion en un archivo con la extension {@code .idx}. Se puede
+ * construir mientras se graba con {@link #add(long, long, int)} o reconstruir a partir del
+ * archivo con {@link #build(File, long)}.
+ */
+public final class MuseRecordingIndex {
+
+    private static final int MAGIC = 0x4D494458; // "MIDX"
+    private static final int VERSION = 1;
+
+    /**
+     * Separacion minima entre entradas al reconstruir el indice.
+     */
+    public static final long DEFAULT_INTERVAL_MICROS = 250000;
+
+    private long[] timestamps;
+    private long[] offsets;
+    private int[] typeMasks;
+    private int count;
+
+    public MuseRecordingIndex() {
+        this(256);
+    }
+
+    public MuseRecordingIndex(int initialCapacity) {
+        timestamps = new long[initialCapacity];
+        offsets = new long[initialCapacity];
+        typeMasks = new int[initialCapacity];
+    }
+
+    public static int typeBit(MessageType type) {
+        return 1 << type.ordinal();
+    }
+
+    /**
+     * Agrega una entrada al final del indice.
+     * @param timestampMicros  Primera marca de tiempo a partir de offset.
+     * @param offset           Inicio de un registro; debe ser mayor que el de la entrada anterior.
+     * @param typeMask         Tipos de mensaje presentes hasta la siguiente entrada.
+     */
+    public synchronized void add(long timestampMicros, long offset, int typeMask) {
+        if (count > 0) {
+            if (offset <= offsets[count - 1]) {
+                throw new IllegalArgumentException("offset fuera de orden: " + offset);
+            }
+            // Un paquete atrasado no debe romper el orden de la busqueda binaria.
+            timestampMicros = Math.max(timestampMicros, timestamps[count - 1]);
+        }
+        if (count == offsets.length) {
+            final int n = count * 2;
+            timestamps = Arrays.copyOf(timestamps, n);
+            offsets = Arrays.copyOf(offsets, n);
+            typeMasks = Arrays.copyOf(typeMasks, n);
+        }
+        timestamps[count] = timestampMicros;
+        offsets[count] = offset;
+        typeMasks[count] = typeMask;
+        count++;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized long timestampAt(int i) {
+        return timestamps[i];
+    }
+
+    public synchronized long offsetAt(int i) {
+        return offsets[i];
+    }
+
+    public synchronized int typeMaskAt(int i) {
+        return typeMasks[i];
+    }
+
+    /**
+     * Posicion desde la que hay que leer para encontrar todos los mensajes con marca de tiempo
+     * mayor o igual a timestampMicros.
+     */
+    public synchronized long offsetFor(long timestampMicros) {
+        final int i = entryFor(timestampMicros);
+        return i < 0 ? 0 : offsets[i];
+    }
+
+    /**
+     * Igual que {@link #offsetFor(long)} pero salta las entradas que no contienen mensajes del
+     * tipo pedido.
+     * @return la posicion encontrada, o -1 si no hay mensajes de ese tipo a partir del tiempo.
+     */
+    public synchronized long offsetFor(long timestampMicros, MessageType type) {
+        final int bit = typeBit(type);
+        for (int i = Math.max(entryFor(timestampMicros), 0); i < count; i++) {
+            if ((typeMasks[i] & bit) != 0) {
+                return offsets[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Posiciona el lector para leer los mensajes desde timestampMicros.
+     */
+    public void seek(MuseRecordingReader reader, long timestampMicros) {
+        reader.seek(offsetFor(timestampMicros));
+    }
+
+    /**
+     * Ultima entrada cuya marca de tiempo es menor o igual a timestampMicros, o -1.
+     */
+    private int entryFor(long timestampMicros) {
+        int lo = 0;
+        int hi = count - 1;
+        int found = -1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (timestamps[mid] <= timestampMicros) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    //--------------------------------------
+    // Archivo del indice
+
+    /**
+     * Extension del indice, que se agrega al nombre de la grabacion: {@code s.muse.idx}.
+     */
+    public static final String SIDECAR_SUFFIX = ".idx";
+
+    public static File sidecarFile(File museFile) {
+        return new File(museFile.getPath() + SIDECAR_SUFFIX);
+    }
+
+    public synchronized void write(File file) throws IOException {
+        final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeLong(timestamps[i]);
+                out.writeLong(offsets[i]);
+                out.writeInt(typeMasks[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public static MuseRecordingIndex read(File file) throws IOException {
+        final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("no es un indice de grabacion: " + file);
+            }
+            final int n = in.readInt();
+            final MuseRecordingIndex index = new MuseRecordingIndex(Math.max(n, 1));
+            for (int i = 0; i < n; i++) {
+                index.add(in.readLong(), in.readLong(), in.readInt());
+            }
+            return index;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reconstruye el indice leyendo la grabacion completa. Se crea una entrada al inicio de un
+     * registro cuando han pasado al menos intervalMicros desde la entrada anterior.
+     */
+    public static MuseRecordingIndex build(File museFile, long intervalMicros)
+            throws IOException {
+        final MuseRecordingIndex index = new MuseRecordingIndex();
+        final MuseRecordingReader reader = new MuseRecordingReader(museFile);
+        try {
+            long record = -1;
+            long entryTimestamp = 0;
+            int mask = 0;
+            long entryOffset = -1;
+            while (reader.next()) {
+                final MuseMessage m = reader.message();
+                if (m.recordOffset() != record) {
+                    record = m.recordOffset();
+                    if (entryOffset < 0 || m.timestampMicros() - entryTimestamp >= intervalMicros) {
+                        if (entryOffset >= 0) {
+                            index.add(entryTimestamp, entryOffset, mask);
+                        }
+                        entryOffset = record;
+                        entryTimestamp = m.timestampMicros();
+                        mask = 0;
+                    }
+                }
+                if (m.type() != null) {
+                    mask |= typeBit(m.type());
+                }
+            }
+            if (entryOffset >= 0) {
+                index.add(entryTimestamp, entryOffset, mask);
+            }
+        } finally {
+            reader.close();
+        }
+        return index;
+    }
+
+    /**
+     * Lee el indice junto a la grabacion si existe y esta al dia; si no, lo reconstruye y lo
+     * guarda.
+     */
+    public static MuseRecordingIndex loadOrBuild(File museFile) throws IOException {
+        final File sidecar = sidecarFile(museFile);
+        if (sidecar.exists() && sidecar.lastModified() >= museFile.lastModified()) {
+            try {
+                return read(sidecar);
+            } catch (IOException e) {
+                // Indice danado: se reconstruye.
+            }
+        }
+        final MuseRecordingIndex index = build(museFile, DEFAULT_INTERVAL_MICROS);
+        index.write(sidecar);
+        return index;
+    }
+}
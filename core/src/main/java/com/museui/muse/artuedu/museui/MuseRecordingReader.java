@@ -0,0 +1,320 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MessageType;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Lector de archivos .muse escrito solo en Java, sin LibMuse ni JNI.
+ *
+ * El archivo se mapea en memoria por ventanas y los mensajes se decodifican directamente sobre
+ * el mapa. Se puede usar como un iterador de lectura:
+ *
+ * <pre>
+ * MuseRecordingReader reader = new MuseRecordingReader(file);
+ * while (reader.next()) {
+ *     MuseMessage m = reader.message();
+ *     ...
+ * }
+ * reader.close();
+ * </pre>
+ *
+ * o leer bloques de muestras de un tipo a arreglos primitivos con
+ * {@link #readSamples(MessageType, long[], double[], int, int)}.
+ *
+ * El mensaje devuelto por {@link #message()} se reutiliza; sus valores cambian en cada llamada a
+ * next. Si el ultimo registro del archivo esta incompleto (por ejemplo porque la app se cerro
+ * mientras grababa) la lectura termina en el ultimo registro completo y {@link #truncated()}
+ * devuelve true.
+ */
+public final class MuseRecordingReader implements Closeable {
+
+    /**
+     * Tamaño de la ventana mapeada. Permite leer archivos de mas de 2 GB y limita el espacio de
+     * direcciones usado en dispositivos de 32 bits.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+
+    private MappedByteBuffer window;
+    private long windowBase;
+    private int windowLimit;
+
+    /**
+     * Posicion del siguiente encabezado de registro.
+     */
+    private long nextRecord;
+    private long recordOffset = -1;
+    private final ProtoCursor records = new ProtoCursor();
+    private final ProtoCursor fields = new ProtoCursor();
+
+    private final MuseMessage message = new MuseMessage();
+    private boolean truncated;
+    private long messagesRead;
+
+    public MuseRecordingReader(File file) throws IOException {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    public MuseRecordingReader(File file, int windowSize) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.size = channel.size();
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Avanza al siguiente mensaje del archivo.
+     * @return false al llegar al final del archivo o a un registro incompleto.
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (records.hasRemaining()) {
+                try {
+                    final int tag = (int) records.readVarint();
+                    if ((tag >>> 3) == MuseFileFormat.FIELD_COLLECTION
+                            && (tag & 7) == MuseFileFormat.WIRE_LENGTH_DELIMITED) {
+                        final int len = records.readLength();
+                        final int start = records.pos;
+                        records.pos += len;
+                        decode(start, start + len);
+                        messagesRead++;
+                        return true;
+                    }
+                    records.skip(tag & 7);
+                } catch (IllegalStateException e) {
+                    throw new IOException("registro corrupto en la posicion " + recordOffset, e);
+                }
+            } else if (!openNextRecord()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Mensaje actual. Solo es valido despues de que {@link #next()} devuelve true.
+     */
+    public MuseMessage message() {
+        return message;
+    }
+
+    /**
+     * Lee las siguientes muestras de un tipo de mensaje, ignorando los demas.
+     * @param type        Tipo de mensaje a leer, por ejemplo EEG o ACCELEROMETER.
+     * @param timestamps  Destino de las marcas de tiempo en microsegundos.
+     * @param values      Destino de los valores, fila tras fila ({@code maxRows * channels}).
+     *                    Las filas con menos valores se completan con NaN.
+     * @param channels    Valores por fila.
+     * @param maxRows     Maximo de filas a leer.
+     * @return el numero de filas leidas; 0 al final del archivo.
+     */
+    public int readSamples(MessageType type, long[] timestamps, double[] values, int channels,
+                           int maxRows) throws IOException {
+        int rows = 0;
+        while (rows < maxRows && next()) {
+            if (message.type != type) {
+                continue;
+            }
+            final int offset = rows * channels;
+            final int n = message.copyValues(values, offset, channels);
+            for (int c = n; c < channels; c++) {
+                values[offset + c] = Double.NaN;
+            }
+            timestamps[rows++] = message.timestampMicros;
+        }
+        return rows;
+    }
+
+    /**
+     * Continua la lectura desde el registro que empieza en offset, por ejemplo una posicion
+     * obtenida de {@link MuseMessage#recordOffset()}.
+     */
+    public void seek(long offset) {
+        if (offset < 0 || offset > size) {
+            throw new IllegalArgumentException("posicion fuera del archivo: " + offset);
+        }
+        nextRecord = offset;
+        records.reset(null, 0, 0);
+        truncated = false;
+    }
+
+    /**
+     * Posicion del registro actual, incluso si next lanzo una excepcion por un registro
+     * corrupto; -1 antes del primer registro.
+     */
+    public long recordOffset() {
+        return recordOffset;
+    }
+
+    /**
+     * Posicion del siguiente registro que se leera.
+     */
+    public long position() {
+        return nextRecord;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean truncated() {
+        return truncated;
+    }
+
+    public long messagesRead() {
+        return messagesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+        file.close();
+    }
+
+    private boolean openNextRecord() throws IOException {
+        final long offset = nextRecord;
+        if (offset + MuseFileFormat.HEADER_SIZE > size) {
+            truncated = offset < size;
+            return false;
+        }
+        int rel = map(offset, MuseFileFormat.HEADER_SIZE);
+        final int len = window.getInt(rel);
+        final int recordType = window.getShort(rel + 4);
+        if (len < 0 || offset + MuseFileFormat.HEADER_SIZE + len > size) {
+            truncated = true;
+            return false;
+        }
+        rel = map(offset, MuseFileFormat.HEADER_SIZE + len);
+        recordOffset = offset;
+        nextRecord = offset + MuseFileFormat.HEADER_SIZE + len;
+        final int start = rel + MuseFileFormat.HEADER_SIZE;
+        if (recordType == MuseFileFormat.RECORD_TYPE_COLLECTION) {
+            records.reset(window, start, start + len);
+        } else {
+            // Registro de un tipo que no se conoce: se salta completo.
+            records.reset(window, start, start);
+        }
+        return true;
+    }
+
+    /**
+     * Asegura que la ventana mapeada contenga [offset, offset + len).
+     * @return la posicion de offset dentro de la ventana.
+     */
+    private int map(long offset, int len) throws IOException {
+        if (window == null || offset < windowBase
+                || offset + len > windowBase + windowLimit) {
+            windowBase = offset;
+            windowLimit = (int) Math.min(Math.max(windowSize, len), size - offset);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, windowBase, windowLimit);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return (int) (offset - windowBase);
+    }
+
+    /**
+     * Decodifica un MuseData en el mensaje reutilizable.
+     */
+    private void decode(int start, int end) {
+        final MuseMessage m = message;
+        m.clear();
+        m.recordOffset = recordOffset;
+        fields.reset(window, start, end);
+        while (fields.hasRemaining()) {
+            final int tag = (int) fields.readVarint();
+            final int field = tag >>> 3;
+            final int wire = tag & 7;
+            if (field == MuseFileFormat.FIELD_DATATYPE && wire == MuseFileFormat.WIRE_VARINT) {
+                m.datatype = (int) fields.readVarint();
+            } else if (field == MuseFileFormat.FIELD_ID && wire == MuseFileFormat.WIRE_VARINT) {
+                m.id = (int) fields.readVarint();
+            } else if (field == MuseFileFormat.FIELD_TIMESTAMP
+                    && wire == MuseFileFormat.WIRE_FIXED64) {
+                m.timestampMicros = Math.round(fields.readDouble() * 1e6);
+            } else if (field == MuseFileFormat.FIELD_CONFIG_ID
+                    && wire == MuseFileFormat.WIRE_VARINT) {
+                m.configId = (int) fields.readVarint();
+            } else if (field >= MuseFileFormat.EXTENSION_BASE
+                    && wire == MuseFileFormat.WIRE_LENGTH_DELIMITED) {
+                final int len = fields.readLength();
+                m.payload = window;
+                m.payloadStart = fields.pos;
+                m.payloadEnd = fields.pos + len;
+                fields.pos += len;
+            } else {
+                fields.skip(wire);
+            }
+        }
+        m.type = MuseFileFormat.messageType(m.datatype);
+        if (m.payload != null) {
+            decodeValues(m);
+        }
+    }
+
+    /**
+     * Extrae los valores numericos del mensaje especifico en el orden en que aparecen.
+     * VERSION, CONFIGURATION y ANNOTATION son mensajes de texto y no tienen valores.
+     */
+    private void decodeValues(MuseMessage m) {
+        final MessageType type = m.type;
+        if (type == MessageType.VERSION || type == MessageType.CONFIGURATION
+                || type == MessageType.ANNOTATION) {
+            return;
+        }
+        fields.reset(m.payload, m.payloadStart, m.payloadEnd);
+        while (fields.hasRemaining()) {
+            final int tag = (int) fields.readVarint();
+            final int field = tag >>> 3;
+            switch (tag & 7) {
+                case MuseFileFormat.WIRE_FIXED32:
+                    m.addValue(fields.readFloat());
+                    break;
+                case MuseFileFormat.WIRE_FIXED64:
+                    m.addValue(fields.readDouble());
+                    break;
+                case MuseFileFormat.WIRE_VARINT:
+                    if (type == MessageType.MUSE_ELEMENTS
+                            && field == MuseFileFormat.FIELD_ELEMENT_TYPE) {
+                        m.elementType = (int) fields.readVarint();
+                    } else {
+                        m.addValue((int) fields.readVarint());
+                    }
+                    break;
+                case MuseFileFormat.WIRE_LENGTH_DELIMITED:
+                    final int len = fields.readLength();
+                    final int end = fields.pos + len;
+                    if ((type == MessageType.EEG && field == MuseFileFormat.FIELD_EEG_VALUES)
+                            || (type == MessageType.MUSE_ELEMENTS
+                            && field == MuseFileFormat.FIELD_ELEMENT_VALUES)) {
+                        while (fields.pos + 4 <= end) {
+                            m.addValue(fields.readFloat());
+                        }
+                    } else if (type == MessageType.QUANTIZATION
+                            && field == MuseFileFormat.FIELD_QUANTIZATION_VALUES) {
+                        final int outer = fields.limit;
+                        fields.limit = end;
+                        while (fields.hasRemaining()) {
+                            m.addValue((int) fields.readVarint());
+                        }
+                        fields.limit = outer;
+                    }
+                    fields.pos = end;
+                    break;
+                default:
+                    fields.skip(tag & 7);
+                    break;
+            }
+        }
+    }
+}
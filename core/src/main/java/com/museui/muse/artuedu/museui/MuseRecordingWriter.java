@@ -0,0 +1,182 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MessageType;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Escritor de archivos .muse escrito solo en Java, la contraparte de
+ * {@link MuseRecordingReader}. Permite generar archivos .muse fuera de Android, por ejemplo al
+ * convertir una grabacion columnar con {@link RecordingConverter}.
+ *
+ * Los mensajes se acumulan en un registro MuseDataCollection que se escribe al llegar a
+ * messagesPerRecord mensajes o al llamar a {@link #flush()}. EEG, DRL_REF, ACCELEROMETER, GYRO,
+ * BATTERY y QUANTIZATION se escriben como MuseFileWriter ({@link MuseFileFormat#messageType}):
+ * DRL_REF como un mensaje EEG de dos valores. Los demas tipos se escriben como MUSE_ELEMENTS con
+ * el ordinal del MuseDataPacketType como tipo de elemento, que es como los lee
+ * {@link ReplayEngine}.
+ */
+public final class MuseRecordingWriter implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final int DEFAULT_MESSAGES_PER_RECORD = 64;
+
+    private final OutputStream out;
+    private final int messagesPerRecord;
+    private final ProtoWriter payload = new ProtoWriter();
+    private final ProtoWriter packed = new ProtoWriter();
+    private final ProtoWriter data = new ProtoWriter();
+    private final ProtoWriter record = new ProtoWriter();
+    private final byte[] header = new byte[MuseFileFormat.HEADER_SIZE];
+    private int pending;
+    private long position;
+    private long messagesWritten;
+
+    public MuseRecordingWriter(File file) throws IOException {
+        this(file, DEFAULT_MESSAGES_PER_RECORD);
+    }
+
+    public MuseRecordingWriter(File file, int messagesPerRecord) throws IOException {
+        this.out = new BufferedOutputStream(new FileOutputStream(file), 64 << 10);
+        this.messagesPerRecord = messagesPerRecord;
+    }
+
+    /**
+     * Agrega un mensaje de datos al registro abierto.
+     * @param values  Los valores en el orden de SampleFrame; se guardan como float.
+     */
+    public void add(MuseDataPacketType type, long timestampMicros, double[] values, int count)
+            throws IOException {
+        payload.clear();
+        final MessageType messageType = messageType(type);
+        switch (messageType) {
+            case EEG:
+                packed.clear();
+                for (int i = 0; i < count; i++) {
+                    packed.floatValue(values[i]);
+                }
+                payload.message(MuseFileFormat.FIELD_EEG_VALUES, packed);
+                break;
+            case ACCELEROMETER:
+            case GYRO:
+            case BATTERY:
+                for (int i = 0; i < count; i++) {
+                    payload.tag(i + 1, MuseFileFormat.WIRE_FIXED32);
+                    payload.floatValue(values[i]);
+                }
+                break;
+            case QUANTIZATION:
+                packed.clear();
+                for (int i = 0; i < count; i++) {
+                    packed.varint((int) values[i]);
+                }
+                payload.message(MuseFileFormat.FIELD_QUANTIZATION_VALUES, packed);
+                break;
+            default:
+                payload.tag(MuseFileFormat.FIELD_ELEMENT_TYPE, MuseFileFormat.WIRE_VARINT);
+                payload.varint(type.ordinal());
+                packed.clear();
+                for (int i = 0; i < count; i++) {
+                    packed.floatValue(values[i]);
+                }
+                payload.message(MuseFileFormat.FIELD_ELEMENT_VALUES, packed);
+                break;
+        }
+        addMessage(messageType, timestampMicros);
+    }
+
+    /**
+     * Tipo de mensaje con el que se escribe cada tipo de paquete.
+     */
+    public static MessageType messageType(MuseDataPacketType type) {
+        switch (type) {
+            case EEG:
+            case DRL_REF:
+            case ACCELEROMETER:
+            case GYRO:
+            case BATTERY:
+            case QUANTIZATION:
+                return MuseFileFormat.messageType(type);
+            default:
+                return MessageType.MUSE_ELEMENTS;
+        }
+    }
+
+    public void add(SampleFrame frame) throws IOException {
+        add(frame.type(), frame.timestampMicros(), frame.values(), frame.count());
+    }
+
+    public void annotate(long timestampMicros, String text) throws IOException {
+        payload.clear();
+        final byte[] b = text.getBytes(UTF_8);
+        payload.bytes(MuseFileFormat.FIELD_ANNOTATION_DATA, b, 0, b.length);
+        addMessage(MessageType.ANNOTATION, timestampMicros);
+    }
+
+    /**
+     * Escribe el registro abierto y vacia el buffer del archivo.
+     */
+    public void flush() throws IOException {
+        writeRecord();
+        out.flush();
+    }
+
+    /**
+     * Bytes escritos, incluido el registro abierto solo despues de {@link #flush()}.
+     */
+    public long position() {
+        return position;
+    }
+
+    public long messagesWritten() {
+        return messagesWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writeRecord();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void addMessage(MessageType type, long timestampMicros) throws IOException {
+        data.clear();
+        data.tag(MuseFileFormat.FIELD_DATATYPE, MuseFileFormat.WIRE_VARINT);
+        data.varint(MuseFileFormat.datatype(type));
+        data.tag(MuseFileFormat.FIELD_TIMESTAMP, MuseFileFormat.WIRE_FIXED64);
+        data.doubleValue(timestampMicros / 1e6);
+        data.message(MuseFileFormat.extensionField(type), payload);
+        record.message(MuseFileFormat.FIELD_COLLECTION, data);
+        messagesWritten++;
+        if (++pending >= messagesPerRecord) {
+            writeRecord();
+        }
+    }
+
+    private void writeRecord() throws IOException {
+        if (pending == 0) {
+            return;
+        }
+        final int len = record.size;
+        for (int i = 0; i < 4; i++) {
+            header[i] = (byte) (len >>> (8 * i));
+        }
+        header[4] = (byte) MuseFileFormat.RECORD_TYPE_COLLECTION;
+        header[5] = 0;
+        out.write(header);
+        out.write(record.buf, 0, len);
+        position += MuseFileFormat.HEADER_SIZE + len;
+        record.clear();
+        pending = 0;
+    }
+}
@@ -0,0 +1,141 @@
+package com.museui.muse.artuedu.museui;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool de tamaño fijo de registros de paquete.
+ *
+ * El callback de LibMuse copia una sola vez el tipo, el timestamp y los valores de cada
+ * MuseDataPacket a un registro del pool (un SampleFrame) y solo ese registro viaja a la
+ * grabacion, al procesamiento y a la IU; el MuseDataPacket no sale del callback. Quien se queda
+ * con el registro despues del callback, normalmente la grabacion, lo devuelve con
+ * {@link #release(SampleFrame)} al terminar de usarlo.
+ *
+ * Todos los registros se crean en el constructor, asi que en estado estable no se reserva
+ * memoria por paquete. Si no hay registros libres {@link #acquire()} regresa null y la falta se
+ * cuenta en {@link #exhaustedCount()}. Los registros libres forman una pila sin bloqueos, por lo
+ * que acquire y release se pueden llamar desde cualquier hilo.
+ */
+public final class PacketRecordPool {
+
+    // Indice en los 32 bits bajos (+1, 0 es la pila vacia) y contador de versiones en los
+    // altos para evitar el problema ABA.
+    private static final long INDEX_MASK = 0xFFFFFFFFL;
+
+    private final SampleFrame[] records;
+    private final AtomicIntegerArray next;
+    private final AtomicIntegerArray owned;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private volatile int maxInUse;
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+
+    public PacketRecordPool(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity debe ser positivo");
+        }
+        records = new SampleFrame[capacity];
+        next = new AtomicIntegerArray(capacity);
+        owned = new AtomicIntegerArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            records[i] = new SampleFrame();
+            records[i].poolSlot = i;
+            next.set(i, i + 2 <= capacity ? i + 2 : 0);
+        }
+        head.set(1);
+    }
+
+    /**
+     * Toma un registro libre. Su contenido es el del ultimo uso hasta que se llene.
+     * @return null si todos los registros estan en uso.
+     */
+    public SampleFrame acquire() {
+        while (true) {
+            final long h = head.get();
+            final int top = (int) (h & INDEX_MASK);
+            if (top == 0) {
+                exhausted.incrementAndGet();
+                return null;
+            }
+            final long replacement = ((h >>> 32) + 1) << 32 | (next.get(top - 1) & INDEX_MASK);
+            if (head.compareAndSet(h, replacement)) {
+                owned.set(top - 1, 1);
+                acquired.incrementAndGet();
+                final int n = inUse.incrementAndGet();
+                if (n > maxInUse) {
+                    maxInUse = n;
+                }
+                return records[top - 1];
+            }
+        }
+    }
+
+    /**
+     * Devuelve un registro tomado con {@link #acquire()}.
+     * @throws IllegalArgumentException si el registro no es de este pool.
+     * @throws IllegalStateException si el registro ya se habia devuelto.
+     */
+    public void release(SampleFrame record) {
+        final int slot = record.poolSlot;
+        if (slot < 0 || slot >= records.length || records[slot] != record) {
+            throw new IllegalArgumentException("el registro no pertenece a este pool");
+        }
+        if (!owned.compareAndSet(slot, 1, 0)) {
+            throw new IllegalStateException("el registro ya se habia devuelto");
+        }
+        inUse.decrementAndGet();
+        while (true) {
+            final long h = head.get();
+            next.set(slot, (int) (h & INDEX_MASK));
+            if (head.compareAndSet(h, ((h >>> 32) + 1) << 32 | (slot + 1))) {
+                return;
+            }
+        }
+    }
+
+    public int capacity() {
+        return records.length;
+    }
+
+    /**
+     * Registros tomados y aun no devueltos.
+     */
+    public int inUse() {
+        return inUse.get();
+    }
+
+    /**
+     * Mayor numero de registros en uso a la vez.
+     */
+    public int maxInUse() {
+        return maxInUse;
+    }
+
+    /**
+     * Fraccion del pool en uso, de 0 a 1.
+     */
+    public double utilisation() {
+        return inUse.get() / (double) records.length;
+    }
+
+    public long acquiredCount() {
+        return acquired.get();
+    }
+
+    /**
+     * Veces que {@link #acquire()} no encontro un registro libre.
+     */
+    public long exhaustedCount() {
+        return exhausted.get();
+    }
+
+    public String summary() {
+        return String.format(Locale.US, "%d registros: %d en uso (max %d, %.0f%%), %d tomados,"
+                        + " %d sin registro libre", records.length, inUse(), maxInUse,
+                100.0 * maxInUse / records.length, acquiredCount(), exhaustedCount());
+    }
+}
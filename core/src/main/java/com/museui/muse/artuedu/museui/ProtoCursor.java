@@ -0,0 +1,99 @@
+package com.museui.muse.artuedu.museui;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Lectura minima de protobuf directamente sobre un ByteBuffer, sin copiar los datos ni crear
+ * objetos por campo. El buffer debe estar en orden little endian.
+ */
+final class ProtoCursor {
+
+    ByteBuffer buf;
+    int pos;
+    int limit;
+
+    void reset(ByteBuffer buf, int pos, int limit) {
+        this.buf = buf;
+        this.pos = pos;
+        this.limit = limit;
+    }
+
+    boolean hasRemaining() {
+        return pos < limit;
+    }
+
+    long readVarint() {
+        long result = 0;
+        int shift = 0;
+        while (shift < 64) {
+            if (pos >= limit) {
+                throw new IllegalStateException("varint truncado");
+            }
+            final byte b = buf.get(pos++);
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+            shift += 7;
+        }
+        throw new IllegalStateException("varint invalido");
+    }
+
+    int readFixed32() {
+        checkAvailable(4);
+        final int v = buf.getInt(pos);
+        pos += 4;
+        return v;
+    }
+
+    long readFixed64() {
+        checkAvailable(8);
+        final long v = buf.getLong(pos);
+        pos += 8;
+        return v;
+    }
+
+    float readFloat() {
+        return Float.intBitsToFloat(readFixed32());
+    }
+
+    double readDouble() {
+        return Double.longBitsToDouble(readFixed64());
+    }
+
+    /**
+     * Lee la longitud de un campo length-delimited y verifica que quepa en el mensaje.
+     */
+    int readLength() {
+        final int len = (int) readVarint();
+        checkAvailable(len);
+        return len;
+    }
+
+    void skip(int wireType) {
+        switch (wireType) {
+            case MuseFileFormat.WIRE_VARINT:
+                readVarint();
+                break;
+            case MuseFileFormat.WIRE_FIXED64:
+                checkAvailable(8);
+                pos += 8;
+                break;
+            case MuseFileFormat.WIRE_LENGTH_DELIMITED:
+                pos += readLength();
+                break;
+            case MuseFileFormat.WIRE_FIXED32:
+                checkAvailable(4);
+                pos += 4;
+                break;
+            default:
+                throw new IllegalStateException("wire type no soportado: " + wireType);
+        }
+    }
+
+    private void checkAvailable(int n) {
+        if (n < 0 || pos + n > limit) {
+            throw new IllegalStateException("campo truncado");
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.museui.muse.artuedu.museui;
+
+import java.util.Arrays;
+
+/**
+ * Escritura minima de protobuf en un arreglo de bytes reutilizable, la contraparte de
+ * {@link ProtoCursor}. Los campos fixed32 y fixed64 se escriben en little endian.
+ */
+final class ProtoWriter {
+
+    byte[] buf = new byte[256];
+    int size;
+
+    void clear() {
+        size = 0;
+    }
+
+    void tag(int field, int wireType) {
+        varint((field << 3) | wireType);
+    }
+
+    void varint(long v) {
+        ensure(ColumnarFormat.MAX_VARINT_SIZE);
+        size = ColumnarFormat.putVarint(buf, size, v);
+    }
+
+    void fixed32(int v) {
+        ensure(4);
+        for (int i = 0; i < 4; i++) {
+            buf[size++] = (byte) (v >>> (8 * i));
+        }
+    }
+
+    void fixed64(long v) {
+        ensure(8);
+        for (int i = 0; i < 8; i++) {
+            buf[size++] = (byte) (v >>> (8 * i));
+        }
+    }
+
+    void floatValue(double v) {
+        fixed32(Float.floatToIntBits((float) v));
+    }
+
+    void doubleValue(double v) {
+        fixed64(Double.doubleToLongBits(v));
+    }
+
+    /**
+     * Campo length-delimited con el contenido de otro ProtoWriter.
+     */
+    void message(int field, ProtoWriter inner) {
+        bytes(field, inner.buf, 0, inner.size);
+    }
+
+    void bytes(int field, byte[] b, int offset, int len) {
+        tag(field, MuseFileFormat.WIRE_LENGTH_DELIMITED);
+        varint(len);
+        ensure(len);
+        System.arraycopy(b, offset, buf, size, len);
+        size += len;
+    }
+
+    private void ensure(int n) {
+        if (size + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MessageType;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Analisis fuera de linea de una grabacion .muse: potencia de banda promedio de la sesion,
+ * linea de tiempo de gestos y estadisticas de perdida de paquetes, en una sola pasada con
+ * {@link MuseRecordingReader}.
+ *
+ * Usa el mismo procesamiento que la app ({@link BandPowerEngine}, {@link GestureEngine} y
+ * {@link LinkQualityMonitor}) en el hilo actual. La memoria no depende de la duracion de la
+ * grabacion: las potencias se acumulan en {@link RunningStats}, el lector mapea una ventana
+ * acotada y los eventos se entregan a un {@link Timeline} en lugar de guardarse. Sin tiempos de
+ * llegada el jitter no se mide. Los paquetes DRL_REF, que MuseFileWriter guarda como mensajes
+ * EEG, se separan con {@link ReplayEngine#packetType} y no cuentan como EEG.
+ *
+ * Una instancia analiza un archivo a la vez; para analizar varios en paralelo se usa una
+ * instancia por hilo o por archivo.
+ */
+public final class RecordingAnalyzer {
+
+    /**
+     * Ventana mapeada del lector. Con varios analisis en paralelo limita el espacio de
+     * direcciones usado por cada uno.
+     */
+    public static final int WINDOW_SIZE = 8 << 20;
+
+    private static final int EEG_CHANNELS = 6;
+    // Canales usados en los promedios de banda: EEG1-EEG4, sin AUX.
+    private static final int BAND_CHANNELS = 4;
+
+    /**
+     * Recibe los eventos de la sesion en orden de timestamp: gestos, calibracion, cambios del
+     * enlace y anotaciones.
+     */
+    public interface Timeline {
+        /**
+         * @param kind    "gesto", "calibracion", "enlace" o "anotacion".
+         * @param detail  El gesto, el estado o el texto.
+         */
+        void event(long timestampMicros, String kind, String detail);
+    }
+
+    private final int eegRate;
+    private final int motionRate;
+
+    private final double[] eeg = new double[EEG_CHANNELS];
+    private final RunningStats[] relative = new RunningStats[BandPowerEngine.BANDS];
+    private final RunningStats[] absolute = new RunningStats[BandPowerEngine.BANDS];
+
+    private Timeline timeline;
+    private SessionSummary summary;
+    private long timestampMicros;
+
+    /**
+     * @param eegRate     Frecuencia de EEG de las grabaciones: 220, 256 o 500 Hz.
+     * @param motionRate  Frecuencia del acelerometro y el giroscopio, por ejemplo 52 Hz.
+     */
+    public RecordingAnalyzer(int eegRate, int motionRate) {
+        this.eegRate = eegRate;
+        this.motionRate = motionRate;
+        for (int b = 0; b < BandPowerEngine.BANDS; b++) {
+            relative[b] = new RunningStats();
+            absolute[b] = new RunningStats();
+        }
+    }
+
+    /**
+     * Analiza una grabacion; el resumen lleva el nombre del archivo.
+     * @param timeline  Recibe los eventos de la sesion, o null.
+     */
+    public SessionSummary analyze(File file, Timeline timeline) throws IOException {
+        return analyze(file, file.getName(), timeline);
+    }
+
+    /**
+     * Analiza una grabacion.
+     * @param name      Nombre de la sesion en el resumen, por ejemplo la ruta relativa al
+     *                  directorio analizado para distinguir archivos con el mismo nombre.
+     * @param timeline  Recibe los eventos de la sesion, o null.
+     */
+    public SessionSummary analyze(File file, String name, Timeline timeline) throws IOException {
+        this.timeline = timeline;
+        summary = new SessionSummary(name);
+        summary.bytes = file.length();
+        for (int b = 0; b < BandPowerEngine.BANDS; b++) {
+            relative[b].reset();
+            absolute[b].reset();
+        }
+
+        // Cada archivo empieza con sus propios motores, sin ventanas ni calibracion previas.
+        final BandPowerEngine bands = BandPowerEngine.forSampleRate(eegRate, EEG_CHANNELS);
+        bands.setListener(new BandPowerEngine.Listener() {
+            @Override
+            public void onBandPowers(long timestampMicros, double[] abs, double[] rel,
+                                     int channels) {
+                addBandPowers(abs, rel);
+            }
+        });
+        final GestureEngine gestures = new GestureEngine();
+        gestures.setListener(new GestureEngine.Listener() {
+            @Override
+            public void onGesture(Gesture gesture, long timestampMicros) {
+                summary.gestures[gesture.ordinal()]++;
+                event(timestampMicros, "gesto", gesture.name());
+            }
+
+            @Override
+            public void onCalibrationChanged(boolean calibrated, long timestampMicros) {
+                event(timestampMicros, "calibracion", calibrated ? "calibrada" : "calibrando");
+            }
+        });
+        final LinkQualityMonitor link = new LinkQualityMonitor();
+        link.setExpectedRate(MuseDataPacketType.EEG, eegRate);
+        link.setExpectedRate(MuseDataPacketType.ACCELEROMETER, motionRate);
+        link.setExpectedRate(MuseDataPacketType.GYRO, motionRate);
+        link.setListener(new LinkQualityMonitor.Listener() {
+            @Override
+            public void onLinkQualityChanged(MuseDataPacketType type, boolean degraded,
+                                             String reason) {
+                if (degraded) {
+                    summary.degradedEpisodes++;
+                }
+                event(timestampMicros, "enlace", type + (degraded ? " degradado: "
+                        : " recuperado: ") + reason);
+            }
+        });
+
+        final MuseRecordingReader reader = new MuseRecordingReader(file, WINDOW_SIZE);
+        try {
+            while (reader.next()) {
+                final MuseMessage m = reader.message();
+                if (m.type() == null) {
+                    continue;
+                }
+                timestampMicros = m.timestampMicros();
+                if (m.type() == MessageType.ANNOTATION) {
+                    summary.annotations++;
+                    event(timestampMicros, "anotacion", m.annotation());
+                    continue;
+                }
+                final MuseDataPacketType type = ReplayEngine.packetType(m);
+                if (type == null) {
+                    continue;
+                }
+                if (summary.messages == 0) {
+                    summary.firstMicros = timestampMicros;
+                }
+                summary.messages++;
+                summary.lastMicros = Math.max(summary.lastMicros, timestampMicros);
+                link.onPacket(type, timestampMicros, 0);
+                if (type == MuseDataPacketType.EEG) {
+                    final int n = m.copyValues(eeg, 0, EEG_CHANNELS);
+                    Arrays.fill(eeg, n, EEG_CHANNELS, Double.NaN);
+                    bands.process(timestampMicros, eeg);
+                } else if (type == MuseDataPacketType.ACCELEROMETER && m.valueCount() >= 3) {
+                    gestures.process(timestampMicros, m.value(0), m.value(1), m.value(2));
+                }
+            }
+            summary.truncated = reader.truncated();
+        } finally {
+            reader.close();
+        }
+
+        summary.eegPackets = link.packets(MuseDataPacketType.EEG);
+        summary.eegLost = link.lostPackets(MuseDataPacketType.EEG);
+        summary.accelerometerPackets = link.packets(MuseDataPacketType.ACCELEROMETER);
+        summary.accelerometerLost = link.lostPackets(MuseDataPacketType.ACCELEROMETER);
+        for (MuseDataPacketType type : MuseDataPacketType.values()) {
+            summary.gaps += link.gaps(type);
+            summary.outOfOrder += link.outOfOrder(type);
+        }
+        for (int b = 0; b < BandPowerEngine.BANDS; b++) {
+            summary.relativeMean[b] = relative[b].count() > 0 ? relative[b].mean() : Double.NaN;
+            summary.absoluteMean[b] = absolute[b].count() > 0 ? absolute[b].mean() : Double.NaN;
+        }
+        final SessionSummary result = summary;
+        summary = null;
+        this.timeline = null;
+        return result;
+    }
+
+    /**
+     * Acumula las potencias de EEG1-EEG4 de una ventana; los canales sin datos (NaN) no cuentan.
+     */
+    private void addBandPowers(double[] abs, double[] rel) {
+        for (int c = 0; c < BAND_CHANNELS; c++) {
+            for (int b = 0; b < BandPowerEngine.BANDS; b++) {
+                final int i = c * BandPowerEngine.BANDS + b;
+                if (!Double.isNaN(rel[i])) {
+                    relative[b].add(rel[i]);
+                    absolute[b].add(abs[i]);
+                }
+            }
+        }
+    }
+
+    private void event(long timestampMicros, String kind, String detail) {
+        final Timeline t = timeline;
+        if (t != null) {
+            t.event(timestampMicros, kind, detail);
+        }
+    }
+}
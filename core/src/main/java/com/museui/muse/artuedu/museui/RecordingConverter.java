@@ -0,0 +1,203 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MessageType;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Conversion entre grabaciones .muse y el formato columnar de {@link ColumnarFormat}, en los
+ * dos sentidos y sin LibMuse.
+ *
+ * De .muse a columnar se conservan los mensajes de datos y las anotaciones; VERSION,
+ * CONFIGURATION y los tipos que no corresponden a un MuseDataPacketType se omiten. De columnar
+ * a .muse las filas de todos los tipos se intercalan por marca de tiempo y se escriben con
+ * {@link MuseRecordingWriter}; con la misma marca de tiempo va primero el tipo cuyo primer
+ * bloque aparece antes en el archivo. Los bloques de un tipo con distinto numero de canales se
+ * recorren por separado, ya que pueden estar intercalados en el tiempo.
+ */
+public final class RecordingConverter {
+
+    private RecordingConverter() {
+    }
+
+    private static final MuseDataPacketType[] PACKET_TYPES = MuseDataPacketType.values();
+
+    /**
+     * @return el numero de filas escritas, incluidas las anotaciones.
+     */
+    public static long museToColumnar(File muse, File columnar) throws IOException {
+        return museToColumnar(muse, new ColumnarRecordingWriter(columnar));
+    }
+
+    /**
+     * Convierte a un escritor ya configurado, por ejemplo con
+     * {@link ColumnarRecordingWriter#setQuantization}. El escritor se cierra al terminar.
+     */
+    public static long museToColumnar(File muse, ColumnarRecordingWriter writer)
+            throws IOException {
+        final MuseRecordingReader reader = new MuseRecordingReader(muse);
+        final double[] values = new double[SampleFrame.MAX_VALUES];
+        try {
+            while (reader.next()) {
+                final MuseMessage m = reader.message();
+                if (m.type() == MessageType.ANNOTATION) {
+                    final String text = m.annotation();
+                    if (text != null) {
+                        writer.annotate(m.timestampMicros(), text);
+                    }
+                    continue;
+                }
+                final MuseDataPacketType type = packetType(m);
+                if (type != null) {
+                    final int n = m.copyValues(values, 0, values.length);
+                    writer.add(type, m.timestampMicros(), values, n);
+                }
+            }
+        } finally {
+            try {
+                reader.close();
+            } finally {
+                writer.close();
+            }
+        }
+        return writer.rowsWritten();
+    }
+
+    /**
+     * @return el numero de mensajes escritos, incluidas las anotaciones.
+     */
+    public static long columnarToMuse(File columnar, File muse) throws IOException {
+        final ColumnarRecordingReader reader = new ColumnarRecordingReader(columnar);
+        final MuseRecordingWriter writer = new MuseRecordingWriter(muse);
+        try {
+            final List<Cursor> cursors = new ArrayList<>();
+            for (int b = 0; b < reader.blockCount(); b++) {
+                final int kind = reader.blockKind(b);
+                final int channels = reader.blockChannels(b);
+                boolean seen = false;
+                for (int i = 0; i < cursors.size() && !seen; i++) {
+                    seen = cursors.get(i).matches(kind, channels);
+                }
+                if (!seen) {
+                    cursors.add(new Cursor(reader, kind, channels));
+                }
+            }
+            final double[] values = new double[SampleFrame.MAX_VALUES];
+            while (true) {
+                Cursor next = null;
+                for (int i = 0; i < cursors.size(); i++) {
+                    final Cursor c = cursors.get(i);
+                    if (c.load() && (next == null || c.timestamp() < next.timestamp())) {
+                        next = c;
+                    }
+                }
+                if (next == null) {
+                    break;
+                }
+                next.write(writer, values);
+            }
+        } finally {
+            try {
+                reader.close();
+            } finally {
+                writer.close();
+            }
+        }
+        return writer.messagesWritten();
+    }
+
+    /**
+     * Tipo de paquete de un mensaje de datos, con DRL_REF separado de EEG como en ReplayEngine.
+     * Ademas acepta cualquier ordinal en los MUSE_ELEMENTS, que es como MuseRecordingWriter
+     * guarda los tipos sin mensaje propio.
+     */
+    static MuseDataPacketType packetType(MuseMessage m) {
+        if (m.type() == MessageType.MUSE_ELEMENTS) {
+            final int e = m.elementType();
+            return e >= 0 && e < MuseDataPacketType.TOTAL.ordinal() ? PACKET_TYPES[e] : null;
+        }
+        return ReplayEngine.packetType(m);
+    }
+
+    /**
+     * Recorre en orden los bloques de un tipo con un numero de canales, decodificando uno a la
+     * vez.
+     */
+    private static final class Cursor {
+        final ColumnarRecordingReader reader;
+        final int kind;
+        final int channels;
+        int block = -1;
+        int rows;
+        int row;
+        long[] timestamps = new long[0];
+        double[][] columns = new double[0][];
+        String[] texts = new String[0];
+
+        Cursor(ColumnarRecordingReader reader, int kind, int channels) {
+            this.reader = reader;
+            this.kind = kind;
+            this.channels = channels;
+        }
+
+        boolean matches(int kind, int channels) {
+            return this.kind == kind && this.channels == channels;
+        }
+
+        long timestamp() {
+            return timestamps[row];
+        }
+
+        /**
+         * Asegura que haya una fila actual.
+         * @return false si ya no quedan filas de este tipo.
+         */
+        boolean load() throws IOException {
+            while (row >= rows) {
+                do {
+                    block++;
+                } while (block < reader.blockCount() && !matches(reader.blockKind(block),
+                        reader.blockChannels(block)));
+                if (block >= reader.blockCount()) {
+                    return false;
+                }
+                rows = reader.blockRows(block);
+                row = 0;
+                if (timestamps.length < rows) {
+                    timestamps = new long[rows];
+                    texts = new String[rows];
+                }
+                reader.readTimestamps(block, timestamps, 0);
+                if (kind == ColumnarFormat.KIND_ANNOTATION) {
+                    reader.readAnnotations(block, texts, 0);
+                    continue;
+                }
+                final int ch = reader.blockChannels(block);
+                if (columns.length != ch || columns.length > 0 && columns[0].length < rows) {
+                    columns = new double[ch][timestamps.length];
+                }
+                for (int c = 0; c < ch; c++) {
+                    reader.readChannel(block, c, columns[c], 0);
+                }
+            }
+            return true;
+        }
+
+        void write(MuseRecordingWriter writer, double[] values) throws IOException {
+            if (kind == ColumnarFormat.KIND_ANNOTATION) {
+                writer.annotate(timestamps[row], texts[row]);
+            } else {
+                final int ch = Math.min(columns.length, values.length);
+                for (int c = 0; c < ch; c++) {
+                    values[c] = columns[c][row];
+                }
+                writer.add(PACKET_TYPES[kind], timestamps[row], values, ch);
+            }
+            row++;
+        }
+    }
+}
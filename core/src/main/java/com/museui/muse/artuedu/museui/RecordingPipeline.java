@@ -0,0 +1,385 @@
+package com.museui.muse.artuedu.museui;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Etapa de grabacion por lotes entre el hilo que recibe los paquetes y el hilo que los escribe.
+ *
+ * El productor (el hilo de callbacks de LibMuse) agrega elementos a un lote abierto. El lote se
+ * entrega completo al hilo de escritura cuando alcanza batchSize elementos o cuando han pasado
+ * flushIntervalMillis desde su primer elemento, de modo que el hilo de escritura recibe una sola
+ * tarea por lote en lugar de una por paquete. Los lotes se reciclan, por lo que en estado estable
+ * no se reservan objetos por paquete.
+ *
+ * Si el Executor es un {@link DelayedExecutor}, el tiempo limite tambien se revisa en el hilo de
+ * escritura: un lote abierto se escribe a lo mas flushIntervalMillis despues de su primer
+ * elemento aunque no lleguen mas, por ejemplo con un perfil de baja frecuencia o si un tipo de
+ * paquete deja de llegar sin desconectarse. Con un Executor simple el tiempo solo se revisa al
+ * llegar el siguiente elemento o con {@link #flush()}.
+ *
+ * Los lotes pendientes esperan en una cola acotada. Cuando la cola esta llena (por ejemplo con
+ * una memoria SD lenta) se aplica la {@link OverflowPolicy} configurada.
+ *
+ * Con un {@link Recycler} cada elemento se devuelve despues de escribirse o descartarse, por
+ * ejemplo a un {@link PacketRecordPool}.
+ *
+ * offer y flush solo deben llamarse desde el hilo productor.
+ */
+public final class RecordingPipeline<T> {
+
+    /**
+     * Que hacer cuando el hilo de escritura no alcanza a vaciar la cola.
+     */
+    public enum OverflowPolicy {
+        /**
+         * El productor espera hasta que haya lugar en la cola. No se pierden datos pero el hilo
+         * productor se puede detener.
+         */
+        BLOCK,
+        /**
+         * Se descarta el lote mas antiguo de la cola para hacer lugar al nuevo.
+         */
+        DROP_OLDEST,
+        /**
+         * El lote abierto sigue creciendo hasta COALESCE_FACTOR veces batchSize y se entrega en
+         * cuanto haya lugar. Si aun asi no hay lugar, se descartan los elementos nuevos.
+         */
+        COALESCE
+    }
+
+    /**
+     * Destino de los lotes. Se llama siempre desde el Executor de escritura.
+     */
+    public interface Sink<T> {
+        void write(List<T> batch);
+    }
+
+    /**
+     * Executor que ademas ejecuta tareas despues de un tiempo, por ejemplo un Handler con
+     * postDelayed. Ejecuta las tareas de una en una, como el de escritura.
+     */
+    public interface DelayedExecutor extends Executor {
+        void executeDelayed(Runnable task, long delayMillis);
+    }
+
+    /**
+     * Recibe cada elemento cuando la etapa ya no lo usa: despues de escribirlo, desde el
+     * Executor de escritura, o al descartarlo, desde el hilo productor.
+     */
+    public interface Recycler<T> {
+        void recycle(T item);
+    }
+
+    static final int COALESCE_FACTOR = 4;
+
+    private static final class Batch<T> {
+        final ArrayList<T> items;
+        long startedAt;
+
+        Batch(int capacity) {
+            items = new ArrayList<T>(capacity);
+        }
+    }
+
+    private final Sink<T> sink;
+    private final Executor executor;
+    // El mismo executor si admite tareas con retraso, o null.
+    private final DelayedExecutor delayedExecutor;
+    private final int batchSize;
+    private final int maxBatchSize;
+    private final long flushIntervalNanos;
+    private final OverflowPolicy policy;
+    private final Recycler<T> recycler;
+
+    private final ArrayBlockingQueue<Batch<T>> pending;
+    private final ArrayBlockingQueue<Batch<T>> free;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final AtomicBoolean timedFlushScheduled = new AtomicBoolean();
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private volatile int maxQueueDepth;
+
+    /**
+     * Lote abierto. El productor lo toma durante offer y flush y lo devuelve si sigue abierto;
+     * la entrega por tiempo lo toma en el hilo de escritura. Protegido por lock.
+     */
+    private final Object lock = new Object();
+    private Batch<T> current;
+
+    /**
+     * @param sink                 Destino de los lotes.
+     * @param executor             Ejecuta la escritura de los lotes, por ejemplo un Handler del
+     *                             hilo de archivos.
+     * @param batchSize            Elementos por lote.
+     * @param flushIntervalMillis  Tiempo maximo que un lote permanece abierto.
+     * @param queueCapacity        Lotes que pueden esperar a ser escritos.
+     * @param policy               Politica cuando la cola esta llena.
+     */
+    public RecordingPipeline(Sink<T> sink, Executor executor, int batchSize,
+                             long flushIntervalMillis, int queueCapacity, OverflowPolicy policy) {
+        this(sink, executor, batchSize, flushIntervalMillis, queueCapacity, policy, null);
+    }
+
+    /**
+     * @param recycler  Recibe cada elemento escrito o descartado; puede ser null.
+     */
+    public RecordingPipeline(Sink<T> sink, Executor executor, int batchSize,
+                             long flushIntervalMillis, int queueCapacity, OverflowPolicy policy,
+                             Recycler<T> recycler) {
+        if (batchSize < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("batchSize y queueCapacity deben ser positivos");
+        }
+        this.sink = sink;
+        this.executor = executor;
+        this.delayedExecutor = executor instanceof DelayedExecutor
+                ? (DelayedExecutor) executor : null;
+        this.batchSize = batchSize;
+        this.maxBatchSize = policy == OverflowPolicy.COALESCE ? batchSize * COALESCE_FACTOR
+                : batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.policy = policy;
+        this.recycler = recycler;
+        this.pending = new ArrayBlockingQueue<Batch<T>>(queueCapacity);
+        // Un lote abierto en el productor, uno en escritura y los que caben en la cola.
+        this.free = new ArrayBlockingQueue<Batch<T>>(queueCapacity + 2);
+        for (int i = 0; i < queueCapacity + 2; i++) {
+            free.offer(new Batch<T>(maxBatchSize));
+        }
+    }
+
+    /**
+     * Agrega un elemento al lote abierto y lo entrega si alcanzo su tamaño o su tiempo limite.
+     */
+    public void offer(T item) {
+        final long now = System.nanoTime();
+        Batch<T> b = take();
+        if (b == null) {
+            b = obtainBatch();
+            b.startedAt = now;
+        } else if (b.items.size() >= maxBatchSize) {
+            // Solo ocurre con COALESCE cuando la cola sigue llena.
+            if (!handOff(b)) {
+                dropped.incrementAndGet();
+                if (recycler != null) {
+                    recycler.recycle(item);
+                }
+                putBack(b);
+                return;
+            }
+            b = obtainBatch();
+            b.startedAt = now;
+        }
+        b.items.add(item);
+        if (b.items.size() >= batchSize || now - b.startedAt >= flushIntervalNanos) {
+            if (handOff(b)) {
+                return;
+            }
+        }
+        putBack(b);
+    }
+
+    /**
+     * Entrega el lote abierto aunque no este completo, por ejemplo al terminar la grabacion.
+     * Con COALESCE espera a que haya lugar en la cola.
+     */
+    public void flush() {
+        final Batch<T> b = take();
+        if (b == null) {
+            return;
+        }
+        if (b.items.isEmpty() || !(handOff(b) || enqueueBlocking(b))) {
+            putBack(b);
+        }
+    }
+
+    /**
+     * Lotes esperando a ser escritos.
+     */
+    public int queueDepth() {
+        return pending.size();
+    }
+
+    /**
+     * Mayor numero de lotes que han estado esperando en la cola.
+     */
+    public int maxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    public long writtenCount() {
+        return written.get();
+    }
+
+    public long batchCount() {
+        return batches.get();
+    }
+
+    private Batch<T> obtainBatch() {
+        Batch<T> b = free.poll();
+        return b != null ? b : new Batch<T>(maxBatchSize);
+    }
+
+    /**
+     * Toma el lote abierto, o null si no hay. Nunca bloquea mientras tiene el lock, asi que
+     * la entrega por tiempo no detiene al hilo de escritura.
+     */
+    private Batch<T> take() {
+        synchronized (lock) {
+            final Batch<T> b = current;
+            current = null;
+            return b;
+        }
+    }
+
+    /**
+     * Deja b como lote abierto y, si no hay una, programa su entrega por tiempo.
+     */
+    private void putBack(Batch<T> b) {
+        synchronized (lock) {
+            current = b;
+        }
+        if (delayedExecutor != null && !b.items.isEmpty()
+                && timedFlushScheduled.compareAndSet(false, true)) {
+            scheduleTimedFlush(b.startedAt + flushIntervalNanos - System.nanoTime());
+        }
+    }
+
+    private void scheduleTimedFlush(long delayNanos) {
+        // Se redondea hacia arriba para no despertar antes del limite.
+        delayedExecutor.executeDelayed(timedFlush,
+                Math.max(0, (delayNanos + 999999) / 1000000));
+    }
+
+    /**
+     * Intenta poner el lote b en la cola segun la politica.
+     * @return false si el lote debe seguir abierto (COALESCE con la cola llena).
+     */
+    private boolean handOff(Batch<T> b) {
+        if (pending.offer(b)) {
+            scheduleDrain();
+            return true;
+        }
+        switch (policy) {
+            case BLOCK:
+                return enqueueBlocking(b);
+            case DROP_OLDEST:
+                while (!pending.offer(b)) {
+                    Batch<T> oldest = pending.poll();
+                    if (oldest != null) {
+                        dropped.addAndGet(oldest.items.size());
+                        recycle(oldest);
+                    }
+                }
+                scheduleDrain();
+                return true;
+            case COALESCE:
+            default:
+                scheduleDrain();
+                return false;
+        }
+    }
+
+    private boolean enqueueBlocking(Batch<T> b) {
+        try {
+            pending.put(b);
+            scheduleDrain();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dropped.addAndGet(b.items.size());
+            recycleItems(b);
+            return false;
+        }
+    }
+
+    private void scheduleDrain() {
+        final int depth = pending.size();
+        if (depth > maxQueueDepth) {
+            maxQueueDepth = depth;
+        }
+        if (drainScheduled.compareAndSet(false, true)) {
+            executor.execute(drain);
+        }
+    }
+
+    private void recycle(Batch<T> b) {
+        recycleItems(b);
+        free.offer(b);
+    }
+
+    private void recycleItems(Batch<T> b) {
+        if (recycler != null) {
+            for (int i = 0; i < b.items.size(); i++) {
+                recycler.recycle(b.items.get(i));
+            }
+        }
+        b.items.clear();
+    }
+
+    private void write(Batch<T> b) {
+        sink.write(b.items);
+        written.addAndGet(b.items.size());
+        batches.incrementAndGet();
+        recycle(b);
+    }
+
+    /**
+     * Tarea unica y reutilizable que vacia la cola en el hilo de escritura.
+     */
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            // Se limpia la bandera antes de leer la cola para no perder un lote que llegue
+            // mientras se escribe.
+            drainScheduled.set(false);
+            Batch<T> b;
+            while ((b = pending.poll()) != null) {
+                write(b);
+            }
+        }
+    };
+
+    /**
+     * Entrega por tiempo, en el hilo de escritura: si el lote abierto ya cumplio
+     * flushIntervalMillis se escribe despues de los lotes de la cola, que son anteriores. Si el
+     * productor tiene el lote en ese momento, lo vuelve a programar al devolverlo.
+     */
+    private final Runnable timedFlush = new Runnable() {
+        @Override
+        public void run() {
+            timedFlushScheduled.set(false);
+            Batch<T> due = null;
+            long remaining = 0;
+            synchronized (lock) {
+                final Batch<T> b = current;
+                if (b != null && !b.items.isEmpty()) {
+                    remaining = b.startedAt + flushIntervalNanos - System.nanoTime();
+                    if (remaining <= 0) {
+                        due = b;
+                        current = null;
+                    }
+                }
+            }
+            if (due == null) {
+                if (remaining > 0 && timedFlushScheduled.compareAndSet(false, true)) {
+                    scheduleTimedFlush(remaining);
+                }
+                return;
+            }
+            drain.run();
+            write(due);
+        }
+    };
+}
@@ -0,0 +1,219 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MessageType;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reproduce una grabacion .muse entregando sus paquetes de datos como si vinieran de la
+ * headband, para probar el procesamiento sin Bluetooth.
+ *
+ * La velocidad se controla con {@link #setSpeed(double)}: 1 es tiempo real, N es N veces mas
+ * rapido y {@link #AS_FAST_AS_POSSIBLE} entrega los paquetes sin esperar. Con
+ * {@link #setPreserveTiming(boolean)} cada paquete espera su tiempo original exacto; sin el, los
+ * paquetes se entregan en rafagas de {@link #PACING_QUANTUM_MICROS} de tiempo de grabacion, lo
+ * que reduce el numero de esperas.
+ *
+ * {@link #run()} reproduce en el hilo actual; {@link #start()} lo hace en un hilo propio.
+ */
+public final class ReplayEngine implements Runnable {
+
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+    public static final long PACING_QUANTUM_MICROS = 20000;
+
+    private static final MuseDataPacketType[] PACKET_TYPES = MuseDataPacketType.values();
+
+    /**
+     * Recibe los paquetes reproducidos. Se llama desde el hilo de la reproduccion.
+     */
+    public interface Listener {
+        /**
+         * La reproduccion empieza, antes de abrir la grabacion y de cualquier paquete.
+         */
+        void onReplayStarted();
+
+        /**
+         * @param values  Valores del paquete. El arreglo se reutiliza; las posiciones a partir de
+         *                count contienen NaN.
+         */
+        void onReplayPacket(MuseDataPacketType type, long timestampMicros, double[] values,
+                            int count);
+
+        /**
+         * No se pudo abrir o leer la grabacion. Se llama antes de onReplayFinished, que siempre
+         * se llama al terminar.
+         */
+        void onReplayError(IOException error);
+
+        void onReplayFinished(long packets);
+    }
+
+    private final File file;
+    private final Listener listener;
+    private volatile double speed = 1;
+    private volatile boolean preserveTiming = true;
+    private volatile boolean stopped;
+    private long fromMicros = Long.MIN_VALUE;
+    private long toMicros = Long.MAX_VALUE;
+    private MuseRecordingIndex index;
+    private Thread thread;
+
+    private final double[] frame = new double[16];
+    private volatile long packets;
+
+    public ReplayEngine(File file, Listener listener) {
+        this.file = file;
+        this.listener = listener;
+    }
+
+    public void setSpeed(double speed) {
+        this.speed = speed;
+    }
+
+    public void setPreserveTiming(boolean preserveTiming) {
+        this.preserveTiming = preserveTiming;
+    }
+
+    /**
+     * Limita la reproduccion a un intervalo de la grabacion. Si se da un indice, la lectura
+     * empieza directamente en fromMicros en lugar de recorrer el archivo desde el inicio.
+     */
+    public void setRange(long fromMicros, long toMicros, MuseRecordingIndex index) {
+        this.fromMicros = fromMicros;
+        this.toMicros = toMicros;
+        this.index = index;
+    }
+
+    public synchronized void start() {
+        if (thread != null && thread.isAlive()) {
+            return;
+        }
+        stopped = false;
+        thread = new Thread(this, "MuseReplay");
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    public long packetCount() {
+        return packets;
+    }
+
+    @Override
+    public void run() {
+        packets = 0;
+        listener.onReplayStarted();
+        MuseRecordingReader reader = null;
+        try {
+            reader = new MuseRecordingReader(file);
+            if (index != null && fromMicros != Long.MIN_VALUE) {
+                index.seek(reader, fromMicros);
+            }
+            replay(reader);
+        } catch (IOException e) {
+            // Un archivo corrupto o inexistente no debe tirar el hilo de reproduccion (y la app);
+            // la fuente se entera y pasa a DISCONNECTED con onReplayFinished.
+            listener.onReplayError(e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Solo se estaba leyendo.
+                }
+            }
+            listener.onReplayFinished(packets);
+        }
+    }
+
+    private void replay(MuseRecordingReader reader) throws IOException {
+        long firstTimestamp = Long.MIN_VALUE;
+        long wallStart = 0;
+        long pacedUntil = Long.MIN_VALUE;
+        while (!stopped && reader.next()) {
+            final MuseMessage m = reader.message();
+            final MuseDataPacketType type = packetType(m);
+            final long ts = m.timestampMicros();
+            if (type == null || ts < fromMicros) {
+                continue;
+            }
+            if (ts > toMicros) {
+                break;
+            }
+            final double s = speed;
+            if (firstTimestamp == Long.MIN_VALUE) {
+                firstTimestamp = ts;
+                wallStart = System.nanoTime();
+            }
+            if (s > 0 && (preserveTiming || ts >= pacedUntil)) {
+                pacedUntil = ts + PACING_QUANTUM_MICROS;
+                final long due = wallStart
+                        + (long) (TimeUnit.MICROSECONDS.toNanos(ts - firstTimestamp) / s);
+                if (!waitUntil(due)) {
+                    return;
+                }
+            }
+            final int n = m.copyValues(frame, 0, frame.length);
+            Arrays.fill(frame, n, frame.length, Double.NaN);
+            listener.onReplayPacket(type, ts, frame, n);
+            packets++;
+        }
+    }
+
+    private boolean waitUntil(long due) {
+        long remaining;
+        while (!stopped && (remaining = due - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                return false;
+            }
+        }
+        return !stopped;
+    }
+
+    /**
+     * Tipo de paquete de LibMuse que corresponde a un mensaje de datos, o null si el mensaje no
+     * es de datos. Los mensajes EEG con {@link MuseFileFormat#DRL_REF_VALUES} valores son
+     * paquetes DRL_REF, como los guarda MuseFileWriter. En los mensajes MUSE_ELEMENTS el tipo de
+     * elemento es el ordinal del MuseDataPacketType derivado (ALPHA_ABSOLUTE ... HSI_PRECISION).
+     */
+    static MuseDataPacketType packetType(MuseMessage m) {
+        final MessageType type = m.type();
+        if (type == null) {
+            return null;
+        }
+        switch (type) {
+            case EEG:
+                return m.valueCount() == MuseFileFormat.DRL_REF_VALUES
+                        ? MuseDataPacketType.DRL_REF : MuseDataPacketType.EEG;
+            case ACCELEROMETER:
+                return MuseDataPacketType.ACCELEROMETER;
+            case GYRO:
+                return MuseDataPacketType.GYRO;
+            case BATTERY:
+                return MuseDataPacketType.BATTERY;
+            case QUANTIZATION:
+                return MuseDataPacketType.QUANTIZATION;
+            case MUSE_ELEMENTS:
+                final int e = m.elementType();
+                if (e >= MuseDataPacketType.ALPHA_ABSOLUTE.ordinal()
+                        && e <= MuseDataPacketType.HSI_PRECISION.ordinal()) {
+                    return PACKET_TYPES[e];
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+}
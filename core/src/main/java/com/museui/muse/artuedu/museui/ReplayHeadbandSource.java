@@ -0,0 +1,154 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.ConnectionState;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * HeadbandSource que reproduce una grabacion .muse con {@link ReplayEngine}. Se considera
+ * conectada mientras dura la reproduccion. Los cambios de conexion, como las muestras, se
+ * entregan desde el hilo de la reproduccion.
+ */
+public final class ReplayHeadbandSource implements HeadbandSource, ReplayEngine.Listener {
+
+    /**
+     * Frecuencias de EEG de las headbands Muse, en Hz.
+     */
+    private static final int[] MUSE_EEG_RATES = {220, 256, 500};
+
+    // Intervalos entre mensajes EEG usados para estimar la frecuencia.
+    private static final int RATE_INTERVALS = 256;
+
+    private final File file;
+    private final ReplayEngine engine;
+    private final SampleFrame frame = new SampleFrame();
+    private volatile Listener listener;
+    private volatile ConnectionState state = ConnectionState.DISCONNECTED;
+    private volatile IOException error;
+
+    public ReplayHeadbandSource(File file) {
+        this.file = file;
+        this.engine = new ReplayEngine(file, this);
+    }
+
+    /**
+     * Motor de reproduccion, para configurar velocidad, intervalo y temporizacion antes de
+     * conectar.
+     */
+    public ReplayEngine engine() {
+        return engine;
+    }
+
+    /**
+     * Estima la frecuencia de EEG de una grabacion con la mediana de los intervalos entre sus
+     * primeros mensajes EEG, sin contar los DRL_REF; la mediana no cambia con algunos paquetes
+     * perdidos. Una estimacion a menos de 5% de una frecuencia de Muse se redondea a ella.
+     * @return la frecuencia en Hz, o 0 si la grabacion no tiene EEG suficiente.
+     */
+    public static int estimateEegRate(File file) throws IOException {
+        final long[] intervals = new long[RATE_INTERVALS];
+        int n = 0;
+        long last = Long.MIN_VALUE;
+        final MuseRecordingReader reader = new MuseRecordingReader(file);
+        try {
+            while (n < intervals.length && reader.next()) {
+                final MuseMessage m = reader.message();
+                if (ReplayEngine.packetType(m) != MuseDataPacketType.EEG) {
+                    continue;
+                }
+                final long ts = m.timestampMicros();
+                if (last != Long.MIN_VALUE && ts > last) {
+                    intervals[n++] = ts - last;
+                }
+                last = ts;
+            }
+        } finally {
+            reader.close();
+        }
+        if (n < 2) {
+            return 0;
+        }
+        Arrays.sort(intervals, 0, n);
+        final double rate = 1e6 / intervals[n / 2];
+        for (int nominal : MUSE_EEG_RATES) {
+            if (Math.abs(rate - nominal) < 0.05 * nominal) {
+                return nominal;
+            }
+        }
+        return (int) Math.round(rate);
+    }
+
+    @Override
+    public String name() {
+        return file.getName();
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void connect() {
+        if (state != ConnectionState.DISCONNECTED) {
+            return;
+        }
+        error = null;
+        engine.start();
+    }
+
+    @Override
+    public void disconnect() {
+        engine.stop();
+    }
+
+    @Override
+    public ConnectionState connectionState() {
+        return state;
+    }
+
+    /**
+     * Error que detuvo la ultima reproduccion, o null si termino normalmente.
+     */
+    public IOException error() {
+        return error;
+    }
+
+    @Override
+    public void onReplayStarted() {
+        changeState(ConnectionState.CONNECTING);
+        changeState(ConnectionState.CONNECTED);
+    }
+
+    @Override
+    public void onReplayPacket(MuseDataPacketType type, long timestampMicros, double[] values,
+                               int count) {
+        final Listener l = listener;
+        if (l != null) {
+            frame.set(type, timestampMicros, values, count);
+            l.onSampleFrame(this, frame);
+        }
+    }
+
+    @Override
+    public void onReplayError(IOException error) {
+        this.error = error;
+    }
+
+    @Override
+    public void onReplayFinished(long packets) {
+        changeState(ConnectionState.DISCONNECTED);
+    }
+
+    private void changeState(ConnectionState next) {
+        final ConnectionState previous = state;
+        state = next;
+        final Listener l = listener;
+        if (l != null) {
+            l.onConnectionChanged(this, previous, next);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.museui.muse.artuedu.museui;
+
+/**
+ * Media y varianza incrementales (algoritmo de Welford) en memoria O(1). Cada muestra se
+ * agrega en tiempo constante y sin la perdida de precision de acumular sumas de cuadrados.
+ */
+public final class RunningStats {
+
+    private long count;
+    private double mean;
+    private double m2;
+
+    public void add(double x) {
+        count++;
+        final double delta = x - mean;
+        mean += delta / count;
+        m2 += delta * (x - mean);
+    }
+
+    public void reset() {
+        count = 0;
+        mean = 0;
+        m2 = 0;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public double mean() {
+        return mean;
+    }
+
+    /**
+     * Varianza de la muestra (dividida entre n - 1), o 0 con menos de dos muestras.
+     */
+    public double variance() {
+        return count > 1 ? m2 / (count - 1) : 0;
+    }
+
+    public double standardDeviation() {
+        return Math.sqrt(variance());
+    }
+}
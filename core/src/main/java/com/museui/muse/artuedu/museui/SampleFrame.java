@@ -0,0 +1,83 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import java.util.Arrays;
+
+/**
+ * Muestra de un tipo de paquete emitida por un {@link HeadbandSource}.
+ *
+ * Cada fuente reutiliza su propio SampleFrame para todas las muestras, por lo que el contenido
+ * solo es valido durante la llamada a {@link HeadbandSource.Listener#onSampleFrame}. Las
+ * posiciones de values a partir de count contienen NaN.
+ *
+ * Los SampleFrame de un {@link PacketRecordPool} sirven ademas como registros que se pasan a
+ * otros hilos, por ejemplo a la grabacion, hasta que se devuelven al pool.
+ */
+public final class SampleFrame {
+
+    public static final int MAX_VALUES = 16;
+
+    MuseDataPacketType type;
+    long timestampMicros;
+    final double[] values = new double[MAX_VALUES];
+    int count;
+    long arrivalNanos;
+    // Posicion en su PacketRecordPool, o -1 si no es de un pool.
+    int poolSlot = -1;
+
+    public MuseDataPacketType type() {
+        return type;
+    }
+
+    public long timestampMicros() {
+        return timestampMicros;
+    }
+
+    /**
+     * Valores de la muestra. El arreglo siempre tiene {@link #MAX_VALUES} posiciones.
+     */
+    public double[] values() {
+        return values;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /**
+     * System.nanoTime() de la entrada al callback que produjo la muestra, para
+     * {@link LatencyMonitor}; 0 si no se midio.
+     */
+    public long arrivalNanos() {
+        return arrivalNanos;
+    }
+
+    public void setArrivalNanos(long arrivalNanos) {
+        this.arrivalNanos = arrivalNanos;
+    }
+
+    /**
+     * Prepara el frame para una nueva muestra. Lo usan las fuentes antes de llenar values.
+     */
+    public void set(MuseDataPacketType type, long timestampMicros, int count) {
+        this.type = type;
+        this.timestampMicros = timestampMicros;
+        this.count = count;
+        this.arrivalNanos = 0;
+        Arrays.fill(values, count, MAX_VALUES, Double.NaN);
+    }
+
+    /**
+     * Prepara el frame copiando los valores dados.
+     */
+    public void set(MuseDataPacketType type, long timestampMicros, double[] src, int count) {
+        final int n = Math.min(count, MAX_VALUES);
+        System.arraycopy(src, 0, values, 0, n);
+        set(type, timestampMicros, n);
+    }
+
+    public void setValue(int i, double v) {
+        values[i] = v;
+    }
+}
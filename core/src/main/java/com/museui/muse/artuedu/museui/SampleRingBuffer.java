@@ -0,0 +1,180 @@
+package com.museui.muse.artuedu.museui;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffer circular de un solo productor y un solo consumidor (SPSC) para muestras de la headband.
+ *
+ * Cada entrada del buffer es un "frame": la marca de tiempo del paquete y un numero fijo de
+ * valores double (6 para EEG y paquetes derivados, 3 para ACCELEROMETER). Los datos se guardan
+ * en arreglos primitivos reservados una sola vez, por lo que escribir o leer una muestra no
+ * genera basura.
+ *
+ * El productor (el hilo de callbacks de LibMuse) solo escribe {@code head} y el consumidor
+ * (el hilo de la IU o de procesamiento) solo escribe {@code tail}. Ambos indices se publican con
+ * {@link AtomicLong#lazySet(long)}, que garantiza que los valores del frame son visibles antes
+ * que el nuevo indice, y se leen con {@link AtomicLong#get()}. Asi el consumidor nunca ve un frame
+ * a medio escribir.
+ *
+ * Si el consumidor se atrasa y el buffer se llena, las muestras nuevas se descartan y se
+ * contabilizan en {@link #overflowCount()}; las muestras ya guardadas se entregan completas y en
+ * orden.
+ */
+public final class SampleRingBuffer {
+
+    private final int channels;
+    private final int mask;
+    private final double[] values;
+    private final long[] timestamps;
+
+    /**
+     * Indice del siguiente frame a escribir. Solo lo modifica el productor.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Indice del siguiente frame a leer. Solo lo modifica el consumidor.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Muestras descartadas por falta de espacio desde la ultima llamada a takeOverflow.
+     */
+    private final AtomicLong overflow = new AtomicLong();
+
+    /**
+     * Copia local del productor del ultimo tail leido, para no tocar la variable compartida en
+     * cada escritura mientras quede espacio conocido.
+     */
+    private long cachedTail;
+
+    /**
+     * Marca de tiempo del ultimo frame leido con poll. Solo la usa el consumidor.
+     */
+    private long lastTimestamp;
+
+    /**
+     * @param channels  Numero de valores por frame.
+     * @param capacity  Numero minimo de frames que puede contener el buffer. Se redondea a la
+     *                  siguiente potencia de dos.
+     */
+    public SampleRingBuffer(int channels, int capacity) {
+        if (channels < 1 || capacity < 1) {
+            throw new IllegalArgumentException("channels y capacity deben ser positivos");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.channels = channels;
+        this.mask = size - 1;
+        this.values = new double[size * channels];
+        this.timestamps = new long[size];
+    }
+
+    public int channels() {
+        return channels;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    //--------------------------------------
+    // Productor
+
+    /**
+     * Agrega un frame al buffer. Solo debe llamarse desde el hilo productor.
+     * @param timestamp  Marca de tiempo del paquete.
+     * @param frame      Valores del frame; se copian los primeros {@link #channels()} valores.
+     * @return false si el buffer estaba lleno y la muestra fue descartada.
+     */
+    public boolean offer(long timestamp, double[] frame) {
+        final long h = head.get();
+        if (h - cachedTail > mask) {
+            cachedTail = tail.get();
+            if (h - cachedTail > mask) {
+                overflow.incrementAndGet();
+                return false;
+            }
+        }
+        final int slot = (int) (h & mask);
+        System.arraycopy(frame, 0, values, slot * channels, channels);
+        timestamps[slot] = timestamp;
+        head.lazySet(h + 1);
+        return true;
+    }
+
+    //--------------------------------------
+    // Consumidor
+
+    /**
+     * Lee el frame mas antiguo. Solo debe llamarse desde el hilo consumidor.
+     * @param frame  Arreglo destino de al menos {@link #channels()} valores.
+     * @return false si no habia muestras pendientes.
+     */
+    public boolean poll(double[] frame) {
+        final long t = tail.get();
+        if (t >= head.get()) {
+            return false;
+        }
+        final int slot = (int) (t & mask);
+        System.arraycopy(values, slot * channels, frame, 0, channels);
+        lastTimestamp = timestamps[slot];
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Marca de tiempo del ultimo frame leido con {@link #poll(double[])}.
+     */
+    public long lastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * Lee hasta maxFrames frames en orden. Solo debe llamarse desde el hilo consumidor.
+     * @param frames      Destino de los valores, frame tras frame ({@code maxFrames * channels}).
+     * @param timestamps  Destino de las marcas de tiempo, puede ser null.
+     * @param maxFrames   Maximo de frames a leer.
+     * @return el numero de frames leidos.
+     */
+    public int drain(double[] frames, long[] timestamps, int maxFrames) {
+        final long t = tail.get();
+        final int available = (int) Math.min(head.get() - t, maxFrames);
+        for (int i = 0; i < available; i++) {
+            final int slot = (int) ((t + i) & mask);
+            System.arraycopy(values, slot * channels, frames, i * channels, channels);
+            if (timestamps != null) {
+                timestamps[i] = this.timestamps[slot];
+            }
+        }
+        if (available > 0) {
+            lastTimestamp = this.timestamps[(int) ((t + available - 1) & mask)];
+            tail.lazySet(t + available);
+        }
+        return available;
+    }
+
+    /**
+     * Numero de frames pendientes de leer. Es un valor aproximado si se consulta desde un hilo
+     * distinto al consumidor.
+     */
+    public int size() {
+        return (int) (head.get() - tail.get());
+    }
+
+    /**
+     * Total de muestras descartadas por buffer lleno que aun no se han reportado.
+     */
+    public long overflowCount() {
+        return overflow.get();
+    }
+
+    /**
+     * Devuelve las muestras descartadas desde la ultima llamada y reinicia el contador.
+     */
+    public long takeOverflow() {
+        return overflow.getAndSet(0);
+    }
+}
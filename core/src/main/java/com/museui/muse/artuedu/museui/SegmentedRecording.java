@@ -0,0 +1,384 @@
+package com.museui.muse.artuedu.museui;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Grabacion dividida en segmentos que se confirman de forma atomica.
+ *
+ * Cada segmento se escribe en archivos con el sufijo {@code .part}, uno por extension (por
+ * ejemplo .muse y .mcol), con nombres unicos por sesion: {@code <sesion>_0001.muse.part}. Al
+ * llegar a maxSegmentMillis de duracion o maxSegmentBytes, o al llamar a {@link #commit()}, el
+ * segmento se cierra, se sincroniza con el disco y se renombra sin el sufijo; un archivo sin
+ * .part siempre esta completo. El siguiente lote abre el siguiente segmento.
+ *
+ * Si la app muere mientras graba solo queda un .part por extension, con lo escrito hasta el
+ * ultimo flush. {@link #recover(File, List)} recorta esos archivos al ultimo registro o bloque
+ * completo y los confirma. Los indices ({@link MuseRecordingIndex#SIDECAR_SUFFIX}) de esos
+ * segmentos se descartan, porque pueden apuntar a lo recortado; se reconstruyen al leer la
+ * grabacion.
+ *
+ * Es el Sink de un {@link RecordingPipeline}, asi que todas las llamadas se hacen desde el hilo
+ * de escritura. Un error de escritura cierra el segmento abierto, confirma lo que alcanzo a
+ * escribir de la misma forma que recover y el siguiente lote abre uno nuevo.
+ */
+public final class SegmentedRecording<T> implements RecordingPipeline.Sink<T> {
+
+    public static final String PART_SUFFIX = ".part";
+
+    public static final long DEFAULT_MAX_SEGMENT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    public static final long DEFAULT_MAX_SEGMENT_BYTES = 32 << 20;
+
+    /**
+     * Escritura de un segmento.
+     */
+    public interface SegmentWriter<T> {
+        /**
+         * Escribe el lote y lo entrega al sistema operativo.
+         */
+        void write(List<T> batch) throws IOException;
+
+        void annotate(String text) throws IOException;
+
+        /**
+         * Bytes escritos en todos los archivos del segmento.
+         */
+        long length();
+
+        /**
+         * Cierra los archivos; la sincronizacion y el renombre los hace SegmentedRecording.
+         */
+        void close() throws IOException;
+    }
+
+    public interface WriterFactory<T> {
+        /**
+         * @param files  Un archivo .part por extension, en el orden de las extensiones.
+         */
+        SegmentWriter<T> open(File[] files) throws IOException;
+    }
+
+    private final File dir;
+    private final String session;
+    private final String[] extensions;
+    private final WriterFactory<T> factory;
+    private final long maxSegmentNanos;
+    private final long maxSegmentBytes;
+
+    private SegmentWriter<T> writer;
+    private File[] parts;
+    private long openedAt;
+    private int sequence;
+    private final List<File> committed = new ArrayList<>();
+    private long itemsWritten;
+    private long errorCount;
+    private IOException lastError;
+
+    /**
+     * @param session     Nombre de la sesion, por ejemplo de {@link #sessionName(String, long)}.
+     *                    Si ya hay archivos con ese nombre se le agrega un sufijo.
+     * @param extensions  Extensiones de los archivos de cada segmento, con el punto.
+     */
+    public SegmentedRecording(File dir, String session, String[] extensions,
+                              WriterFactory<T> factory, long maxSegmentMillis,
+                              long maxSegmentBytes) {
+        this.dir = dir;
+        this.extensions = extensions.clone();
+        this.factory = factory;
+        this.maxSegmentNanos = TimeUnit.MILLISECONDS.toNanos(maxSegmentMillis);
+        this.maxSegmentBytes = maxSegmentBytes;
+        String unique = session;
+        for (int n = 2; exists(unique); n++) {
+            unique = session + "-" + n;
+        }
+        this.session = unique;
+    }
+
+    /**
+     * Nombre de sesion con la fecha y hora de inicio: {@code <prefijo>_20181018_153000}.
+     */
+    public static String sessionName(String prefix, long wallMillis) {
+        return prefix + "_"
+                + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date(wallMillis));
+    }
+
+    public String session() {
+        return session;
+    }
+
+    @Override
+    public void write(List<T> batch) {
+        write(batch, System.nanoTime());
+    }
+
+    void write(List<T> batch, long nowNanos) {
+        try {
+            if (writer == null) {
+                open(nowNanos);
+            }
+            writer.write(batch);
+            itemsWritten += batch.size();
+            if (nowNanos - openedAt >= maxSegmentNanos || writer.length() >= maxSegmentBytes) {
+                commit();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Agrega una anotacion al segmento abierto, si hay uno.
+     */
+    public void annotate(String text) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.annotate(text);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Cierra y confirma el segmento abierto, si hay uno.
+     */
+    public void commit() {
+        final SegmentWriter<T> w = writer;
+        if (w == null) {
+            return;
+        }
+        writer = null;
+        try {
+            w.close();
+            for (File part : parts) {
+                sync(part);
+            }
+            for (File part : parts) {
+                final File target = finalFile(part);
+                if (!part.renameTo(target)) {
+                    throw new IOException("no se pudo renombrar " + part + " a " + target);
+                }
+                committed.add(target);
+            }
+        } catch (IOException e) {
+            errorCount++;
+            lastError = e;
+        }
+    }
+
+    /**
+     * Archivos confirmados, en orden.
+     */
+    public List<File> committedFiles() {
+        return new ArrayList<>(committed);
+    }
+
+    /**
+     * Segmentos abiertos hasta ahora, incluido el actual.
+     */
+    public int segmentCount() {
+        return sequence;
+    }
+
+    public boolean isOpen() {
+        return writer != null;
+    }
+
+    public long itemsWritten() {
+        return itemsWritten;
+    }
+
+    public long errorCount() {
+        return errorCount;
+    }
+
+    public IOException lastError() {
+        return lastError;
+    }
+
+    /**
+     * Nombre final de un archivo .part.
+     */
+    public static File finalFile(File part) {
+        final String name = part.getName();
+        if (!name.endsWith(PART_SUFFIX)) {
+            return part;
+        }
+        return new File(part.getParentFile(),
+                name.substring(0, name.length() - PART_SUFFIX.length()));
+    }
+
+    /**
+     * Confirma los archivos .part que dejo una sesion interrumpida, recortados al ultimo
+     * registro .muse o bloque columnar completo; los indices se descartan y los demas .part se
+     * confirman sin cambios. Un archivo que no se puede recuperar se queda como .part, su error
+     * se agrega a errors y se sigue con los demas. Se debe llamar antes de empezar a grabar.
+     * @return los archivos recuperados.
+     */
+    public static List<File> recover(File dir, List<IOException> errors) {
+        final List<File> recovered = new ArrayList<>();
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return recovered;
+        }
+        for (File part : files) {
+            if (!part.isFile() || !part.getName().endsWith(PART_SUFFIX)) {
+                continue;
+            }
+            try {
+                final File target = salvage(part);
+                if (target != null) {
+                    recovered.add(target);
+                }
+            } catch (IOException e) {
+                errors.add(new IOException("no se pudo recuperar " + part + ": " + e.getMessage(),
+                        e));
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * Recorta un .part a sus bytes validos, lo sincroniza y lo renombra sin el sufijo. Un indice
+     * se borra en lugar de confirmarse.
+     * @return el archivo confirmado, o null si no existia o era un indice.
+     */
+    private static File salvage(File part) throws IOException {
+        if (!part.exists()) {
+            return null;
+        }
+        if (finalFile(part).getName().endsWith(MuseRecordingIndex.SIDECAR_SUFFIX)) {
+            if (!part.delete()) {
+                throw new IOException("no se pudo borrar " + part);
+            }
+            return null;
+        }
+        final long valid = salvageableLength(part);
+        final RandomAccessFile raf = new RandomAccessFile(part, "rw");
+        try {
+            if (valid < raf.length()) {
+                raf.setLength(valid);
+            }
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+        final File target = finalFile(part);
+        if (!part.renameTo(target)) {
+            throw new IOException("no se pudo renombrar " + part + " a " + target);
+        }
+        return target;
+    }
+
+    /**
+     * Bytes validos de un archivo .part: hasta el ultimo registro .muse completo o el final del
+     * ultimo bloque columnar completo.
+     */
+    static long salvageableLength(File part) throws IOException {
+        final String name = finalFile(part).getName();
+        if (name.endsWith(".muse")) {
+            final MuseRecordingReader reader = new MuseRecordingReader(part);
+            try {
+                try {
+                    while (reader.next()) {
+                        // Solo se busca el final del ultimo registro completo.
+                    }
+                } catch (IOException e) {
+                    // Registro corrupto: se conserva hasta el anterior.
+                    return reader.recordOffset();
+                }
+                return reader.truncated() ? reader.position() : part.length();
+            } finally {
+                reader.close();
+            }
+        }
+        if (name.endsWith(".mcol")) {
+            if (part.length() < ColumnarFormat.HEADER_SIZE) {
+                return 0;
+            }
+            final ColumnarRecordingReader reader = new ColumnarRecordingReader(part);
+            try {
+                return reader.recovered() ? reader.dataEnd() : part.length();
+            } finally {
+                reader.close();
+            }
+        }
+        return part.length();
+    }
+
+    private void open(long nowNanos) throws IOException {
+        sequence++;
+        final File[] files = new File[extensions.length];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(dir, segmentName(sequence, extensions[i]) + PART_SUFFIX);
+        }
+        writer = factory.open(files);
+        parts = files;
+        openedAt = nowNanos;
+    }
+
+    private String segmentName(int n, String extension) {
+        return session + "_" + String.format(Locale.US, "%04d", n) + extension;
+    }
+
+    private boolean exists(String name) {
+        for (String extension : extensions) {
+            final String first = name + "_0001" + extension;
+            if (new File(dir, first).exists() || new File(dir, first + PART_SUFFIX).exists()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Cierra el segmento que fallo y confirma lo que alcanzo a escribir, recortado al ultimo
+     * registro o bloque completo. Los archivos que no se pueden recortar se quedan como .part
+     * para recover.
+     */
+    private void fail(IOException e) {
+        errorCount++;
+        lastError = e;
+        final SegmentWriter<T> w = writer;
+        if (w == null) {
+            return;
+        }
+        writer = null;
+        try {
+            w.close();
+        } catch (IOException closeError) {
+            // El segmento ya fallo; lo escrito se revisa al recortarlo.
+        }
+        for (File part : parts) {
+            try {
+                final File target = salvage(part);
+                if (target != null) {
+                    committed.add(target);
+                }
+            } catch (IOException salvageError) {
+                errorCount++;
+                lastError = salvageError;
+            }
+        }
+    }
+
+    private static void sync(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+    }
+}
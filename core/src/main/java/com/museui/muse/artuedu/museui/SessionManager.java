@@ -0,0 +1,223 @@
+package com.museui.muse.artuedu.museui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Procesa varias headbands conectadas a la vez.
+ *
+ * Cada headband tiene su {@link HeadbandSession}, pero el procesamiento no usa un hilo por
+ * headband: un numero fijo de hilos compartidos recorre sus sesiones y llama a
+ * {@link HeadbandSession#pump(int)}. Cada sesion se asigna al hilo con menos sesiones y se queda
+ * en ese hilo mientras exista, para que sus buffers y motores tengan un solo consumidor. Cuando
+ * ninguna sesion de un hilo tiene muestras, el hilo queda bloqueado hasta que una de sus
+ * sesiones recibe la siguiente ({@link IdleSignal}).
+ *
+ * Los hilos existen entre {@link #start()} y {@link #stop()}; al quitar la ultima sesion se
+ * detienen solos, asi que sin headbands no queda ningun hilo.
+ *
+ * {@link #add(String, HeadbandSource, int)} y {@link #remove(HeadbandSession)} se pueden llamar
+ * desde cualquier hilo; cada hilo lee su lista de sesiones como un arreglo inmutable.
+ */
+public final class SessionManager {
+
+    /**
+     * Muestras por sesion en cada vuelta, para que una headband con muchas muestras pendientes
+     * no atrase a las demas.
+     */
+    public static final int PUMP_BATCH = 64;
+
+    private static final HeadbandSession[] NO_SESSIONS = new HeadbandSession[0];
+
+    private final Worker[] workers;
+    private final List<HeadbandSession> sessions = new ArrayList<>();
+    private boolean started;
+
+    /**
+     * @param workerCount  Hilos de procesamiento compartidos por todas las sesiones.
+     */
+    public SessionManager(int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("se necesita al menos un hilo: " + workerCount);
+        }
+        workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker("SessionWorker-" + i);
+        }
+    }
+
+    /**
+     * Un hilo por nucleo disponible menos uno (la IU), y al menos uno.
+     */
+    public static SessionManager forAvailableProcessors() {
+        return new SessionManager(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    public int workerCount() {
+        return workers.length;
+    }
+
+    /**
+     * Crea la sesion de una headband y la asigna a un hilo. No conecta la fuente.
+     */
+    public synchronized HeadbandSession add(String id, HeadbandSource source, int eegRate) {
+        final HeadbandSession session = new HeadbandSession(id, source, eegRate);
+        Worker target = workers[0];
+        for (Worker w : workers) {
+            if (w.sessions.length < target.sessions.length) {
+                target = w;
+            }
+        }
+        target.add(session);
+        sessions.add(session);
+        return session;
+    }
+
+    /**
+     * Deja de procesar la sesion. No desconecta la fuente. Si era la ultima se detienen los
+     * hilos.
+     */
+    public synchronized void remove(HeadbandSession session) {
+        if (sessions.remove(session)) {
+            for (Worker w : workers) {
+                w.remove(session);
+            }
+            if (sessions.isEmpty()) {
+                stop();
+            }
+        }
+    }
+
+    public synchronized List<HeadbandSession> sessions() {
+        return new ArrayList<>(sessions);
+    }
+
+    /**
+     * Inicia los hilos compartidos, por ejemplo despues de agregar las sesiones al conectar.
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        for (Worker w : workers) {
+            w.start();
+        }
+    }
+
+    /**
+     * Detiene los hilos y espera a que terminen. Las muestras pendientes se conservan.
+     */
+    public synchronized void stop() {
+        started = false;
+        for (Worker w : workers) {
+            w.finish();
+        }
+    }
+
+    /**
+     * Una vuelta de todas las sesiones en el hilo actual, sin los hilos compartidos. No se debe
+     * mezclar con {@link #start()}.
+     * @return muestras procesadas.
+     */
+    public int pumpAll() {
+        int done = 0;
+        for (Worker w : workers) {
+            done += w.pumpOnce();
+        }
+        return done;
+    }
+
+    private static final class Worker implements Runnable {
+        private final String name;
+        private final IdleSignal idle = new IdleSignal();
+        private volatile HeadbandSession[] sessions = NO_SESSIONS;
+        private volatile Thread thread;
+
+        Worker(String name) {
+            this.name = name;
+        }
+
+        // add y remove se llaman con el lock del SessionManager.
+        void add(HeadbandSession session) {
+            final HeadbandSession[] current = sessions;
+            final HeadbandSession[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = session;
+            sessions = next;
+            session.setIdleSignal(idle);
+        }
+
+        void remove(HeadbandSession session) {
+            final HeadbandSession[] current = sessions;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == session) {
+                    final HeadbandSession[] next = new HeadbandSession[current.length - 1];
+                    System.arraycopy(current, 0, next, 0, i);
+                    System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                    sessions = next;
+                    session.setIdleSignal(null);
+                    return;
+                }
+            }
+        }
+
+        void start() {
+            final Thread t = new Thread(this, name);
+            thread = t;
+            t.start();
+        }
+
+        /**
+         * Desde un hilo de sesion, por ejemplo un listener de gestos, no se espera: ese hilo
+         * termina al volver.
+         */
+        void finish() {
+            final Thread t = thread;
+            thread = null;
+            if (t == null) {
+                return;
+            }
+            idle.wake();
+            if (t != Thread.currentThread()) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        int pumpOnce() {
+            final HeadbandSession[] current = sessions;
+            int done = 0;
+            for (HeadbandSession s : current) {
+                done += s.pump(PUMP_BATCH);
+            }
+            return done;
+        }
+
+        int pending() {
+            int n = 0;
+            for (HeadbandSession s : sessions) {
+                n += s.pending();
+            }
+            return n;
+        }
+
+        @Override
+        public void run() {
+            final Thread self = Thread.currentThread();
+            while (thread == self) {
+                if (pumpOnce() == 0) {
+                    idle.prepare();
+                    if (pending() == 0 && thread == self) {
+                        idle.await();
+                    } else {
+                        idle.cancel();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.museui.muse.artuedu.museui;
+
+import java.util.Locale;
+
+/**
+ * Resultado de {@link RecordingAnalyzer} para una grabacion: duracion, paquetes y perdida,
+ * potencia de banda promedio y numero de gestos. Solo guarda numeros, asi que se pueden juntar
+ * los resumenes de cientos de sesiones.
+ *
+ * {@link #header()} y {@link #row()} dan la fila de la tabla de sesiones, separada por
+ * tabuladores.
+ */
+public final class SessionSummary {
+
+    private static final EegBand[] BANDS = EegBand.values();
+    private static final Gesture[] GESTURES = Gesture.values();
+
+    final String name;
+    long bytes;
+    long messages;
+    boolean truncated;
+    long firstMicros;
+    long lastMicros;
+    long eegPackets;
+    long accelerometerPackets;
+    long eegLost;
+    long accelerometerLost;
+    long gaps;
+    long outOfOrder;
+    int degradedEpisodes;
+    int annotations;
+    final double[] relativeMean = new double[BandPowerEngine.BANDS];
+    final double[] absoluteMean = new double[BandPowerEngine.BANDS];
+    final int[] gestures = new int[GESTURES.length];
+    String error;
+
+    SessionSummary(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Resumen de un archivo que no se pudo analizar.
+     */
+    public static SessionSummary failed(String name, String error) {
+        final SessionSummary s = new SessionSummary(name);
+        s.error = error;
+        return s;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    public long messages() {
+        return messages;
+    }
+
+    /**
+     * El ultimo registro estaba incompleto y se ignoro.
+     */
+    public boolean truncated() {
+        return truncated;
+    }
+
+    public double durationSeconds() {
+        return messages == 0 ? 0 : (lastMicros - firstMicros) / 1e6;
+    }
+
+    public long eegPackets() {
+        return eegPackets;
+    }
+
+    public long eegLost() {
+        return eegLost;
+    }
+
+    public long accelerometerPackets() {
+        return accelerometerPackets;
+    }
+
+    public long accelerometerLost() {
+        return accelerometerLost;
+    }
+
+    /**
+     * Huecos de todos los tipos de paquete.
+     */
+    public long gaps() {
+        return gaps;
+    }
+
+    public long outOfOrder() {
+        return outOfOrder;
+    }
+
+    /**
+     * Veces que algun tipo de paquete paso a degradado.
+     */
+    public int degradedEpisodes() {
+        return degradedEpisodes;
+    }
+
+    public int annotations() {
+        return annotations;
+    }
+
+    /**
+     * Potencia relativa promedio de la banda en EEG1-EEG4, NaN sin ventanas validas.
+     */
+    public double relativeMean(EegBand band) {
+        return relativeMean[band.ordinal()];
+    }
+
+    /**
+     * Promedio del log10 de la potencia absoluta de la banda en EEG1-EEG4.
+     */
+    public double absoluteMean(EegBand band) {
+        return absoluteMean[band.ordinal()];
+    }
+
+    public int gestures(Gesture gesture) {
+        return gestures[gesture.ordinal()];
+    }
+
+    /**
+     * Mensaje del error si el archivo no se pudo analizar, o null.
+     */
+    public String error() {
+        return error;
+    }
+
+    /**
+     * Fraccion de paquetes EEG perdidos, de 0 a 1.
+     */
+    public double eegLoss() {
+        final long expected = eegPackets + eegLost;
+        return expected == 0 ? 0 : eegLost / (double) expected;
+    }
+
+    public static String header() {
+        final StringBuilder sb = new StringBuilder("archivo\tbytes\tmensajes\tduracion_s"
+                + "\teeg\teeg_perdidos\teeg_perdida\tacc\tacc_perdidos\thuecos\tfuera_de_orden"
+                + "\tdegradado\tanotaciones\ttruncado");
+        for (EegBand b : BANDS) {
+            sb.append('\t').append(b.name().toLowerCase(Locale.US)).append("_rel");
+        }
+        for (EegBand b : BANDS) {
+            sb.append('\t').append(b.name().toLowerCase(Locale.US)).append("_abs");
+        }
+        for (Gesture g : GESTURES) {
+            sb.append('\t').append(g.name().toLowerCase(Locale.US));
+        }
+        return sb.append("\terror").toString();
+    }
+
+    public String row() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(name).append('\t').append(bytes).append('\t').append(messages).append('\t')
+                .append(String.format(Locale.US, "%.1f", durationSeconds())).append('\t')
+                .append(eegPackets).append('\t').append(eegLost).append('\t')
+                .append(String.format(Locale.US, "%.4f", eegLoss())).append('\t')
+                .append(accelerometerPackets).append('\t').append(accelerometerLost)
+                .append('\t').append(gaps).append('\t').append(outOfOrder).append('\t')
+                .append(degradedEpisodes).append('\t').append(annotations).append('\t')
+                .append(truncated);
+        for (double v : relativeMean) {
+            sb.append('\t').append(String.format(Locale.US, "%.4f", v));
+        }
+        for (double v : absoluteMean) {
+            sb.append('\t').append(String.format(Locale.US, "%.3f", v));
+        }
+        for (int n : gestures) {
+            sb.append('\t').append(n);
+        }
+        return sb.append('\t').append(error == null ? "" : error).toString();
+    }
+}
@@ -0,0 +1,95 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+/**
+ * Perfiles de suscripcion: que tipos de paquete se registran en LibMuse y a que consumidores
+ * (procesamiento, grabacion, IU) va cada uno.
+ *
+ * Un tipo que no esta en el perfil no se registra, asi que sus paquetes no cruzan JNI. Las rutas
+ * de cada tipo son una mascara de bits con {@link #PROCESSING}, {@link #RECORDING} y {@link #UI},
+ * indexada por MuseDataPacketType.ordinal(), que usan {@link FrameDispatcher} y
+ * LibmuseHeadbandSource para despachar sin buscar en cada paquete.
+ */
+public enum SubscriptionProfile {
+
+    /**
+     * Solo el acelerometro, para los gestos y su grafica. Sin grabacion.
+     */
+    GESTURE_ONLY(
+            new Route(MuseDataPacketType.ACCELEROMETER, Route.PROCESSING | Route.UI)),
+
+    /**
+     * Gestos y ALPHA_RELATIVE, que LibMuse ya calcula en la headband, sin el EEG crudo a
+     * 256 Hz. Se graba lo que se recibe y la bateria.
+     */
+    LOW_POWER(
+            new Route(MuseDataPacketType.ACCELEROMETER,
+                    Route.PROCESSING | Route.UI | Route.RECORDING),
+            new Route(MuseDataPacketType.ALPHA_RELATIVE, Route.UI | Route.RECORDING),
+            new Route(MuseDataPacketType.BATTERY, Route.RECORDING)),
+
+    /**
+     * Todo lo que se registraba antes: EEG crudo para el procesamiento y las graficas, y todos
+     * los tipos en la grabacion.
+     */
+    FULL_RESEARCH(
+            new Route(MuseDataPacketType.EEG, Route.PROCESSING | Route.UI | Route.RECORDING),
+            new Route(MuseDataPacketType.ALPHA_RELATIVE, Route.UI | Route.RECORDING),
+            new Route(MuseDataPacketType.ACCELEROMETER,
+                    Route.PROCESSING | Route.UI | Route.RECORDING),
+            new Route(MuseDataPacketType.BATTERY, Route.RECORDING),
+            new Route(MuseDataPacketType.DRL_REF, Route.RECORDING),
+            new Route(MuseDataPacketType.QUANTIZATION, Route.RECORDING));
+
+    public static final int PROCESSING = Route.PROCESSING;
+    public static final int RECORDING = Route.RECORDING;
+    public static final int UI = Route.UI;
+
+    /**
+     * Un tipo de paquete del perfil y sus rutas. Las constantes de un enum no pueden usar sus
+     * campos estaticos en el constructor, por eso las rutas se definen aqui.
+     */
+    private static final class Route {
+        static final int PROCESSING = 1;
+        static final int RECORDING = 1 << 1;
+        static final int UI = 1 << 2;
+
+        final MuseDataPacketType type;
+        final int routes;
+
+        Route(MuseDataPacketType type, int routes) {
+            this.type = type;
+            this.routes = routes;
+        }
+    }
+
+    private final int[] routes = new int[MuseDataPacketType.values().length];
+    private final MuseDataPacketType[] types;
+
+    SubscriptionProfile(Route... table) {
+        types = new MuseDataPacketType[table.length];
+        for (int i = 0; i < table.length; i++) {
+            types[i] = table[i].type;
+            routes[table[i].type.ordinal()] = table[i].routes;
+        }
+    }
+
+    /**
+     * Tipos que se deben registrar en LibMuse.
+     */
+    public MuseDataPacketType[] types() {
+        return types.clone();
+    }
+
+    /**
+     * Rutas de un tipo, 0 si no esta en el perfil.
+     */
+    public int routes(MuseDataPacketType type) {
+        return routes[type.ordinal()];
+    }
+
+    public boolean routes(MuseDataPacketType type, int route) {
+        return (routes[type.ordinal()] & route) != 0;
+    }
+}
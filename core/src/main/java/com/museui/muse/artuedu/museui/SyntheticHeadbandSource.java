@@ -0,0 +1,230 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.ConnectionState;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * HeadbandSource que genera señales sinteticas de EEG, acelerometro y giroscopio, para probar
+ * la carga del procesamiento sin Bluetooth (por ejemplo en CI).
+ *
+ * El EEG (4 canales mas AUX_LEFT y AUX_RIGHT) es una suma de senos configurable mas ruido
+ * gaussiano, a 220, 256 o 500 Hz. El acelerometro y el giroscopio se generan a
+ * {@link #MOTION_RATE} Hz como una linea base mas una oscilacion. Con
+ * {@link #setRealTime(boolean)} en false las muestras se generan tan rapido como el listener las
+ * consuma, con marcas de tiempo que siguen la frecuencia nominal.
+ */
+public final class SyntheticHeadbandSource implements HeadbandSource, Runnable {
+
+    public static final int MOTION_RATE = 52;
+    public static final int EEG_CHANNELS = 6;
+
+    private final String name;
+    private final int eegRate;
+    private final Random random;
+    private final SampleFrame frame = new SampleFrame();
+
+    private double[] eegFrequencies = {10};
+    private double[] eegAmplitudes = {20};
+    private double eegNoise = 5;
+    private double eegOffset = 800;
+
+    private final double[] accelBaseline = {0, 0, 1};
+    private double accelAmplitude = 0.05;
+    private double accelFrequency = 0.5;
+    private double gyroAmplitude = 2;
+    private double gyroFrequency = 0.5;
+
+    private volatile boolean realTime = true;
+    private volatile Listener listener;
+    private volatile ConnectionState state = ConnectionState.DISCONNECTED;
+    private volatile boolean stopped;
+    private Thread thread;
+    private volatile long samples;
+
+    /**
+     * @param name     Nombre de la headband virtual.
+     * @param eegRate  Frecuencia de EEG: 220, 256 o 500 Hz.
+     * @param seed     Semilla del ruido, para generar señales reproducibles.
+     */
+    public SyntheticHeadbandSource(String name, int eegRate, long seed) {
+        if (eegRate != 220 && eegRate != 256 && eegRate != 500) {
+            throw new IllegalArgumentException("frecuencia de EEG no soportada: " + eegRate);
+        }
+        this.name = name;
+        this.eegRate = eegRate;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Crea count headbands virtuales con semillas distintas.
+     */
+    public static List<SyntheticHeadbandSource> create(int count, int eegRate) {
+        final List<SyntheticHeadbandSource> sources = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            sources.add(new SyntheticHeadbandSource("Synthetic-" + i, eegRate, i));
+        }
+        return sources;
+    }
+
+    /**
+     * Componentes senoidales del EEG, en Hz y microvolts.
+     */
+    public void setEegSignal(double[] frequencies, double[] amplitudes, double noise) {
+        if (frequencies.length != amplitudes.length) {
+            throw new IllegalArgumentException("frecuencias y amplitudes no coinciden");
+        }
+        this.eegFrequencies = frequencies.clone();
+        this.eegAmplitudes = amplitudes.clone();
+        this.eegNoise = noise;
+    }
+
+    /**
+     * Linea base en g de cada eje del acelerometro y una oscilacion en el eje X.
+     */
+    public void setAccelSignal(double x, double y, double z, double amplitude, double frequency) {
+        accelBaseline[0] = x;
+        accelBaseline[1] = y;
+        accelBaseline[2] = z;
+        accelAmplitude = amplitude;
+        accelFrequency = frequency;
+    }
+
+    /**
+     * Oscilacion en grados por segundo del giroscopio alrededor del eje Z.
+     */
+    public void setGyroSignal(double amplitude, double frequency) {
+        gyroAmplitude = amplitude;
+        gyroFrequency = frequency;
+    }
+
+    public void setRealTime(boolean realTime) {
+        this.realTime = realTime;
+    }
+
+    public int eegRate() {
+        return eegRate;
+    }
+
+    /**
+     * Muestras emitidas desde la ultima conexion, de todos los tipos.
+     */
+    public long sampleCount() {
+        return samples;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void connect() {
+        if (thread != null && thread.isAlive()) {
+            return;
+        }
+        stopped = false;
+        // Los cambios de conexion, igual que las muestras, se entregan desde el hilo del
+        // generador (ver run).
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        stopped = true;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public ConnectionState connectionState() {
+        return state;
+    }
+
+    @Override
+    public void run() {
+        changeState(ConnectionState.CONNECTING);
+        changeState(ConnectionState.CONNECTED);
+        samples = 0;
+        final long startMicros = System.currentTimeMillis() * 1000;
+        final long startNanos = System.nanoTime();
+        final double eegPeriod = 1.0 / eegRate;
+        final double motionPeriod = 1.0 / MOTION_RATE;
+        double nextMotion = 0;
+        long n = 0;
+        while (!stopped) {
+            final double t = n * eegPeriod;
+            if (realTime) {
+                final long due = startNanos + (long) (t * 1e9);
+                long remaining;
+                while (!stopped && (remaining = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(remaining);
+                }
+            }
+            final long ts = startMicros + (long) (t * 1e6);
+            emitEeg(t, ts);
+            while (nextMotion <= t) {
+                emitMotion(nextMotion, startMicros + (long) (nextMotion * 1e6));
+                nextMotion += motionPeriod;
+            }
+            n++;
+        }
+        changeState(ConnectionState.DISCONNECTED);
+    }
+
+    private void emitEeg(double t, long ts) {
+        frame.set(MuseDataPacketType.EEG, ts, EEG_CHANNELS);
+        for (int c = 0; c < EEG_CHANNELS; c++) {
+            double v = eegOffset + eegNoise * random.nextGaussian();
+            for (int k = 0; k < eegFrequencies.length; k++) {
+                // Cada canal con una fase distinta para que no sean identicos.
+                v += eegAmplitudes[k] * Math.sin(2 * Math.PI * eegFrequencies[k] * t + c);
+            }
+            frame.setValue(c, v);
+        }
+        emit();
+    }
+
+    private void emitMotion(double t, long ts) {
+        frame.set(MuseDataPacketType.ACCELEROMETER, ts, 3);
+        frame.setValue(0, accelBaseline[0]
+                + accelAmplitude * Math.sin(2 * Math.PI * accelFrequency * t));
+        frame.setValue(1, accelBaseline[1]);
+        frame.setValue(2, accelBaseline[2]);
+        emit();
+
+        frame.set(MuseDataPacketType.GYRO, ts, 3);
+        frame.setValue(0, 0);
+        frame.setValue(1, 0);
+        frame.setValue(2, gyroAmplitude * Math.sin(2 * Math.PI * gyroFrequency * t));
+        emit();
+    }
+
+    private void emit() {
+        final Listener l = listener;
+        if (l != null) {
+            l.onSampleFrame(this, frame);
+        }
+        samples++;
+    }
+
+    private void changeState(ConnectionState next) {
+        final ConnectionState previous = state;
+        state = next;
+        final Listener l = listener;
+        if (l != null) {
+            l.onConnectionChanged(this, previous, next);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.ConnectionState;
+
+/**
+ * Estado inmutable de la IU: conexion, movimiento, bloqueo, calibracion y el mensaje de status
+ * que se muestra.
+ *
+ * El procesamiento (cambios de conexion, GestureEngine) produce un nuevo UiState con los
+ * metodos with*, y la IU dibuja el ultimo; como cada instancia es inmutable se puede publicar
+ * entre hilos sin copiarla. El mensaje de status es el del ultimo evento.
+ */
+public final class UiState {
+
+    /**
+     * Mensaje de status. La IU decide el texto de cada uno.
+     */
+    public enum Status {
+        DISCONNECTED,
+        /** Fallo la conexion: se muestra un momento antes de DISCONNECTED. */
+        DISCONNECTING,
+        CONNECTING,
+        CONNECTED,
+        /** Otro estado de conexion de LibMuse (NEEDS_UPDATE, ...). */
+        CONNECTION_OTHER,
+        CALIBRATING,
+        READY,
+        STOP,
+        FORWARD,
+        BACK,
+        RIGHT,
+        LEFT,
+        LOCKED,
+        /** Sigue bloqueado un tiempo despues de LOCKED: se indica como desbloquear. */
+        LOCK_HINT,
+        UNLOCKED
+    }
+
+    public enum Calibration {
+        NONE,
+        CALIBRATING,
+        CALIBRATED
+    }
+
+    public static final UiState INITIAL = new UiState(ConnectionState.DISCONNECTED,
+            Gesture.STOP, false, Calibration.NONE, Status.DISCONNECTED);
+
+    private final ConnectionState connection;
+    private final Gesture motion;
+    private final boolean locked;
+    private final Calibration calibration;
+    private final Status status;
+
+    private UiState(ConnectionState connection, Gesture motion, boolean locked,
+                    Calibration calibration, Status status) {
+        this.connection = connection;
+        this.motion = motion;
+        this.locked = locked;
+        this.calibration = calibration;
+        this.status = status;
+    }
+
+    public ConnectionState connection() {
+        return connection;
+    }
+
+    public boolean connected() {
+        return connection == ConnectionState.CONNECTED;
+    }
+
+    /**
+     * Movimiento actual de la imagen: FORWARD, BACK, LEFT, RIGHT o STOP.
+     */
+    public Gesture motion() {
+        return motion;
+    }
+
+    public boolean locked() {
+        return locked;
+    }
+
+    public Calibration calibration() {
+        return calibration;
+    }
+
+    public Status status() {
+        return status;
+    }
+
+    public UiState withConnection(ConnectionState previous, ConnectionState current) {
+        final Status next;
+        switch (current) {
+            case DISCONNECTED:
+                next = previous == ConnectionState.CONNECTING
+                        ? Status.DISCONNECTING : Status.DISCONNECTED;
+                // Sin conexion no hay movimiento ni calibracion.
+                return new UiState(current, Gesture.STOP, false, Calibration.NONE, next);
+            case CONNECTING:
+                next = Status.CONNECTING;
+                break;
+            case CONNECTED:
+                next = Status.CONNECTED;
+                break;
+            default:
+                next = Status.CONNECTION_OTHER;
+                break;
+        }
+        return new UiState(current, motion, locked, calibration, next);
+    }
+
+    /**
+     * Despues de DISCONNECTING se muestra DISCONNECTED.
+     */
+    public UiState withDisconnectSettled() {
+        if (status != Status.DISCONNECTING) {
+            return this;
+        }
+        return new UiState(connection, motion, locked, calibration, Status.DISCONNECTED);
+    }
+
+    public UiState withGesture(Gesture gesture) {
+        switch (gesture) {
+            case LOCK:
+                return new UiState(connection, Gesture.STOP, true, calibration, Status.LOCKED);
+            case UNLOCK:
+                return new UiState(connection, Gesture.STOP, false, calibration,
+                        Status.UNLOCKED);
+            case FORWARD:
+                return new UiState(connection, gesture, locked, calibration, Status.FORWARD);
+            case BACK:
+                return new UiState(connection, gesture, locked, calibration, Status.BACK);
+            case RIGHT:
+                return new UiState(connection, gesture, locked, calibration, Status.RIGHT);
+            case LEFT:
+                return new UiState(connection, gesture, locked, calibration, Status.LEFT);
+            default:
+                return new UiState(connection, Gesture.STOP, locked, calibration, Status.STOP);
+        }
+    }
+
+    /**
+     * Si sigue bloqueado sin otro mensaje desde LOCKED, se indica como desbloquear.
+     */
+    public UiState withLockHint() {
+        if (!locked || status != Status.LOCKED) {
+            return this;
+        }
+        return new UiState(connection, motion, true, calibration, Status.LOCK_HINT);
+    }
+
+    public UiState withCalibration(boolean calibrated) {
+        return new UiState(connection, motion, locked,
+                calibrated ? Calibration.CALIBRATED : Calibration.CALIBRATING,
+                calibrated ? Status.READY : Status.CALIBRATING);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof UiState)) {
+            return false;
+        }
+        final UiState s = (UiState) o;
+        return connection == s.connection && motion == s.motion && locked == s.locked
+                && calibration == s.calibration && status == s.status;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = connection.hashCode();
+        h = 31 * h + motion.hashCode();
+        h = 31 * h + (locked ? 1 : 0);
+        h = 31 * h + calibration.hashCode();
+        return 31 * h + status.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "UiState{" + connection + ", " + motion + (locked ? ", locked" : "") + ", "
+                + calibration + ", " + status + "}";
+    }
+}
@@ -0,0 +1,174 @@
+package com.museui.muse.artuedu.museui;
+
+/**
+ * Historia reciente de una senal de varios canales para graficarla.
+ *
+ * Guarda las ultimas {@code capacity} muestras de cada canal como float en un solo arreglo
+ * reservado al crearla. {@link #decimate(int, int, int, float[], float[])} reduce una ventana de
+ * muestras a una columna por pixel con el minimo y el maximo de cada columna, asi un pico de una
+ * sola muestra sigue apareciendo aunque haya muchas mas muestras que pixeles.
+ *
+ * No reserva memoria al agregar ni al decimar. No es segura para varios hilos: se escribe y se
+ * lee en el hilo de la IU, despues de sacar las muestras del SampleRingBuffer.
+ */
+public final class WaveformBuffer {
+
+    private final int channels;
+    private final int capacity;
+    // Canal c, muestra i en data[c * capacity + i].
+    private final float[] data;
+    private int head;
+    private long written;
+
+    private float rangeMin;
+    private float rangeMax;
+    // Minimo y maximo de la columna en curso, que acumula scan.
+    private float cMin;
+    private float cMax;
+
+    public WaveformBuffer(int channels, int capacity) {
+        if (channels <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("channels y capacity deben ser positivos");
+        }
+        this.channels = channels;
+        this.capacity = capacity;
+        this.data = new float[channels * capacity];
+    }
+
+    public int channels() {
+        return channels;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Muestras agregadas desde la creacion o el ultimo clear.
+     */
+    public long sampleCount() {
+        return written;
+    }
+
+    /**
+     * Agrega una muestra con los primeros {@link #channels()} valores. NaN marca un valor
+     * ausente.
+     */
+    public void add(double[] values) {
+        for (int c = 0; c < channels; c++) {
+            data[c * capacity + head] = (float) values[c];
+        }
+        if (++head == capacity) {
+            head = 0;
+        }
+        written++;
+    }
+
+    public void clear() {
+        head = 0;
+        written = 0;
+    }
+
+    /**
+     * Reduce las ultimas {@code samples} muestras de un canal a {@code columns} columnas. La
+     * ventana termina en la muestra mas reciente; las columnas que caen antes de la primera
+     * muestra guardada, o que solo tienen NaN, quedan en NaN. Deja el minimo y maximo de toda la
+     * ventana en {@link #rangeMin()} y {@link #rangeMax()}.
+     * @param samples  Tamano de la ventana; a lo mas {@link #capacity()}.
+     * @param min      Minimo de cada columna; al menos columns posiciones.
+     * @param max      Maximo de cada columna; al menos columns posiciones.
+     * @return el numero de columnas con datos.
+     */
+    public int decimate(int channel, int samples, int columns, float[] min, float[] max) {
+        if (samples > capacity) {
+            throw new IllegalArgumentException("ventana mayor que la capacidad: " + samples);
+        }
+        final int base = channel * capacity;
+        // Muestras de la ventana que aun no existen, y posicion en el arreglo de la primera
+        // muestra de la ventana.
+        final int missing = (int) Math.max(0, samples - written);
+        int first = head - samples;
+        if (first < 0) {
+            first += capacity;
+        }
+        // Limites de las columnas, col * samples / columns, calculados sin dividir en cada
+        // columna.
+        final int step = samples / columns;
+        final int remainder = samples % columns;
+        int carry = 0;
+        int from = 0;
+        float lo = Float.POSITIVE_INFINITY;
+        float hi = Float.NEGATIVE_INFINITY;
+        int filled = 0;
+        for (int col = 0; col < columns; col++) {
+            int next = from + step;
+            carry += remainder;
+            if (carry >= columns) {
+                carry -= columns;
+                next++;
+            }
+            // Menos muestras que columnas: la muestra se repite en varias columnas.
+            final int to = Math.max(next, from + 1);
+            final int a = Math.max(from, missing);
+            from = next;
+            cMin = Float.POSITIVE_INFINITY;
+            cMax = Float.NEGATIVE_INFINITY;
+            if (a < to) {
+                // La columna puede cruzar el final del arreglo: se recorre en dos tramos.
+                int start = first + a;
+                if (start >= capacity) {
+                    start -= capacity;
+                }
+                final int end = start + to - a;
+                scan(base + start, base + Math.min(end, capacity));
+                if (end > capacity) {
+                    scan(base, base + end - capacity);
+                }
+            }
+            if (cMin > cMax) {
+                min[col] = Float.NaN;
+                max[col] = Float.NaN;
+                continue;
+            }
+            min[col] = cMin;
+            max[col] = cMax;
+            lo = Math.min(lo, cMin);
+            hi = Math.max(hi, cMax);
+            filled++;
+        }
+        rangeMin = filled > 0 ? lo : Float.NaN;
+        rangeMax = filled > 0 ? hi : Float.NaN;
+        return filled;
+    }
+
+    /**
+     * Acumula en cMin y cMax el minimo y maximo de data[from, to).
+     */
+    private void scan(int from, int to) {
+        float lo = cMin;
+        float hi = cMax;
+        for (int i = from; i < to; i++) {
+            final float v = data[i];
+            // Las comparaciones con NaN son falsas, asi que se ignora.
+            if (v < lo) {
+                lo = v;
+            }
+            if (v > hi) {
+                hi = v;
+            }
+        }
+        cMin = lo;
+        cMax = hi;
+    }
+
+    /**
+     * Minimo de la ultima ventana decimada, o NaN si no tenia datos.
+     */
+    public float rangeMin() {
+        return rangeMin;
+    }
+
+    public float rangeMax() {
+        return rangeMax;
+    }
+}
@@ -0,0 +1,158 @@
+package com.museui.muse.artuedu.museui;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BandPowerEngineTest {
+
+    private static final int THETA = EegBand.THETA.ordinal();
+    private static final int ALPHA = EegBand.ALPHA.ordinal();
+    private static final int BETA = EegBand.BETA.ordinal();
+    private static final int BANDS = BandPowerEngine.BANDS;
+
+    private static final class LastWindow implements BandPowerEngine.Listener {
+        double[] absolute;
+        double[] relative;
+        int windows;
+
+        @Override
+        public void onBandPowers(long timestampMicros, double[] absolute, double[] relative,
+                                 int channels) {
+            this.absolute = absolute.clone();
+            this.relative = relative.clone();
+            windows++;
+        }
+    }
+
+    @Test
+    public void sineLandsInItsBandWithExpectedPower() {
+        BandPowerEngine engine = new BandPowerEngine(256, 3, 256, 32);
+        LastWindow last = new LastWindow();
+        engine.setListener(last);
+        double[] values = new double[3];
+        for (int n = 0; n < 256 * 3; n++) {
+            double t = n / 256.0;
+            values[0] = 800 + 10 * Math.sin(2 * Math.PI * 10 * t);
+            values[1] = 800 + 10 * Math.sin(2 * Math.PI * 20 * t);
+            values[2] = n % 100 == 0 ? Double.NaN : 800;
+            engine.process(n * 3906L, values);
+        }
+        // La primera ventana sale al llenarse y despues una cada hop.
+        assertEquals(1 + (256 * 3 - 256) / 32, last.windows);
+
+        assertTrue(last.relative[ALPHA] > 0.95);
+        // Potencia de un seno de amplitud 10: 10^2 / 2 = 50 uV^2.
+        assertEquals(Math.log10(50), last.absolute[ALPHA], 0.05);
+        assertTrue(last.relative[BANDS + BETA] > 0.95);
+        assertTrue(Double.isNaN(last.absolute[2 * BANDS + ALPHA]));
+    }
+
+    @Test
+    public void forSampleRateUsesAboutOneSecondAndDisjointBands() {
+        assertEquals(256, BandPowerEngine.forSampleRate(220, 1).windowSize());
+        assertEquals(256, BandPowerEngine.forSampleRate(256, 1).windowSize());
+        assertEquals(512, BandPowerEngine.forSampleRate(500, 1).windowSize());
+
+        // A 500 Hz el bin de 7.8 Hz esta en theta (4-8 Hz) y en alpha (7.5-13 Hz); se cuenta
+        // solo en theta.
+        BandPowerEngine engine = BandPowerEngine.forSampleRate(500, 1);
+        LastWindow last = new LastWindow();
+        engine.setListener(last);
+        double[] values = new double[1];
+        double hz = 8 * 500.0 / 512;
+        for (int n = 0; n < 512 * 2; n++) {
+            values[0] = 800 + 10 * Math.sin(2 * Math.PI * hz * n / 500);
+            engine.process(n * 2000L, values);
+        }
+        double sum = 0;
+        for (int b = 0; b < BANDS; b++) {
+            sum += last.relative[b];
+        }
+        assertEquals(1, sum, 1e-9);
+        assertTrue(last.relative[THETA] > 0.8);
+        assertTrue(last.relative[ALPHA] < 0.2);
+    }
+
+    @Test
+    public void spectrumPeaksAtSineFrequency() {
+        BandPowerEngine engine = new BandPowerEngine(256, 2, 256, 64);
+        final double[][] last = new double[1][];
+        engine.setSpectrumListener(new BandPowerEngine.SpectrumListener() {
+            @Override
+            public void onSpectrum(long timestampMicros, double[] spectrum, int bins,
+                                   int channels) {
+                last[0] = spectrum.clone();
+            }
+        });
+        int bins = engine.spectrumBins();
+        // Bins de 1 Hz hasta SPECTRUM_MAX_HZ inclusive.
+        assertEquals(51, bins);
+        double[] values = new double[2];
+        for (int n = 0; n < 512; n++) {
+            values[0] = 800 + 10 * Math.sin(2 * Math.PI * 12 * n / 256.0);
+            values[1] = Double.NaN;
+            engine.process(n * 3906L, values);
+        }
+        int peak = 0;
+        for (int k = 1; k < bins; k++) {
+            if (last[0][k] > last[0][peak]) {
+                peak = k;
+            }
+        }
+        assertEquals(12, peak);
+        assertTrue(Double.isNaN(last[0][bins + 12]));
+    }
+
+    @Test
+    public void fftMatchesDirectDft() {
+        int n = 64;
+        Fft fft = new Fft(n);
+        double[] re = new double[n];
+        double[] im = new double[n];
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = Math.sin(i * 0.3) + 0.5 * Math.cos(i * 1.7) + (i % 5);
+            re[i] = x[i];
+        }
+        fft.transform(re, im);
+        for (int k = 0; k < n; k++) {
+            double r = 0;
+            double m = 0;
+            for (int i = 0; i < n; i++) {
+                r += x[i] * Math.cos(2 * Math.PI * k * i / n);
+                m -= x[i] * Math.sin(2 * Math.PI * k * i / n);
+            }
+            assertEquals(r, re[k], 1e-9);
+            assertEquals(m, im[k], 1e-9);
+        }
+    }
+
+    @Test
+    public void restartedThreadKeepsProcessingAfterStop() throws InterruptedException {
+        BandPowerEngine engine = new BandPowerEngine(256, 1, 64, 64);
+        engine.start();
+        offerAndWait(engine, 0, 1);
+        // stop espera al hilo, asi que el nuevo es el unico consumidor del buffer.
+        engine.stop();
+        engine.start();
+        offerAndWait(engine, 64, 2);
+        engine.stop();
+    }
+
+    private static void offerAndWait(BandPowerEngine engine, int from, long windows)
+            throws InterruptedException {
+        double[] values = new double[1];
+        for (int n = from; n < from + 64; n++) {
+            values[0] = Math.sin(n * 0.5);
+            while (!engine.offer(n * 3906L, values)) {
+                Thread.sleep(1);
+            }
+        }
+        long deadline = System.nanoTime() + 5000000000L;
+        while (engine.windowCount() < windows && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(windows, engine.windowCount());
+    }
+}
@@ -0,0 +1,24 @@
+package com.museui.muse.artuedu.museui;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ColorLutTest {
+
+    @Test
+    public void interpolatesStopsAndClampsRange() {
+        ColorLut lut = new ColorLut(new int[]{0xff000000, 0xffff0000, 0xffffffff}, 0x00000000);
+        lut.setRange(-1, 3);
+        assertEquals(0xff000000, lut.color(-1));
+        assertEquals(0xff000000, lut.color(-100));
+        assertEquals(0xff000000, lut.color(Double.NEGATIVE_INFINITY));
+        assertEquals(0xffffffff, lut.color(3));
+        assertEquals(0xffffffff, lut.color(50));
+        // La mitad del rango cae en el color de paso del medio.
+        int mid = lut.color(1);
+        assertEquals(0xff, (mid >>> 16) & 0xff);
+        assertTrue((mid & 0xff) <= 1);
+        assertEquals(0x00000000, lut.color(Double.NaN));
+    }
+}
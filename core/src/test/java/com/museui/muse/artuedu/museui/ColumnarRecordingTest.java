@@ -0,0 +1,236 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MessageType;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class ColumnarRecordingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static double eeg(int n, int c) {
+        return 800 + 40 * Math.sin(2 * Math.PI * 10 * n / 256.0 + c) + (n * 7 + c) % 13;
+    }
+
+    /**
+     * Escribe rows filas de EEG a 256 Hz, acelerometro cada 5 filas y dos anotaciones.
+     */
+    private static void write(ColumnarRecordingWriter w, int rows) throws IOException {
+        final double[] v = new double[6];
+        w.annotate(0, "Connected");
+        for (int n = 0; n < rows; n++) {
+            for (int c = 0; c < 6; c++) {
+                v[c] = eeg(n, c);
+            }
+            w.add(MuseDataPacketType.EEG, n * 3906L, v, 6);
+            if (n % 5 == 0) {
+                w.add(MuseDataPacketType.ACCELEROMETER, n * 3906L + 1,
+                        new double[]{0.1, -0.2, 0.97}, 3);
+            }
+        }
+        w.annotate(rows * 3906L, "Disconnected");
+    }
+
+    @Test
+    public void columnsRoundTripAtFloatPrecision() throws IOException {
+        File f = folder.newFile("a.mcol");
+        ColumnarRecordingWriter w = new ColumnarRecordingWriter(f, 100);
+        write(w, 1000);
+        w.close();
+
+        ColumnarRecordingReader r = new ColumnarRecordingReader(f);
+        assertFalse(r.recovered());
+        assertEquals(1000, r.rows(MuseDataPacketType.EEG));
+        assertEquals(200, r.rows(MuseDataPacketType.ACCELEROMETER));
+        assertEquals(6, r.channels(MuseDataPacketType.EEG));
+        long[] t = r.timestamps(MuseDataPacketType.EEG);
+        double[] c3 = r.channel(MuseDataPacketType.EEG, 3);
+        for (int n = 0; n < 1000; n++) {
+            assertEquals(n * 3906L, t[n]);
+            assertEquals((float) eeg(n, 3), c3[n], 0);
+        }
+        assertEquals(0.97f, r.channel(MuseDataPacketType.ACCELEROMETER, 2)[199], 0);
+
+        int last = r.blockCount() - 1;
+        assertNull(r.blockType(last));
+        String[] texts = new String[2];
+        assertEquals(2, r.readAnnotations(last, texts, 0));
+        assertEquals("Disconnected", texts[1]);
+        r.close();
+    }
+
+    @Test
+    public void quantizedChannelsStayWithinHalfAStep() throws IOException {
+        File f = folder.newFile("q.mcol");
+        ColumnarRecordingWriter w = new ColumnarRecordingWriter(f);
+        w.setQuantization(MuseDataPacketType.EEG, 0.1);
+        write(w, 2000);
+        w.close();
+
+        ColumnarRecordingReader r = new ColumnarRecordingReader(f);
+        double[] c0 = r.channel(MuseDataPacketType.EEG, 0);
+        for (int n = 0; n < 2000; n++) {
+            assertEquals(eeg(n, 0), c0[n], 0.05 + 1e-9);
+        }
+        r.close();
+    }
+
+    @Test
+    public void missingFooterRecoversCompleteBlocks() throws IOException {
+        File f = folder.newFile("cut.mcol");
+        ColumnarRecordingWriter w = new ColumnarRecordingWriter(f, 100);
+        write(w, 1000);
+        w.close();
+        // Se corta el archivo a la mitad de un bloque, como si la app se hubiera cerrado.
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.setLength(raf.length() / 2);
+        raf.close();
+
+        ColumnarRecordingReader r = new ColumnarRecordingReader(f);
+        assertTrue(r.recovered());
+        int rows = r.rows(MuseDataPacketType.EEG);
+        assertTrue(rows > 0 && rows < 1000);
+        assertEquals(0, rows % 100);
+        long[] t = r.timestamps(MuseDataPacketType.EEG);
+        assertEquals((rows - 1) * 3906L, t[rows - 1]);
+        r.close();
+    }
+
+    @Test
+    public void indexedBlockWithBadCrcIsRejected() throws IOException {
+        File f = folder.newFile("crc.mcol");
+        ColumnarRecordingWriter w = new ColumnarRecordingWriter(f, 100);
+        write(w, 1000);
+        w.close();
+        ColumnarRecordingReader r = new ColumnarRecordingReader(f);
+        int channels = r.blockChannels(0);
+        r.close();
+        // Un byte cambiado en los datos comprimidos del primer bloque; el indice sigue bien.
+        long pos = ColumnarFormat.HEADER_SIZE + ColumnarFormat.blockHeaderSize(channels) + 1;
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.seek(pos);
+        int b = raf.read();
+        raf.seek(pos);
+        raf.write(b ^ 0x55);
+        raf.close();
+
+        r = new ColumnarRecordingReader(f);
+        assertFalse(r.recovered());
+        try {
+            r.readTimestamps(0, new long[r.blockRows(0)], 0);
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("danado"));
+        }
+        // Los demas bloques se siguen leyendo.
+        r.readTimestamps(1, new long[r.blockRows(1)], 0);
+        r.close();
+    }
+
+    @Test
+    public void convertsToMuseAndBack() throws IOException {
+        File col = folder.newFile("a.mcol");
+        ColumnarRecordingWriter w = new ColumnarRecordingWriter(col);
+        write(w, 3000);
+        w.close();
+
+        File muse = folder.newFile("a.muse");
+        assertEquals(3000 + 600 + 2, RecordingConverter.columnarToMuse(col, muse));
+        // El .muse intercala los tipos por marca de tiempo; con la misma marca va primero el
+        // tipo cuyo primer bloque aparece antes en el archivo.
+        MuseRecordingReader mr = new MuseRecordingReader(muse);
+        assertTrue(mr.next());
+        assertEquals(MessageType.EEG, mr.message().type());
+        assertTrue(mr.next());
+        assertEquals(MessageType.ANNOTATION, mr.message().type());
+        assertEquals("Connected", mr.message().annotation());
+        assertTrue(mr.next());
+        assertEquals(MessageType.ACCELEROMETER, mr.message().type());
+        mr.close();
+
+        File back = folder.newFile("b.mcol");
+        assertEquals(3000 + 600 + 2, RecordingConverter.museToColumnar(muse, back));
+        ColumnarRecordingReader r = new ColumnarRecordingReader(back);
+        assertEquals(3000, r.rows(MuseDataPacketType.EEG));
+        assertEquals((float) eeg(2999, 5), r.channel(MuseDataPacketType.EEG, 5)[2999], 0);
+        r.close();
+
+        assertTrue(col.length() + " vs " + muse.length(), col.length() * 2 < muse.length());
+    }
+
+    @Test
+    public void drlRefStoredAsEegConvertsToItsOwnBlocks() throws IOException {
+        // Como MuseFileWriter: DRL_REF en mensajes EEG de dos valores cada 25 muestras.
+        MuseRecordingReaderTest.Encoder e = new MuseRecordingReaderTest.Encoder();
+        for (int n = 0; n < 2560; n++) {
+            final float v = (float) eeg(n, 0);
+            e.record(e.eeg(n / 256.0, v, v, v, v, v, v));
+            if (n % 25 == 0) {
+                e.record(e.eeg(n / 256.0, 1650, 820));
+            }
+        }
+        File col = folder.newFile("drl.mcol");
+        assertEquals(2560 + 103,
+                RecordingConverter.museToColumnar(e.write(folder.newFile()), col));
+        ColumnarRecordingReader r = new ColumnarRecordingReader(col);
+        assertEquals(4, r.blockCount());
+        assertEquals(2560, r.rows(MuseDataPacketType.EEG));
+        assertEquals(103, r.rows(MuseDataPacketType.DRL_REF));
+        assertEquals(2, r.channels(MuseDataPacketType.DRL_REF));
+        final long[] t = r.timestamps(MuseDataPacketType.EEG);
+        final double[] c4 = r.channel(MuseDataPacketType.EEG, 4);
+        for (int n = 1; n < t.length; n++) {
+            assertTrue(t[n] > t[n - 1]);
+            assertFalse(Double.isNaN(c4[n]));
+        }
+        r.close();
+
+        // De vuelta a .muse DRL_REF se guarda igual que MuseFileWriter.
+        File muse = folder.newFile("drl.muse");
+        RecordingConverter.columnarToMuse(col, muse);
+        MuseRecordingReader mr = new MuseRecordingReader(muse);
+        int drlRef = 0;
+        while (mr.next()) {
+            if (mr.message().type() == MessageType.EEG && mr.message().valueCount() == 2) {
+                drlRef++;
+            }
+        }
+        mr.close();
+        assertEquals(103, drlRef);
+    }
+
+    @Test
+    public void changingChannelCountKeepsBlocksOpen() throws IOException {
+        File f = folder.newFile("ch.mcol");
+        ColumnarRecordingWriter w = new ColumnarRecordingWriter(f, 100);
+        for (int n = 0; n < 100; n++) {
+            w.add(MuseDataPacketType.EEG, n * 2, new double[]{n, n, n, n, n, n}, 6);
+            w.add(MuseDataPacketType.EEG, n * 2 + 1, new double[]{n, n, n, n}, 4);
+        }
+        w.close();
+        ColumnarRecordingReader r = new ColumnarRecordingReader(f);
+        assertEquals(2, r.blockCount());
+        assertEquals(200, r.rows(MuseDataPacketType.EEG));
+        r.close();
+
+        File muse = folder.newFile("ch.muse");
+        assertEquals(200, RecordingConverter.columnarToMuse(f, muse));
+        MuseRecordingReader mr = new MuseRecordingReader(muse);
+        long last = -1;
+        while (mr.next()) {
+            assertTrue(mr.message().timestampMicros() > last);
+            last = mr.message().timestampMicros();
+        }
+        mr.close();
+    }
+}
@@ -0,0 +1,78 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameDispatcherTest {
+
+    private static final class Recorder implements FrameDispatcher.Consumer {
+        final String name;
+        final List<String> log;
+
+        Recorder(String name, List<String> log) {
+            this.name = name;
+            this.log = log;
+        }
+
+        @Override
+        public void accept(SampleFrame frame) {
+            log.add(name + ":" + frame.type());
+        }
+    }
+
+    @Test
+    public void fullResearchKeepsThePreviousTypes() {
+        assertEquals(Arrays.asList(MuseDataPacketType.EEG, MuseDataPacketType.ALPHA_RELATIVE,
+                MuseDataPacketType.ACCELEROMETER, MuseDataPacketType.BATTERY,
+                MuseDataPacketType.DRL_REF, MuseDataPacketType.QUANTIZATION),
+                Arrays.asList(SubscriptionProfile.FULL_RESEARCH.types()));
+        assertTrue(SubscriptionProfile.FULL_RESEARCH.routes(MuseDataPacketType.EEG,
+                SubscriptionProfile.RECORDING));
+        assertEquals(0, SubscriptionProfile.GESTURE_ONLY.routes(MuseDataPacketType.EEG));
+        assertFalse(SubscriptionProfile.GESTURE_ONLY.routes(MuseDataPacketType.ACCELEROMETER,
+                SubscriptionProfile.RECORDING));
+    }
+
+    @Test
+    public void onlyRoutesAllowedByTheProfileAreDispatched() {
+        List<String> log = new ArrayList<>();
+        FrameDispatcher d = new FrameDispatcher(SubscriptionProfile.GESTURE_ONLY);
+        assertFalse(d.add(MuseDataPacketType.EEG, SubscriptionProfile.PROCESSING,
+                new Recorder("bands", log)));
+        assertTrue(d.add(MuseDataPacketType.ACCELEROMETER, SubscriptionProfile.PROCESSING,
+                new Recorder("gestures", log)));
+        assertTrue(d.add(MuseDataPacketType.ACCELEROMETER, SubscriptionProfile.UI,
+                new Recorder("plot", log)));
+        assertEquals(0, d.consumerCount(MuseDataPacketType.EEG));
+        assertEquals(2, d.consumerCount(MuseDataPacketType.ACCELEROMETER));
+
+        SampleFrame frame = new SampleFrame();
+        frame.set(MuseDataPacketType.ACCELEROMETER, 0, 3);
+        d.dispatch(frame);
+        frame.set(MuseDataPacketType.EEG, 0, 6);
+        d.dispatch(frame);
+
+        assertEquals(Arrays.asList("gestures:ACCELEROMETER", "plot:ACCELEROMETER"), log);
+        assertEquals(1, d.dispatchedCount());
+        assertEquals(1, d.ignoredCount());
+    }
+
+    @Test
+    public void callbackCostAccumulatesPerType() {
+        CallbackCost cost = new CallbackCost();
+        cost.record(MuseDataPacketType.EEG, 4000);
+        cost.record(MuseDataPacketType.EEG, 2000);
+        assertEquals(2, cost.calls(MuseDataPacketType.EEG));
+        assertEquals(3000, cost.meanNanos(MuseDataPacketType.EEG));
+        assertEquals(4000, cost.maxNanos(MuseDataPacketType.EEG));
+        assertEquals(0, cost.meanNanos(MuseDataPacketType.BATTERY));
+        assertEquals("EEG: 2 llamadas, media 3 us, max 4 us, total 0 ms", cost.summary());
+    }
+}
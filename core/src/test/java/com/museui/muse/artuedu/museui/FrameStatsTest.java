@@ -0,0 +1,38 @@
+package com.museui.muse.artuedu.museui;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameStatsTest {
+
+    private static final long PERIOD = 16666667;
+
+    @Test
+    public void countsJankAndPercentiles() {
+        FrameStats stats = new FrameStats(PERIOD);
+        long t = 0;
+        for (int i = 0; i < 100; i++) {
+            stats.record(t, 1000000);
+            // Uno de cada 20 cuadros se salta un vsync.
+            t += i % 20 == 19 ? 2 * PERIOD : PERIOD;
+        }
+        assertEquals(100, stats.frames());
+        assertEquals(4, stats.jankyFrames());
+        assertEquals(1250000, stats.renderPercentileNanos(.5));
+        assertEquals(2 * PERIOD, stats.maxIntervalNanos());
+        assertTrue(stats.intervalPercentileNanos(.5) >= PERIOD);
+        assertTrue(stats.intervalPercentileNanos(.5) < PERIOD + FrameStats.BUCKET_NANOS);
+    }
+
+    @Test
+    public void pauseDoesNotCountAsJank() {
+        FrameStats stats = new FrameStats(PERIOD);
+        stats.record(0, 0);
+        stats.pause();
+        stats.record(10 * PERIOD, 0);
+        stats.record(11 * PERIOD, 0);
+        assertEquals(0, stats.jankyFrames());
+        assertEquals(PERIOD, stats.maxIntervalNanos());
+    }
+}
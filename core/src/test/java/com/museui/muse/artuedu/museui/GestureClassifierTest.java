@@ -0,0 +1,130 @@
+package com.museui.muse.artuedu.museui;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GestureClassifierTest {
+
+    private static final long PERIOD_52HZ = 19231;
+
+    private long ts;
+
+    /**
+     * Entrega muestras iguales durante millis a la frecuencia dada.
+     * @return el ultimo resultado distinto de RESULT_NONE, o RESULT_NONE.
+     */
+    private int feed(GestureClassifier g, long millis, long periodMicros,
+                     double x, double y) {
+        int last = GestureClassifier.RESULT_NONE;
+        final long end = ts + millis * 1000;
+        while (ts < end) {
+            final int r = g.update(ts, x, y, 1);
+            if (r != GestureClassifier.RESULT_NONE) {
+                last = r;
+            }
+            ts += periodMicros;
+        }
+        return last;
+    }
+
+    private void calibrate(GestureClassifier g) {
+        assertEquals(GestureClassifier.RESULT_CALIBRATED, feed(g,
+                GestureClassifier.DEFAULT_RESTART_DELAY_MILLIS
+                        + GestureClassifier.DEFAULT_CALIBRATION_MILLIS + 40, PERIOD_52HZ, 0, 0));
+        assertTrue(g.calibrated());
+        feed(g, GestureClassifier.DEFAULT_SETTLE_MILLIS + 40, PERIOD_52HZ, 0, 0);
+    }
+
+    @Test
+    public void windowsDependOnTimeNotSampleRate() {
+        long[] periods = {PERIOD_52HZ, 4000, 40000};
+        for (long period : periods) {
+            GestureClassifier g = new GestureClassifier();
+            ts = 5000000;
+            assertEquals(GestureClassifier.RESULT_NONE, feed(g, 990, period, 0, 0));
+            assertEquals(GestureClassifier.RESULT_CALIBRATING, feed(g, 50, period, 0, 0));
+            assertEquals(GestureClassifier.RESULT_NONE, feed(g, 1900, period, 0, 0));
+            assertFalse(g.calibrated());
+            assertEquals(GestureClassifier.RESULT_CALIBRATED, feed(g, 150, period, 0, 0));
+        }
+    }
+
+    @Test
+    public void forwardTogglesMovingWithRefractoryWindow() {
+        GestureClassifier g = new GestureClassifier();
+        calibrate(g);
+        g.update(ts, 0.5, 0, 1);
+        assertEquals(GestureClassifier.MOVE_FORWARD, g.move());
+        // Durante la ventana refractaria la inclinacion no vuelve a cambiar el movimiento.
+        assertEquals(GestureClassifier.RESULT_NONE,
+                g.update(ts + GestureClassifier.DEFAULT_REFRACTORY_MILLIS * 1000 - 1, 0.5, 0, 1));
+        assertEquals(GestureClassifier.MOVE_FORWARD, g.move());
+        ts += GestureClassifier.DEFAULT_REFRACTORY_MILLIS * 1000;
+        assertEquals(GestureClassifier.RESULT_APPLY, g.update(ts, 0, 0, 1));
+
+        g.update(ts + 1000, -0.5, 0, 1);
+        assertEquals(GestureClassifier.MOVE_STOP, g.move());
+    }
+
+    @Test
+    public void rollTurnsOnlyWhenStopped() {
+        GestureClassifier g = new GestureClassifier();
+        calibrate(g);
+        assertEquals(GestureClassifier.RESULT_APPLY, g.update(ts, 0, 0.3, 1));
+        assertEquals(GestureClassifier.MOVE_RIGHT, g.move());
+        g.update(ts + 1000, 0, 0, 1);
+        assertEquals(GestureClassifier.MOVE_STOP, g.move());
+        g.update(ts + 2000, 0, -0.3, 1);
+        assertEquals(GestureClassifier.MOVE_LEFT, g.move());
+    }
+
+    @Test
+    public void forwardAndRollWhileMovingTogglesLock() {
+        GestureClassifier g = new GestureClassifier();
+        calibrate(g);
+        g.update(ts, 0.5, 0, 1);
+        feed(g, GestureClassifier.DEFAULT_REFRACTORY_MILLIS + 20, PERIOD_52HZ, 0, 0);
+        assertEquals(GestureClassifier.RESULT_APPLY, g.update(ts, 0.5, 0.3, 1));
+        assertEquals(GestureClassifier.MOVE_LOCK_TOGGLE, g.move());
+    }
+
+    @Test
+    public void thresholdsFollowCalibrationNoise() {
+        Random random = new Random(1);
+        GestureClassifier g = new GestureClassifier();
+        for (int i = 0; i < 52 * 4; i++) {
+            g.update(ts, 0.1 + 0.02 * random.nextGaussian(), 0.02 * random.nextGaussian(), 1);
+            ts += PERIOD_52HZ;
+        }
+        assertTrue(g.calibrated());
+        assertEquals(0.1, g.commonX(), 0.01);
+        assertEquals(0.20, g.pitchThreshold(), 0.04);
+        assertEquals(0.10, g.rollThreshold(), 0.02);
+
+        GestureClassifier quiet = new GestureClassifier();
+        calibrate(quiet);
+        assertEquals(GestureClassifier.MIN_PITCH_THRESHOLD, quiet.pitchThreshold(), 0);
+        assertEquals(GestureClassifier.MIN_ROLL_THRESHOLD, quiet.rollThreshold(), 0);
+    }
+
+    @Test
+    public void recalibratesWhileIdle() {
+        GestureClassifier g = new GestureClassifier();
+        calibrate(g);
+        // La postura se desplaza dentro del umbral; sin gestos se recalibra.
+        feed(g, GestureClassifier.DEFAULT_CALIBRATION_MILLIS + 100, PERIOD_52HZ, 0.05, 0);
+        assertEquals(1, g.recalibrationCount());
+        assertEquals(0.05, g.commonX(), 0.005);
+        assertEquals(GestureClassifier.MOVE_STOP, g.move());
+
+        // Un gesto reinicia la ventana.
+        feed(g, GestureClassifier.DEFAULT_CALIBRATION_MILLIS / 2, PERIOD_52HZ, 0.05, 0);
+        g.update(ts, 0.05, 0.3, 1);
+        assertEquals(GestureClassifier.MOVE_RIGHT, g.move());
+        feed(g, GestureClassifier.DEFAULT_CALIBRATION_MILLIS / 2 + 100, PERIOD_52HZ, 0.05, 0);
+        assertEquals(1, g.recalibrationCount());
+    }
+}
@@ -0,0 +1,156 @@
+package com.museui.muse.artuedu.museui;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GestureEngineTest {
+
+    private static final class Events implements GestureEngine.Listener {
+        final List<Gesture> gestures = new ArrayList<>();
+        final CountDownLatch calibrated = new CountDownLatch(1);
+        volatile CountDownLatch expected = new CountDownLatch(0);
+
+        @Override
+        public synchronized void onGesture(Gesture gesture, long timestampMicros) {
+            gestures.add(gesture);
+            expected.countDown();
+        }
+
+        @Override
+        public void onCalibrationChanged(boolean calibrated, long timestampMicros) {
+            if (calibrated) {
+                this.calibrated.countDown();
+            }
+        }
+    }
+
+    private long ts;
+
+    private void feed(GestureEngine engine, int samples, double x, double y) {
+        for (int i = 0; i < samples; i++) {
+            engine.process(ts += 19230, x, y, 1);
+        }
+    }
+
+    /**
+     * Muestras a 52 Hz que cubren la espera, la calibracion y el tiempo de espera.
+     */
+    private static final int CALIBRATION_SAMPLES =
+            (int) ((GestureClassifier.DEFAULT_RESTART_DELAY_MILLIS
+                    + GestureClassifier.DEFAULT_CALIBRATION_MILLIS
+                    + GestureClassifier.DEFAULT_SETTLE_MILLIS) * 52 / 1000) + 3;
+
+    private void calibrate(GestureEngine engine) {
+        feed(engine, CALIBRATION_SAMPLES, 0, 0);
+    }
+
+    @Test
+    public void emitsMotionChangesOnly() {
+        GestureEngine engine = new GestureEngine();
+        Events events = new Events();
+        engine.setListener(events);
+        calibrate(engine);
+        assertEquals(0, events.calibrated.getCount());
+
+        feed(engine, 1, 0.5, 0);
+        feed(engine, 30, 0, 0);
+        feed(engine, 1, 0.5, 0);
+        feed(engine, 30, 0, 0);
+        feed(engine, 5, 0, 0.3);
+        feed(engine, 5, 0, 0);
+        assertEquals(Arrays.asList(Gesture.FORWARD, Gesture.STOP, Gesture.RIGHT,
+                Gesture.STOP), events.gestures);
+        assertEquals(Gesture.STOP, engine.motion());
+    }
+
+    @Test
+    public void lockSuppressesMotionUntilUnlocked() {
+        GestureEngine engine = new GestureEngine();
+        Events events = new Events();
+        engine.setListener(events);
+        calibrate(engine);
+
+        // Adelante y despues adelante + derecha: se detiene y se bloquea.
+        feed(engine, 1, 0.5, 0);
+        feed(engine, 30, 0, 0);
+        feed(engine, 1, 0.5, 0.3);
+        assertTrue(engine.locked());
+        feed(engine, 30, 0, 0);
+        feed(engine, 5, 0, -0.3);
+        assertEquals(Arrays.asList(Gesture.FORWARD, Gesture.LOCK),
+                events.gestures);
+    }
+
+    @Test
+    public void degradedLinkStopsMotionUntilRecovered() {
+        GestureEngine engine = new GestureEngine();
+        Events events = new Events();
+        engine.setListener(events);
+        calibrate(engine);
+
+        feed(engine, 1, 0.5, 0);
+        engine.setLinkDegraded(true);
+        feed(engine, 1, 0, 0);
+        feed(engine, 30, 0, 0);
+        feed(engine, 5, 0, 0.3);
+        assertEquals(Arrays.asList(Gesture.FORWARD, Gesture.STOP), events.gestures);
+
+        // Al recuperarse sigue detenido hasta que el clasificador vuelve a STOP.
+        engine.setLinkDegraded(false);
+        feed(engine, 30, 0, 0);
+        feed(engine, 1, 0.5, 0);
+        feed(engine, 30, 0, 0);
+        assertEquals(Arrays.asList(Gesture.FORWARD, Gesture.STOP), events.gestures);
+        feed(engine, 1, 0.5, 0);
+        assertEquals(Arrays.asList(Gesture.FORWARD, Gesture.STOP, Gesture.FORWARD),
+                events.gestures);
+    }
+
+    @Test
+    public void processingThreadConsumesEverySample() throws InterruptedException {
+        GestureEngine engine = new GestureEngine();
+        Events events = new Events();
+        events.expected = new CountDownLatch(1);
+        engine.setListener(events);
+        engine.start();
+        double[] xyz = new double[3];
+        int total = CALIBRATION_SAMPLES;
+        for (int i = 0; i < total; i++) {
+            xyz[2] = 1;
+            while (!engine.offerAccelerometer(i * 19231L, xyz)) {
+                Thread.sleep(1);
+            }
+        }
+        xyz[0] = 0.5;
+        engine.offerAccelerometer(total * 19231L, xyz);
+        assertTrue(events.expected.await(5, TimeUnit.SECONDS));
+        engine.stop();
+        assertEquals(Gesture.FORWARD, events.gestures.get(0));
+        assertEquals(total + 1, engine.processedCount());
+    }
+
+    @Test
+    public void idleThreadWakesOnOfferAndStopWaitsForIt() throws InterruptedException {
+        GestureEngine engine = new GestureEngine();
+        engine.start();
+        // El hilo ya esta bloqueado sin muestras; la siguiente lo despierta.
+        Thread.sleep(50);
+        engine.offerAccelerometer(19231L, new double[]{0, 0, 1});
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (engine.processedCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, engine.processedCount());
+        engine.stop();
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            assertNotEquals("GestureEngine", t.getName());
+        }
+    }
+}
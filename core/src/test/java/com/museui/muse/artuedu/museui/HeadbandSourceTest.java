@@ -0,0 +1,130 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.ConnectionState;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HeadbandSourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final class RecordingListener implements HeadbandSource.Listener {
+        final List<ConnectionState> states = new ArrayList<>();
+        final List<String> stateThreads = new ArrayList<>();
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        volatile int eeg;
+        volatile int accel;
+        volatile int gyro;
+        volatile long lastEegTimestamp = -1;
+        volatile boolean ordered = true;
+
+        @Override
+        public void onSampleFrame(HeadbandSource source, SampleFrame frame) {
+            if (frame.type() == MuseDataPacketType.EEG) {
+                ordered &= frame.timestampMicros() > lastEegTimestamp;
+                lastEegTimestamp = frame.timestampMicros();
+                eeg++;
+            } else if (frame.type() == MuseDataPacketType.ACCELEROMETER) {
+                accel++;
+            } else if (frame.type() == MuseDataPacketType.GYRO) {
+                gyro++;
+            }
+        }
+
+        @Override
+        public synchronized void onConnectionChanged(HeadbandSource source,
+                                                     ConnectionState previous,
+                                                     ConnectionState current) {
+            states.add(current);
+            stateThreads.add(Thread.currentThread().getName());
+            if (current == ConnectionState.DISCONNECTED) {
+                disconnected.countDown();
+            }
+        }
+    }
+
+    @Test
+    public void synthetic_emitsEegAndMotionAtNominalRatio() throws InterruptedException {
+        SyntheticHeadbandSource source = new SyntheticHeadbandSource("s", 256, 1);
+        source.setRealTime(false);
+        RecordingListener listener = new RecordingListener();
+        source.setListener(listener);
+        source.connect();
+        while (listener.eeg < 256 * 20) {
+            Thread.sleep(1);
+        }
+        source.disconnect();
+        assertTrue(listener.disconnected.await(5, TimeUnit.SECONDS));
+
+        assertTrue(listener.ordered);
+        double ratio = (double) listener.eeg / listener.accel;
+        assertEquals(256.0 / SyntheticHeadbandSource.MOTION_RATE, ratio, 0.1);
+        assertEquals(listener.accel, listener.gyro);
+        assertEquals(ConnectionState.CONNECTED, listener.states.get(1));
+        assertEquals(ConnectionState.DISCONNECTED, source.connectionState());
+        // Todos los cambios de conexion llegan desde el hilo del generador.
+        assertEquals(Arrays.asList("s", "s", "s"), listener.stateThreads);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void synthetic_rejectsUnsupportedRate() {
+        new SyntheticHeadbandSource("s", 300, 1);
+    }
+
+    @Test
+    public void replay_disconnectsWhenRecordingEnds() throws Exception {
+        MuseRecordingReaderTest.Encoder e = new MuseRecordingReaderTest.Encoder();
+        for (int i = 0; i < 50; i++) {
+            e.record(e.eeg(i * 0.01, 1, 2, 3, 4), e.accel(i * 0.01, 0, 0, 1));
+        }
+        File f = e.write(folder.newFile("r.muse"));
+
+        ReplayHeadbandSource source = new ReplayHeadbandSource(f);
+        source.engine().setSpeed(ReplayEngine.AS_FAST_AS_POSSIBLE);
+        RecordingListener listener = new RecordingListener();
+        source.setListener(listener);
+        source.connect();
+        assertTrue(listener.disconnected.await(5, TimeUnit.SECONDS));
+
+        assertEquals(50, listener.eeg);
+        assertEquals(50, listener.accel);
+        assertEquals(Arrays.asList(ConnectionState.CONNECTING, ConnectionState.CONNECTED,
+                ConnectionState.DISCONNECTED), listener.states);
+        // Como las muestras, los cambios de conexion llegan desde el hilo de la reproduccion.
+        assertEquals(Arrays.asList("MuseReplay", "MuseReplay", "MuseReplay"),
+                listener.stateThreads);
+        assertEquals(ConnectionState.DISCONNECTED, source.connectionState());
+    }
+
+    @Test
+    public void replay_estimatesEegRateFromRecording() throws Exception {
+        MuseRecordingReaderTest.Encoder e = new MuseRecordingReaderTest.Encoder();
+        for (int i = 0; i < 600; i++) {
+            // Paquetes perdidos y DRL_REF como EEG de dos valores no cambian la estimacion.
+            if (i % 50 != 7) {
+                e.record(e.eeg(i / 500.0, 1, 2, 3, 4));
+            }
+            if (i % 25 == 0) {
+                e.record(e.eeg(i / 500.0, 5, 6));
+            }
+        }
+        assertEquals(500, ReplayHeadbandSource.estimateEegRate(e.write(folder.newFile())));
+
+        MuseRecordingReaderTest.Encoder none = new MuseRecordingReaderTest.Encoder();
+        none.record(none.accel(0, 0, 0, 1));
+        assertEquals(0, ReplayHeadbandSource.estimateEegRate(none.write(folder.newFile())));
+    }
+}
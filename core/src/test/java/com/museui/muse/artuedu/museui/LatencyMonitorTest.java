@@ -0,0 +1,97 @@
+package com.museui.muse.artuedu.museui;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LatencyMonitorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void bucketsCoverEveryValueWithBoundedError() {
+        for (long v = 0; v < 100000; v++) {
+            int b = LogHistogram.bucket(v);
+            assertTrue(v <= LogHistogram.upperBound(b));
+            assertTrue(b == 0 || v > LogHistogram.upperBound(b - 1));
+            assertTrue(LogHistogram.upperBound(b) - v <= v / LogHistogram.SUB_BUCKETS);
+        }
+        assertEquals(Long.MAX_VALUE,
+                LogHistogram.upperBound(LogHistogram.bucket(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentilesAreWithinBucketError() {
+        LogHistogram h = new LogHistogram();
+        for (long v = 1; v <= 1000; v++) {
+            h.record(v * 1000);
+        }
+        assertEquals(1000, h.count());
+        assertEquals(1000000, h.max());
+        assertEquals(500500, h.mean());
+        assertEquals(500000, h.percentile(50), 500000 / LogHistogram.SUB_BUCKETS);
+        assertEquals(990000, h.percentile(99), 990000 / LogHistogram.SUB_BUCKETS);
+        assertEquals(1000000, h.percentile(100));
+        h.reset();
+        assertEquals(0, h.count());
+        assertEquals(0, h.percentile(50));
+    }
+
+    @Test
+    public void disabledMonitorRecordsNothing() {
+        LatencyMonitor m = new LatencyMonitor();
+        m.record(LatencyMonitor.Metric.CALLBACK_EXECUTION, 1000);
+        m.gestureEmitted(1, 2, 3);
+        m.frameRendered(10);
+        for (LatencyMonitor.Metric metric : LatencyMonitor.Metric.values()) {
+            assertEquals(0, m.histogram(metric).count());
+        }
+        assertEquals("", m.summary());
+    }
+
+    @Test
+    public void frameRecordsPendingGestureOnce() {
+        LatencyMonitor m = new LatencyMonitor();
+        m.setEnabled(true);
+        m.gestureEmitted(0, 5, 6);
+        m.frameRendered(100);
+        assertEquals(0, m.histogram(LatencyMonitor.Metric.END_TO_END).count());
+
+        m.gestureEmitted(1000, 3000, 3500);
+        m.frameRendered(10000);
+        m.frameRendered(20000);
+        assertEquals(500, m.histogram(LatencyMonitor.Metric.PROCESSED_TO_GESTURE).max());
+        assertEquals(6500, m.histogram(LatencyMonitor.Metric.GESTURE_TO_FRAME).max());
+        assertEquals(1, m.histogram(LatencyMonitor.Metric.END_TO_END).count());
+        assertEquals(9000, m.histogram(LatencyMonitor.Metric.END_TO_END).max());
+        assertTrue(m.summary().contains("callback -> cuadro"));
+    }
+
+    @Test
+    public void dumpWritesOneLinePerMetric() throws IOException {
+        LatencyMonitor m = new LatencyMonitor();
+        m.setEnabled(true);
+        m.record(LatencyMonitor.Metric.GESTURE_QUEUE_DEPTH, 3);
+        File f = folder.newFile();
+        m.dump(f);
+        List<String> lines = Files.readAllLines(f.toPath(), Charset.forName("UTF-8"));
+        int metrics = 0;
+        for (String line : lines) {
+            if (!line.startsWith("#")) {
+                metrics++;
+            }
+        }
+        assertEquals(LatencyMonitor.Metric.values().length, metrics);
+        assertTrue(lines.contains("GESTURE_QUEUE_DEPTH\tn\t1\t3\t3\t3\t3\t3"));
+        assertTrue(lines.contains("#   3:1"));
+    }
+}
@@ -0,0 +1,121 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LinkQualityMonitorTest {
+
+    private static final MuseDataPacketType EEG = MuseDataPacketType.EEG;
+
+    private final List<String> events = new ArrayList<>();
+
+    private LinkQualityMonitor monitor() {
+        LinkQualityMonitor m = new LinkQualityMonitor();
+        m.setListener(new LinkQualityMonitor.Listener() {
+            @Override
+            public void onLinkQualityChanged(MuseDataPacketType type, boolean degraded,
+                                             String reason) {
+                events.add(type + (degraded ? " degradado" : " recuperado"));
+            }
+        });
+        return m;
+    }
+
+    private static long ts(int n, double hz) {
+        return (long) (n * 1e6 / hz);
+    }
+
+    /**
+     * Paquetes n a n + count a la frecuencia dada, llegando exactamente a tiempo.
+     */
+    private static void feed(LinkQualityMonitor m, MuseDataPacketType type, int n, int count,
+                             double hz) {
+        for (int i = n; i < n + count; i++) {
+            m.onPacket(type, ts(i, hz), 1000 + ts(i, hz) * 1000);
+        }
+    }
+
+    @Test
+    public void steadyStreamHasExpectedRateAndNoLoss() {
+        LinkQualityMonitor m = monitor();
+        m.setExpectedRate(EEG, 256);
+        feed(m, EEG, 0, 256 * 5, 256);
+        assertEquals(256, m.rate(EEG), 0.5);
+        assertEquals(0, m.gaps(EEG));
+        assertEquals(0, m.lostPackets(EEG));
+        assertEquals(0, m.jitterMicros(EEG), 1);
+        assertFalse(m.degraded(EEG));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void gapDegradesAndGoodWindowsRecover() {
+        LinkQualityMonitor m = monitor();
+        m.setExpectedRate(EEG, 256);
+        feed(m, EEG, 0, 300, 256);
+        // Faltan 40 paquetes (mas del 5% de una ventana).
+        feed(m, EEG, 340, 300, 256);
+        assertEquals(1, m.gaps(EEG));
+        assertEquals(40, m.lostPackets(EEG));
+        assertEquals(40 * 1e6 / 256, m.maxGapMicros(EEG), 5000);
+        assertTrue(m.degraded(EEG));
+        feed(m, EEG, 640, 256 * LinkQualityMonitor.RECOVERY_WINDOWS, 256);
+        assertFalse(m.degraded(EEG));
+        assertEquals("[EEG degradado, EEG recuperado]", events.toString());
+    }
+
+    @Test
+    public void lowRateDegradesAndOutOfOrderIsCounted() {
+        LinkQualityMonitor m = monitor();
+        m.setExpectedRate(EEG, 256);
+        // Paquetes cada 1.5 periodos: no son huecos, pero la frecuencia es 171 Hz.
+        feed(m, EEG, 0, 400, 256 / 1.5);
+        assertEquals(0, m.gaps(EEG));
+        assertEquals(171, m.rate(EEG), 1);
+        assertTrue(m.degraded(EEG));
+
+        m.onPacket(EEG, 0, 0);
+        assertEquals(1, m.outOfOrder(EEG));
+    }
+
+    @Test
+    public void periodIsEstimatedWithoutExpectedRate() {
+        LinkQualityMonitor m = monitor();
+        MuseDataPacketType type = MuseDataPacketType.ALPHA_RELATIVE;
+        feed(m, type, 0, 50, 10);
+        feed(m, type, 55, 50, 10);
+        assertEquals(0, m.expectedRate(type), 0);
+        assertEquals(1, m.gaps(type));
+        assertEquals(5, m.lostPackets(type));
+    }
+
+    @Test
+    public void pollDetectsStalledStreamOnce() {
+        LinkQualityMonitor m = monitor();
+        m.setExpectedRate(EEG, 256);
+        m.onPacket(EEG, 0, 1000000);
+        m.poll(1000000 + 500000000L);
+        assertFalse(m.degraded(EEG));
+        m.poll(1000000 + 1000000000L);
+        m.poll(1000000 + 2000000000L);
+        assertTrue(m.degraded(EEG));
+        assertEquals(1, events.size());
+    }
+
+    @Test
+    public void jitterFollowsArrivalVariation() {
+        LinkQualityMonitor m = monitor();
+        for (int i = 0; i < 1000; i++) {
+            // Llegan en rafagas: uno a tiempo y el siguiente 2 ms tarde.
+            m.onPacket(EEG, ts(i, 256), ts(i, 256) * 1000 + (i % 2) * 2000000 + 1);
+        }
+        assertEquals(2000, m.jitterMicros(EEG), 100);
+        assertTrue(m.summary().startsWith("EEG: "));
+    }
+}
@@ -0,0 +1,90 @@
+package com.museui.muse.artuedu.museui;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MotionModelTest {
+
+    /**
+     * Avanza el modelo durante seconds con cuadros de periodNanos, saltandose un cuadro de cada
+     * skipEvery (0 para no saltar).
+     */
+    private static long run(MotionModel m, long start, double seconds, long periodNanos,
+                            int skipEvery) {
+        final long end = start + (long) (seconds * 1e9);
+        long t = start;
+        int frame = 0;
+        while (t < end) {
+            t = Math.min(t + periodNanos, end);
+            frame++;
+            if (skipEvery == 0 || frame % skipEvery != 0 || t == end) {
+                m.advance(t);
+            }
+        }
+        return t;
+    }
+
+    @Test
+    public void distanceDoesNotDependOnFrameRate() {
+        MotionModel at60 = new MotionModel();
+        MotionModel at30 = new MotionModel();
+        MotionModel dropping = new MotionModel();
+        for (MotionModel m : new MotionModel[]{at60, at30, dropping}) {
+            m.setCommand(Gesture.FORWARD);
+            m.advance(0);
+        }
+        run(at60, 0, 1, 16666667, 0);
+        run(at30, 0, 1, 33333333, 0);
+        run(dropping, 0, 1, 16666667, 3);
+
+        // Un cuarto de segundo acelerando (7.5 px) y el resto a 60 px/s.
+        assertEquals(52.5, at60.x(), 1e-3);
+        assertEquals(at60.x(), at30.x(), 1e-3);
+        assertEquals(at60.x(), dropping.x(), 1e-3);
+        assertEquals(0, at60.y(), 1e-6);
+    }
+
+    @Test
+    public void turnsAndMovesAlongHeading() {
+        MotionModel m = new MotionModel();
+        m.setCommand(Gesture.RIGHT);
+        m.advance(0);
+        long t = run(m, 0, 1.125, 16666667, 0);
+        // Un cuarto de segundo acelerando (7.5 grados) y 0.875 s a 60 grados/s.
+        assertEquals(60, m.heading(), 1e-3);
+
+        m.setCommand(Gesture.STOP);
+        t = run(m, t, .5, 16666667, 0);
+        assertEquals(0, m.turnRate(), 0);
+        assertEquals(67.5, m.heading(), 1e-3);
+        assertFalse(m.advance(t + 16666667));
+
+        m.setCommand(Gesture.FORWARD);
+        m.advance(t);
+        run(m, t, 1, 16666667, 0);
+        final double rad = Math.toRadians(67.5);
+        assertEquals(52.5 * Math.cos(rad), m.x(), 1e-3);
+        assertEquals(52.5 * Math.sin(rad), m.y(), 1e-3);
+    }
+
+    @Test
+    public void restartsWithoutJumpAfterIdle() {
+        MotionModel m = new MotionModel();
+        m.setCommand(Gesture.BACK);
+        m.advance(0);
+        long t = run(m, 0, 1, 16666667, 0);
+        m.setCommand(Gesture.STOP);
+        t = run(m, t, 1, 16666667, 0);
+        assertFalse(m.moving());
+        assertEquals(-60, m.x(), 1e-3);
+
+        // Mucho despues: el primer cuadro no avanza y los huecos largos se recortan.
+        m.setCommand(Gesture.BACK);
+        assertTrue(m.advance(t + 10000000000L));
+        assertEquals(-60, m.x(), 1e-3);
+        m.advance(t + 20000000000L);
+        final double dt = MotionModel.MAX_STEP_NANOS / 1e9;
+        assertEquals(-60 - 0.5 * MotionModel.DEFAULT_ACCELERATION * dt * dt, m.x(), 1e-3);
+    }
+}
@@ -0,0 +1,73 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MessageType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class MuseRecordingIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void offsetFor_findsLastEntryAtOrBeforeTime() {
+        MuseRecordingIndex index = new MuseRecordingIndex(2);
+        int eeg = MuseRecordingIndex.typeBit(MessageType.EEG);
+        int acc = MuseRecordingIndex.typeBit(MessageType.ACCELEROMETER);
+        index.add(1000, 0, eeg);
+        index.add(2000, 100, eeg);
+        index.add(3000, 200, eeg | acc);
+        index.add(4000, 300, eeg);
+
+        assertEquals(0, index.offsetFor(500));
+        assertEquals(0, index.offsetFor(1999));
+        assertEquals(100, index.offsetFor(2000));
+        assertEquals(300, index.offsetFor(99999));
+        assertEquals(200, index.offsetFor(1500, MessageType.ACCELEROMETER));
+        assertEquals(200, index.offsetFor(3500, MessageType.ACCELEROMETER));
+        assertEquals(-1, index.offsetFor(4000, MessageType.ACCELEROMETER));
+    }
+
+    @Test
+    public void add_keepsTimestampsNonDecreasing() {
+        MuseRecordingIndex index = new MuseRecordingIndex();
+        index.add(2000, 0, 1);
+        index.add(1500, 10, 1);
+        assertEquals(2000, index.timestampAt(1));
+    }
+
+    @Test
+    public void build_seeksIntoRecording() throws IOException {
+        MuseRecordingReaderTest.Encoder e = new MuseRecordingReaderTest.Encoder();
+        for (int i = 0; i < 100; i++) {
+            e.record(e.eeg(i * 0.1, i), e.accel(i * 0.1, i, 0, 0));
+        }
+        File f = e.write(folder.newFile("s.muse"));
+
+        MuseRecordingIndex index = MuseRecordingIndex.build(f, 1000000);
+        assertEquals(10, index.size());
+
+        MuseRecordingReader reader = new MuseRecordingReader(f);
+        index.seek(reader, 4250000);
+        assertTrue(reader.next());
+        assertEquals(4000000, reader.message().timestampMicros());
+        reader.close();
+
+        File sidecar = MuseRecordingIndex.sidecarFile(f);
+        index.write(sidecar);
+        MuseRecordingIndex copy = MuseRecordingIndex.read(sidecar);
+        assertEquals(index.size(), copy.size());
+        for (int i = 0; i < index.size(); i++) {
+            assertEquals(index.offsetAt(i), copy.offsetAt(i));
+            assertEquals(index.timestampAt(i), copy.timestampAt(i));
+            assertEquals(index.typeMaskAt(i), copy.typeMaskAt(i));
+        }
+    }
+}
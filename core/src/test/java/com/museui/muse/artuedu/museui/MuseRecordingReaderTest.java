@@ -0,0 +1,205 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MessageType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class MuseRecordingReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Codifica registros .muse a mano para no depender de LibMuse en las pruebas.
+     */
+    static final class Encoder {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        static void varint(ByteArrayOutputStream o, long v) {
+            while ((v & ~0x7FL) != 0) {
+                o.write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            o.write((int) v);
+        }
+
+        static void fixed32(ByteArrayOutputStream o, int v) {
+            for (int i = 0; i < 4; i++) {
+                o.write(v >>> (8 * i));
+            }
+        }
+
+        static void fixed64(ByteArrayOutputStream o, long v) {
+            for (int i = 0; i < 8; i++) {
+                o.write((int) (v >>> (8 * i)));
+            }
+        }
+
+        static void bytesField(ByteArrayOutputStream o, int field, byte[] b) {
+            varint(o, (field << 3) | 2);
+            varint(o, b.length);
+            o.write(b, 0, b.length);
+        }
+
+        byte[] museData(MessageType type, double seconds, byte[] payload) {
+            ByteArrayOutputStream d = new ByteArrayOutputStream();
+            varint(d, 1 << 3);
+            varint(d, type.ordinal());
+            varint(d, 3 << 3 | 1);
+            fixed64(d, Double.doubleToLongBits(seconds));
+            bytesField(d, MuseFileFormat.extensionField(type), payload);
+            return d.toByteArray();
+        }
+
+        Encoder record(byte[]... museData) {
+            ByteArrayOutputStream c = new ByteArrayOutputStream();
+            for (byte[] d : museData) {
+                bytesField(c, 1, d);
+            }
+            byte[] body = c.toByteArray();
+            fixed32(out, body.length);
+            out.write(2);
+            out.write(0);
+            out.write(body, 0, body.length);
+            return this;
+        }
+
+        byte[] eeg(double seconds, float... values) {
+            ByteArrayOutputStream p = new ByteArrayOutputStream();
+            ByteArrayOutputStream packed = new ByteArrayOutputStream();
+            for (float v : values) {
+                fixed32(packed, Float.floatToIntBits(v));
+            }
+            bytesField(p, 1, packed.toByteArray());
+            return museData(MessageType.EEG, seconds, p.toByteArray());
+        }
+
+        byte[] accel(double seconds, float x, float y, float z) {
+            ByteArrayOutputStream p = new ByteArrayOutputStream();
+            float[] v = {x, y, z};
+            for (int i = 0; i < 3; i++) {
+                varint(p, (i + 1) << 3 | 5);
+                fixed32(p, Float.floatToIntBits(v[i]));
+            }
+            return museData(MessageType.ACCELEROMETER, seconds, p.toByteArray());
+        }
+
+        byte[] annotation(double seconds, String text) {
+            ByteArrayOutputStream p = new ByteArrayOutputStream();
+            bytesField(p, 1, text.getBytes(StandardCharsets.UTF_8));
+            return museData(MessageType.ANNOTATION, seconds, p.toByteArray());
+        }
+
+        File write(File f) throws IOException {
+            FileOutputStream fos = new FileOutputStream(f);
+            fos.write(out.toByteArray());
+            fos.close();
+            return f;
+        }
+    }
+
+    @Test
+    public void next_decodesAllMessageTypes() throws IOException {
+        Encoder e = new Encoder();
+        e.record(e.eeg(1.5, 1, 2, 3, 4, 5, 6), e.accel(1.5, 0.1f, 0.2f, 0.3f));
+        e.record(e.annotation(2.0, "Disconnected"));
+        File f = e.write(folder.newFile("a.muse"));
+
+        MuseRecordingReader reader = new MuseRecordingReader(f);
+        assertTrue(reader.next());
+        MuseMessage m = reader.message();
+        assertEquals(MessageType.EEG, m.type());
+        assertEquals(1500000, m.timestampMicros());
+        assertEquals(6, m.valueCount());
+        assertEquals(4, m.value(3), 0);
+        assertEquals(0, m.recordOffset());
+
+        assertTrue(reader.next());
+        assertEquals(MessageType.ACCELEROMETER, m.type());
+        assertEquals(3, m.valueCount());
+        assertEquals(0.2f, m.value(1), 1e-6);
+
+        assertTrue(reader.next());
+        assertEquals(MessageType.ANNOTATION, m.type());
+        assertEquals("Disconnected", m.annotation());
+        assertEquals(0, m.valueCount());
+        assertTrue(m.recordOffset() > 0);
+
+        assertFalse(reader.next());
+        assertFalse(reader.truncated());
+        assertEquals(3, reader.messagesRead());
+        reader.close();
+    }
+
+    @Test
+    public void readSamples_returnsOnlyRequestedType() throws IOException {
+        Encoder e = new Encoder();
+        for (int i = 0; i < 10; i++) {
+            e.record(e.eeg(i, i, i, i, i), e.accel(i, i, -i, 0));
+        }
+        File f = e.write(folder.newFile("b.muse"));
+
+        MuseRecordingReader reader = new MuseRecordingReader(f, 64);
+        long[] timestamps = new long[4];
+        double[] values = new double[4 * 3];
+        int total = 0;
+        int rows;
+        while ((rows = reader.readSamples(MessageType.ACCELEROMETER, timestamps, values, 3, 4))
+                > 0) {
+            for (int r = 0; r < rows; r++) {
+                assertEquals((total + r) * 1000000L, timestamps[r]);
+                assertEquals(total + r, values[r * 3], 0);
+                assertEquals(-(total + r), values[r * 3 + 1], 0);
+            }
+            total += rows;
+        }
+        assertEquals(10, total);
+        reader.close();
+    }
+
+    @Test
+    public void next_stopsAtTruncatedRecord() throws IOException {
+        Encoder e = new Encoder();
+        e.record(e.eeg(1, 1, 2, 3, 4));
+        e.record(e.eeg(2, 1, 2, 3, 4));
+        byte[] bytes = e.out.toByteArray();
+        File f = folder.newFile("c.muse");
+        FileOutputStream fos = new FileOutputStream(f);
+        fos.write(bytes, 0, bytes.length - 5);
+        fos.close();
+
+        MuseRecordingReader reader = new MuseRecordingReader(f);
+        assertTrue(reader.next());
+        assertFalse(reader.next());
+        assertTrue(reader.truncated());
+        reader.close();
+    }
+
+    @Test
+    public void seek_restartsAtRecord() throws IOException {
+        Encoder e = new Encoder();
+        e.record(e.eeg(1, 1));
+        e.record(e.eeg(2, 2));
+        File f = e.write(folder.newFile("d.muse"));
+
+        MuseRecordingReader reader = new MuseRecordingReader(f);
+        assertTrue(reader.next());
+        assertTrue(reader.next());
+        long second = reader.message().recordOffset();
+        assertFalse(reader.next());
+        reader.seek(second);
+        assertTrue(reader.next());
+        assertEquals(2, reader.message().value(0), 0);
+        reader.close();
+    }
+}
@@ -0,0 +1,89 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import org.junit.Test;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class PacketRecordPoolTest {
+
+    @Test
+    public void acquire_returnsDistinctRecordsUntilExhausted() {
+        PacketRecordPool pool = new PacketRecordPool(3);
+        IdentityHashMap<SampleFrame, Boolean> seen = new IdentityHashMap<>();
+        for (int i = 0; i < 3; i++) {
+            assertNull(seen.put(pool.acquire(), true));
+        }
+        assertNull(pool.acquire());
+        assertEquals(1, pool.exhaustedCount());
+        assertEquals(3, pool.inUse());
+        assertEquals(1.0, pool.utilisation(), 0);
+
+        SampleFrame r = seen.keySet().iterator().next();
+        pool.release(r);
+        assertSame(r, pool.acquire());
+        assertEquals(3, pool.maxInUse());
+        assertEquals(4, pool.acquiredCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void release_rejectsDoubleRelease() {
+        PacketRecordPool pool = new PacketRecordPool(2);
+        SampleFrame r = pool.acquire();
+        pool.release(r);
+        pool.release(r);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void release_rejectsForeignRecords() {
+        new PacketRecordPool(2).release(new SampleFrame());
+    }
+
+    /**
+     * Un hilo toma y llena registros y otro los devuelve, como el callback de LibMuse y el hilo
+     * de archivos. Ningun registro se entrega dos veces mientras esta en uso.
+     */
+    @Test
+    public void recordsCirculateBetweenThreads() throws InterruptedException {
+        final PacketRecordPool pool = new PacketRecordPool(64);
+        final ArrayBlockingQueue<SampleFrame> handOff = new ArrayBlockingQueue<>(256);
+        final int total = 200000;
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < total; i++) {
+                        SampleFrame r = handOff.take();
+                        if (r.timestampMicros() != i || r.values()[0] != i) {
+                            throw new AssertionError("registro reutilizado en uso: " + i);
+                        }
+                        pool.release(r);
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        };
+        consumer.start();
+        double[] values = new double[1];
+        for (int i = 0; i < total; i++) {
+            SampleFrame r;
+            while ((r = pool.acquire()) == null) {
+                Thread.yield();
+            }
+            values[0] = i;
+            r.set(MuseDataPacketType.EEG, i, values, 1);
+            handOff.put(r);
+        }
+        consumer.join(10000);
+        assertNull(failure.get());
+        assertEquals(0, pool.inUse());
+        assertEquals(total, pool.acquiredCount());
+    }
+}
@@ -0,0 +1,99 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecordingAnalyzerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final int SECONDS = 20;
+
+    /**
+     * EEG de 10 Hz a 256 Hz con un hueco de 64 paquetes y acelerometro a 52 Hz que se inclina
+     * hacia adelante despues de la calibracion.
+     */
+    private File recording() throws IOException {
+        File file = folder.newFile("s.muse");
+        MuseRecordingWriter w = new MuseRecordingWriter(file, 64);
+        double[] eeg = new double[6];
+        double[] xyz = new double[3];
+        int accel = 0;
+        for (int n = 0; n < 256 * SECONDS; n++) {
+            long ts = n * 1000000L / 256;
+            if (n < 2560 || n >= 2560 + 64) {
+                for (int c = 0; c < eeg.length; c++) {
+                    eeg[c] = 800 + 50 * Math.sin(2 * Math.PI * 10 * n / 256);
+                }
+                w.add(MuseDataPacketType.EEG, ts, eeg, eeg.length);
+            }
+            while (accel * 1000000L / 52 <= ts) {
+                xyz[0] = accel == 52 * (SECONDS - 5) ? 0.5 : 0;
+                xyz[2] = 1;
+                w.add(MuseDataPacketType.ACCELEROMETER, accel * 1000000L / 52, xyz, 3);
+                accel++;
+            }
+        }
+        w.annotate((SECONDS - 1) * 1000000L, "Disconnected");
+        w.close();
+        return file;
+    }
+
+    @Test
+    public void summarizesBandsGesturesAndLoss() throws IOException {
+        final List<String> events = new ArrayList<>();
+        SessionSummary s = new RecordingAnalyzer(256, 52).analyze(recording(),
+                new RecordingAnalyzer.Timeline() {
+                    @Override
+                    public void event(long timestampMicros, String kind, String detail) {
+                        events.add(kind + " " + detail);
+                    }
+                });
+        assertNull(s.error());
+        assertEquals(256 * SECONDS - 64, s.eegPackets());
+        assertEquals(64, s.eegLost());
+        assertEquals(0, s.accelerometerLost());
+        assertEquals(1, s.annotations());
+        assertEquals(SECONDS, s.durationSeconds(), 0.1);
+        assertTrue(s.degradedEpisodes() >= 1);
+        assertTrue(s.relativeMean(EegBand.ALPHA) > 0.8);
+        assertEquals(1, s.gestures(Gesture.FORWARD));
+
+        assertTrue(events.contains("gesto FORWARD"));
+        assertTrue(events.contains("anotacion Disconnected"));
+        assertTrue(events.contains("calibracion calibrada"));
+        assertEquals(s.name(), s.row().split("\t")[0]);
+        assertEquals(SessionSummary.header().split("\t").length, s.row().split("\t", -1).length);
+    }
+
+    @Test
+    public void drlRefStoredAsEegIsNotEeg() throws IOException {
+        // Como MuseFileWriter: DRL_REF en mensajes EEG de dos valores cada 25 muestras.
+        MuseRecordingReaderTest.Encoder e = new MuseRecordingReaderTest.Encoder();
+        for (int n = 0; n < 256 * SECONDS; n++) {
+            final double t = n / 256.0;
+            final float v = (float) (800 + 50 * Math.sin(2 * Math.PI * 10 * n / 256));
+            e.record(e.eeg(t, v, v, v, v, v, v));
+            if (n % 25 == 0) {
+                e.record(e.eeg(t, 1650, 820));
+            }
+        }
+        SessionSummary s = new RecordingAnalyzer(256, 52).analyze(e.write(folder.newFile()),
+                null);
+        assertNull(s.error());
+        assertEquals(256 * SECONDS, s.eegPackets());
+        assertEquals(0, s.eegLost());
+        assertEquals(1, s.relativeMean(EegBand.ALPHA), 0.02);
+    }
+}
@@ -0,0 +1,196 @@
+package com.museui.muse.artuedu.museui;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class RecordingPipelineTest {
+
+    /**
+     * Executor que solo ejecuta las tareas cuando la prueba lo indica, para simular un hilo de
+     * escritura lento.
+     */
+    private static final class ManualExecutor implements Executor {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable r) {
+            tasks.add(r);
+        }
+
+        void runAll() {
+            Runnable r;
+            while ((r = tasks.poll()) != null) {
+                r.run();
+            }
+        }
+    }
+
+    private static final class CollectingSink implements RecordingPipeline.Sink<Integer> {
+        final List<Integer> items = new ArrayList<>();
+        int batches;
+
+        @Override
+        public void write(List<Integer> batch) {
+            items.addAll(batch);
+            batches++;
+        }
+    }
+
+    @Test
+    public void offer_handsOffFullBatchesOnly() {
+        ManualExecutor executor = new ManualExecutor();
+        CollectingSink sink = new CollectingSink();
+        RecordingPipeline<Integer> pipeline = new RecordingPipeline<>(sink, executor, 4,
+                60000, 8, RecordingPipeline.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 10; i++) {
+            pipeline.offer(i);
+        }
+        assertEquals(2, pipeline.queueDepth());
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals(8, sink.items.size());
+        assertEquals(2, sink.batches);
+
+        pipeline.flush();
+        executor.runAll();
+        assertEquals(10, sink.items.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, (int) sink.items.get(i));
+        }
+        assertEquals(10, pipeline.writtenCount());
+        assertEquals(0, pipeline.droppedCount());
+    }
+
+    @Test
+    public void offer_handsOffBatchAfterInterval() throws InterruptedException {
+        ManualExecutor executor = new ManualExecutor();
+        CollectingSink sink = new CollectingSink();
+        RecordingPipeline<Integer> pipeline = new RecordingPipeline<>(sink, executor, 100,
+                1, 8, RecordingPipeline.OverflowPolicy.BLOCK);
+        pipeline.offer(1);
+        Thread.sleep(5);
+        pipeline.offer(2);
+        assertEquals(1, pipeline.queueDepth());
+        executor.runAll();
+        assertEquals(2, sink.items.size());
+    }
+
+    @Test
+    public void delayedExecutor_writesOpenBatchAfterIntervalWithoutMoreOffers()
+            throws InterruptedException {
+        final ArrayDeque<Runnable> delayed = new ArrayDeque<>();
+        final List<Long> delays = new ArrayList<>();
+        final ManualExecutor executor = new ManualExecutor();
+        CollectingSink sink = new CollectingSink();
+        RecordingPipeline<Integer> pipeline = new RecordingPipeline<>(sink,
+                new RecordingPipeline.DelayedExecutor() {
+                    @Override
+                    public void execute(Runnable r) {
+                        executor.execute(r);
+                    }
+
+                    @Override
+                    public void executeDelayed(Runnable r, long delayMillis) {
+                        delayed.add(r);
+                        delays.add(delayMillis);
+                    }
+                }, 4, 20, 8, RecordingPipeline.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 6; i++) {
+            pipeline.offer(i);
+        }
+        // Un lote completo en la cola y uno abierto con dos elementos, con una sola entrega
+        // por tiempo programada.
+        assertEquals(1, pipeline.queueDepth());
+        assertEquals(1, delayed.size());
+        assertTrue(delays.get(0) <= 20);
+
+        // Antes del limite solo se vuelve a programar.
+        delayed.poll().run();
+        assertEquals(0, sink.items.size());
+        assertEquals(1, delayed.size());
+
+        Thread.sleep(25);
+        delayed.poll().run();
+        // Se escriben en orden el lote de la cola y el abierto, sin esperar otro offer.
+        assertEquals(6, sink.items.size());
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i, (int) sink.items.get(i));
+        }
+        assertEquals(2, sink.batches);
+        assertEquals(0, pipeline.queueDepth());
+        assertTrue(delayed.isEmpty());
+
+        // La tarea de drain ya no encuentra nada y un flush no repite elementos.
+        executor.runAll();
+        pipeline.flush();
+        executor.runAll();
+        assertEquals(6, pipeline.writtenCount());
+        assertEquals(0, pipeline.droppedCount());
+    }
+
+    @Test
+    public void dropOldest_discardsOldestBatchWhenQueueIsFull() {
+        ManualExecutor executor = new ManualExecutor();
+        CollectingSink sink = new CollectingSink();
+        RecordingPipeline<Integer> pipeline = new RecordingPipeline<>(sink, executor, 2,
+                60000, 2, RecordingPipeline.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 8; i++) {
+            pipeline.offer(i);
+        }
+        assertEquals(2, pipeline.queueDepth());
+        assertEquals(4, pipeline.droppedCount());
+        executor.runAll();
+        assertEquals(4, sink.items.size());
+        assertEquals(4, (int) sink.items.get(0));
+        assertEquals(7, (int) sink.items.get(3));
+    }
+
+    @Test
+    public void coalesce_growsOpenBatchAndThenDropsNewest() {
+        ManualExecutor executor = new ManualExecutor();
+        CollectingSink sink = new CollectingSink();
+        RecordingPipeline<Integer> pipeline = new RecordingPipeline<>(sink, executor, 2,
+                60000, 1, RecordingPipeline.OverflowPolicy.COALESCE);
+        int total = 2 + 2 * RecordingPipeline.COALESCE_FACTOR + 3;
+        for (int i = 0; i < total; i++) {
+            pipeline.offer(i);
+        }
+        assertEquals(3, pipeline.droppedCount());
+        executor.runAll();
+        pipeline.flush();
+        executor.runAll();
+        assertEquals(total - 3, sink.items.size());
+        assertEquals(total - 3, pipeline.writtenCount());
+    }
+
+    @Test
+    public void recycler_receivesEveryWrittenAndDroppedItem() {
+        ManualExecutor executor = new ManualExecutor();
+        CollectingSink sink = new CollectingSink();
+        final List<Integer> recycled = new ArrayList<>();
+        RecordingPipeline<Integer> pipeline = new RecordingPipeline<>(sink, executor, 2,
+                60000, 2, RecordingPipeline.OverflowPolicy.DROP_OLDEST,
+                new RecordingPipeline.Recycler<Integer>() {
+                    @Override
+                    public void recycle(Integer item) {
+                        recycled.add(item);
+                    }
+                });
+        for (int i = 0; i < 9; i++) {
+            pipeline.offer(i);
+        }
+        // Los lotes 0-1 y 2-3 se descartaron.
+        assertEquals(4, recycled.size());
+        executor.runAll();
+        pipeline.flush();
+        executor.runAll();
+        assertEquals(9, recycled.size());
+        assertEquals(5, sink.items.size());
+    }
+}
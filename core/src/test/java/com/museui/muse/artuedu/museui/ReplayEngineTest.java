@@ -0,0 +1,153 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ReplayEngineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final class CountingListener implements ReplayEngine.Listener {
+        int eeg;
+        int accel;
+        int drlRef;
+        int started;
+        long lastTimestamp = -1;
+        long finished = -1;
+        IOException error;
+
+        @Override
+        public void onReplayPacket(MuseDataPacketType type, long timestampMicros,
+                                   double[] values, int count) {
+            assertTrue(timestampMicros >= lastTimestamp);
+            lastTimestamp = timestampMicros;
+            if (type == MuseDataPacketType.EEG) {
+                assertEquals(4, count);
+                assertTrue(Double.isNaN(values[4]));
+                eeg++;
+            } else if (type == MuseDataPacketType.ACCELEROMETER) {
+                assertEquals(3, count);
+                accel++;
+            } else if (type == MuseDataPacketType.DRL_REF) {
+                assertEquals(2, count);
+                drlRef++;
+            }
+        }
+
+        @Override
+        public void onReplayStarted() {
+            assertEquals(-1, finished);
+            started++;
+        }
+
+        @Override
+        public void onReplayError(IOException error) {
+            assertEquals(-1, finished);
+            this.error = error;
+        }
+
+        @Override
+        public void onReplayFinished(long packets) {
+            finished = packets;
+        }
+    }
+
+    private File recording(int seconds) throws IOException {
+        MuseRecordingReaderTest.Encoder e = new MuseRecordingReaderTest.Encoder();
+        for (int i = 0; i < seconds * 100; i++) {
+            e.record(e.eeg(i * 0.01, 1, 2, 3, 4), e.accel(i * 0.01, 0, 0, 1));
+        }
+        e.record(e.annotation(seconds, "fin"));
+        return e.write(folder.newFile());
+    }
+
+    @Test
+    public void run_asFastAsPossibleDeliversEveryPacket() throws IOException {
+        CountingListener listener = new CountingListener();
+        ReplayEngine engine = new ReplayEngine(recording(10), listener);
+        engine.setSpeed(ReplayEngine.AS_FAST_AS_POSSIBLE);
+        long start = System.nanoTime();
+        engine.run();
+        assertTrue(System.nanoTime() - start < 5000000000L);
+        assertEquals(1000, listener.eeg);
+        assertEquals(1000, listener.accel);
+        assertEquals(2000, listener.finished);
+        assertEquals(1, listener.started);
+    }
+
+    @Test
+    public void run_scaledSpeedKeepsTiming() throws IOException {
+        CountingListener listener = new CountingListener();
+        ReplayEngine engine = new ReplayEngine(recording(1), listener);
+        engine.setSpeed(10);
+        long start = System.nanoTime();
+        engine.run();
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        assertTrue("elapsed " + elapsedMillis, elapsedMillis >= 95);
+        assertEquals(200, listener.finished);
+    }
+
+    @Test
+    public void run_reportsUnreadableAndCorruptFiles() throws IOException {
+        CountingListener missing = new CountingListener();
+        new ReplayEngine(new File(folder.getRoot(), "no_existe.muse"), missing).run();
+        assertNotNull(missing.error);
+        assertEquals(0, missing.finished);
+
+        // Un registro completo cuyo contenido no es un mensaje valido.
+        File corrupt = folder.newFile();
+        FileOutputStream out = new FileOutputStream(corrupt);
+        out.write(new byte[]{20, 0, 0, 0, 2, 0});
+        for (int i = 0; i < 20; i++) {
+            out.write(0xFF);
+        }
+        out.close();
+        CountingListener listener = new CountingListener();
+        ReplayEngine engine = new ReplayEngine(corrupt, listener);
+        engine.setSpeed(ReplayEngine.AS_FAST_AS_POSSIBLE);
+        engine.run();
+        assertNotNull(listener.error);
+        assertEquals(0, listener.finished);
+    }
+
+    @Test
+    public void run_honoursRangeWithIndex() throws IOException {
+        File f = recording(10);
+        CountingListener listener = new CountingListener();
+        ReplayEngine engine = new ReplayEngine(f, listener);
+        engine.setSpeed(ReplayEngine.AS_FAST_AS_POSSIBLE);
+        engine.setRange(5000000, 5990000, MuseRecordingIndex.build(f, 500000));
+        engine.run();
+        assertEquals(100, listener.eeg);
+        assertEquals(100, listener.accel);
+    }
+
+    @Test
+    public void run_separatesDrlRefStoredAsEeg() throws IOException {
+        // MuseFileWriter guarda DRL_REF como mensajes EEG de dos valores.
+        MuseRecordingReaderTest.Encoder e = new MuseRecordingReaderTest.Encoder();
+        for (int i = 0; i < 100; i++) {
+            e.record(e.eeg(i * 0.01, 1, 2, 3, 4));
+            if (i % 25 == 0) {
+                e.record(e.eeg(i * 0.01, 900, 800));
+            }
+        }
+        CountingListener listener = new CountingListener();
+        ReplayEngine engine = new ReplayEngine(e.write(folder.newFile()), listener);
+        engine.setSpeed(ReplayEngine.AS_FAST_AS_POSSIBLE);
+        engine.run();
+        assertEquals(100, listener.eeg);
+        assertEquals(4, listener.drlRef);
+        assertEquals(104, listener.finished);
+    }
+}
@@ -0,0 +1,48 @@
+package com.museui.muse.artuedu.museui;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RunningStatsTest {
+
+    @Test
+    public void matchesTwoPassComputation() {
+        Random random = new Random(3);
+        double[] xs = new double[10000];
+        RunningStats stats = new RunningStats();
+        for (int i = 0; i < xs.length; i++) {
+            // Media grande y varianza pequeña: el caso en que la suma de cuadrados pierde precision.
+            xs[i] = 1e6 + 0.01 * random.nextGaussian();
+            stats.add(xs[i]);
+        }
+        double mean = 0;
+        for (double x : xs) {
+            mean += x;
+        }
+        mean /= xs.length;
+        double variance = 0;
+        for (double x : xs) {
+            variance += (x - mean) * (x - mean);
+        }
+        variance /= xs.length - 1;
+
+        assertEquals(xs.length, stats.count());
+        assertEquals(mean, stats.mean(), 1e-8);
+        assertEquals(variance, stats.variance(), variance * 1e-6);
+        assertEquals(0.01, stats.standardDeviation(), 1e-3);
+    }
+
+    @Test
+    public void varianceIsZeroUntilTwoSamples() {
+        RunningStats stats = new RunningStats();
+        assertEquals(0, stats.variance(), 0);
+        stats.add(5);
+        assertEquals(0, stats.variance(), 0);
+        assertEquals(5, stats.mean(), 0);
+        stats.reset();
+        assertEquals(0, stats.count());
+    }
+}
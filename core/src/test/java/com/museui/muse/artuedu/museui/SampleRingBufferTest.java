@@ -0,0 +1,107 @@
+package com.museui.muse.artuedu.museui;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SampleRingBufferTest {
+
+    @Test
+    public void capacity_isRoundedToPowerOfTwo() {
+        assertEquals(64, new SampleRingBuffer(3, 50).capacity());
+        assertEquals(64, new SampleRingBuffer(3, 64).capacity());
+    }
+
+    @Test
+    public void poll_returnsFramesInOrder() {
+        SampleRingBuffer buffer = new SampleRingBuffer(3, 4);
+        double[] frame = new double[3];
+        for (int i = 0; i < 3; i++) {
+            frame[0] = i;
+            frame[1] = i * 10;
+            frame[2] = i * 100;
+            assertTrue(buffer.offer(1000 + i, frame));
+        }
+        assertEquals(3, buffer.size());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(buffer.poll(frame));
+            assertEquals(i, frame[0], 0);
+            assertEquals(i * 10, frame[1], 0);
+            assertEquals(i * 100, frame[2], 0);
+            assertEquals(1000 + i, buffer.lastTimestamp());
+        }
+        assertFalse(buffer.poll(frame));
+    }
+
+    @Test
+    public void offer_countsOverflowWhenFull() {
+        SampleRingBuffer buffer = new SampleRingBuffer(1, 2);
+        double[] frame = new double[1];
+        assertTrue(buffer.offer(0, frame));
+        assertTrue(buffer.offer(1, frame));
+        assertFalse(buffer.offer(2, frame));
+        assertFalse(buffer.offer(3, frame));
+        assertEquals(2, buffer.takeOverflow());
+        assertEquals(0, buffer.overflowCount());
+        assertTrue(buffer.poll(frame));
+        assertTrue(buffer.offer(4, frame));
+    }
+
+    @Test
+    public void drain_wrapsAroundTheEnd() {
+        SampleRingBuffer buffer = new SampleRingBuffer(2, 4);
+        double[] frame = new double[2];
+        for (int i = 0; i < 3; i++) {
+            buffer.offer(i, frame);
+            buffer.poll(frame);
+        }
+        for (int i = 0; i < 4; i++) {
+            frame[0] = i;
+            frame[1] = -i;
+            buffer.offer(i, frame);
+        }
+        double[] frames = new double[8];
+        long[] timestamps = new long[4];
+        assertEquals(4, buffer.drain(frames, timestamps, 4));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, frames[i * 2], 0);
+            assertEquals(-i, frames[i * 2 + 1], 0);
+            assertEquals(i, timestamps[i]);
+        }
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void concurrentProducer_deliversEverySampleOrCountsIt() throws InterruptedException {
+        final SampleRingBuffer buffer = new SampleRingBuffer(3, 256);
+        final int total = 200000;
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                double[] frame = new double[3];
+                for (int i = 0; i < total; i++) {
+                    frame[0] = i;
+                    frame[1] = i;
+                    frame[2] = i;
+                    buffer.offer(i, frame);
+                }
+            }
+        };
+        producer.start();
+        double[] frame = new double[3];
+        long received = 0;
+        long last = -1;
+        while (producer.isAlive() || buffer.size() > 0) {
+            while (buffer.poll(frame)) {
+                assertEquals(frame[0], frame[1], 0);
+                assertEquals(frame[0], frame[2], 0);
+                assertEquals((long) frame[0], buffer.lastTimestamp());
+                assertTrue(buffer.lastTimestamp() > last);
+                last = buffer.lastTimestamp();
+                received++;
+            }
+        }
+        producer.join();
+        assertEquals(total, received + buffer.overflowCount());
+    }
+}
@@ -0,0 +1,255 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.MessageType;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SegmentedRecordingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Escribe cada elemento como una linea en el unico archivo del segmento.
+     */
+    private static final class LineWriter implements SegmentedRecording.SegmentWriter<String> {
+        final FileOutputStream out;
+        long length;
+        boolean fail;
+
+        LineWriter(File file) throws IOException {
+            out = new FileOutputStream(file);
+        }
+
+        @Override
+        public void write(List<String> batch) throws IOException {
+            if (fail) {
+                throw new IOException("disco lleno");
+            }
+            for (String s : batch) {
+                out.write((s + "\n").getBytes("UTF-8"));
+                length += s.length() + 1;
+            }
+            out.flush();
+        }
+
+        @Override
+        public void annotate(String text) throws IOException {
+            write(Collections.singletonList("# " + text));
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private LineWriter last;
+
+    private SegmentedRecording<String> recording(File dir, long maxMillis, long maxBytes) {
+        return new SegmentedRecording<>(dir, "s", new String[]{".txt"},
+                new SegmentedRecording.WriterFactory<String>() {
+                    @Override
+                    public SegmentedRecording.SegmentWriter<String> open(File[] files)
+                            throws IOException {
+                        last = new LineWriter(files[0]);
+                        return last;
+                    }
+                }, maxMillis, maxBytes);
+    }
+
+    @Test
+    public void rollsOverBySizeAndTimeAndRenamesOnCommit() throws IOException {
+        File dir = folder.newFolder();
+        SegmentedRecording<String> r = recording(dir, 1000, 10);
+        long t = 0;
+        r.write(Arrays.asList("abc", "def"), t);
+        assertTrue(new File(dir, "s_0001.txt.part").exists());
+        assertFalse(new File(dir, "s_0001.txt").exists());
+        // 13 bytes >= 10: el segmento se confirma.
+        r.write(Collections.singletonList("ghij"), t);
+        assertFalse(new File(dir, "s_0001.txt.part").exists());
+        assertEquals(13, new File(dir, "s_0001.txt").length());
+
+        r.write(Collections.singletonList("k"), t);
+        r.write(Collections.singletonList("l"), t + TimeUnit.SECONDS.toNanos(1));
+        assertEquals(Arrays.asList(new File(dir, "s_0001.txt"), new File(dir, "s_0002.txt")),
+                r.committedFiles());
+
+        r.write(Collections.singletonList("m"), t);
+        r.annotate("Disconnected");
+        r.commit();
+        assertEquals(3, r.segmentCount());
+        assertEquals(6, r.itemsWritten());
+        assertEquals(2 + 15, new File(dir, "s_0003.txt").length());
+
+        // Una segunda sesion con el mismo nombre no sobrescribe la anterior.
+        assertEquals("s-2", recording(dir, 1000, 10).session());
+    }
+
+    @Test
+    public void writeErrorCommitsWhatWasWrittenAndOpensNewSegment() throws IOException {
+        File dir = folder.newFolder();
+        SegmentedRecording<String> r = recording(dir, 1000, 1000);
+        r.write(Collections.singletonList("a"), 0);
+        last.fail = true;
+        r.write(Collections.singletonList("b"), 0);
+        assertEquals(1, r.errorCount());
+        assertFalse(r.isOpen());
+        assertEquals(2, new File(dir, "s_0001.txt").length());
+        r.write(Collections.singletonList("c"), 0);
+        assertTrue(new File(dir, "s_0002.txt.part").exists());
+    }
+
+    @Test
+    public void recoverTrimsTruncatedSegmentsToCompleteRecords() throws IOException {
+        File dir = folder.newFolder();
+        File muse = new File(dir, "s_0001.muse.part");
+        MuseRecordingWriter mw = new MuseRecordingWriter(muse, 10);
+        File mcol = new File(dir, "s_0001.mcol.part");
+        ColumnarRecordingWriter cw = new ColumnarRecordingWriter(mcol, 100);
+        double[] v = {1, 2, 3, 4, 5, 6};
+        for (int n = 0; n < 1000; n++) {
+            mw.add(MuseDataPacketType.EEG, n * 3906L, v, 6);
+            cw.add(MuseDataPacketType.EEG, n * 3906L, v, 6);
+        }
+        mw.close();
+        cw.close();
+        // Como si la app hubiera muerto a la mitad de un registro y de un bloque.
+        truncate(muse, muse.length() - 7);
+        truncate(mcol, mcol.length() * 2 / 3);
+
+        // El indice de un segmento sin terminar se descarta.
+        File idx = new File(dir, "s_0001.muse.idx.part");
+        new FileOutputStream(idx).close();
+
+        List<IOException> errors = new ArrayList<>();
+        List<File> recovered = SegmentedRecording.recover(dir, errors);
+        assertTrue(errors.isEmpty());
+        assertEquals(2, recovered.size());
+        assertFalse(idx.exists());
+        assertFalse(new File(dir, "s_0001.muse.idx").exists());
+        assertFalse(muse.exists());
+        assertFalse(mcol.exists());
+
+        MuseRecordingReader mr = new MuseRecordingReader(new File(dir, "s_0001.muse"));
+        int messages = 0;
+        while (mr.next()) {
+            assertEquals(MessageType.EEG, mr.message().type());
+            messages++;
+        }
+        assertFalse(mr.truncated());
+        assertEquals(990, messages);
+        mr.close();
+
+        ColumnarRecordingReader cr = new ColumnarRecordingReader(new File(dir, "s_0001.mcol"));
+        assertTrue(cr.recovered());
+        assertEquals(cr.dataEnd(), cr.size());
+        assertEquals(0, cr.rows(MuseDataPacketType.EEG) % 100);
+        cr.close();
+    }
+
+    @Test
+    public void recoverContinuesAfterAFileItCannotRename() throws IOException {
+        File dir = folder.newFolder();
+        File bad = new File(dir, "a.txt.part");
+        File good = new File(dir, "b.txt.part");
+        new FileOutputStream(bad).close();
+        new FileOutputStream(good).close();
+        // Un directorio con el nombre final impide renombrar a.txt.part.
+        File blocker = new File(dir, "a.txt");
+        assertTrue(blocker.mkdir());
+        new FileOutputStream(new File(blocker, "x")).close();
+
+        List<IOException> errors = new ArrayList<>();
+        List<File> recovered = SegmentedRecording.recover(dir, errors);
+        assertEquals(Collections.singletonList(new File(dir, "b.txt")), recovered);
+        assertEquals(1, errors.size());
+        assertTrue(bad.exists());
+    }
+
+    @Test
+    public void writeErrorTrimsPartialMuseRecordBeforeCommitting() throws IOException {
+        File dir = folder.newFolder();
+        final double[] v = {1, 2, 3, 4, 5, 6};
+        SegmentedRecording<Integer> r = new SegmentedRecording<>(dir, "s",
+                new String[]{".muse"}, new SegmentedRecording.WriterFactory<Integer>() {
+                    @Override
+                    public SegmentedRecording.SegmentWriter<Integer> open(final File[] files)
+                            throws IOException {
+                        final MuseRecordingWriter w = new MuseRecordingWriter(files[0], 10);
+                        return new SegmentedRecording.SegmentWriter<Integer>() {
+                            @Override
+                            public void write(List<Integer> batch) throws IOException {
+                                for (int n : batch) {
+                                    if (n < 0) {
+                                        // Medio registro en el disco y luego el error.
+                                        final FileOutputStream out =
+                                                new FileOutputStream(files[0], true);
+                                        out.write(new byte[]{40, 0, 0, 0, 2, 0, 1, 2, 3});
+                                        out.close();
+                                        throw new IOException("disco lleno");
+                                    }
+                                    w.add(MuseDataPacketType.EEG, n * 3906L, v, 6);
+                                }
+                                w.flush();
+                            }
+
+                            @Override
+                            public void annotate(String text) {
+                            }
+
+                            @Override
+                            public long length() {
+                                return files[0].length();
+                            }
+
+                            @Override
+                            public void close() throws IOException {
+                                w.close();
+                            }
+                        };
+                    }
+                }, 1000, 1 << 20);
+        r.write(Arrays.asList(0, 1, 2), 0);
+        r.write(Collections.singletonList(-1), 0);
+        assertEquals(1, r.errorCount());
+
+        File committed = new File(dir, "s_0001.muse");
+        assertEquals(Collections.singletonList(committed), r.committedFiles());
+        MuseRecordingReader reader = new MuseRecordingReader(committed);
+        int messages = 0;
+        while (reader.next()) {
+            messages++;
+        }
+        assertFalse(reader.truncated());
+        assertEquals(3, messages);
+        reader.close();
+    }
+
+    private static void truncate(File f, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.setLength(length);
+        raf.close();
+    }
+}
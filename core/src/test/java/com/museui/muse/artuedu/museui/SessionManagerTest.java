@@ -0,0 +1,138 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.ConnectionState;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SessionManagerTest {
+
+    private static final class CountingRecording implements HeadbandSession.Recording {
+        int closed;
+
+        @Override
+        public void close() {
+            closed++;
+        }
+
+        @Override
+        public long writtenCount() {
+            return 0;
+        }
+
+        @Override
+        public long droppedCount() {
+            return 0;
+        }
+    }
+
+    @Test
+    public void sessionsKeepSeparateBuffersAndCounters() {
+        SessionManager manager = new SessionManager(2);
+        FeedHeadbandSource a = new FeedHeadbandSource("a");
+        FeedHeadbandSource b = new FeedHeadbandSource("b");
+        HeadbandSession sa = manager.add("a", a, 256);
+        HeadbandSession sb = manager.add("b", b, 256);
+        CountingRecording recording = new CountingRecording();
+        sa.setRecording(recording);
+        a.connect();
+        b.connect();
+
+        for (int n = 0; n < 600; n++) {
+            a.eeg(n * 3906L, 800, 6);
+            if (n % 2 == 0) {
+                b.eeg(n * 3906L, 800, 6);
+            }
+        }
+        // El buffer de b alcanza para sus 300 muestras; el de a (512) descarta las demas.
+        assertEquals(600, sa.receivedCount());
+        assertEquals(300, sb.receivedCount());
+        assertEquals(600 - 512, sa.droppedCount());
+        assertEquals(0, sb.droppedCount());
+
+        while (manager.pumpAll() > 0) {
+            // Se vacian los buffers.
+        }
+        assertEquals(512, sa.processedCount());
+        assertEquals(300, sb.processedCount());
+        // Cada sesion con su propio BandPowerEngine: ventana de 256 y una FFT cada 25.
+        assertEquals(1 + (512 - 256) / 25, sa.bandPowers().windowCount());
+        assertEquals(1 + (300 - 256) / 25, sb.bandPowers().windowCount());
+
+        a.disconnect();
+        assertEquals(1, recording.closed);
+
+        manager.remove(sa);
+        assertEquals(1, manager.sessions().size());
+        a.eeg(0, 800, 6);
+        assertEquals(0, manager.pumpAll());
+    }
+
+    @Test
+    public void sharedWorkersKeepUpWithSyntheticHeadbands() throws InterruptedException {
+        SessionManager manager = new SessionManager(2);
+        List<SyntheticHeadbandSource> sources = SyntheticHeadbandSource.create(4, 256);
+        for (SyntheticHeadbandSource s : sources) {
+            manager.add(s.name(), s, 256);
+        }
+        manager.start();
+        for (SyntheticHeadbandSource s : sources) {
+            s.connect();
+        }
+        Thread.sleep(600);
+        for (SyntheticHeadbandSource s : sources) {
+            s.disconnect();
+        }
+        // Los hilos quedan bloqueados sin muestras y despiertan con cada una, asi que terminan
+        // de procesar lo que llego antes del DISCONNECTED sin sondeo.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        for (HeadbandSession session : manager.sessions()) {
+            while ((session.source().connectionState() != ConnectionState.DISCONNECTED
+                    || session.processedCount() < session.receivedCount())
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+        manager.stop();
+
+        for (HeadbandSession session : manager.sessions()) {
+            assertTrue(session.receivedCount() > 100);
+            assertEquals(session.summary(System.nanoTime()),
+                    session.receivedCount(), session.processedCount());
+            assertEquals(0, session.droppedCount());
+        }
+    }
+
+    @Test
+    public void workersStopWhenTheLastSessionIsRemoved() throws InterruptedException {
+        SessionManager manager = new SessionManager(2);
+        FeedHeadbandSource a = new FeedHeadbandSource("a");
+        HeadbandSession session = manager.add("a", a, 256);
+        manager.start();
+        assertEquals(2, workerThreads());
+        a.connect();
+        a.eeg(0, 800, 6);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (session.processedCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, session.processedCount());
+
+        manager.remove(session);
+        assertEquals(0, workerThreads());
+    }
+
+    private static int workerThreads() {
+        int n = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith("SessionWorker-") && t.isAlive()) {
+                n++;
+            }
+        }
+        return n;
+    }
+}
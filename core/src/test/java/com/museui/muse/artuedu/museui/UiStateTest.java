@@ -0,0 +1,53 @@
+package com.museui.muse.artuedu.museui;
+
+import com.choosemuse.libmuse.ConnectionState;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class UiStateTest {
+
+    private static UiState connected() {
+        return UiState.INITIAL
+                .withConnection(ConnectionState.DISCONNECTED, ConnectionState.CONNECTING)
+                .withConnection(ConnectionState.CONNECTING, ConnectionState.CONNECTED);
+    }
+
+    @Test
+    public void connectionStatesMapByEnum() {
+        UiState s = UiState.INITIAL.withConnection(ConnectionState.DISCONNECTED,
+                ConnectionState.CONNECTING);
+        assertEquals(UiState.Status.CONNECTING, s.status());
+        UiState failed = s.withConnection(ConnectionState.CONNECTING,
+                ConnectionState.DISCONNECTED);
+        assertEquals(UiState.Status.DISCONNECTING, failed.status());
+        assertEquals(UiState.Status.DISCONNECTED, failed.withDisconnectSettled().status());
+        assertEquals(UiState.Status.CONNECTION_OTHER, s.withConnection(
+                ConnectionState.CONNECTING, ConnectionState.NEEDS_UPDATE).status());
+        assertTrue(connected().connected());
+    }
+
+    @Test
+    public void lockStopsMotionAndHintOnlyWhileLocked() {
+        UiState s = connected().withCalibration(true).withGesture(Gesture.FORWARD);
+        assertEquals(Gesture.FORWARD, s.motion());
+        s = s.withGesture(Gesture.LOCK);
+        assertTrue(s.locked());
+        assertEquals(Gesture.STOP, s.motion());
+        assertEquals(UiState.Status.LOCK_HINT, s.withLockHint().status());
+        UiState unlocked = s.withGesture(Gesture.UNLOCK);
+        assertFalse(unlocked.locked());
+        assertSame(unlocked, unlocked.withLockHint());
+    }
+
+    @Test
+    public void disconnectResetsSessionState() {
+        UiState s = connected().withCalibration(true).withGesture(Gesture.LEFT)
+                .withConnection(ConnectionState.CONNECTED, ConnectionState.DISCONNECTED);
+        assertEquals(Gesture.STOP, s.motion());
+        assertEquals(UiState.Calibration.NONE, s.calibration());
+        assertEquals(UiState.Status.DISCONNECTED, s.status());
+        assertEquals(UiState.INITIAL, s);
+    }
+}
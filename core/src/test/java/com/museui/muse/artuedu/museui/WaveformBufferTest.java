@@ -0,0 +1,60 @@
+package com.museui.muse.artuedu.museui;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WaveformBufferTest {
+
+    @Test
+    public void decimationKeepsSingleSamplePeaks() {
+        WaveformBuffer b = new WaveformBuffer(2, 1000);
+        double[] v = new double[2];
+        // Mas de una vuelta del buffer, con un pico en la muestra 1700.
+        for (int n = 0; n < 2000; n++) {
+            v[0] = n == 1700 ? 100 : 0;
+            v[1] = n;
+            b.add(v);
+        }
+        float[] min = new float[10];
+        float[] max = new float[10];
+        assertEquals(10, b.decimate(0, 1000, 10, min, max));
+        // La ventana es 1000..1999; el pico cae en la columna 7.
+        assertEquals(100, max[7], 0);
+        assertEquals(0, max[6], 0);
+        assertEquals(100, b.rangeMax(), 0);
+
+        b.decimate(1, 1000, 10, min, max);
+        assertEquals(1000, min[0], 0);
+        assertEquals(1099, max[0], 0);
+        assertEquals(1999, max[9], 0);
+    }
+
+    @Test
+    public void missingSamplesAndNaNLeaveGaps() {
+        WaveformBuffer b = new WaveformBuffer(1, 100);
+        double[] v = new double[1];
+        for (int n = 0; n < 30; n++) {
+            v[0] = n < 10 ? Double.NaN : n;
+            b.add(v);
+        }
+        float[] min = new float[10];
+        float[] max = new float[10];
+        // Ventana de 100 con solo 30 muestras: las 7 primeras columnas no tienen datos y la
+        // octava solo NaN.
+        assertEquals(2, b.decimate(0, 100, 10, min, max));
+        assertTrue(Float.isNaN(min[0]));
+        assertTrue(Float.isNaN(max[7]));
+        assertEquals(10, min[8], 0);
+        assertEquals(29, max[9], 0);
+        assertEquals(10, b.rangeMin(), 0);
+
+        // Menos muestras que columnas: cada muestra ocupa varias columnas.
+        float[] wide = new float[40];
+        float[] wideMax = new float[40];
+        assertEquals(40, b.decimate(0, 20, 40, wide, wideMax));
+        assertEquals(10, wide[0], 0);
+        assertEquals(10, wide[1], 0);
+        assertEquals(29, wide[39], 0);
+    }
+}
@@ -0,0 +1,360 @@
+package com.museui.muse.artuedu.museui;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Analiza en paralelo todas las grabaciones .muse de un directorio (y sus subdirectorios) con
+ * {@link RecordingAnalyzer}: potencia de banda, linea de tiempo de gestos y perdida de paquetes
+ * por sesion, mas una tabla de sesiones y un resumen.
+ *
+ * Los archivos se reparten con un {@link ForkJoinPool}: cada tarea divide su rango de archivos
+ * en dos hasta quedar con uno, y los hilos libres roban las mitades pendientes, asi que una
+ * sesion larga no deja a los demas hilos esperando. Los archivos se analizan de mayor a menor
+ * para que los mas largos no queden al final. Cada archivo se lee en una sola pasada con
+ * memoria acotada y no comparte estado con los demas, por lo que el tiempo escala casi
+ * linealmente con los nucleos hasta que el disco es el limite.
+ *
+ * Los .mcol no se analizan: cada segmento grabado por la app tiene un .muse con los mismos
+ * datos.
+ */
+public final class BatchAnalyzer {
+
+    static final String USAGE = "uso: BatchAnalyzer [--threads N] [--eeg-rate HZ]"
+            + " [--motion-rate HZ] [--out DIRECTORIO] DIRECTORIO";
+
+    private static final String EXTENSION = ".muse";
+
+    private final int eegRate;
+    private final int motionRate;
+    private final File dir;
+    private final File out;
+
+    /**
+     * @param dir  Directorio analizado; los resumenes y las lineas de tiempo usan la ruta de
+     *             cada archivo relativa a el.
+     */
+    BatchAnalyzer(int eegRate, int motionRate, File dir, File out) {
+        this.eegRate = eegRate;
+        this.motionRate = motionRate;
+        this.dir = dir;
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int eegRate = 256;
+        int motionRate = 52;
+        File out = new File("analisis");
+        File dir = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--eeg-rate":
+                        eegRate = Integer.parseInt(args[++i]);
+                        break;
+                    case "--motion-rate":
+                        motionRate = Integer.parseInt(args[++i]);
+                        break;
+                    case "--out":
+                        out = new File(args[++i]);
+                        break;
+                    default:
+                        if (dir != null || args[i].startsWith("--")) {
+                            throw new IllegalArgumentException(args[i]);
+                        }
+                        dir = new File(args[i]);
+                        break;
+                }
+            }
+        } catch (RuntimeException e) {
+            dir = null;
+        }
+        if (dir == null || !dir.isDirectory() || threads < 1) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        if (!out.isDirectory() && !out.mkdirs()) {
+            throw new IOException("no se pudo crear " + out);
+        }
+
+        final List<File> files = new ArrayList<>();
+        collect(dir, files);
+        final BatchAnalyzer analyzer = new BatchAnalyzer(eegRate, motionRate, dir, out);
+        final long start = System.nanoTime();
+        final SessionSummary[] results = analyzer.analyze(files, threads);
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        writeTable(new File(out, "sesiones.tsv"), results);
+        final String report = report(results, seconds, threads);
+        writeText(new File(out, "resumen.txt"), report);
+        System.out.print(report);
+    }
+
+    /**
+     * Grabaciones .muse de un directorio y sus subdirectorios; los .part de grabaciones sin
+     * terminar se ignoran.
+     */
+    static void collect(File dir, List<File> files) {
+        final File[] entries = dir.listFiles();
+        if (entries == null) {
+            return;
+        }
+        for (File f : entries) {
+            if (f.isDirectory()) {
+                collect(f, files);
+            } else if (f.getName().endsWith(EXTENSION)) {
+                files.add(f);
+            }
+        }
+    }
+
+    /**
+     * Analiza los archivos con threads hilos.
+     * @return un resumen por archivo, ordenados por ruta.
+     */
+    SessionSummary[] analyze(List<File> files, int threads) {
+        final File[] bySize = files.toArray(new File[files.size()]);
+        Arrays.sort(bySize, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(b.length(), a.length());
+            }
+        });
+        final SessionSummary[] results = new SessionSummary[bySize.length];
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new AnalyzeTask(bySize, results, 0, bySize.length));
+        } finally {
+            pool.shutdown();
+        }
+
+        final Integer[] order = new Integer[bySize.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return bySize[a].getPath().compareTo(bySize[b].getPath());
+            }
+        });
+        final SessionSummary[] byPath = new SessionSummary[results.length];
+        for (int i = 0; i < order.length; i++) {
+            byPath[i] = results[order[i]];
+        }
+        return byPath;
+    }
+
+    /**
+     * Analiza files[from, to) dejando cada resumen en la misma posicion de results.
+     */
+    final class AnalyzeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final File[] files;
+        final SessionSummary[] results;
+        final int from;
+        final int to;
+
+        AnalyzeTask(File[] files, SessionSummary[] results, int from, int to) {
+            this.files = files;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                results[from] = analyze(files[from]);
+            } else if (to - from > 1) {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new AnalyzeTask(files, results, from, mid),
+                        new AnalyzeTask(files, results, mid, to));
+            }
+        }
+    }
+
+    /**
+     * Analiza un archivo y escribe su linea de tiempo en out con la misma ruta relativa, asi
+     * dos sesiones con el mismo nombre en subdirectorios distintos no se pisan. Un archivo que
+     * no se puede leer queda como un resumen con error, sin detener a los demas.
+     */
+    SessionSummary analyze(File file) {
+        final String name = relativePath(file);
+        TimelineWriter timeline = null;
+        try {
+            final File events = new File(out, name + ".eventos.tsv");
+            final File parent = events.getParentFile();
+            // Otro hilo puede crear el mismo directorio a la vez.
+            if (!parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException("no se pudo crear " + parent);
+            }
+            timeline = new TimelineWriter(events);
+            final SessionSummary s = new RecordingAnalyzer(eegRate, motionRate)
+                    .analyze(file, name, timeline);
+            timeline.close();
+            return s;
+        } catch (IOException | RuntimeException e) {
+            if (timeline != null) {
+                timeline.closeQuietly();
+            }
+            return SessionSummary.failed(name, e.toString());
+        }
+    }
+
+    /**
+     * Ruta del archivo relativa al directorio analizado, con '/' como separador.
+     */
+    String relativePath(File file) {
+        final String base = dir.getAbsoluteFile().toURI().getPath();
+        final String path = file.getAbsoluteFile().toURI().getPath();
+        return path.startsWith(base) ? path.substring(base.length()) : file.getName();
+    }
+
+    /**
+     * Escribe los eventos de una sesion como "timestamp_us\ttipo\tdetalle". El primer error de
+     * escritura se lanza al cerrar.
+     */
+    static final class TimelineWriter implements RecordingAnalyzer.Timeline, Closeable {
+        private final Writer writer;
+        private IOException error;
+
+        TimelineWriter(File file) throws IOException {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                    "UTF-8"));
+            writer.write("timestamp_us\ttipo\tdetalle\n");
+        }
+
+        @Override
+        public void event(long timestampMicros, String kind, String detail) {
+            if (error != null) {
+                return;
+            }
+            try {
+                writer.write(timestampMicros + "\t" + kind + "\t"
+                        + detail.replace('\t', ' ').replace('\n', ' ') + "\n");
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+            if (error != null) {
+                throw error;
+            }
+        }
+
+        void closeQuietly() {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                // El archivo ya tiene un error que se reporta en el resumen.
+            }
+        }
+    }
+
+    static void writeTable(File file, SessionSummary[] results) throws IOException {
+        final StringBuilder sb = new StringBuilder(SessionSummary.header()).append('\n');
+        for (SessionSummary s : results) {
+            sb.append(s.row()).append('\n');
+        }
+        writeText(file, sb.toString());
+    }
+
+    private static void writeText(File file, String text) throws IOException {
+        final Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            w.write(text);
+        } finally {
+            w.close();
+        }
+    }
+
+    /**
+     * Resumen de todas las sesiones: archivos por segundo, perdida total, potencia relativa
+     * promedio por banda (ponderada por duracion) y gestos.
+     */
+    static String report(SessionSummary[] results, double seconds, int threads) {
+        long bytes = 0;
+        long eeg = 0;
+        long eegLost = 0;
+        long accelerometer = 0;
+        long accelerometerLost = 0;
+        int failed = 0;
+        int truncated = 0;
+        int degraded = 0;
+        double duration = 0;
+        final double[] bandSum = new double[BandPowerEngine.BANDS];
+        final double[] bandWeight = new double[BandPowerEngine.BANDS];
+        final long[] gestures = new long[Gesture.values().length];
+        for (SessionSummary s : results) {
+            if (s.error() != null) {
+                failed++;
+                continue;
+            }
+            bytes += s.bytes();
+            eeg += s.eegPackets();
+            eegLost += s.eegLost();
+            accelerometer += s.accelerometerPackets();
+            accelerometerLost += s.accelerometerLost();
+            truncated += s.truncated() ? 1 : 0;
+            degraded += s.degradedEpisodes() > 0 ? 1 : 0;
+            final double d = s.durationSeconds();
+            duration += d;
+            for (EegBand b : EegBand.values()) {
+                final double v = s.relativeMean(b);
+                if (!Double.isNaN(v) && d > 0) {
+                    bandSum[b.ordinal()] += v * d;
+                    bandWeight[b.ordinal()] += d;
+                }
+            }
+            for (Gesture g : Gesture.values()) {
+                gestures[g.ordinal()] += s.gestures(g);
+            }
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%d archivos (%d con error, %d truncados) en %.2f s"
+                        + " con %d hilos: %.1f archivos/s, %.1f MB/s, %.0fx tiempo real\n",
+                results.length, failed, truncated, seconds, threads, results.length / seconds,
+                bytes / 1e6 / seconds, duration / seconds));
+        sb.append(String.format(Locale.US, "%.2f h de grabacion, %.1f MB\n", duration / 3600,
+                bytes / 1e6));
+        sb.append(String.format(Locale.US, "EEG: %d paquetes, %d perdidos (%.2f%%)\n", eeg,
+                eegLost, eeg + eegLost == 0 ? 0 : 100.0 * eegLost / (eeg + eegLost)));
+        sb.append(String.format(Locale.US, "Acelerometro: %d paquetes, %d perdidos (%.2f%%)\n",
+                accelerometer, accelerometerLost, accelerometer + accelerometerLost == 0 ? 0
+                        : 100.0 * accelerometerLost / (accelerometer + accelerometerLost)));
+        sb.append("Sesiones con enlace degradado: ").append(degraded).append('\n');
+        sb.append("Potencia relativa promedio:");
+        for (EegBand b : EegBand.values()) {
+            final double w = bandWeight[b.ordinal()];
+            sb.append(String.format(Locale.US, " %s=%.3f", b.name().toLowerCase(Locale.US),
+                    w > 0 ? bandSum[b.ordinal()] / w : Double.NaN));
+        }
+        sb.append("\nGestos:");
+        for (Gesture g : Gesture.values()) {
+            sb.append(' ').append(g).append('=').append(gestures[g.ordinal()]);
+        }
+        return sb.append('\n').toString();
+    }
+}